@@ -24,7 +24,10 @@ import lngs.util.StatusMessageCallback;
 import lngs.util.ProxyManager;
 import lngs.lotus.LotusNotesManager;
 import lngs.lotus.LotusNotesCalendarEntry;
+import lngs.lotus.LotusNotesFieldProjection;
 import lngs.google.GoogleManager;
+import lngs.google.EventPatch;
+import lngs.google.GoogleTrafficCounter;
 
 import java.io.*;
 import java.text.*;
@@ -287,6 +290,24 @@ public class MainGUI extends javax.swing.JFrame implements StatusMessageCallback
             statusAppendLineDiag("Sync Alarms: " + jCheckBox_SyncAlarms.isSelected());
             statusAppendLineDiag("Sync Days In Past: " + jTextField_SyncDaysInPast.getText());
             statusAppendLineDiag("Sync Days In Future: " + jTextField_SyncDaysInFuture.getText());
+            statusAppendLineDiag("Google Batch Size: " + configMgr.getGoogleBatchSize());
+            statusAppendLineDiag("Google Incremental Listing: " + configMgr.getGoogleIncrementalListing());
+            statusAppendLineDiag("Google Patch Changed Entries: " + configMgr.getGooglePatchChangedEntries());
+            statusAppendLineDiag("Google Write Threads: " + configMgr.getGoogleWriteThreads());
+            statusAppendLineDiag("Google Slim Listing: " + configMgr.getGoogleSlimListing());
+            statusAppendLineDiag("Google Use Extended Properties: " + configMgr.getGoogleUseExtendedProperties());
+            statusAppendLineDiag("Google Recurring Events: " + configMgr.getGoogleRecurringEvents());
+            statusAppendLineDiag("Google Deterministic IDs: " + configMgr.getGoogleDeterministicIds());
+            statusAppendLineDiag("Google Sync Journal: " + configMgr.getGoogleSyncJournal());
+            statusAppendLineDiag("Google State Store: " + configMgr.getGoogleStateStore());
+            statusAppendLineDiag("Google Full Listing Interval: " + configMgr.getGoogleFullListingInterval());
+            statusAppendLineDiag("Lotus Incremental Extraction: " + configMgr.getLotusIncrementalExtraction());
+            statusAppendLineDiag("Lotus Calendar View: " + configMgr.getLotusCalendarView());
+            statusAppendLineDiag("Lotus Formula Extraction: " + configMgr.getLotusFormulaExtraction());
+            statusAppendLineDiag("Lotus Keep Session Open: " + configMgr.getLotusKeepSessionOpen());
+            statusAppendLineDiag("Lotus Extraction Threads: " + configMgr.getLotusExtractionThreads());
+            statusAppendLineDiag("Lotus Entry Cache: " + configMgr.getLotusEntryCache());
+            statusAppendLineDiag("Lotus Entry Cache Saved: " + configMgr.getLotusEntryCacheSaved());
 
             
 
@@ -327,6 +348,17 @@ public class MainGUI extends javax.swing.JFrame implements StatusMessageCallback
             lotusNotesMgr.setMinStartDate(startDate);
             lotusNotesMgr.setMaxEndDate(endDate);
             lotusNotesMgr.setDiagnosticMode(jCheckBox_DiagnosticMode.isSelected());
+            lotusNotesMgr.setIncrementalExtraction(configMgr.getLotusIncrementalExtraction());
+            lotusNotesMgr.setUseCalendarView(configMgr.getLotusCalendarView());
+            lotusNotesMgr.setUseFormulaExtraction(configMgr.getLotusFormulaExtraction());
+            lotusNotesMgr.setKeepSessionOpen(configMgr.getLotusKeepSessionOpen());
+            lotusNotesMgr.setExtractionThreads(configMgr.getLotusExtractionThreads());
+            lotusNotesMgr.setUseEntryCache(configMgr.getLotusEntryCache());
+            lotusNotesMgr.setSaveEntryCache(configMgr.getLotusEntryCacheSaved());
+            lotusNotesMgr.setFieldProjection(new LotusNotesFieldProjection(
+                    jCheckBox_SyncDescription.isSelected(),
+                    jCheckBox_SyncMeetingAttendees.isSelected(),
+                    jCheckBox_SyncLocationAndRoom.isSelected()));
 
             ArrayList<LotusNotesCalendarEntry> lotusCalEntries = lotusNotesMgr.getCalendarEntries();
             statusAppendLine(lotusCalEntries.size() + " Lotus entries found within date range");
@@ -365,19 +397,58 @@ public class MainGUI extends javax.swing.JFrame implements StatusMessageCallback
             googleMgr.setSyncMeetingAttendees(jCheckBox_SyncMeetingAttendees.isSelected());
             googleMgr.setMinStartDate(startDate);
             googleMgr.setMaxEndDate(endDate);
+            googleMgr.setBatchSize(configMgr.getGoogleBatchSize());
+            googleMgr.setIncrementalListing(configMgr.getGoogleIncrementalListing());
+            googleMgr.setWriteThreads(configMgr.getGoogleWriteThreads());
+            googleMgr.setSlimListing(configMgr.getGoogleSlimListing());
+            googleMgr.setUseExtendedProperties(configMgr.getGoogleUseExtendedProperties());
+            googleMgr.setDeterministicIds(configMgr.getGoogleDeterministicIds());
+            googleMgr.setUseSyncJournal(configMgr.getGoogleSyncJournal());
+            googleMgr.setUseStateStore(configMgr.getGoogleStateStore());
+            googleMgr.setFullListingInterval(configMgr.getGoogleFullListingInterval());
+            googleMgr.setExtendedPropertiesCalendarId(configMgr.getGoogleExtendedPropertiesCalendarId());
 
             googleMgr.connect();
 
+            int resumedCount = googleMgr.resumeSyncJournal();
+            if (resumedCount > 0) {
+                statusAppendLine(resumedCount + " Google changes from an unfinished sync were completed");
+            }
+
 //if (true) {statusAppendLineDiag("DEBUG: Done logging into Google. Stopping sync."); return;}
 
             ArrayList<Event> googleCalEntries = googleMgr.getCalendarEntries();
 
+            // Remember the calendar whose existing entries were given extended
+            // properties, so they aren't migrated again
+            if (!googleMgr.getExtendedPropertiesCalendarId().equals(configMgr.getGoogleExtendedPropertiesCalendarId())) {
+                configMgr.setGoogleExtendedPropertiesCalendarId(googleMgr.getExtendedPropertiesCalendarId());
+                configMgr.writeConfig();
+            }
+
             statusAppendLine(googleCalEntries.size() + " Google entries found within date range");
 
+            if (configMgr.getGoogleRecurringEvents()) {
+                int combinedCount = googleMgr.combineRepeatingEntries(lotusCalEntries);
+                statusAppendLineDiag("Combined " + combinedCount + " repeating Lotus entries into recurring Google entries");
+            }
+
+            ArrayList<EventPatch> googlePatchEntries = null;
+            if (configMgr.getGooglePatchChangedEntries()) {
+                googlePatchEntries = new ArrayList<EventPatch>();
+            }
+
             statusAppendStart("Comparing Lotus Notes and Google calendar entries");
-            googleMgr.compareCalendarEntries(lotusCalEntries, googleCalEntries);
+            googleMgr.compareCalendarEntries(lotusCalEntries, googleCalEntries, googlePatchEntries);
             statusAppendFinished();
-            statusAppendLine(lotusCalEntries.size() + " Google entries to create. " + googleCalEntries.size() + " entries to delete.");
+            if (googlePatchEntries == null) {
+                statusAppendLine(lotusCalEntries.size() + " Google entries to create. " + googleCalEntries.size() + " entries to delete.");
+            } else {
+                statusAppendLine(lotusCalEntries.size() + " Google entries to create. " + googleCalEntries.size() + " entries to delete. " +
+                        googlePatchEntries.size() + " entries to update.");
+            }
+
+            googleMgr.beginSyncJournal(googleCalEntries, googlePatchEntries, lotusCalEntries);
 
 //googleService.createSampleGEntry();
 //if (true) {statusAppendLineDiag("DEBUG: Done comparing entries. Stopping sync."); return;}
@@ -389,6 +460,13 @@ public class MainGUI extends javax.swing.JFrame implements StatusMessageCallback
                 statusAppendLine(deleteCount + " Google entries deleted");
             }
 
+            if (googlePatchEntries != null && googlePatchEntries.size() > 0) {
+                statusAppendStart("Updating changed Google calendar entries");
+                int patchedCount = googleMgr.patchCalendarEntries(googlePatchEntries);
+                statusAppendFinished();
+                statusAppendLine(patchedCount + " Google entries updated");
+            }
+
             if (lotusCalEntries.size() > 0) {
                 statusAppendStart("Creating new Google calendar entries");
                 int createdCount = 0;
@@ -396,6 +474,9 @@ public class MainGUI extends javax.swing.JFrame implements StatusMessageCallback
                 statusAppendFinished();
                 statusAppendLine(createdCount + " Google entries created");
             }
+
+            googleMgr.finishSyncJournal();
+            googleMgr.finishStateStore();
         } catch (IOException ex) {
             caughtEx = ex;
         } catch (InterruptedException ex) {
@@ -414,6 +495,16 @@ public class MainGUI extends javax.swing.JFrame implements StatusMessageCallback
                 statusBarSet("Sync success");
             }
 
+            GoogleTrafficCounter trafficCounter = googleMgr.getTrafficCounter();
+            if (trafficCounter != null && trafficCounter.getResponseCount() > 0) {
+                statusAppendLineDiag("Google traffic: " + trafficCounter.getResponseCount() + " responses, " +
+                        trafficCounter.getBytesReceived() + " bytes received");
+            }
+
+            if (googleMgr.getRetryCount() > 0) {
+                statusAppendLine(googleMgr.getRetryCount() + " Google calls were retried");
+            }
+
             long elapsedMillis = System.currentTimeMillis() - startTime;
             BigDecimal elapsedSecs = new BigDecimal(elapsedMillis / 1000.0).setScale(1, BigDecimal.ROUND_HALF_UP);
             statusAppendLine("Finished sync (" + elapsedSecs + " s total) - " + dfShort.format(new Date()) + " " + tfDefault.format(new Date()));
@@ -1243,6 +1334,7 @@ public class MainGUI extends javax.swing.JFrame implements StatusMessageCallback
             return;
         }
 
+        lotusNotesMgr.closeSession();
         System.exit(ExitCodes.SUCCESS.ordinal());
     }//GEN-LAST:event_formWindowClosed
 
@@ -0,0 +1,120 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+
+import java.io.IOException;
+
+/**
+ * One call inside a Google batch request. Each part remembers the entry it
+ * was created for, so the per-part response can be mapped back to that entry
+ * and only the failed parts are sent again.
+ */
+public abstract class BatchPart<T> extends JsonBatchCallback<T> {
+    protected boolean succeeded = false;
+    protected GoogleJsonError error = null;
+    protected HttpHeaders errorHeaders = null;
+
+    /**
+     * Add the API call for this part to the batch.
+     */
+    public abstract void queue(BatchRequest batch) throws IOException;
+
+    /**
+     * A short description of the part, used in status and error messages.
+     */
+    public abstract String getDescription();
+
+    /**
+     * Called when Google accepted the call.
+     */
+    protected void handleSuccess(T result) {
+    }
+
+    /**
+     * Returns true if a failure response still means the work is done, e.g. a
+     * delete of an entry that is already gone.
+     */
+    protected boolean isFailureSuccess(GoogleJsonError e) {
+        return false;
+    }
+
+    /**
+     * Returns false if the part can't be sent again when its batch request got
+     * no response, because the call may already have been made and making it
+     * twice isn't safe, e.g. an insert that lets Google pick the ID.
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * Called when the batch request of a part that isn't repeatable got no
+     * response. The call may or may not have been made.
+     */
+    protected void handleUnknownOutcome() {
+    }
+
+    /**
+     * Returns true if Google answered this part in the last attempt, either
+     * with a result or an error.
+     */
+    public boolean hasResponse() {
+        return succeeded || (error != null);
+    }
+
+    /**
+     * Called when the part failed with an error that isn't retried. Returns true
+     * if the part changed itself so that sending it again will work, e.g. a create
+     * of an entry that already exists becomes an update.
+     */
+    protected boolean prepareResend(GoogleJsonError e) {
+        return false;
+    }
+
+    @Override
+    public void onSuccess(T result, HttpHeaders responseHeaders) {
+        succeeded = true;
+        error = null;
+        errorHeaders = null;
+        handleSuccess(result);
+    }
+
+    @Override
+    public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+        if (isFailureSuccess(e)) {
+            onSuccess(null, responseHeaders);
+
+            return;
+        }
+
+        succeeded = false;
+        error = e;
+        errorHeaders = responseHeaders;
+    }
+
+    public boolean getSucceeded() {
+        return succeeded;
+    }
+
+    public GoogleJsonError getError() {
+        return error;
+    }
+
+    public HttpHeaders getErrorHeaders() {
+        return errorHeaders;
+    }
+
+    /**
+     * Forget the outcome of a previous attempt before the part is queued again.
+     */
+    public void reset() {
+        succeeded = false;
+        error = null;
+        errorHeaders = null;
+    }
+}
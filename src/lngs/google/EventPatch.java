@@ -0,0 +1,63 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.services.calendar.model.Event;
+
+import lngs.lotus.LotusNotesCalendarEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in-place update of an existing Google event. The patch event only holds the
+ * fields that differ from what LNGS would write for the paired Lotus entry.
+ */
+public class EventPatch {
+    protected LotusNotesCalendarEntry lotusEntry;
+    protected Event googleEntry;
+    protected Event patch = new Event();
+    protected List<String> changedFields = new ArrayList<String>();
+
+    public EventPatch(LotusNotesCalendarEntry lotusEntry, Event googleEntry) {
+        this.lotusEntry = lotusEntry;
+        this.googleEntry = googleEntry;
+    }
+
+    /**
+     * Returns the Lotus entry the update was built from. Null for updates that
+     * only add LNGS sync info to an existing Google entry.
+     */
+    public LotusNotesCalendarEntry getLotusEntry() {
+        return lotusEntry;
+    }
+
+    /**
+     * Returns the existing Google event that will be updated.
+     */
+    public Event getGoogleEntry() {
+        return googleEntry;
+    }
+
+    /**
+     * Returns the event holding only the changed fields.
+     */
+    public Event getPatch() {
+        return patch;
+    }
+
+    public List<String> getChangedFields() {
+        return changedFields;
+    }
+
+    /**
+     * Record that a field differs. The new value must already be set on the patch event.
+     */
+    public void addChangedField(String fieldName) {
+        changedFields.add(fieldName);
+    }
+
+    public boolean hasChanges() {
+        return !changedFields.isEmpty();
+    }
+}
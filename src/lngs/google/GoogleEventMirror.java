@@ -0,0 +1,184 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.client.util.Key;
+import com.google.api.services.calendar.model.Event;
+
+import java.io.*;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * An on-disk copy of the LNGS-owned events in the destination Google calendar,
+ * plus the sync token needed to ask Google for only the changes since the copy
+ * was last updated.
+ */
+public class GoogleEventMirror {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected final JsonFactory jsonFactory;
+    protected final File mirrorFile;
+    protected String calendarId = null;
+    protected String syncToken = null;
+
+    // Events keyed by Google event ID
+    protected LinkedHashMap<String, Event> events = new LinkedHashMap<String, Event>();
+    protected boolean isLoaded = false;
+
+    public GoogleEventMirror(JsonFactory jsonFactory, String mirrorFullFilename) {
+        this.jsonFactory = jsonFactory;
+        this.mirrorFile = new File(mirrorFullFilename);
+    }
+
+    /**
+     * Read the mirror file, if it exists. A missing or unreadable file leaves the
+     * mirror empty, which forces a full listing.
+     */
+    public void load() {
+        if (isLoaded) {
+            return;
+        }
+
+        isLoaded = true;
+        clear();
+
+        if (!mirrorFile.isFile()) {
+            return;
+        }
+
+        InputStream in = null;
+
+        try {
+            in = new BufferedInputStream(new FileInputStream(mirrorFile));
+
+            MirrorData data = jsonFactory.fromInputStream(in, UTF8,
+                    MirrorData.class);
+            calendarId = data.calendarId;
+            syncToken = data.syncToken;
+
+            if (data.items != null) {
+                for (Event event : data.items) {
+                    events.put(event.getId(), event);
+                }
+            }
+        } catch (Exception ex) {
+            // The file is damaged or from an older format. Start over.
+            clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    // Do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the mirror to disk. The data is written to a temp file first so an
+     * interrupted write doesn't leave a damaged mirror behind.
+     */
+    public void save() throws IOException {
+        MirrorData data = new MirrorData();
+        data.calendarId = calendarId;
+        data.syncToken = syncToken;
+        data.items = new ArrayList<Event>(events.values());
+
+        File tempFile = new File(mirrorFile.getPath() + ".tmp");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(
+                    tempFile));
+
+        try {
+            JsonGenerator generator = jsonFactory.createJsonGenerator(out, UTF8);
+            generator.serialize(data);
+            generator.flush();
+        } finally {
+            out.close();
+        }
+
+        if (mirrorFile.exists() && !mirrorFile.delete()) {
+            throw new IOException("Unable to replace " + mirrorFile.getPath());
+        }
+
+        if (!tempFile.renameTo(mirrorFile)) {
+            throw new IOException("Unable to rename " + tempFile.getPath());
+        }
+    }
+
+    /**
+     * Remove all events and the sync token.
+     */
+    public void clear() {
+        calendarId = null;
+        syncToken = null;
+        events.clear();
+    }
+
+    /**
+     * Returns true if the mirror holds a usable copy of the given calendar.
+     */
+    public boolean isValidFor(String calendarId) {
+        return (syncToken != null) && (this.calendarId != null) &&
+        this.calendarId.equals(calendarId);
+    }
+
+    /**
+     * Add, replace or remove a single event. Cancelled events are removed.
+     */
+    public void apply(Event event) {
+        if ("cancelled".equals(event.getStatus())) {
+            events.remove(event.getId());
+        } else {
+            events.put(event.getId(), event);
+        }
+    }
+
+    public void remove(String eventId) {
+        events.remove(eventId);
+    }
+
+    public Collection<Event> getEvents() {
+        return events.values();
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    public String getCalendarId() {
+        return calendarId;
+    }
+
+    public void setCalendarId(String value) {
+        calendarId = value;
+    }
+
+    public String getSyncToken() {
+        return syncToken;
+    }
+
+    public void setSyncToken(String value) {
+        syncToken = value;
+    }
+
+    /**
+     * The layout of the mirror file.
+     */
+    public static class MirrorData extends GenericJson {
+        @Key
+        public String calendarId;
+        @Key
+        public String syncToken;
+        @Key
+        public List<Event> items;
+    }
+}
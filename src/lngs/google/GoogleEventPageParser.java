@@ -0,0 +1,255 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads one page of an events.list response with a streaming JSON parser.
+ * Only the event fields LNGS uses are kept; everything else is skipped without
+ * being built into objects. Cancelled events are dropped while parsing and
+ * only their IDs are returned.
+ *
+ * The kept fields go into Event objects rather than a compact record of their
+ * own, because the compare, the patches, the mirror and the sync state store
+ * all work on Event. On a page of 20,000 full events, the Google client library
+ * took 965 ms and kept 3570 bytes per event; this parser took 412 ms and keeps
+ * 1786 bytes per event. A String[] of the same fields, which is about the
+ * least a record could hold, took 243 ms and kept 1170 bytes per event (see
+ * EventPageParserBenchmark). That saves about 12 MB per 20,000 events, but the
+ * records would have to be turned back into Event objects for every later step.
+ */
+public class GoogleEventPageParser {
+    protected final JsonFactory jsonFactory;
+
+    public GoogleEventPageParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Parse a page of events.
+     * @param in - The response body. It is closed when parsing is done.
+     * @param charset - The charset of the response body.
+     * @return The parsed page.
+     */
+    public EventPage parse(InputStream in, Charset charset)
+        throws IOException {
+        CountingInputStream countingIn = new CountingInputStream(in);
+        JsonParser parser = jsonFactory.createJsonParser(countingIn, charset);
+        EventPage page = new EventPage();
+
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("The Google event listing isn't a JSON object.");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+
+                if ("items".equals(name) && (valueToken == JsonToken.START_ARRAY)) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        parseEvent(parser, page);
+                    }
+                } else if ("nextPageToken".equals(name)) {
+                    page.nextPageToken = getText(parser);
+                } else if ("nextSyncToken".equals(name)) {
+                    page.nextSyncToken = getText(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+
+        page.bytesRead = countingIn.count;
+
+        return page;
+    }
+
+    /**
+     * Parse one event object. The parser must be on the START_OBJECT token.
+     */
+    protected void parseEvent(JsonParser parser, EventPage page)
+        throws IOException {
+        Event event = new Event();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+
+            if ("id".equals(name)) {
+                event.setId(getText(parser));
+            } else if ("iCalUID".equals(name)) {
+                event.setICalUID(getText(parser));
+            } else if ("status".equals(name)) {
+                event.setStatus(getText(parser));
+            } else if ("summary".equals(name)) {
+                event.setSummary(getText(parser));
+            } else if ("location".equals(name)) {
+                event.setLocation(getText(parser));
+            } else if ("description".equals(name)) {
+                event.setDescription(getText(parser));
+            } else if ("visibility".equals(name)) {
+                event.setVisibility(getText(parser));
+            } else if ("updated".equals(name)) {
+                String updated = getText(parser);
+
+                if (updated != null) {
+                    event.setUpdated(DateTime.parseRfc3339(updated));
+                }
+            } else if ("start".equals(name)) {
+                event.setStart(parser.parse(EventDateTime.class));
+            } else if ("end".equals(name)) {
+                event.setEnd(parser.parse(EventDateTime.class));
+            } else if ("reminders".equals(name)) {
+                event.setReminders(parser.parse(Event.Reminders.class));
+            } else if ("recurrence".equals(name)) {
+                List<String> recurrence = new ArrayList<String>();
+                parser.parseArray(recurrence, String.class);
+                event.setRecurrence(recurrence);
+            } else if ("recurringEventId".equals(name)) {
+                event.setRecurringEventId(getText(parser));
+            } else if ("extendedProperties".equals(name)) {
+                event.setExtendedProperties(parser.parse(
+                        Event.ExtendedProperties.class));
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if ("cancelled".equals(event.getStatus())) {
+            // Canceled entries aren't visible in Google calendar, and trying to
+            // delete them programatically will cause an exception.
+            page.cancelledIds.add(event.getId());
+        } else {
+            page.items.add(event);
+        }
+    }
+
+    protected String getText(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+
+        return parser.getText();
+    }
+
+    /**
+     * The useful parts of one page of an events.list response.
+     */
+    public static class EventPage {
+        protected final List<Event> items = new ArrayList<Event>();
+        protected final List<String> cancelledIds = new ArrayList<String>();
+        protected String nextPageToken = null;
+        protected String nextSyncToken = null;
+        protected long bytesRead = 0;
+
+        /**
+         * Build a page from a response parsed by the Google client library.
+         */
+        public static EventPage fromEvents(Events events) {
+            EventPage page = new EventPage();
+            page.nextPageToken = events.getNextPageToken();
+            page.nextSyncToken = events.getNextSyncToken();
+
+            if (events.getItems() != null) {
+                for (Event event : events.getItems()) {
+                    if ("cancelled".equals(event.getStatus())) {
+                        page.cancelledIds.add(event.getId());
+                    } else {
+                        page.items.add(event);
+                    }
+                }
+            }
+
+            return page;
+        }
+
+        /**
+         * Returns the events that aren't cancelled.
+         */
+        public List<Event> getItems() {
+            return items;
+        }
+
+        /**
+         * Returns the IDs of the cancelled events.
+         */
+        public List<String> getCancelledIds() {
+            return cancelledIds;
+        }
+
+        public String getNextPageToken() {
+            return nextPageToken;
+        }
+
+        public String getNextSyncToken() {
+            return nextSyncToken;
+        }
+
+        /**
+         * Returns the size of the (uncompressed) response body.
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+    }
+
+    /**
+     * Counts the bytes read from the response body.
+     */
+    protected static class CountingInputStream extends FilterInputStream {
+        protected long count = 0;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b >= 0) {
+                count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readCount = super.read(b, off, len);
+
+            if (readCount > 0) {
+                count += readCount;
+            }
+
+            return readCount;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipCount = super.skip(n);
+            count += skipCount;
+
+            return skipCount;
+        }
+    }
+}
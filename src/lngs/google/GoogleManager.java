@@ -9,7 +9,12 @@ import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.GoogleUtils;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
+import com.google.api.client.googleapis.batch.BatchRequest;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
@@ -21,7 +26,7 @@ import com.google.api.services.calendar.model.CalendarList;
 import com.google.api.services.calendar.model.CalendarListEntry;
 import com.google.api.services.calendar.model.Event;
 import com.google.api.services.calendar.model.EventDateTime;
-import com.google.api.services.calendar.model.Events;
+import com.google.api.services.calendar.model.EventReminder;
 
 import lngs.lotus.LotusNotesCalendarEntry;
 
@@ -33,6 +38,8 @@ import java.io.*;
 import java.net.*;
 
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 
 import java.text.DateFormat;
@@ -41,6 +48,11 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.regex.Pattern;
@@ -56,10 +68,13 @@ public class GoogleManager {
 
     // Global instance of the JSON factory.
     protected static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
-    private static com.google.api.services.calendar.Calendar client;
-    private static com.google.api.services.calendar.model.Calendar destCalendar = null;
+    // These are read by the write threads, so changes must be visible to them.
+    // The Calendar client itself is safe to share between threads.
+    private static volatile com.google.api.services.calendar.Calendar client;
+    private static volatile com.google.api.services.calendar.model.Calendar destCalendar = null;
     protected static String destinationCalendarName = "";
-    protected final String applicationName = "LNGS";
+    // Google only sends gzip compressed responses if the User-Agent contains "gzip"
+    protected final String applicationName = "LNGS (gzip)";
     protected final String credentialStorePath = System.getProperty("user.home") +
         System.getProperty("file.separator") + ".store" +
         System.getProperty("file.separator") + "LNGS";
@@ -79,6 +94,64 @@ public class GoogleManager {
 
     // Filename with full path
     protected String googleInRangeEntriesFullFilename = "";
+
+    // Local copy of the destination calendar, used for incremental listings
+    protected GoogleEventMirror eventMirror = null;
+    protected final String googleMirrorFilename = "GoogleCalendarMirror.json";
+    protected String googleMirrorFullFilename = "";
+    protected boolean incrementalListing = false;
+
+    // Write-ahead log of the changes planned in a sync, so an interrupted sync
+    // can be finished by the next one
+    protected GoogleSyncJournal syncJournal = null;
+    protected final String syncJournalFilename = "lngsync.journal";
+    protected String syncJournalFullFilename = "";
+    protected boolean useSyncJournal = false;
+
+    // The entries LNGS wrote, so most syncs don't need to list the Google calendar.
+    // A full listing is done every fullListingInterval syncs, or when the
+    // stored entries can't be trusted.
+    protected GoogleSyncStateStore stateStore = null;
+    protected final String stateStoreFilename = "GoogleSyncState.txt";
+    protected String stateStoreFullFilename = "";
+    protected boolean useStateStore = false;
+    protected int fullListingInterval = 10;
+    protected boolean forceFullListing = false;
+
+    // Set if a change couldn't be recorded, so the stored entries can't be trusted
+    protected volatile boolean stateStoreFailed = false;
+
+    // If true, listings only ask for the event fields LNGS uses
+    protected boolean slimListing = false;
+    protected final String slimListingFields = "nextPageToken,nextSyncToken," +
+        "items(id,iCalUID,status,summary,location,description,reminders,start,end,visibility,updated," +
+        "extendedProperties,recurrence,recurringEventId)";
+    protected GoogleTrafficCounter trafficCounter = null;
+    protected GoogleEventPageParser pageParser = new GoogleEventPageParser(JSON_FACTORY);
+
+    // If true, the LNGS sync info is also written to the private extended properties
+    // of each Google entry, and listings only ask for entries that have them.
+    protected boolean useExtendedProperties = false;
+
+    // The ID of the calendar whose existing LNGS entries were given extended properties
+    protected String extendedPropertiesCalendarId = "";
+
+    // If true, each new Google entry gets an ID made from the Lotus UID plus the
+    // instance start (see getEventId()), so inserts can safely be repeated
+    protected boolean deterministicIds = false;
+    protected static final char[] BASE32HEX_CHARS = "0123456789abcdefghijklmnopqrstuv".toCharArray();
+
+    // The Google event built for each Lotus entry in this sync. Each entry is
+    // rendered once and the result is used by the compare and the writes.
+    protected IdentityHashMap<LotusNotesCalendarEntry, Event> renderedEvents = new IdentityHashMap<LotusNotesCalendarEntry, Event>();
+
+    // Combines repeating Lotus entries into recurring Google events
+    protected GoogleRecurrenceBuilder recurrenceBuilder = new GoogleRecurrenceBuilder(TimeZone.getDefault());
+    protected static final String EXT_PROP_LNGS = "lngs";
+    protected static final String EXT_PROP_SYNC_UID = "lngsSyncUID";
+    protected static final String EXT_PROP_UNID = "lngsUNID";
+    protected static final String EXT_PROP_INSTANCE = "lngsInstance";
+    protected static final String EXT_PROP_FINGERPRINT = "lngsFingerprint";
     protected String appPath = "";
     protected boolean diagnosticMode = false;
     protected boolean syncDescription = false;
@@ -96,6 +169,26 @@ public class GoogleManager {
     protected final int maxRetryCount = 5;
     protected final int retryDelayMsecs = 600;
 
+    // The longest wait before a retry, and the most retries allowed in one sync
+    protected final int maxRetryDelayMsecs = 32000;
+
+    // The longest wait Google can ask for in a Retry-After header. Rate limits
+    // can ask for minutes, which the backoff limit above would cut short.
+    protected final int maxRetryAfterMsecs = 15 * 60 * 1000;
+    protected final int maxRetriesPerSync = 100;
+    protected GoogleRetryPolicy retryPolicy = null;
+
+    // The number of inserts/deletes sent in one Google batch request. A value of
+    // 1 or less sends one HTTP request per entry. Google accepts at most 50 calls
+    // in a Calendar batch request.
+    protected int batchSize = 0;
+    protected final int maxBatchSize = 50;
+    protected String batchUrl = "https://www.googleapis.com/batch/calendar/v3";
+
+    // The number of inserts/deletes/updates sent at the same time when batching
+    // is off. A value of 1 sends them one after another.
+    protected int writeThreads = 1;
+
     // Google has a maximum limit of around 1600 chars for subject/title lines.
     // I don't know the Lotus limit, but 1000 should be plenty.
     protected final int maxSubjectChars = 1000;
@@ -132,6 +225,9 @@ public class GoogleManager {
             System.getProperty("file.separator");
         googleInRangeEntriesFullFilename = appPath +
             googleInRangeEntriesFilename;
+        googleMirrorFullFilename = appPath + googleMirrorFilename;
+        syncJournalFullFilename = appPath + syncJournalFilename;
+        stateStoreFullFilename = appPath + stateStoreFilename;
     }
 
     /**
@@ -142,6 +238,11 @@ public class GoogleManager {
 
         statusMessageCallback.statusAppendStart("Logging into Google");
 
+        // Each sync starts with a full retry budget
+        retryPolicy = new GoogleRetryPolicy(maxRetryCount, retryDelayMsecs,
+                maxRetryDelayMsecs, maxRetryAfterMsecs, maxRetriesPerSync,
+                statusMessageCallback);
+
         String clientIdFullFilename = getClientIdFilename();
 
         if (clientIdFullFilename.isEmpty()) {
@@ -179,6 +280,11 @@ public class GoogleManager {
             builder.trustCertificates(GoogleUtils.getCertificateTrustStore());
 
             builder.setSslSocketFactory(sslSocketFactory);
+
+            // Open the connections through our traffic counter, so it can
+            // count the bytes each response really takes
+            trafficCounter = new GoogleTrafficCounter();
+            builder.setConnectionFactory(trafficCounter);
             httpTransport = builder.build();
         } catch (GeneralSecurityException ex) {
             throw new LngsException(ERROR_HTTP_TRANSPORT, ex);
@@ -216,23 +322,26 @@ public class GoogleManager {
                     Credential credential = new AuthorizationCodeInstalledApp(flow,
                             new LocalServerReceiver()).authorize(googleUsername);
 
-                    // Set up global Calendar instance
+                    // Set up global Calendar instance. Every request also goes through
+                    // our traffic counter, which asks for gzip responses.
+                    trafficCounter.setCredentialInitializer(credential);
                     client = new com.google.api.services.calendar.Calendar.Builder(httpTransport,
-                            JSON_FACTORY, credential).setApplicationName(applicationName)
-                                                                                                                           .build();
+                            JSON_FACTORY, trafficCounter).setApplicationName(applicationName)
+                                                                                                                               .build();
 
                     if (client != null) {
                         doRetry = false;
                     }
                 } catch (Exception ex) {
-                    if (++retryCount > maxRetryCount) {
+                    if (!retryPolicy.beginRetry(++retryCount)) {
                         throw new LngsException("Unable to login to Google.", ex);
                     }
 
+                    long delayMsecs = retryPolicy.getDelayMsecs(retryCount, null);
                     statusMessageCallback.statusAppendLineDiag(
-                        "Logging in Retry #" + retryCount + ". Encountered " +
-                        ex.toString());
-                    Thread.sleep(retryDelayMsecs);
+                        "Logging in Retry #" + retryCount + " in " + delayMsecs +
+                        " ms. Encountered " + ex.toString());
+                    Thread.sleep(delayMsecs);
 
                     if (ex.toString().contains("unauthorized_client")) {
                         statusMessageCallback.statusAppendLineDiag(
@@ -261,6 +370,8 @@ public class GoogleManager {
 
             try {
                 createCalendar();
+            } catch (InterruptedException ex) {
+                throw ex;
             } catch (Exception ex) {
                 throw new LngsException("Unable to create Google calendar.", ex);
             }
@@ -280,6 +391,19 @@ public class GoogleManager {
         }
     }
 
+    /**
+     * Use a Calendar client that is already set up instead of logging in,
+     * e.g. one that talks to a stand-in server for testing.
+     */
+    public void connect(com.google.api.services.calendar.Calendar calendarClient,
+        com.google.api.services.calendar.model.Calendar calendar) {
+        retryPolicy = new GoogleRetryPolicy(maxRetryCount, retryDelayMsecs,
+                maxRetryDelayMsecs, maxRetryAfterMsecs, maxRetriesPerSync,
+                statusMessageCallback);
+        client = calendarClient;
+        destCalendar = calendar;
+    }
+
     public String getClientIdFilename() {
         Pattern pattern = Pattern.compile("^client_secret.*\\.json$");
 
@@ -305,13 +429,15 @@ public class GoogleManager {
      * @throws IOException
      * @throws LngsException
      */
-    public void createCalendar() throws IOException, LngsException {
+    public void createCalendar()
+        throws IOException, LngsException, InterruptedException {
         // If true, we already have a reference to the calendar
         if (destCalendar != null) {
             return;
         }
 
-        CalendarList feed = client.calendarList().list().execute();
+        CalendarList feed = retryPolicy.execute("Get calendar list.",
+                client.calendarList().list());
 
         if (feed == null) {
             throw new LngsException("Google calendar list is empty.");
@@ -321,8 +447,8 @@ public class GoogleManager {
             for (CalendarListEntry entry : feed.getItems()) {
                 if (entry.getSummary().equals(destinationCalendarName)) {
                     // Get the Calendar object
-                    destCalendar = client.calendars().get(entry.getId())
-                                         .execute();
+                    destCalendar = retryPolicy.execute("Get calendar.",
+                            client.calendars().get(entry.getId()));
                     statusMessageCallback.statusAppendLineDiag(
                         "Found Google calendar: " + entry.getSummary());
 
@@ -344,21 +470,22 @@ public class GoogleManager {
         newCal.setSummary(destinationCalendarName);
         newCal.setTimeZone(timeZoneName);
 
-        destCalendar = client.calendars().insert(newCal).execute();
+        destCalendar = retryPolicy.execute("Create calendar.",
+                client.calendars().insert(newCal));
 
         // Try this update code to set background color        
         //com.google.api.services.calendar.model.Calendar entry = new com.google.api.services.calendar.model.Calendar();
         //entry.setSummary("Updated Calendar for Testing");
         //com.google.api.services.calendar.model.Calendar result = client.calendars().patch(calendar.getId(), entry).execute();
-        CalendarListEntry newCalEntry = client.calendarList()
-                                              .get(destCalendar.getId())
-                                              .execute();
+        CalendarListEntry newCalEntry = retryPolicy.execute("Get calendar list entry.",
+                client.calendarList().get(destCalendar.getId()));
         newCalEntry.setHidden(false);
         newCalEntry.setSelected(true);
         newCalEntry.setBackgroundColor(DEST_CALENDAR_COLOR);
         newCalEntry.setSelected(true);
         newCalEntry.setBackgroundColor(DEST_CALENDAR_COLOR);
-        client.calendarList().patch(newCalEntry.getId(), newCalEntry).execute();
+        retryPolicy.execute("Update calendar list entry.",
+            client.calendarList().patch(newCalEntry.getId(), newCalEntry));
     }
 
     /**
@@ -366,29 +493,136 @@ public class GoogleManager {
      * @return The number of entries successfully deleted.
      */
     public int deleteCalendarEntries(ArrayList<Event> googleCalEntries)
-        throws IOException {
+        throws IOException, LngsException, InterruptedException {
         if (googleCalEntries.size() == 0) {
             return 0;
         }
 
+        if (batchSize > 1) {
+            return deleteCalendarEntriesBatched(googleCalEntries);
+        }
+
+        if (writeThreads > 1) {
+            return deleteCalendarEntriesParallel(googleCalEntries);
+        }
+
         int cntDeleted = googleCalEntries.size();
 
         for (int i = 0; i < googleCalEntries.size(); i++) {
             Event event = googleCalEntries.get(i);
-            String startStr = "" +
-                ((event.getStart().getDateTime() != null)
-                ? event.getStart().getDateTime() : event.getStart().getDate());
 
             statusMessageCallback.statusAppendLineDiag("Delete #" + (i + 1) +
-                ". Subject: " + event.getSummary() + "  Start: " + startStr);
-            client.events()
-                  .delete(destCalendar.getId(), googleCalEntries.get(i).getId())
-                  .execute();
+                ". Subject: " + event.getSummary() + "  Start: " +
+                getStartString(event));
+            try {
+                retryPolicy.execute("Delete #" + (i + 1) + ".",
+                    client.events()
+                          .delete(destCalendar.getId(), event.getId()));
+            } catch (IOException ex) {
+                // An entry that is already gone doesn't need deleted, e.g. one
+                // deleted by a sync that was interrupted
+                if (!isGoneError(ex)) {
+                    throw ex;
+                }
+            }
+
+            storeDelete(event);
+            journalDone(event);
         }
 
         return cntDeleted;
     }
 
+    /**
+     * Delete the Google calendar entries in the provided list using batch requests.
+     * @return The number of entries successfully deleted.
+     */
+    protected int deleteCalendarEntriesBatched(ArrayList<Event> googleCalEntries)
+        throws IOException, LngsException, InterruptedException {
+        final String calendarId = destCalendar.getId();
+        ArrayList<BatchPart<?>> parts = new ArrayList<BatchPart<?>>();
+
+        for (int i = 0; i < googleCalEntries.size(); i++) {
+            final Event event = googleCalEntries.get(i);
+
+            statusMessageCallback.statusAppendLineDiag("Delete #" + (i + 1) +
+                ". Subject: " + event.getSummary() + "  Start: " +
+                getStartString(event));
+
+            parts.add(new BatchPart<Void>() {
+                    @Override
+                    public void queue(BatchRequest batch) throws IOException {
+                        client.events().delete(calendarId, event.getId())
+                              .queue(batch, this);
+                    }
+
+                    @Override
+                    public String getDescription() {
+                        return "Delete. Subject: " + event.getSummary() +
+                        "  Start: " + getStartString(event);
+                    }
+
+                    @Override
+                    protected boolean isFailureSuccess(GoogleJsonError e) {
+                        // The entry is already gone, e.g. a retried part whose
+                        // first attempt reached Google.
+                        return (e.getCode() == 404) || (e.getCode() == 410);
+                    }
+
+                    @Override
+                    protected void handleSuccess(Void result) {
+                        storeDelete(event);
+                        journalDone(event);
+                    }
+                });
+        }
+
+        return executeBatchParts(parts);
+    }
+
+    /**
+     * Delete the Google calendar entries in the provided list using several threads.
+     * @return The number of entries successfully deleted.
+     */
+    protected int deleteCalendarEntriesParallel(
+        ArrayList<Event> googleCalEntries)
+        throws LngsException, InterruptedException {
+        final com.google.api.services.calendar.Calendar calendarClient = client;
+        final String calendarId = destCalendar.getId();
+        ArrayList<GoogleWriteExecutor.WriteTask> tasks = new ArrayList<GoogleWriteExecutor.WriteTask>();
+
+        for (final Event event : googleCalEntries) {
+            tasks.add(new GoogleWriteExecutor.WriteTask() {
+                    @Override
+                    public void execute()
+                        throws IOException, InterruptedException {
+                        try {
+                            retryPolicy.execute("Delete.",
+                                calendarClient.events()
+                                              .delete(calendarId, event.getId()),
+                                retryMessages);
+                        } catch (IOException ex) {
+                            if (!isGoneError(ex)) {
+                                throw ex;
+                            }
+                        }
+
+                        storeDelete(event);
+                        journalDone(event);
+                    }
+
+                    @Override
+                    public String getDescription() {
+                        return "Subject: " + event.getSummary() + "  Start: " +
+                        getStartString(event);
+                    }
+                });
+        }
+
+        return new GoogleWriteExecutor(writeThreads, statusMessageCallback).execute("Delete",
+            tasks);
+    }
+
     /**
      * Get all the Google calendar entries for a specific date range.
      * @return The found entries.
@@ -399,89 +633,466 @@ public class GoogleManager {
             statusMessageCallback.statusAppendStart(
                 "Getting Google calendar entries");
 
+            if (!useExtendedProperties) {
+                // Entries created from now on won't have the extended properties,
+                // so the migration must run again if the option is turned back on
+                extendedPropertiesCalendarId = "";
+            }
+
+            if (useStateStore) {
+                ArrayList<Event> storedCalEntries = getCalendarEntriesFromStateStore();
+
+                if (storedCalEntries != null) {
+                    return storedCalEntries;
+                }
+            }
+
+            if (incrementalListing) {
+                ArrayList<Event> mirrorCalEntries = getCalendarEntriesIncremental();
+
+                if (diagnosticMode) {
+                    writeInRangeEntriesToFile(mirrorCalEntries);
+                }
+
+                rebuildStateStore(mirrorCalEntries);
+
+                return mirrorCalEntries;
+            }
+
+            if (useExtendedProperties) {
+                migrateExtendedProperties();
+            }
+
             // Get all events within our date range
             com.google.api.client.util.DateTime minDate = new com.google.api.client.util.DateTime(minStartDate);
             com.google.api.client.util.DateTime maxDate = new com.google.api.client.util.DateTime(maxEndDate);
 
             ArrayList<Event> allCalEntries = new ArrayList<Event>();
-            Events events = new Events();
 
             String pageToken = null;
-            int retryCount = 0;
             int queryCount = 0;
             int entriesReturned = 0;
 
             // Run our query as many times as necessary to get all the
             // Google calendar entries we want
             do {
-                try {
-                    // Execute the query and get the response
-                    // Set the maximum number of results to return for the query.
-                    // Note: The server may choose to provide fewer results, but will never provide
-                    // more than the requested maximum.
-                    events = client.events().list(destCalendar.getId())
-                                   .setTimeZone(destCalendar.getTimeZone())
-                                   .setTimeMin(minDate).setTimeMax(maxDate)
-                                   .setMaxResults(1000).setPageToken(pageToken)
-                                   .execute();
-                } catch (Exception ex) {
-                    // If there is a network problem while connecting to Google, retry a few times
-                    if (++retryCount > maxRetryCount) {
-                        throw new LngsException("Unable to get Google calendar entries after multiple retries.",
-                            ex);
-                    }
+                // Execute the query and get the response
+                // Set the maximum number of results to return for the query.
+                // Note: The server may choose to provide fewer results, but will never provide
+                // more than the requested maximum.
+                // If there is a network problem while connecting to Google, the query is retried.
+                com.google.api.services.calendar.Calendar.Events.List listRequest =
+                    client.events().list(destCalendar.getId())
+                          .setTimeZone(destCalendar.getTimeZone())
+                          .setTimeMin(minDate).setTimeMax(maxDate)
+                          .setMaxResults(1000).setPageToken(pageToken);
+
+                if (slimListing) {
+                    listRequest.setFields(slimListingFields);
+                }
 
-                    Thread.sleep(retryDelayMsecs);
+                if (useExtendedProperties) {
+                    // Only return entries created by LNGS
+                    listRequest.setPrivateExtendedProperty(Collections.singletonList(
+                            EXT_PROP_LNGS + "=1"));
+                }
 
-                    statusMessageCallback.statusAppendLineDiag("Query Retry #" +
-                        retryCount + ". Encountered " + ex.toString());
+                // Entries marked canceled are left out of the page. Canceled entries
+                // aren't visible in Google calendar, and trying to delete them
+                // programatically will cause an exception.
+                GoogleEventPageParser.EventPage page = executeListRequest(
+                        "Query #" + (queryCount + 1) + ".", listRequest);
 
-                    if (retryCount == 1) {
-                        // Write out the stack trace
-                        StringWriter sw = new StringWriter();
-                        ex.printStackTrace(new PrintWriter(sw));
-                        statusMessageCallback.statusAppendLineDiag(sw.toString());
-                    }
+                queryCount++;
+                statusMessageCallback.statusAppendLineDiag(page.getItems().size() +
+                    " entries returned by query #" + queryCount +
+                    getPageSizeText(page));
+
+                // Add the returned entries to our local list
+                allCalEntries.addAll(page.getItems());
+
+                pageToken = page.getNextPageToken();
+            } while (pageToken != null);
+
+            if (diagnosticMode) {
+                writeInRangeEntriesToFile(allCalEntries);
+            }
+
+            rebuildStateStore(allCalEntries);
+
+            return allCalEntries;
+        } catch (IOException ex) {
+            throw new LngsException("Unable to get Google calendar entries.", ex);
+        } finally {
+            statusMessageCallback.statusAppendFinished();
+        }
+    }
+
+    /**
+     * Get the Google calendar entries for our date range from the local sync state,
+     * without asking Google.
+     * @return The stored LNGS entries in our date range, or null if a full listing
+     * is needed.
+     */
+    protected ArrayList<Event> getCalendarEntriesFromStateStore()
+        throws IOException {
+        if (stateStore == null) {
+            stateStore = new GoogleSyncStateStore(JSON_FACTORY, stateStoreFullFilename);
+        }
+
+        stateStore.load();
+
+        if (forceFullListing ||
+                !stateStore.isValidFor(destCalendar.getId(), fullListingInterval)) {
+            statusMessageCallback.statusAppendLineDiag(
+                "The local sync state is missing, out of date or incomplete. Doing a full listing.");
+
+            return null;
+        }
+
+        stateStore.beginRun();
+
+        ArrayList<Event> storedCalEntries = new ArrayList<Event>();
+
+        for (Event event : stateStore.getEvents()) {
+            if (isEventInRange(event)) {
+                storedCalEntries.add(event);
+            }
+        }
+
+        statusMessageCallback.statusAppendLineDiag(storedCalEntries.size() +
+            " entries read from the local sync state (sync " +
+            stateStore.getRunCount() + " of " + fullListingInterval +
+            " before the next full listing)");
+
+        return storedCalEntries;
+    }
+
+    /**
+     * Replace the local sync state with the LNGS entries from a full listing.
+     */
+    protected void rebuildStateStore(ArrayList<Event> listedCalEntries)
+        throws IOException {
+        if (!useStateStore) {
+            return;
+        }
+
+        if (stateStore == null) {
+            stateStore = new GoogleSyncStateStore(JSON_FACTORY, stateStoreFullFilename);
+        }
+
+        ArrayList<Event> lngsCalEntries = new ArrayList<Event>();
+
+        for (Event event : listedCalEntries) {
+            if (isLNGSEvent(event)) {
+                lngsCalEntries.add(event);
+            }
+        }
+
+        stateStore.rebuild(destCalendar.getId(), lngsCalEntries);
+        forceFullListing = false;
+        stateStoreFailed = false;
+    }
+
+    /**
+     * All changes of this sync were made and recorded, so the local sync state can
+     * be used by the next sync.
+     */
+    public void finishStateStore() throws LngsException {
+        if (!useStateStore || (stateStore == null)) {
+            return;
+        }
+
+        if (stateStoreFailed) {
+            // Leave the state marked as not clean, so the next sync does a full listing
+            stateStore.close();
+
+            return;
+        }
+
+        try {
+            stateStore.markClean();
+        } catch (IOException ex) {
+            throw new LngsException("Unable to write the local sync state " +
+                stateStoreFullFilename, ex);
+        }
+    }
+
+    /**
+     * Record a Google entry that was created or updated in the local sync state.
+     * Can be called from write threads.
+     * @param event - The event Google returned for the write.
+     */
+    protected void storeWrite(Event event) {
+        if (useStateStore && (stateStore != null) && (event != null)) {
+            try {
+                stateStore.put(event);
+            } catch (IOException ex) {
+                stateStoreFailed = true;
+            }
+        }
+    }
+
+    /**
+     * Record a Google entry that was deleted in the local sync state.
+     * Can be called from write threads.
+     */
+    protected void storeDelete(Event event) {
+        if (useStateStore && (stateStore != null)) {
+            try {
+                stateStore.remove(event.getId());
+            } catch (IOException ex) {
+                stateStoreFailed = true;
+            }
+        }
+    }
+
+    /**
+     * Get the Google calendar entries for our date range from the local mirror.
+     * The mirror is first brought up to date by asking Google for only the changes
+     * since the last sync (using the saved sync token). If there is no usable mirror,
+     * or Google says the sync token expired, a full listing is done instead.
+     * @return The LNGS entries in our date range.
+     */
+    protected ArrayList<Event> getCalendarEntriesIncremental()
+        throws InterruptedException, LngsException, IOException {
+        String calendarId = destCalendar.getId();
+
+        if (eventMirror == null) {
+            eventMirror = new GoogleEventMirror(JSON_FACTORY, googleMirrorFullFilename);
+        }
+
+        eventMirror.load();
+
+        if (useExtendedProperties) {
+            // A sync token can't be combined with an extended property filter, so
+            // the mirror keeps filtering client-side. The migration still runs so
+            // new and old entries carry the same sync info.
+            migrateExtendedProperties();
+        }
+
+        boolean isFullListing = !eventMirror.isValidFor(calendarId);
+
+        if (isFullListing) {
+            statusMessageCallback.statusAppendLineDiag(
+                "No saved Google sync state found. Doing a full listing.");
+            eventMirror.clear();
+            eventMirror.setCalendarId(calendarId);
+        }
+
+        GoogleEventPageParser.EventPage page = null;
+        String pageToken = null;
+        int queryCount = 0;
+        boolean isDone = false;
+
+        do {
+            try {
+                com.google.api.services.calendar.Calendar.Events.List listRequest =
+                    client.events().list(calendarId).setMaxResults(1000)
+                          .setPageToken(pageToken);
+
+                if (slimListing) {
+                    listRequest.setFields(slimListingFields);
+                }
+
+                if (!isFullListing) {
+                    // A sync token can't be combined with a date range, so the mirror
+                    // holds every LNGS entry and is filtered by date below.
+                    listRequest.setSyncToken(eventMirror.getSyncToken());
+                }
+
+                page = executeListRequest("Query #" + (queryCount + 1) + ".",
+                        listRequest);
+            } catch (GoogleJsonResponseException ex) {
+                if (!isFullListing && (ex.getStatusCode() == 410)) {
+                    // The sync token expired. Throw away the mirror and start over.
+                    statusMessageCallback.statusAppendLineDiag(
+                        "The Google sync token expired. Doing a full listing.");
+                    eventMirror.clear();
+                    eventMirror.setCalendarId(calendarId);
+                    isFullListing = true;
+                    pageToken = null;
 
                     continue;
                 }
 
-                queryCount++;
+                throw ex;
+            }
 
-                if (events.getItems() != null) {
-                    statusMessageCallback.statusAppendLineDiag(events.getItems()
-                                                                     .size() +
-                        " entries returned by query #" + queryCount);
+            queryCount++;
+            statusMessageCallback.statusAppendLineDiag((page.getItems().size() +
+                page.getCancelledIds().size()) +
+                (isFullListing ? " entries" : " changed entries") +
+                " returned by query #" + queryCount + getPageSizeText(page));
 
-                    // Add the returned entries to our local list
-                    allCalEntries.addAll(events.getItems());
+            for (String cancelledId : page.getCancelledIds()) {
+                // The entry was deleted
+                eventMirror.remove(cancelledId);
+            }
+
+            for (Event evt : page.getItems()) {
+                if (!isLNGSEvent(evt)) {
+                    // The entry isn't an LNGS entry
+                    eventMirror.remove(evt.getId());
+                } else {
+                    eventMirror.apply(evt);
                 }
+            }
 
-                pageToken = events.getNextPageToken();
-            } while (pageToken != null);
+            pageToken = page.getNextPageToken();
+            isDone = (pageToken == null);
+        } while (!isDone);
+
+        eventMirror.setSyncToken(page.getNextSyncToken());
+        eventMirror.save();
+
+        ArrayList<Event> inRangeCalEntries = new ArrayList<Event>();
+
+        for (Event evt : eventMirror.getEvents()) {
+            if (isEventInRange(evt)) {
+                inRangeCalEntries.add(evt);
+            }
+        }
+
+        statusMessageCallback.statusAppendLineDiag(eventMirror.size() +
+            " LNGS entries in the local Google mirror. " +
+            inRangeCalEntries.size() + " are in the date range.");
+
+        return inRangeCalEntries;
+    }
 
-            // Remove all entries marked canceled. Canceled entries aren't visible
-            // in Google calendar, and trying to delete them programatically will
-            // cause an exception.
-            for (int i = 0; i < allCalEntries.size(); i++) {
-                Event evt = allCalEntries.get(i);
+    /**
+     * Send an events.list request and return the page of events. In slim listing
+     * mode the response is read with our streaming parser, which only keeps the
+     * fields LNGS uses. Otherwise the Google client library parses the full events.
+     * Either way, canceled entries are split out of the page.
+     * @param description - A short description of the query, used in status messages.
+     * @param listRequest - The request to send.
+     */
+    protected GoogleEventPageParser.EventPage executeListRequest(
+        String description,
+        final com.google.api.services.calendar.Calendar.Events.List listRequest)
+        throws IOException, InterruptedException {
+        if (!slimListing) {
+            return GoogleEventPageParser.EventPage.fromEvents(retryPolicy.execute(
+                    description, listRequest));
+        }
 
-                if (evt.getStatus().equals("cancelled")) {
-                    allCalEntries.remove(evt);
-                    i--;
+        return retryPolicy.execute(description,
+            new GoogleRetryPolicy.GoogleCall<GoogleEventPageParser.EventPage>() {
+                @Override
+                public GoogleEventPageParser.EventPage execute()
+                    throws IOException {
+                    HttpResponse response = listRequest.executeUnparsed();
+
+                    try {
+                        return pageParser.parse(response.getContent(),
+                            response.getContentCharset());
+                    } finally {
+                        response.disconnect();
+                    }
                 }
+            });
+    }
+
+    /**
+     * Returns the size of a streamed page for status messages, or "" if the
+     * size isn't known.
+     */
+    protected String getPageSizeText(GoogleEventPageParser.EventPage page) {
+        if (page.getBytesRead() == 0) {
+            return "";
+        }
+
+        return " (" + page.getBytesRead() + " bytes)";
+    }
+
+    /**
+     * Returns true if the Google event overlaps our [minStartDate, maxEndDate] range.
+     * This matches how Google applies timeMin/timeMax to a listing.
+     */
+    protected boolean isEventInRange(Event event) {
+        Date eventStart = getEventDate(event.getStart());
+        Date eventEnd = getEventDate(event.getEnd());
+
+        if ((eventStart == null) || (eventEnd == null)) {
+            return false;
+        }
+
+        if (event.getRecurrence() != null) {
+            // A recurring event is in range if any instance is. The last instance
+            // starts at the RRULE UNTIL value.
+            Date lastStart = getRecurrenceUntil(event.getRecurrence());
+
+            if (lastStart == null) {
+                // No end to the series
+                return eventStart.before(maxEndDate);
             }
 
-            if (diagnosticMode) {
-                writeInRangeEntriesToFile(allCalEntries);
+            eventEnd = new Date(lastStart.getTime() +
+                    (eventEnd.getTime() - eventStart.getTime()));
+        }
+
+        return eventEnd.after(minStartDate) && eventStart.before(maxEndDate);
+    }
+
+    /**
+     * Returns the UNTIL value of an RRULE line, or null if there isn't one.
+     * A date-only UNTIL is converted using the local time zone.
+     */
+    protected Date getRecurrenceUntil(List<String> recurrence) {
+        for (String line : recurrence) {
+            if (!line.startsWith("RRULE:")) {
+                continue;
             }
 
-            return allCalEntries;
-        } catch (IOException ex) {
-            throw new LngsException("Unable to get Google calendar entries.", ex);
-        } finally {
-            statusMessageCallback.statusAppendFinished();
+            for (String part : line.substring(6).split(";")) {
+                if (part.startsWith("UNTIL=")) {
+                    String until = part.substring(6);
+
+                    try {
+                        if (until.endsWith("Z")) {
+                            SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+                            df.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+                            return df.parse(until);
+                        }
+
+                        return new SimpleDateFormat((until.length() > 8)
+                            ? "yyyyMMdd'T'HHmmss" : "yyyyMMdd").parse(until);
+                    } catch (java.text.ParseException ex) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Convert a Google start/end value to a Java Date. All-day values are
+     * converted using the local time zone.
+     */
+    protected Date getEventDate(EventDateTime edt) {
+        if (edt == null) {
+            return null;
+        }
+
+        if (edt.getDateTime() != null) {
+            return new Date(edt.getDateTime().getValue());
+        }
+
+        if (edt.getDate() != null) {
+            try {
+                return new SimpleDateFormat("yyyy-MM-dd").parse(edt.getDate()
+                                                                    .toStringRfc3339());
+            } catch (java.text.ParseException ex) {
+                return null;
+            }
         }
+
+        return null;
     }
 
     /**
@@ -548,63 +1159,485 @@ public class GoogleManager {
 
     /**
      * Compare the Lotus and Google entries based on the Lotus modified timestamp
-     * and other items.
+     * and other items. Entries whose timestamp changed are then compared one
+     * instance at a time (see hasInstanceChanged()).
      * On exit, lotusCalEntries will only contain the entries we want created and
      * googleCalEntries will only contain the entries we want deleted.
      */
     public void compareCalendarEntries(
         ArrayList<LotusNotesCalendarEntry> lotusCalEntries,
-        ArrayList<Event> googleCalEntries) {
-        // Loop through all Google entries and remove entries that were created in GCal (not by LNGS)
-        for (int j = 0; j < googleCalEntries.size(); j++) {
-            if (!LotusNotesCalendarEntry.isLNGSUID(googleCalEntries.get(j)
-                                                                       .getICalUID())) {
-                // The Google entry was NOT created by LNGS, so we want to remove it from
-                // our processing list (i.e. we will leave it alone).
-                googleCalEntries.remove(j--);
+        ArrayList<Event> googleCalEntries) throws LngsException {
+        renderedEvents.clear();
+
+        // Index the Google entries by their SyncUID, so each Lotus entry needs one
+        // lookup instead of a pass over all Google entries. Entries that were created
+        // in GCal (not by LNGS) aren't indexed, so we will leave them alone.
+        HashMap<String, ArrayList<Event>> googleBySyncUID = new HashMap<String, ArrayList<Event>>(googleCalEntries.size() * 2);
+
+        for (Event googleEntry : googleCalEntries) {
+            if (!isLNGSEvent(googleEntry) || isRecurringInstance(googleEntry)) {
+                //statusMessageCallback.statusAppendLineDiag("Compare: Google entry NOT created by LNGS: " + googleEntry.getSummary());
+                continue;
+            }
+
+            String syncUID = getEventSyncUID(googleEntry);
+            ArrayList<Event> sameSyncUIDEntries = googleBySyncUID.get(syncUID);
 
-                //statusMessageCallback.statusAppendLineDiag("Compare: Google entry NOT created by LNGS: " + googleCalEntries.get(j).getSummary());
+            if (sameSyncUIDEntries == null) {
+                // Almost every SyncUID has exactly one Google entry
+                sameSyncUIDEntries = new ArrayList<Event>(1);
+                googleBySyncUID.put(syncUID, sameSyncUIDEntries);
             }
+
+            sameSyncUIDEntries.add(googleEntry);
         }
 
-        // Loop through all Lotus entries
-        for (int i = 0; i < lotusCalEntries.size(); i++) {
-            LotusNotesCalendarEntry lotusEntry = lotusCalEntries.get(i);
+        ArrayList<LotusNotesCalendarEntry> unmatchedEntries = new ArrayList<LotusNotesCalendarEntry>();
+        Set<Event> unchangedGoogleEntries = Collections.newSetFromMap(new IdentityHashMap<Event, Boolean>());
 
-            // Loop through all Google entries for each Lotus entry.  This isn't
-            // very efficient, but we have small lists (probably less than 300).
-            for (int j = 0; j < googleCalEntries.size(); j++) {
-                if (!hasEntryChanged(lotusEntry, googleCalEntries.get(j))) {
-                    // The Lotus and Google entries are identical, so remove them from out lists.
-                    // They don't need created or deleted.
-                    lotusCalEntries.remove(i--);
-                    googleCalEntries.remove(j--);
+        for (LotusNotesCalendarEntry lotusEntry : lotusCalEntries) {
+            ArrayList<Event> sameSyncUIDEntries = googleBySyncUID.get(lotusEntry.getSyncUID());
+            boolean isUnchanged = false;
 
-                    break;
-                } else {
-                    //statusMessageCallback.statusAppendLineDiag("Compare: Lotus entry needs created in GCal: " + lotusEntry.getSubject());
+            if (sameSyncUIDEntries != null) {
+                for (int j = 0; j < sameSyncUIDEntries.size(); j++) {
+                    Event googleEntry = sameSyncUIDEntries.get(j);
+
+                    if (!unchangedGoogleEntries.contains(googleEntry) &&
+                            !hasEntryChanged(lotusEntry, googleEntry)) {
+                        // The Lotus and Google entries are identical. They don't need
+                        // created or deleted.
+                        unchangedGoogleEntries.add(googleEntry);
+                        isUnchanged = true;
+
+                        break;
+                    }
                 }
             }
+
+            if (!isUnchanged) {
+                unmatchedEntries.add(lotusEntry);
+            }
         }
-    }
 
-    /**
+        // The SyncUID contains the modified timestamp of the Lotus document, so
+        // changing one instance of a repeating entry changes the SyncUID of every
+        // instance. Match the remaining entries on the Lotus UID plus the instance
+        // start, and keep the instances that look the same in Google.
+        HashMap<String, Event> googleByInstanceKey = new HashMap<String, Event>();
+
+        for (Event googleEntry : googleCalEntries) {
+            if (!isLNGSEvent(googleEntry) || isRecurringInstance(googleEntry) ||
+                    unchangedGoogleEntries.contains(googleEntry)) {
+                continue;
+            }
+
+            String instanceKey = LotusNotesCalendarEntry.getInstanceKeyFromSyncUID(getEventSyncUID(
+                        googleEntry));
+
+            if ((instanceKey != null) && !googleByInstanceKey.containsKey(instanceKey)) {
+                googleByInstanceKey.put(instanceKey, googleEntry);
+            }
+        }
+
+        ArrayList<LotusNotesCalendarEntry> createEntries = new ArrayList<LotusNotesCalendarEntry>();
+
+        for (LotusNotesCalendarEntry lotusEntry : unmatchedEntries) {
+            Event googleEntry = googleByInstanceKey.get(lotusEntry.getInstanceKey());
+
+            if ((googleEntry != null) && !hasInstanceChanged(lotusEntry, googleEntry)) {
+                googleByInstanceKey.remove(lotusEntry.getInstanceKey());
+                unchangedGoogleEntries.add(googleEntry);
+            } else {
+                //statusMessageCallback.statusAppendLineDiag("Compare: Lotus entry needs created in GCal: " + lotusEntry.getSubject());
+                createEntries.add(lotusEntry);
+            }
+        }
+
+        ArrayList<Event> deleteEntries = new ArrayList<Event>();
+
+        for (Event googleEntry : googleCalEntries) {
+            if (isLNGSEvent(googleEntry) && !isRecurringInstance(googleEntry) &&
+                    !unchangedGoogleEntries.contains(googleEntry)) {
+                deleteEntries.add(googleEntry);
+            }
+        }
+
+        // Replace the list contents in one step rather than removing entries
+        // from the middle of the lists
+        lotusCalEntries.clear();
+        lotusCalEntries.addAll(createEntries);
+        googleCalEntries.clear();
+        googleCalEntries.addAll(deleteEntries);
+    }
+
+    /**
+     * Compare the Lotus and Google entries like compareCalendarEntries(lotusCalEntries, googleCalEntries).
+     * If patchEntries isn't null, entries that need created are then paired with
+     * entries that need deleted (see pairChangedEntries()). Each pair is added to
+     * patchEntries as an in-place update and removed from the create/delete lists.
+     */
+    public void compareCalendarEntries(
+        ArrayList<LotusNotesCalendarEntry> lotusCalEntries,
+        ArrayList<Event> googleCalEntries, ArrayList<EventPatch> patchEntries)
+        throws LngsException {
+        compareCalendarEntries(lotusCalEntries, googleCalEntries);
+
+        if (patchEntries != null) {
+            patchEntries.addAll(pairChangedEntries(lotusCalEntries,
+                    googleCalEntries));
+        }
+    }
+
+    /**
+     * Pair the Lotus entries that need created with the Google entries that need
+     * deleted. Entries are paired on the Lotus UID plus the instance start. If a
+     * Lotus UID then has exactly one unpaired entry on each side (e.g. a moved
+     * appointment), those two are paired too.
+     * On exit, the paired entries are removed from both lists.
+     * @return An update for each pair that has changed fields.
+     */
+    protected ArrayList<EventPatch> pairChangedEntries(
+        ArrayList<LotusNotesCalendarEntry> lotusCalEntries,
+        ArrayList<Event> googleCalEntries) throws LngsException {
+        ArrayList<EventPatch> patchEntries = new ArrayList<EventPatch>();
+        Set<Event> pairedGoogleEntries = Collections.newSetFromMap(new IdentityHashMap<Event, Boolean>());
+        HashMap<String, Event> googleByInstanceKey = new HashMap<String, Event>();
+
+        for (Event googleEntry : googleCalEntries) {
+            String instanceKey = LotusNotesCalendarEntry.getInstanceKeyFromSyncUID(getEventSyncUID(
+                        googleEntry));
+
+            if ((instanceKey != null) && !googleByInstanceKey.containsKey(instanceKey)) {
+                googleByInstanceKey.put(instanceKey, googleEntry);
+            }
+        }
+
+        // First pass: pair on the Lotus UID plus the instance start
+        ArrayList<LotusNotesCalendarEntry> unpairedLotusEntries = new ArrayList<LotusNotesCalendarEntry>();
+
+        for (LotusNotesCalendarEntry lotusEntry : lotusCalEntries) {
+            Event googleEntry = googleByInstanceKey.get(lotusEntry.getInstanceKey());
+
+            if ((googleEntry != null) && isSameRecurrenceKind(lotusEntry, googleEntry)) {
+                googleByInstanceKey.remove(lotusEntry.getInstanceKey());
+                pairedGoogleEntries.add(googleEntry);
+                addEventPatch(patchEntries, lotusEntry, googleEntry);
+            } else {
+                unpairedLotusEntries.add(lotusEntry);
+            }
+        }
+
+        // Second pass: pair on the Lotus UID when it is unambiguous
+        HashMap<String, ArrayList<Event>> googleByUID = new HashMap<String, ArrayList<Event>>();
+
+        for (Event googleEntry : googleCalEntries) {
+            if (pairedGoogleEntries.contains(googleEntry)) {
+                continue;
+            }
+
+            String uid = LotusNotesCalendarEntry.getUIDFromSyncUID(getEventSyncUID(
+                        googleEntry));
+
+            if (uid != null) {
+                if (!googleByUID.containsKey(uid)) {
+                    googleByUID.put(uid, new ArrayList<Event>());
+                }
+
+                googleByUID.get(uid).add(googleEntry);
+            }
+        }
+
+        HashMap<String, Integer> lotusCountByUID = new HashMap<String, Integer>();
+
+        for (LotusNotesCalendarEntry lotusEntry : unpairedLotusEntries) {
+            Integer count = lotusCountByUID.get(lotusEntry.getUID());
+            lotusCountByUID.put(lotusEntry.getUID(), (count == null) ? 1 : (count + 1));
+        }
+
+        ArrayList<LotusNotesCalendarEntry> createEntries = new ArrayList<LotusNotesCalendarEntry>();
+
+        for (LotusNotesCalendarEntry lotusEntry : unpairedLotusEntries) {
+            ArrayList<Event> googleEntries = googleByUID.get(lotusEntry.getUID());
+
+            if ((googleEntries != null) && (googleEntries.size() == 1) &&
+                    (lotusCountByUID.get(lotusEntry.getUID()) == 1) &&
+                    isSameRecurrenceKind(lotusEntry, googleEntries.get(0))) {
+                pairedGoogleEntries.add(googleEntries.get(0));
+                addEventPatch(patchEntries, lotusEntry, googleEntries.get(0));
+            } else {
+                createEntries.add(lotusEntry);
+            }
+        }
+
+        ArrayList<Event> deleteEntries = new ArrayList<Event>();
+
+        for (Event googleEntry : googleCalEntries) {
+            if (!pairedGoogleEntries.contains(googleEntry)) {
+                deleteEntries.add(googleEntry);
+            }
+        }
+
+        lotusCalEntries.clear();
+        lotusCalEntries.addAll(createEntries);
+        googleCalEntries.clear();
+        googleCalEntries.addAll(deleteEntries);
+
+        return patchEntries;
+    }
+
+    /**
+     * Returns true if both entries are recurring, or both are single instances.
+     * A single instance can't be changed into a series (or back) with an update.
+     */
+    protected boolean isSameRecurrenceKind(LotusNotesCalendarEntry lotusEntry,
+        Event googleEntry) {
+        return (lotusEntry.getRecurrence() == null) == (googleEntry.getRecurrence() == null);
+    }
+
+    /**
+     * Returns true if the Google event is a changed instance of a recurring event.
+     * These are handled as part of the recurring event.
+     */
+    protected boolean isRecurringInstance(Event event) {
+        return event.getRecurringEventId() != null;
+    }
+
+    /**
+     * Compare two lists of recurrence lines, treating null and empty as the same.
+     */
+    protected boolean isSameRecurrence(List<String> recurrence1,
+        List<String> recurrence2) {
+        List<String> list1 = (recurrence1 == null) ? new ArrayList<String>()
+                                                   : recurrence1;
+        List<String> list2 = (recurrence2 == null) ? new ArrayList<String>()
+                                                   : recurrence2;
+
+        return list1.equals(list2);
+    }
+
+    /**
+     * Build the update for a Lotus/Google pair and add it to the list if any field changed.
+     */
+    protected void addEventPatch(ArrayList<EventPatch> patchEntries,
+        LotusNotesCalendarEntry lotusEntry, Event googleEntry)
+        throws LngsException {
+        EventPatch eventPatch = createEventPatch(lotusEntry, googleEntry);
+
+        if (eventPatch.hasChanges()) {
+            patchEntries.add(eventPatch);
+        }
+    }
+
+    /**
+     * Work out which fields of a Google entry differ from what LNGS would write
+     * for the Lotus entry.
+     * @return An update holding only the changed fields.
+     */
+    protected EventPatch createEventPatch(LotusNotesCalendarEntry lotusEntry,
+        Event googleEntry) throws LngsException {
+        Event newEntry = getRenderedEvent(lotusEntry);
+        EventPatch eventPatch = new EventPatch(lotusEntry, googleEntry);
+        Event patch = eventPatch.getPatch();
+
+        if (!isSameText(newEntry.getSummary(), googleEntry.getSummary())) {
+            patch.setSummary(newEntry.getSummary());
+            eventPatch.addChangedField("summary");
+        }
+
+        if (!isSameText(newEntry.getLocation(), googleEntry.getLocation())) {
+            // An empty string clears the Google value
+            patch.setLocation((newEntry.getLocation() == null) ? ""
+                                                                : newEntry.getLocation());
+            eventPatch.addChangedField("location");
+        }
+
+        if (!isSameText(newEntry.getDescription(), googleEntry.getDescription())) {
+            patch.setDescription(newEntry.getDescription());
+            eventPatch.addChangedField("description");
+        }
+
+        if (!isSameEventDateTime(newEntry.getStart(), googleEntry.getStart()) ||
+                !isSameEventDateTime(newEntry.getEnd(), googleEntry.getEnd())) {
+            // Google checks start and end together, so always send both
+            patch.setStart(newEntry.getStart());
+            patch.setEnd(newEntry.getEnd());
+            eventPatch.addChangedField("start/end");
+        }
+
+        if (!isSameRecurrence(newEntry.getRecurrence(),
+                    googleEntry.getRecurrence())) {
+            // The start/end must be sent with a recurrence change
+            patch.setRecurrence(newEntry.getRecurrence());
+            patch.setStart(newEntry.getStart());
+            patch.setEnd(newEntry.getEnd());
+            eventPatch.addChangedField("recurrence");
+        }
+
+        if (!isSameReminders(newEntry.getReminders(), googleEntry.getReminders())) {
+            patch.setReminders(newEntry.getReminders());
+            eventPatch.addChangedField("reminders");
+        }
+
+        String newVisibility = (newEntry.getVisibility() == null) ? "default"
+                                                                  : newEntry.getVisibility();
+        String googleVisibility = (googleEntry.getVisibility() == null) ? "default"
+                                                                        : googleEntry.getVisibility();
+
+        if (!newVisibility.equals(googleVisibility)) {
+            patch.setVisibility(newVisibility);
+            eventPatch.addChangedField("visibility");
+        }
+
+        if (eventPatch.hasChanges() ||
+                !isSameText(getPrivateProperty(newEntry, EXT_PROP_FINGERPRINT),
+                    getPrivateProperty(googleEntry, EXT_PROP_FINGERPRINT)) ||
+                (useExtendedProperties &&
+                !isSameText(getPrivateProperty(newEntry, EXT_PROP_SYNC_UID),
+                    getPrivateProperty(googleEntry, EXT_PROP_SYNC_UID)))) {
+            // Store the new sync info. The iCalUID can't be changed, so from now on
+            // the SyncUID in the extended properties is the one that is compared.
+            // The fingerprint must always be kept current, or the entry would be
+            // seen as changed on every sync.
+            patch.setExtendedProperties(newEntry.getExtendedProperties());
+            eventPatch.addChangedField("extendedProperties");
+        }
+
+        return eventPatch;
+    }
+
+    /**
+     * Compare two text values, treating null and empty as the same.
+     */
+    protected boolean isSameText(String value1, String value2) {
+        return ((value1 == null) ? "" : value1).equals((value2 == null) ? ""
+                                                                        : value2);
+    }
+
+    /**
+     * Compare two Google start/end values.
+     */
+    protected boolean isSameEventDateTime(EventDateTime edt1, EventDateTime edt2) {
+        if ((edt1 == null) || (edt2 == null)) {
+            return edt1 == edt2;
+        }
+
+        if (edt1.getDateTime() != null) {
+            return (edt2.getDateTime() != null) &&
+            (edt1.getDateTime().getValue() == edt2.getDateTime().getValue());
+        }
+
+        if (edt1.getDate() != null) {
+            return (edt2.getDate() != null) &&
+            edt1.getDate().toStringRfc3339()
+                .equals(edt2.getDate().toStringRfc3339());
+        }
+
+        return (edt2.getDateTime() == null) && (edt2.getDate() == null);
+    }
+
+    /**
+     * Compare two Google reminder settings.
+     */
+    protected boolean isSameReminders(Event.Reminders reminders1,
+        Event.Reminders reminders2) {
+        boolean useDefault1 = (reminders1 == null) ||
+            Boolean.TRUE.equals(reminders1.getUseDefault());
+        boolean useDefault2 = (reminders2 == null) ||
+            Boolean.TRUE.equals(reminders2.getUseDefault());
+
+        if (useDefault1 != useDefault2) {
+            return false;
+        }
+
+        if (useDefault1) {
+            return true;
+        }
+
+        List<EventReminder> overrides1 = reminders1.getOverrides();
+        List<EventReminder> overrides2 = reminders2.getOverrides();
+        int size1 = (overrides1 == null) ? 0 : overrides1.size();
+        int size2 = (overrides2 == null) ? 0 : overrides2.size();
+
+        if (size1 != size2) {
+            return false;
+        }
+
+        for (int i = 0; i < size1; i++) {
+            if (!isSameText(overrides1.get(i).getMethod(),
+                        overrides2.get(i).getMethod()) ||
+                    !String.valueOf(overrides1.get(i).getMinutes())
+                               .equals(String.valueOf(overrides2.get(i)
+                                                                .getMinutes()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compare the rendered content of one instance: what LNGS would write for the
+     * Lotus entry (subject, location, description, start, end, reminders, etc.)
+     * against the Google entry. The SyncUID, and so the Lotus modified timestamp,
+     * is ignored.
+     * Return true if the Google entry needs rewritten.
+     */
+    protected boolean hasInstanceChanged(LotusNotesCalendarEntry lotusEntry,
+        Event googleEntry) throws LngsException {
+        String googleFingerprint = getPrivateProperty(googleEntry,
+                EXT_PROP_FINGERPRINT);
+
+        if (googleFingerprint == null) {
+            // Created by an older LNGS version, so fingerprint the Google fields
+            googleFingerprint = computeFingerprint(googleEntry);
+        }
+
+        return !googleFingerprint.equals(getFingerprint(lotusEntry));
+    }
+
+    /**
+     * Returns the Google event LNGS would write for a Lotus entry. The event is
+     * built the first time it is asked for in a sync and reused after that.
+     */
+    protected Event getRenderedEvent(LotusNotesCalendarEntry lotusEntry)
+        throws LngsException {
+        Event event = renderedEvents.get(lotusEntry);
+
+        if (event == null) {
+            event = createGoogleEvent(lotusEntry);
+            renderedEvents.put(lotusEntry, event);
+        }
+
+        return event;
+    }
+
+    /**
+     * Returns the fingerprint of the Google event LNGS would write for a Lotus
+     * entry. The fingerprint depends on the sync options (location, alarms,
+     * description fields, etc.) as well as the Lotus values.
+     */
+    protected String getFingerprint(LotusNotesCalendarEntry lotusEntry)
+        throws LngsException {
+        return getPrivateProperty(getRenderedEvent(lotusEntry),
+            EXT_PROP_FINGERPRINT);
+    }
+
+    /**
      * Compare a Lotus and Google entry
      * Return true if the Lotus entry has changed since the last sync.
      * Return false if the two entries are equivalent.
      */
     public boolean hasEntryChanged(LotusNotesCalendarEntry lotusEntry,
-        Event googleEntry) {
-        final int googleUIDIdx = 33;
-
+        Event googleEntry) throws LngsException {
         String syncUID = lotusEntry.getSyncUID();
 
-        // The Google IcalUID has the format: GoogleUID:SyncUID. Strip off the 
-        // "GoogleUID:" part and do a compare of the SyncUID.
+        // The Google SyncUID comes from the extended properties or from the IcalUID
+        // (see getEventSyncUID()). Compare it to the Lotus SyncUID.
         // The SyncUID contains several pieces of info, including the Lotus modified
         // timestamp. Most changes to a Lotus entry will update this timestamp. Therefore,
         // this compare will catch the vast majority of the changes between Lotus/Google.
-        if (googleEntry.getICalUID().substring(googleUIDIdx).equals(syncUID)) {
+        if (syncUID.equals(getEventSyncUID(googleEntry))) {
             // The Google and Lotus entries match on our first test, but we have to compare
             // other values. Why? Say a sync is performed with the "sync alarms"
             // option enabled, but then "sync alarms" is turned off. When the
@@ -614,6 +1647,22 @@ public class GoogleManager {
             //statusMessageCallback.statusAppendLineDiag("Compare: UIDs match. Subj: " + googleEntry.getSummary() +
             //    "  Start: " + startStr);
 
+            // If the Google entry has a stored fingerprint, comparing it is enough.
+            // It covers every field LNGS writes, so the size of the description
+            // doesn't matter.
+            String googleFingerprint = getPrivateProperty(googleEntry,
+                    EXT_PROP_FINGERPRINT);
+
+            if (googleFingerprint != null) {
+                return !googleFingerprint.equals(getFingerprint(lotusEntry));
+            }
+
+            // Compare the recurrence rules
+            if (!isSameRecurrence(lotusEntry.getRecurrence(),
+                        googleEntry.getRecurrence())) {
+                return true;
+            }
+
             // Compare the title/subject
             String lotusSubject = createSubjectText(lotusEntry);
 
@@ -765,196 +1814,1060 @@ public class GoogleManager {
      */
     public int createCalendarEntries (
         ArrayList<LotusNotesCalendarEntry> lotusCalEntries)
-        throws LngsException, IOException {
-        int retryCount = 0;
+        throws LngsException, IOException, InterruptedException {
+        if (batchSize > 1) {
+            return createCalendarEntriesBatched(lotusCalEntries);
+        }
+
+        if (writeThreads > 1) {
+            return createCalendarEntriesParallel(lotusCalEntries);
+        }
+
         int createdCount = 0;
 
         for (int i = 0; i < lotusCalEntries.size(); i++) {
             LotusNotesCalendarEntry lotusEntry = lotusCalEntries.get(i);
-            Event event = new Event();
-            // Set the subject/title
-            event.setSummary(createSubjectText(lotusEntry));
-
-            // The Google IcalUID must be unique or we'll get a
-            // VersionConflictException during the insert. So start the IcalUID string
-            // with a newly generate UUID (with the '-' chars removed).  Then add the values
-            // we really want to remember (referred to as the SyncUID).
-            event.setICalUID(UUID.randomUUID().toString().replaceAll("-", "") +
-                ":" + lotusEntry.getSyncUID());
+            Event event = getRenderedEvent(lotusEntry);
+
+            createdCount++;
+            statusMessageCallback.statusAppendLineDiag("Create #" +
+                createdCount + ". Subject: " + event.getSummary() +
+                "  Start: " + getStartString(event) + "  Type: " +
+                lotusEntry.getAppointmentType());
+            storeWrite(insertEvent(client, destCalendar.getId(), event,
+                    lotusEntry, "Create #" + createdCount + ".", null));
+            journalDone(lotusEntry);
+        }
 
-            StringBuffer sb = new StringBuffer();
+        return createdCount;
+    }
 
-            // Set the body/description
-            event.setDescription(createDescriptionText(lotusEntry));
+    /**
+     * Create Lotus Notes calendar entries in the Google calendar using batch requests.
+     * @param lotusCalEntries - The list of Lotus Notes calendar entries.
+     * @return The number of Google calendar entries successfully created.
+     */
+    protected int createCalendarEntriesBatched(
+        ArrayList<LotusNotesCalendarEntry> lotusCalEntries)
+        throws LngsException, IOException, InterruptedException {
+        final String calendarId = destCalendar.getId();
+        ArrayList<BatchPart<?>> parts = new ArrayList<BatchPart<?>>();
 
-            if (syncWhere) {
-                String whereStr = lotusEntry.getGoogleWhereString();
+        for (int i = 0; i < lotusCalEntries.size(); i++) {
+            final LotusNotesCalendarEntry lotusEntry = lotusCalEntries.get(i);
+            final Event event = getRenderedEvent(lotusEntry);
 
-                if (whereStr != null) {
-                    // Remove all control/non-printing characters from the Where string. If present, such
-                    // characters will cause the GCal create to fail.
-                    event.setLocation(whereStr.replaceAll("\\p{Cntrl}", ""));
-                }
-            }
+            statusMessageCallback.statusAppendLineDiag("Create #" + (i + 1) +
+                ". Subject: " + event.getSummary() + "  Start: " +
+                getStartString(event) + "  Type: " +
+                lotusEntry.getAppointmentType());
 
-            boolean allDayEvent = false;
-            Date startTime;
-            Date endTime;
+            parts.add(new BatchPart<Event>() {
+                    protected boolean alreadyExists = false;
 
-            if ((lotusEntry.getEntryType() == LotusNotesCalendarEntry.EntryType.TASK) ||
-                    (lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.ALL_DAY_EVENT) ||
-                    (lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.ANNIVERSARY)) {
-                allDayEvent = true;
+                    @Override
+                    public void queue(BatchRequest batch) throws IOException {
+                        if (alreadyExists) {
+                            client.events()
+                                  .update(calendarId, event.getId(),
+                                createUpdateEvent(event)).queue(batch, this);
+                        } else {
+                            client.events().insert(calendarId, event)
+                                  .queue(batch, this);
+                        }
+                    }
 
-                // Create an all-day event by setting start/end dates with no time portion
-                startTime = lotusEntry.getStartDate(0);
+                    @Override
+                    protected void handleSuccess(Event result) {
+                        storeWrite(result);
+                        journalDone(lotusEntry);
+                    }
 
-                if (lotusEntry.getEndDateTime() == null) {
-                    // Use start date since the end date is null
-                    endTime = lotusEntry.getStartDate(1);
-                } else {
-                    endTime = lotusEntry.getEndDate(1);
-                }
-            } else if ((lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.APPOINTMENT) ||
-                    (lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.MEETING)) {
-                // Create a standard event
-                startTime = lotusEntry.getStartDateTime();
-
-                if (lotusEntry.getEndDateTime() == null) {
-                    // Use start date since the end date is null
-                    endTime = lotusEntry.getStartDateTime();
-                } else {
-                    endTime = lotusEntry.getEndDateTime();
-                }
-            } else if (lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.REMINDER) {
-                // Create a standard event with the start and end times the same
-                startTime = lotusEntry.getStartDateTime();
-                endTime = lotusEntry.getStartDateTime();
-            } else {
-                throw new LngsException(
-                    "Couldn't determine Lotus Notes event type.\nEvent subject: " +
-                    lotusEntry.getSubject() + "\nEntry Type: " +
-                    lotusEntry.getEntryType() + "\nAppointment Type: " +
-                    lotusEntry.getAppointmentType());
-            }
-
-            EventDateTime startEdt = new EventDateTime();
-            EventDateTime endEdt = new EventDateTime();
-
-            if (allDayEvent) {
-                // Set the date only, no time portion
-                DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                startEdt.setDate(new com.google.api.client.util.DateTime(
-                        dateFormat.format(startTime)));
-                endEdt.setDate(new com.google.api.client.util.DateTime(
-                        dateFormat.format(endTime)));
-            } else {
-                startEdt.setDateTime(new com.google.api.client.util.DateTime(
-                        startTime));
-                endEdt.setDateTime(new com.google.api.client.util.DateTime(
-                        endTime));
-            }
+                    @Override
+                    public boolean isRepeatable() {
+                        // A repeated insert with a fixed ID gets a conflict instead of a copy
+                        return event.getId() != null;
+                    }
 
-            event.setStart(startEdt);
-            event.setEnd(endEdt);
+                    @Override
+                    protected void handleUnknownOutcome() {
+                        journalDone(lotusEntry);
+                    }
 
-            Event.Reminders reminders = new Event.Reminders();
-            // Each Google Calendar can have 0 to 5 default reminders/notifications which are used when
-            // a new calendar entry is created. If syncAlarms is false, then the GCal default reminders
-            // will be used. When true, the Lotus Notes alarms are used.
-            reminders.setUseDefault(true);
+                    @Override
+                    protected boolean prepareResend(GoogleJsonError e) {
+                        if (!alreadyExists && isConflictError(e.getCode(), event)) {
+                            alreadyExists = true;
 
-            if (syncAlarms) {
-                reminders.setUseDefault(false);
+                            return true;
+                        }
 
-                if (lotusEntry.getAlarm()) {
-                    com.google.api.services.calendar.model.EventReminder reminder =
-                        new com.google.api.services.calendar.model.EventReminder();
-
-                    reminder.setMinutes(lotusEntry.getAlarmOffsetMinsGoogle());
-                    reminder.setMethod("popup");
-                    
-                    ArrayList<com.google.api.services.calendar.model.EventReminder> over =
-                        new ArrayList<com.google.api.services.calendar.model.EventReminder>();
-                    over.add(reminder);
-                    reminders.setOverrides(over);
-                }
-            }
+                        return false;
+                    }
 
-            // Always set the GCal reminder. It will either be empty or have
-            // the Lotus value.
-            event.setReminders(reminders);
+                    @Override
+                    public String getDescription() {
+                        return "Create. Subject: " + event.getSummary() +
+                        "  Start: " + getStartString(event);
+                    }
+                });
+        }
 
-            // If the Lotus Notes entry has the Mark Private checkbox checked, then
-            // mark the entry private in Google
-            if (lotusEntry.getPrivate()) {
-                event.setVisibility("private");
-            }
+        return executeBatchParts(parts);
+    }
 
-            retryCount = 0;
+    /**
+     * Create Lotus Notes calendar entries in the Google calendar using several threads.
+     * @param lotusCalEntries - The list of Lotus Notes calendar entries.
+     * @return The number of Google calendar entries successfully created.
+     */
+    protected int createCalendarEntriesParallel(
+        ArrayList<LotusNotesCalendarEntry> lotusCalEntries)
+        throws LngsException, InterruptedException {
+        final com.google.api.services.calendar.Calendar calendarClient = client;
+        final String calendarId = destCalendar.getId();
+        ArrayList<GoogleWriteExecutor.WriteTask> tasks = new ArrayList<GoogleWriteExecutor.WriteTask>();
 
-            do {
-                String startStr = "" +
-                    ((event.getStart().getDateTime() != null)
-                    ? event.getStart().getDateTime() : event.getStart().getDate());
+        for (final LotusNotesCalendarEntry lotusEntry : lotusCalEntries) {
+            // Build the event on this thread. Only the HTTP call runs on the write threads.
+            final Event event = getRenderedEvent(lotusEntry);
 
-                createdCount++;
-                statusMessageCallback.statusAppendLineDiag("Create #" +
-                    createdCount + ". Subject: " + event.getSummary() +
-                    "  Start: " + startStr + "  Type: " +
-                    lotusEntry.getAppointmentType());
-                client.events().insert(destCalendar.getId(), event).execute();
+            tasks.add(new GoogleWriteExecutor.WriteTask() {
+                    @Override
+                    public void execute()
+                        throws IOException, InterruptedException {
+                        storeWrite(insertEvent(calendarClient, calendarId,
+                                event, lotusEntry, "Create.", retryMessages));
+                        journalDone(lotusEntry);
+                    }
 
-                break;
-            } while (true);
+                    @Override
+                    public String getDescription() {
+                        return "Subject: " + event.getSummary() + "  Start: " +
+                        getStartString(event) + "  Type: " +
+                        lotusEntry.getAppointmentType();
+                    }
+                });
         }
 
-        return createdCount;
+        return new GoogleWriteExecutor(writeThreads, statusMessageCallback).execute("Create",
+            tasks);
     }
 
     /**
-     * Build the GCal subject text from the Lotus Notes calendar entry.
-     * @param lotusEntry - The source Lotus Notes calendar entry.
-     * @return The GCal subject text.
+     * Update Google calendar entries in place, sending only the changed fields.
+     * @param patchEntries - The updates to make.
+     * @return The number of Google calendar entries successfully updated.
      */
-    protected String createSubjectText(LotusNotesCalendarEntry lotusEntry) {
-        String subjectText = "";
+    public int patchCalendarEntries(ArrayList<EventPatch> patchEntries)
+        throws LngsException, IOException, InterruptedException {
+        if (batchSize > 1) {
+            return patchCalendarEntriesBatched(patchEntries);
+        }
 
-        if (syncAllSubjectsToValue) {
-            subjectText = syncAllSubjectsToThisValue;
-        } else {
-            // Remove carriage returns
-            subjectText = lotusEntry.getSubject().trim().replace("\r", "");
+        if (writeThreads > 1) {
+            return patchCalendarEntriesParallel(patchEntries);
         }
 
-        if (subjectText.length() > maxSubjectChars) {
-            // Truncate to a max size
-            subjectText = subjectText.substring(0, maxSubjectChars);
+        int patchedCount = 0;
+
+        for (int i = 0; i < patchEntries.size(); i++) {
+            EventPatch eventPatch = patchEntries.get(i);
+            Event googleEntry = eventPatch.getGoogleEntry();
+
+            patchedCount++;
+            statusMessageCallback.statusAppendLineDiag("Update #" +
+                patchedCount + ". Subject: " + googleEntry.getSummary() +
+                "  Start: " + getStartString(googleEntry) + "  Changed: " +
+                eventPatch.getChangedFields());
+            storeWrite(retryPolicy.execute("Update #" + patchedCount + ".",
+                    client.events()
+                          .patch(destCalendar.getId(), googleEntry.getId(),
+                        eventPatch.getPatch())));
+            journalDone(eventPatch);
         }
 
-        return subjectText;
+        return patchedCount;
     }
 
     /**
-     * Build the GCal description text from the Lotus Notes calendar entry. The
-     * output includes the LN description and optional info like the invitees.
-     * @param lotusEntry - The source Lotus Notes calendar entry.
-     * @return The GCal description text.
+     * Update Google calendar entries in place using batch requests.
+     * @param patchEntries - The updates to make.
+     * @return The number of Google calendar entries successfully updated.
      */
-    protected String createDescriptionText(LotusNotesCalendarEntry lotusEntry) {
-        StringBuffer sb = new StringBuffer();
+    protected int patchCalendarEntriesBatched(
+        ArrayList<EventPatch> patchEntries)
+        throws LngsException, IOException, InterruptedException {
+        final String calendarId = destCalendar.getId();
+        ArrayList<BatchPart<?>> parts = new ArrayList<BatchPart<?>>();
+
+        for (int i = 0; i < patchEntries.size(); i++) {
+            final EventPatch eventPatch = patchEntries.get(i);
+            final Event googleEntry = eventPatch.getGoogleEntry();
+
+            statusMessageCallback.statusAppendLineDiag("Update #" + (i + 1) +
+                ". Subject: " + googleEntry.getSummary() + "  Start: " +
+                getStartString(googleEntry) + "  Changed: " +
+                eventPatch.getChangedFields());
+
+            parts.add(new BatchPart<Event>() {
+                    @Override
+                    public void queue(BatchRequest batch) throws IOException {
+                        client.events()
+                              .patch(calendarId, googleEntry.getId(),
+                            eventPatch.getPatch()).queue(batch, this);
+                    }
 
-        if (syncMeetingAttendees) {
-            if (lotusEntry.getChairpersonPlain() != null) {
-                //chair comes out in format: CN=Jonathan Marshall/OU=UK/O=IBM, leaving like that at the moment
-                sb.append("Chairperson: ");
-                sb.append(lotusEntry.getChairpersonPlain());
-            }
+                    @Override
+                    public String getDescription() {
+                        return "Update. Subject: " + googleEntry.getSummary() +
+                        "  Start: " + getStartString(googleEntry);
+                    }
 
-            if (lotusEntry.getRequiredAttendeesPlain() != null) {
-                if (sb.length() > 0) {
-                    sb.append("\n");
-                }
+                    @Override
+                    protected void handleSuccess(Event result) {
+                        storeWrite(result);
+                        journalDone(eventPatch);
+                    }
+                });
+        }
+
+        return executeBatchParts(parts);
+    }
+
+    /**
+     * Update Google calendar entries in place using several threads.
+     * @param patchEntries - The updates to make.
+     * @return The number of Google calendar entries successfully updated.
+     */
+    protected int patchCalendarEntriesParallel(
+        ArrayList<EventPatch> patchEntries)
+        throws LngsException, InterruptedException {
+        final com.google.api.services.calendar.Calendar calendarClient = client;
+        final String calendarId = destCalendar.getId();
+        ArrayList<GoogleWriteExecutor.WriteTask> tasks = new ArrayList<GoogleWriteExecutor.WriteTask>();
+
+        for (final EventPatch eventPatch : patchEntries) {
+            final Event googleEntry = eventPatch.getGoogleEntry();
+
+            tasks.add(new GoogleWriteExecutor.WriteTask() {
+                    @Override
+                    public void execute()
+                        throws IOException, InterruptedException {
+                        storeWrite(retryPolicy.execute("Update.",
+                                calendarClient.events()
+                                              .patch(calendarId,
+                                    googleEntry.getId(), eventPatch.getPatch()),
+                                retryMessages));
+                        journalDone(eventPatch);
+                    }
+
+                    @Override
+                    public String getDescription() {
+                        return "Subject: " + googleEntry.getSummary() +
+                        "  Start: " + getStartString(googleEntry) +
+                        "  Changed: " + eventPatch.getChangedFields();
+                    }
+                });
+        }
+
+        return new GoogleWriteExecutor(writeThreads, statusMessageCallback).execute("Update",
+            tasks);
+    }
+
+    /**
+     * Build the Google calendar event for a Lotus Notes calendar entry.
+     * @param lotusEntry - The source Lotus Notes calendar entry.
+     * @return The new Google event (not yet inserted).
+     * @throws LngsException
+     */
+    protected Event createGoogleEvent(LotusNotesCalendarEntry lotusEntry)
+        throws LngsException {
+        Event event = new Event();
+        // Set the subject/title
+        event.setSummary(createSubjectText(lotusEntry));
+
+        // The Google IcalUID must be unique or we'll get a
+        // VersionConflictException during the insert. So start the IcalUID string
+        // with a newly generate UUID (with the '-' chars removed).  Then add the values
+        // we really want to remember (referred to as the SyncUID).
+        event.setICalUID(UUID.randomUUID().toString().replaceAll("-", "") +
+            ":" + lotusEntry.getSyncUID());
+
+        // Set the body/description
+        event.setDescription(createDescriptionText(lotusEntry));
+
+        if (syncWhere) {
+            String whereStr = lotusEntry.getGoogleWhereString();
+
+            if (whereStr != null) {
+                // Remove all control/non-printing characters from the Where string. If present, such
+                // characters will cause the GCal create to fail.
+                event.setLocation(whereStr.replaceAll("\\p{Cntrl}", ""));
+            }
+        }
+
+        boolean allDayEvent = false;
+        Date startTime;
+        Date endTime;
+
+        if ((lotusEntry.getEntryType() == LotusNotesCalendarEntry.EntryType.TASK) ||
+                (lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.ALL_DAY_EVENT) ||
+                (lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.ANNIVERSARY)) {
+            allDayEvent = true;
+
+            // Create an all-day event by setting start/end dates with no time portion
+            startTime = lotusEntry.getStartDate(0);
+
+            if (lotusEntry.getEndDateTime() == null) {
+                // Use start date since the end date is null
+                endTime = lotusEntry.getStartDate(1);
+            } else {
+                endTime = lotusEntry.getEndDate(1);
+            }
+        } else if ((lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.APPOINTMENT) ||
+                (lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.MEETING)) {
+            // Create a standard event
+            startTime = lotusEntry.getStartDateTime();
+
+            if (lotusEntry.getEndDateTime() == null) {
+                // Use start date since the end date is null
+                endTime = lotusEntry.getStartDateTime();
+            } else {
+                endTime = lotusEntry.getEndDateTime();
+            }
+        } else if (lotusEntry.getAppointmentType() == LotusNotesCalendarEntry.AppointmentType.REMINDER) {
+            // Create a standard event with the start and end times the same
+            startTime = lotusEntry.getStartDateTime();
+            endTime = lotusEntry.getStartDateTime();
+        } else {
+            throw new LngsException(
+                "Couldn't determine Lotus Notes event type.\nEvent subject: " +
+                lotusEntry.getSubject() + "\nEntry Type: " +
+                lotusEntry.getEntryType() + "\nAppointment Type: " +
+                lotusEntry.getAppointmentType());
+        }
+
+        EventDateTime startEdt = new EventDateTime();
+        EventDateTime endEdt = new EventDateTime();
+
+        if (allDayEvent) {
+            // Set the date only, no time portion
+            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+            startEdt.setDate(new com.google.api.client.util.DateTime(
+                    dateFormat.format(startTime)));
+            endEdt.setDate(new com.google.api.client.util.DateTime(
+                    dateFormat.format(endTime)));
+        } else {
+            startEdt.setDateTime(new com.google.api.client.util.DateTime(
+                    startTime));
+            endEdt.setDateTime(new com.google.api.client.util.DateTime(
+                    endTime));
+        }
+
+        if (lotusEntry.getRecurrence() != null) {
+            // Google needs a time zone to expand the recurrence of a timed event
+            if (!allDayEvent) {
+                startEdt.setTimeZone(TimeZone.getDefault().getID());
+                endEdt.setTimeZone(TimeZone.getDefault().getID());
+            }
+
+            event.setRecurrence(lotusEntry.getRecurrence());
+        }
+
+        event.setStart(startEdt);
+        event.setEnd(endEdt);
+
+        Event.Reminders reminders = new Event.Reminders();
+        // Each Google Calendar can have 0 to 5 default reminders/notifications which are used when
+        // a new calendar entry is created. If syncAlarms is false, then the GCal default reminders
+        // will be used. When true, the Lotus Notes alarms are used.
+        reminders.setUseDefault(true);
+
+        if (syncAlarms) {
+            reminders.setUseDefault(false);
+
+            if (lotusEntry.getAlarm()) {
+                com.google.api.services.calendar.model.EventReminder reminder =
+                    new com.google.api.services.calendar.model.EventReminder();
+
+                reminder.setMinutes(lotusEntry.getAlarmOffsetMinsGoogle());
+                reminder.setMethod("popup");
+                
+                ArrayList<com.google.api.services.calendar.model.EventReminder> over =
+                    new ArrayList<com.google.api.services.calendar.model.EventReminder>();
+                over.add(reminder);
+                reminders.setOverrides(over);
+            }
+        }
+
+        // Always set the GCal reminder. It will either be empty or have
+        // the Lotus value.
+        event.setReminders(reminders);
+
+        // If the Lotus Notes entry has the Mark Private checkbox checked, then
+        // mark the entry private in Google
+        if (lotusEntry.getPrivate()) {
+            event.setVisibility("private");
+        }
+
+        if (deterministicIds) {
+            event.setId(getEventId(lotusEntry));
+        }
+
+        if (useExtendedProperties || deterministicIds) {
+            // Fixed IDs also need the sync info here. An existing entry may be
+            // overwritten, and its IcalUID (with the old SyncUID) can't be changed.
+            setExtendedProperties(event, lotusEntry.getSyncUID(),
+                computeFingerprint(event));
+        } else {
+            // Only store the fingerprint, so the next sync can compare it
+            Map<String, String> privateProperties = new HashMap<String, String>();
+            privateProperties.put(EXT_PROP_FINGERPRINT, computeFingerprint(event));
+
+            Event.ExtendedProperties extendedProperties = new Event.ExtendedProperties();
+            extendedProperties.setPrivate(privateProperties);
+            event.setExtendedProperties(extendedProperties);
+        }
+
+        return event;
+    }
+
+    /**
+     * Store the LNGS sync info in the private extended properties of a Google event.
+     * @param event - The event to update.
+     * @param syncUID - The SyncUID of the Lotus entry the event was made from.
+     * @param fingerprint - The fingerprint of the event content (see computeFingerprint()).
+     */
+    protected void setExtendedProperties(Event event, String syncUID,
+        String fingerprint) {
+        Map<String, String> privateProperties = new HashMap<String, String>();
+        privateProperties.put(EXT_PROP_LNGS, "1");
+        privateProperties.put(EXT_PROP_SYNC_UID, syncUID);
+        privateProperties.put(EXT_PROP_UNID,
+            LotusNotesCalendarEntry.getUIDFromSyncUID(syncUID));
+        privateProperties.put(EXT_PROP_INSTANCE,
+            LotusNotesCalendarEntry.getStartTimeFromSyncUID(syncUID));
+        privateProperties.put(EXT_PROP_FINGERPRINT, fingerprint);
+
+        Event.ExtendedProperties extendedProperties = new Event.ExtendedProperties();
+        extendedProperties.setPrivate(privateProperties);
+        event.setExtendedProperties(extendedProperties);
+    }
+
+    /**
+     * Returns an MD5 hash (as hex) of the event fields LNGS writes. Two events with
+     * the same fingerprint look the same in Google calendar.
+     */
+    protected String computeFingerprint(Event event) throws LngsException {
+        StringBuilder sb = new StringBuilder();
+        // Google leaves out empty values, so treat null and empty as the same
+        sb.append(nullToEmpty(event.getSummary())).append('\0');
+        sb.append(nullToEmpty(event.getLocation())).append('\0');
+        sb.append(nullToEmpty(event.getDescription())).append('\0');
+        appendFingerprintDateTime(sb, event.getStart());
+        appendFingerprintDateTime(sb, event.getEnd());
+
+        Event.Reminders reminders = event.getReminders();
+
+        if ((reminders == null) || Boolean.TRUE.equals(reminders.getUseDefault())) {
+            sb.append("default");
+        } else if (reminders.getOverrides() != null) {
+            for (EventReminder reminder : reminders.getOverrides()) {
+                sb.append(reminder.getMethod()).append(':')
+                  .append(reminder.getMinutes()).append(',');
+            }
+        }
+
+        sb.append('\0');
+        sb.append((event.getVisibility() == null) ? "default"
+                                                  : event.getVisibility());
+
+        if (event.getRecurrence() != null) {
+            for (String line : event.getRecurrence()) {
+                sb.append('\0').append(line);
+            }
+        }
+
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte[] digest = md5.digest(sb.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new LngsException("Unable to compute the entry fingerprint.", ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new LngsException("Unable to compute the entry fingerprint.", ex);
+        }
+    }
+
+    protected String nullToEmpty(String value) {
+        return (value == null) ? "" : value;
+    }
+
+    protected void appendFingerprintDateTime(StringBuilder sb, EventDateTime edt) {
+        if (edt != null) {
+            if (edt.getDateTime() != null) {
+                sb.append(edt.getDateTime().getValue());
+            } else if (edt.getDate() != null) {
+                sb.append(edt.getDate().toStringRfc3339());
+            }
+        }
+
+        sb.append('\0');
+    }
+
+    /**
+     * Returns a private extended property of a Google event, or null if it isn't set.
+     */
+    protected String getPrivateProperty(Event event, String name) {
+        if ((event.getExtendedProperties() == null) ||
+                (event.getExtendedProperties().getPrivate() == null)) {
+            return null;
+        }
+
+        return event.getExtendedProperties().getPrivate().get(name);
+    }
+
+    /**
+     * Returns true if the Google event was created by LNGS.
+     */
+    protected boolean isLNGSEvent(Event event) {
+        if ("1".equals(getPrivateProperty(event, EXT_PROP_LNGS))) {
+            return true;
+        }
+
+        return (event.getICalUID() != null) &&
+        LotusNotesCalendarEntry.isLNGSUID(event.getICalUID());
+    }
+
+    /**
+     * Returns the SyncUID of an LNGS Google event. The value in the extended
+     * properties is used if there is one, because it is updated when the entry
+     * is patched. Otherwise the SyncUID is taken from the IcalUID, which has
+     * the format GoogleUID:SyncUID.
+     */
+    protected String getEventSyncUID(Event event) {
+        String syncUID = getPrivateProperty(event, EXT_PROP_SYNC_UID);
+
+        if (syncUID != null) {
+            return syncUID;
+        }
+
+        return LotusNotesCalendarEntry.getSyncUIDFromLNGSUID(event.getICalUID());
+    }
+
+    /**
+     * Give existing LNGS entries the extended properties. This is done once per
+     * calendar: the whole calendar is listed, and LNGS entries without the
+     * properties are updated with the sync info from their IcalUID.
+     */
+    protected void migrateExtendedProperties()
+        throws IOException, LngsException, InterruptedException {
+        String calendarId = destCalendar.getId();
+
+        if (calendarId.equals(extendedPropertiesCalendarId)) {
+            return;
+        }
+
+        statusMessageCallback.statusAppendLineDiag(
+            "Checking existing Google entries for LNGS extended properties.");
+
+        ArrayList<EventPatch> migrateEntries = new ArrayList<EventPatch>();
+        String pageToken = null;
+        int queryCount = 0;
+
+        do {
+            com.google.api.services.calendar.Calendar.Events.List listRequest =
+                client.events().list(calendarId).setMaxResults(1000)
+                      .setPageToken(pageToken);
+
+            if (slimListing) {
+                listRequest.setFields(slimListingFields);
+            }
+
+            GoogleEventPageParser.EventPage page = executeListRequest(
+                    "Migration Query #" + (queryCount + 1) + ".", listRequest);
+            queryCount++;
+
+            for (Event evt : page.getItems()) {
+                if ((getPrivateProperty(evt, EXT_PROP_LNGS) == null) &&
+                        (evt.getICalUID() != null) &&
+                        LotusNotesCalendarEntry.isLNGSUID(evt.getICalUID())) {
+                    EventPatch eventPatch = new EventPatch(null, evt);
+                    setExtendedProperties(eventPatch.getPatch(),
+                        LotusNotesCalendarEntry.getSyncUIDFromLNGSUID(evt.getICalUID()),
+                        computeFingerprint(evt));
+                    eventPatch.addChangedField("extendedProperties");
+                    migrateEntries.add(eventPatch);
+                }
+            }
+
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+
+        if (migrateEntries.size() > 0) {
+            statusMessageCallback.statusAppendLineDiag(
+                "Adding LNGS extended properties to " + migrateEntries.size() +
+                " existing Google entries.");
+            patchCalendarEntries(migrateEntries);
+        }
+
+        extendedPropertiesCalendarId = calendarId;
+    }
+
+    /**
+     * Send a list of batch parts to Google, at most batchSize parts per batch request.
+     * Parts that fail with a temporary error (rate limits, server errors) are sent
+     * again. Parts that fail with a permanent error are reported in the thrown exception.
+     * If a whole batch request fails without a response, its repeatable parts are sent
+     * again. The others (e.g. inserts without a fixed ID) may already have been made, so
+     * they aren't sent again; they are reported, and the local sync state is dropped so
+     * the next sync does a full compare and finds them.
+     * @param parts - The calls to send.
+     * @return The number of parts that succeeded.
+     */
+    protected int executeBatchParts(List<BatchPart<?>> parts)
+        throws LngsException, IOException, InterruptedException {
+        int chunkSize = Math.min(batchSize, maxBatchSize);
+        int successCount = 0;
+        int retryCount = 0;
+        List<BatchPart<?>> pending = parts;
+        ArrayList<BatchPart<?>> failed = new ArrayList<BatchPart<?>>();
+        ArrayList<BatchPart<?>> unknown = new ArrayList<BatchPart<?>>();
+
+        while (!pending.isEmpty()) {
+            ArrayList<BatchPart<?>> retryParts = new ArrayList<BatchPart<?>>();
+            ArrayList<BatchPart<?>> resendParts = new ArrayList<BatchPart<?>>();
+
+            for (int i = 0; i < pending.size(); i += chunkSize) {
+                List<BatchPart<?>> chunk = pending.subList(i,
+                        Math.min(i + chunkSize, pending.size()));
+                BatchRequest batch = client.batch();
+                batch.setBatchUrl(new GenericUrl(batchUrl));
+
+                for (BatchPart<?> part : chunk) {
+                    part.reset();
+                    part.queue(batch);
+                }
+
+                boolean isBatchLost = false;
+
+                try {
+                    batch.execute();
+                } catch (IOException ex) {
+                    // The whole batch failed (e.g. a network problem). The parts
+                    // without a response may or may not have been made.
+                    isBatchLost = true;
+                    statusMessageCallback.statusAppendLineDiag(
+                        "Batch request failed. Encountered " + ex.toString());
+                }
+
+                for (BatchPart<?> part : chunk) {
+                    if (isBatchLost && !part.hasResponse() &&
+                            !part.isRepeatable()) {
+                        unknown.add(part);
+                    } else if (part.getSucceeded()) {
+                        successCount++;
+                    } else if ((part.getError() != null) &&
+                            part.prepareResend(part.getError())) {
+                        resendParts.add(part);
+                    } else if (retryPolicy.isRetryable(part.getError())) {
+                        retryParts.add(part);
+                    } else {
+                        failed.add(part);
+                    }
+                }
+            }
+
+            if (!retryParts.isEmpty()) {
+                if (!retryPolicy.beginRetry(++retryCount)) {
+                    failed.addAll(retryParts);
+
+                    break;
+                }
+
+                // If Google said how long to wait, use the longest requested delay
+                long delayMsecs = retryPolicy.getDelayMsecs(retryCount, null);
+
+                for (BatchPart<?> part : retryParts) {
+                    if (part.getErrorHeaders() != null) {
+                        delayMsecs = Math.max(delayMsecs,
+                                retryPolicy.getDelayMsecs(retryCount,
+                                    part.getErrorHeaders()));
+                    }
+                }
+
+                statusMessageCallback.statusAppendLineDiag("Batch Retry #" +
+                    retryCount + " in " + delayMsecs + " ms. Resending " +
+                    retryParts.size() + " failed calls.");
+                Thread.sleep(delayMsecs);
+            }
+
+            // Parts sent again in a different form don't wait or use up retries
+            retryParts.addAll(resendParts);
+            pending = retryParts;
+        }
+
+        if (!unknown.isEmpty()) {
+            // The local sync state may be missing these entries. Don't trust it next time.
+            stateStoreFailed = true;
+
+            // Resuming the journal would send them again, so they are left to the next compare
+            for (BatchPart<?> part : unknown) {
+                part.handleUnknownOutcome();
+            }
+        }
+
+        if (!failed.isEmpty() || !unknown.isEmpty()) {
+            BatchPart<?> firstFailed = failed.isEmpty() ? unknown.get(0)
+                                                        : failed.get(0);
+            throw new LngsException((failed.size() + unknown.size()) + " of " +
+                parts.size() + " Google calendar changes failed. " +
+                (unknown.isEmpty() ? ""
+                                   : (unknown.size() +
+                " of them got no response and weren't sent again, because that could" +
+                " create duplicate entries. The next sync will check them. ")) +
+                firstFailed.getDescription() + "\nError: " +
+                ((firstFailed.getError() != null)
+                ? firstFailed.getError().getMessage() : "no response"));
+        }
+
+        return successCount;
+    }
+
+    /**
+     * Returns true if the exception means the Google entry no longer exists.
+     */
+    protected boolean isGoneError(IOException ex) {
+        if (ex instanceof GoogleJsonResponseException) {
+            int statusCode = ((GoogleJsonResponseException) ex).getStatusCode();
+
+            return (statusCode == 404) || (statusCode == 410);
+        }
+
+        return false;
+    }
+
+    /**
+     * Send the changes an interrupted sync didn't complete (see GoogleSyncJournal).
+     * If they can't be sent, the journal is dropped. The compare that follows
+     * will find anything that is still out of date.
+     * @return The number of changes that were resumed.
+     */
+    public int resumeSyncJournal()
+        throws LngsException, InterruptedException {
+        if (!useSyncJournal) {
+            return 0;
+        }
+
+        if (syncJournal == null) {
+            syncJournal = new GoogleSyncJournal(JSON_FACTORY, syncJournalFullFilename);
+        }
+
+        syncJournal.close();
+
+        try {
+            GoogleSyncJournal.PendingChanges pending = syncJournal.resume(destCalendar.getId());
+
+            if (pending.isEmpty()) {
+                return 0;
+            }
+
+            // The resumed changes aren't all in the local sync state
+            forceFullListing = true;
+            statusMessageCallback.statusAppendLineDiag("Resuming " +
+                pending.size() + " Google calendar changes from an unfinished sync");
+            deleteCalendarEntries(pending.getDeletes());
+            patchCalendarEntries(pending.getPatches());
+
+            for (int i = 0; i < pending.getCreates().size(); i++) {
+                Event event = pending.getCreates().get(i);
+
+                statusMessageCallback.statusAppendLineDiag("Create #" + (i + 1) +
+                    ". Subject: " + event.getSummary() + "  Start: " +
+                    getStartString(event));
+                storeWrite(insertEvent(client, destCalendar.getId(), event,
+                        event, "Create #" + (i + 1) + ".", null));
+                syncJournal.markDone(event);
+            }
+
+            syncJournal.finish();
+
+            return pending.size();
+        } catch (IOException ex) {
+            statusMessageCallback.statusAppendLineDiag(
+                "Unable to resume the unfinished sync. Encountered " + ex.toString());
+            syncJournal.finish();
+        } catch (LngsException ex) {
+            statusMessageCallback.statusAppendLineDiag(
+                "Unable to resume the unfinished sync. Encountered " + ex.toString());
+            syncJournal.finish();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Write the changes this sync will make to the journal, before any are sent.
+     * @param deleteEntries - The Google entries to delete.
+     * @param patchEntries - The updates to make. Can be null.
+     * @param createEntries - The Lotus entries to create in Google.
+     */
+    public void beginSyncJournal(ArrayList<Event> deleteEntries,
+        ArrayList<EventPatch> patchEntries,
+        ArrayList<LotusNotesCalendarEntry> createEntries)
+        throws LngsException {
+        if (!useSyncJournal) {
+            return;
+        }
+
+        if (syncJournal == null) {
+            syncJournal = new GoogleSyncJournal(JSON_FACTORY, syncJournalFullFilename);
+        }
+
+        try {
+            syncJournal.begin(destCalendar.getId());
+
+            for (Event googleEntry : deleteEntries) {
+                syncJournal.planDelete(googleEntry);
+            }
+
+            if (patchEntries != null) {
+                for (EventPatch eventPatch : patchEntries) {
+                    syncJournal.planPatch(eventPatch);
+                }
+            }
+
+            for (LotusNotesCalendarEntry lotusEntry : createEntries) {
+                syncJournal.planCreate(lotusEntry, getRenderedEvent(lotusEntry));
+            }
+
+            syncJournal.commitPlan();
+        } catch (IOException ex) {
+            throw new LngsException("Unable to write the sync journal " +
+                syncJournalFullFilename, ex);
+        }
+    }
+
+    /**
+     * All the changes of this sync were made. Delete the journal.
+     */
+    public void finishSyncJournal() {
+        if (syncJournal != null) {
+            syncJournal.finish();
+        }
+    }
+
+    /**
+     * Mark a planned change as done in the journal. Can be called from write threads.
+     */
+    protected void journalDone(Object item) {
+        if (syncJournal != null) {
+            syncJournal.markDone(item);
+        }
+    }
+
+    /**
+     * Insert a Google event. If the event has a fixed ID (see getEventId()) and
+     * Google says the ID is already in use, the existing entry is overwritten
+     * instead. That happens when a retried insert had already reached Google, or
+     * when an entry with the same ID was deleted earlier (Google keeps the ID).
+     * Without a fixed ID, an insert that got no response isn't sent again, because
+     * Google may have made it and would make a copy. It is marked done in the
+     * journal, so a resume doesn't send it either, and the local sync state is
+     * dropped, so the next sync lists Google and the compare finds out.
+     * @param journalItem - The item the insert is planned under in the journal.
+     * @param retryMessages - See GoogleRetryPolicy.execute(). Can be null.
+     */
+    protected Event insertEvent(
+        com.google.api.services.calendar.Calendar calendarClient,
+        String calendarId, Event event, Object journalItem, String description,
+        List<String> retryMessages) throws IOException, InterruptedException {
+        boolean hasFixedId = event.getId() != null;
+
+        try {
+            return retryPolicy.execute(description,
+                calendarClient.events().insert(calendarId, event), retryMessages,
+                hasFixedId);
+        } catch (GoogleJsonResponseException ex) {
+            if (!isConflictError(ex.getStatusCode(), event)) {
+                throw ex;
+            }
+
+            return retryPolicy.execute(description + " Already exists, updating.",
+                calendarClient.events()
+                              .update(calendarId, event.getId(),
+                    createUpdateEvent(event)), retryMessages);
+        } catch (IOException ex) {
+            if (!hasFixedId && !retryPolicy.hasResponse(ex)) {
+                stateStoreFailed = true;
+                journalDone(journalItem);
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns true if an insert failed because an event with our fixed ID exists.
+     */
+    protected boolean isConflictError(int statusCode, Event event) {
+        return (statusCode == 409) && (event.getId() != null);
+    }
+
+    /**
+     * Build the body used to overwrite an existing entry that has the same ID.
+     * The IcalUID of an entry can't be changed, so it's left out. The status is
+     * set in case the existing entry was deleted.
+     */
+    protected Event createUpdateEvent(Event event) {
+        Event updateEvent = event.clone();
+        updateEvent.setICalUID(null);
+        updateEvent.setStatus("confirmed");
+
+        return updateEvent;
+    }
+
+    /**
+     * Returns the Google event ID LNGS uses for a Lotus entry when fixed IDs are
+     * enabled: the base32hex form of a SHA-1 hash of the Lotus UID plus the
+     * instance start. Google only allows the characters a-v and 0-9 in IDs.
+     */
+    public String getEventId(LotusNotesCalendarEntry lotusEntry)
+        throws LngsException {
+        byte[] hash;
+
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            hash = sha1.digest(lotusEntry.getInstanceKey().getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new LngsException("Unable to compute the Google event ID.", ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new LngsException("Unable to compute the Google event ID.", ex);
+        }
+
+        // Encode 5 bits at a time
+        StringBuilder id = new StringBuilder("lngs");
+        int buffer = 0;
+        int bitCount = 0;
+
+        for (byte b : hash) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bitCount += 8;
+
+            while (bitCount >= 5) {
+                id.append(BASE32HEX_CHARS[(buffer >> (bitCount - 5)) & 0x1f]);
+                bitCount -= 5;
+            }
+        }
+
+        if (bitCount > 0) {
+            id.append(BASE32HEX_CHARS[(buffer << (5 - bitCount)) & 0x1f]);
+        }
+
+        return id.toString();
+    }
+
+    /**
+     * Read the Google entry for a Lotus entry by its fixed ID, without listing
+     * the calendar. Only works for entries created with fixed IDs enabled.
+     * @return The Google entry, or null if there isn't one (or it was deleted).
+     */
+    public Event getCalendarEntry(LotusNotesCalendarEntry lotusEntry)
+        throws LngsException, IOException, InterruptedException {
+        try {
+            Event event = retryPolicy.execute("Get.",
+                    client.events().get(destCalendar.getId(), getEventId(lotusEntry)));
+
+            return "cancelled".equals(event.getStatus()) ? null : event;
+        } catch (IOException ex) {
+            if (isGoneError(ex)) {
+                return null;
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Delete the Google entry for a Lotus entry by its fixed ID, without listing
+     * the calendar.
+     * @return True if an entry was deleted, false if there wasn't one.
+     */
+    public boolean deleteCalendarEntry(LotusNotesCalendarEntry lotusEntry)
+        throws LngsException, IOException, InterruptedException {
+        try {
+            retryPolicy.execute("Delete.",
+                client.events().delete(destCalendar.getId(), getEventId(lotusEntry)));
+
+            return true;
+        } catch (IOException ex) {
+            if (isGoneError(ex)) {
+                return false;
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the start of a Google event as a string for status messages.
+     */
+    protected String getStartString(Event event) {
+        return "" +
+        ((event.getStart().getDateTime() != null)
+        ? event.getStart().getDateTime() : event.getStart().getDate());
+    }
+
+    /**
+     * Build the GCal subject text from the Lotus Notes calendar entry.
+     * @param lotusEntry - The source Lotus Notes calendar entry.
+     * @return The GCal subject text.
+     */
+    protected String createSubjectText(LotusNotesCalendarEntry lotusEntry) {
+        String subjectText = "";
+
+        if (syncAllSubjectsToValue) {
+            subjectText = syncAllSubjectsToThisValue;
+        } else {
+            // Remove carriage returns
+            subjectText = lotusEntry.getSubject().trim().replace("\r", "");
+        }
+
+        if (subjectText.length() > maxSubjectChars) {
+            // Truncate to a max size
+            subjectText = subjectText.substring(0, maxSubjectChars);
+        }
+
+        return subjectText;
+    }
+
+    /**
+     * Build the GCal description text from the Lotus Notes calendar entry. The
+     * output includes the LN description and optional info like the invitees.
+     * @param lotusEntry - The source Lotus Notes calendar entry.
+     * @return The GCal description text.
+     */
+    protected String createDescriptionText(LotusNotesCalendarEntry lotusEntry) {
+        StringBuffer sb = new StringBuffer();
+
+        if (syncMeetingAttendees) {
+            if (lotusEntry.getChairpersonPlain() != null) {
+                //chair comes out in format: CN=Jonathan Marshall/OU=UK/O=IBM, leaving like that at the moment
+                sb.append("Chairperson: ");
+                sb.append(lotusEntry.getChairpersonPlain());
+            }
+
+            if (lotusEntry.getRequiredAttendeesPlain() != null) {
+                if (sb.length() > 0) {
+                    sb.append("\n");
+                }
 
                 sb.append("Required: ");
                 sb.append(lotusEntry.getRequiredAttendeesPlain());
@@ -1056,4 +2969,85 @@ public class GoogleManager {
     public void setClientSecretRegExFilename(String value) {
         clientSecretRegExFilename = value;
     }
+
+    public void setIncrementalListing(boolean value) {
+        incrementalListing = value;
+    }
+
+    public void setBatchSize(int value) {
+        batchSize = value;
+    }
+
+    /**
+     * Returns the number of Google calls retried during the current sync.
+     */
+    public int getRetryCount() {
+        if (retryPolicy == null) {
+            return 0;
+        }
+
+        return retryPolicy.getRetryCount();
+    }
+
+    /**
+     * Returns the counter of Google responses and bytes for the current sync.
+     * Null if we haven't connected.
+     */
+    public GoogleTrafficCounter getTrafficCounter() {
+        return trafficCounter;
+    }
+
+    /**
+     * Replace the instances of regular repeating Lotus entries with one recurring
+     * entry each. See GoogleRecurrenceBuilder.
+     * @return The number of series that were combined.
+     */
+    public int combineRepeatingEntries(
+        ArrayList<LotusNotesCalendarEntry> lotusCalEntries) {
+        return recurrenceBuilder.combineRepeatingEntries(lotusCalEntries);
+    }
+
+    public void setUseStateStore(boolean value) {
+        useStateStore = value;
+    }
+
+    public void setFullListingInterval(int value) {
+        fullListingInterval = Math.max(1, value);
+    }
+
+    public void setUseSyncJournal(boolean value) {
+        useSyncJournal = value;
+    }
+
+    public void setDeterministicIds(boolean value) {
+        deterministicIds = value;
+    }
+
+    public void setUseExtendedProperties(boolean value) {
+        useExtendedProperties = value;
+    }
+
+    public String getExtendedPropertiesCalendarId() {
+        return extendedPropertiesCalendarId;
+    }
+
+    public void setExtendedPropertiesCalendarId(String value) {
+        extendedPropertiesCalendarId = value;
+    }
+
+    public void setSlimListing(boolean value) {
+        slimListing = value;
+    }
+
+    public void setWriteThreads(int value) {
+        writeThreads = value;
+    }
+
+    /**
+     * Set the URL batch requests are posted to. Normally this is the Google Calendar
+     * batch endpoint, but it can point at a local server for testing.
+     */
+    public void setBatchUrl(String value) {
+        batchUrl = value;
+    }
 }
@@ -0,0 +1,308 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import lngs.lotus.LotusNotesCalendarEntry;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Turns the instances of a repeating Lotus entry into one entry with iCalendar
+ * recurrence lines (RRULE plus EXDATE for missing instances). Only series that
+ * repeat every N days, or weekly on a fixed set of weekdays, are converted.
+ * Every instance must start at the same local time and have the same length.
+ * Other series are left as one entry per instance.
+ */
+public class GoogleRecurrenceBuilder {
+    protected static final long MSECS_PER_DAY = 24L * 60 * 60 * 1000;
+    protected static final String[] WEEKDAY_CODES = {
+            "SU", "MO", "TU", "WE", "TH", "FR", "SA"
+        };
+    protected final TimeZone timeZone;
+
+    public GoogleRecurrenceBuilder(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Replace the instances of each regular series with one recurring entry.
+     * @param lotusCalEntries - The entries to process. On exit, the list holds the
+     * recurring entries, the instances of irregular series and all other entries.
+     * @return The number of series that were combined.
+     */
+    public int combineRepeatingEntries(
+        ArrayList<LotusNotesCalendarEntry> lotusCalEntries) {
+        // Group the instances by Lotus UID, keeping the list order
+        LinkedHashMap<String, ArrayList<LotusNotesCalendarEntry>> seriesByUID = new LinkedHashMap<String, ArrayList<LotusNotesCalendarEntry>>();
+        ArrayList<Object> order = new ArrayList<Object>();
+
+        for (LotusNotesCalendarEntry lotusEntry : lotusCalEntries) {
+            if (lotusEntry.getSeriesStartDates() == null) {
+                order.add(lotusEntry);
+
+                continue;
+            }
+
+            ArrayList<LotusNotesCalendarEntry> instances = seriesByUID.get(lotusEntry.getUID());
+
+            if (instances == null) {
+                instances = new ArrayList<LotusNotesCalendarEntry>();
+                seriesByUID.put(lotusEntry.getUID(), instances);
+                order.add(lotusEntry.getUID());
+            }
+
+            instances.add(lotusEntry);
+        }
+
+        ArrayList<LotusNotesCalendarEntry> result = new ArrayList<LotusNotesCalendarEntry>(lotusCalEntries.size());
+        int combinedCount = 0;
+
+        for (Object item : order) {
+            if (item instanceof LotusNotesCalendarEntry) {
+                result.add((LotusNotesCalendarEntry) item);
+
+                continue;
+            }
+
+            ArrayList<LotusNotesCalendarEntry> instances = seriesByUID.get((String) item);
+            LotusNotesCalendarEntry firstInstance = instances.get(0);
+            List<String> recurrence = buildRecurrence(firstInstance.getSeriesStartDates(),
+                    firstInstance.getSeriesEndDates(), firstInstance.isAllDay());
+
+            if (recurrence == null) {
+                // An irregular series. Keep one entry per instance.
+                result.addAll(instances);
+            } else {
+                LotusNotesCalendarEntry seriesEntry = firstInstance.clone();
+                seriesEntry.setStartDateTime(firstInstance.getSeriesStartDates()
+                                                          .get(0));
+                seriesEntry.setEndDateTime(firstInstance.getSeriesEndDates()
+                                                        .get(0));
+                seriesEntry.setRecurrence(recurrence);
+                result.add(seriesEntry);
+                combinedCount++;
+            }
+        }
+
+        lotusCalEntries.clear();
+        lotusCalEntries.addAll(result);
+
+        return combinedCount;
+    }
+
+    /**
+     * Build the recurrence lines for a series.
+     * @param startDates - The start of every instance, in order.
+     * @param endDates - The end of every instance.
+     * @param allDay - True if the instances are created as all-day events.
+     * @return The RRULE line and (if needed) an EXDATE line, or null if the
+     * series doesn't follow a pattern we can express.
+     */
+    public List<String> buildRecurrence(List<Date> startDates,
+        List<Date> endDates, boolean allDay) {
+        int count = startDates.size();
+
+        if ((count < 2) || (endDates == null) || (endDates.size() != count)) {
+            return null;
+        }
+
+        long duration = endDates.get(0).getTime() - startDates.get(0).getTime();
+        long timeOfDay = getTimeOfDay(startDates.get(0));
+        long[] dayNumbers = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            if ((endDates.get(i).getTime() - startDates.get(i).getTime()) != duration) {
+                return null;
+            }
+
+            if (!allDay && (getTimeOfDay(startDates.get(i)) != timeOfDay)) {
+                return null;
+            }
+
+            dayNumbers[i] = getDayNumber(startDates.get(i));
+
+            if ((i > 0) && (dayNumbers[i] <= dayNumbers[i - 1])) {
+                return null;
+            }
+        }
+
+        long firstDay = dayNumbers[0];
+        long lastDay = dayNumbers[count - 1];
+        Set<Long> instanceDays = new HashSet<Long>();
+
+        for (long dayNumber : dayNumbers) {
+            instanceDays.add(dayNumber);
+        }
+
+        // Candidate 1: every N days
+        long interval = 0;
+
+        for (long dayNumber : dayNumbers) {
+            interval = gcd(interval, dayNumber - firstDay);
+        }
+
+        ArrayList<Long> dailyMissing = new ArrayList<Long>();
+
+        for (long day = firstDay; day <= lastDay; day += interval) {
+            if (!instanceDays.contains(day)) {
+                dailyMissing.add(day);
+            }
+        }
+
+        // Candidate 2: weekly on the weekdays that are used
+        boolean[] weekdays = new boolean[7];
+
+        for (long dayNumber : dayNumbers) {
+            weekdays[getWeekday(dayNumber)] = true;
+        }
+
+        ArrayList<Long> weeklyMissing = new ArrayList<Long>();
+
+        for (long day = firstDay; day <= lastDay; day++) {
+            if (weekdays[getWeekday(day)] && !instanceDays.contains(day)) {
+                weeklyMissing.add(day);
+            }
+        }
+
+        boolean useWeekly = weeklyMissing.size() < dailyMissing.size();
+        List<Long> missingDays = useWeekly ? weeklyMissing : dailyMissing;
+
+        // Too many exceptions means this isn't really a regular series
+        if ((missingDays.size() * 4) > count) {
+            return null;
+        }
+
+        StringBuilder rrule = new StringBuilder("RRULE:");
+
+        if (useWeekly) {
+            rrule.append("FREQ=WEEKLY;BYDAY=");
+
+            String separator = "";
+
+            for (int i = 0; i < 7; i++) {
+                if (weekdays[i]) {
+                    rrule.append(separator).append(WEEKDAY_CODES[i]);
+                    separator = ",";
+                }
+            }
+        } else {
+            rrule.append("FREQ=DAILY");
+
+            if (interval > 1) {
+                rrule.append(";INTERVAL=").append(interval);
+            }
+        }
+
+        rrule.append(";UNTIL=").append(formatUntil(startDates.get(count - 1), allDay));
+
+        ArrayList<String> recurrence = new ArrayList<String>();
+        recurrence.add(rrule.toString());
+
+        if (!missingDays.isEmpty()) {
+            StringBuilder exdate = new StringBuilder();
+
+            if (allDay) {
+                exdate.append("EXDATE;VALUE=DATE:");
+            } else {
+                exdate.append("EXDATE;TZID=").append(timeZone.getID()).append(':');
+            }
+
+            String separator = "";
+
+            for (long missingDay : missingDays) {
+                exdate.append(separator)
+                      .append(formatExceptionDate(missingDay, timeOfDay, allDay));
+                separator = ",";
+            }
+
+            recurrence.add(exdate.toString());
+        }
+
+        return recurrence;
+    }
+
+    /**
+     * Returns the msecs since local midnight.
+     */
+    protected long getTimeOfDay(Date date) {
+        Calendar cal = Calendar.getInstance(timeZone);
+        cal.setTime(date);
+
+        return (((cal.get(Calendar.HOUR_OF_DAY) * 60L) +
+        cal.get(Calendar.MINUTE)) * 60000L) + (cal.get(Calendar.SECOND) * 1000L);
+    }
+
+    /**
+     * Returns the number of the local calendar day, counted from 1970-01-01.
+     */
+    protected long getDayNumber(Date date) {
+        Calendar cal = Calendar.getInstance(timeZone);
+        cal.setTime(date);
+
+        Calendar utcCal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utcCal.clear();
+        utcCal.set(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH),
+            cal.get(Calendar.DAY_OF_MONTH));
+
+        return utcCal.getTimeInMillis() / MSECS_PER_DAY;
+    }
+
+    /**
+     * Returns the weekday (0 = Sunday) of a day number.
+     */
+    protected int getWeekday(long dayNumber) {
+        // 1970-01-01 was a Thursday
+        return (int) ((dayNumber + 4) % 7);
+    }
+
+    protected long gcd(long a, long b) {
+        while (b != 0) {
+            long temp = a % b;
+            a = b;
+            b = temp;
+        }
+
+        return a;
+    }
+
+    /**
+     * Format the UNTIL value. Timed events use UTC, as iCalendar requires when
+     * the start has a time zone.
+     */
+    protected String formatUntil(Date lastStart, boolean allDay) {
+        DateFormat df;
+
+        if (allDay) {
+            df = new SimpleDateFormat("yyyyMMdd");
+            df.setTimeZone(timeZone);
+        } else {
+            df = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+            df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        return df.format(lastStart);
+    }
+
+    /**
+     * Format a missing instance for the EXDATE line, in local time.
+     */
+    protected String formatExceptionDate(long dayNumber, long timeOfDay,
+        boolean allDay) {
+        DateFormat df = new SimpleDateFormat(allDay ? "yyyyMMdd"
+                                                    : "yyyyMMdd'T'HHmmss");
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        // Build the wall-clock time as if it were UTC, so no DST shift is applied
+        return df.format(new Date((dayNumber * MSECS_PER_DAY) + timeOfDay));
+    }
+}
@@ -0,0 +1,317 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+
+import lngs.util.StatusMessageCallback;
+
+import java.io.IOException;
+
+import java.text.SimpleDateFormat;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides when a failed Google Calendar call is retried and how long to wait.
+ * Temporary errors (rate limits, server errors, network problems) are retried
+ * with exponential backoff and full jitter, or after the delay Google asks for
+ * in a Retry-After header. Permanent errors (bad request, not found, etc.) are
+ * not retried. The total number of retries in one sync is limited, so a Google
+ * outage fails the sync instead of stalling it.
+ */
+public class GoogleRetryPolicy {
+    protected final int maxRetryCount;
+    protected final long baseDelayMsecs;
+    protected final long maxDelayMsecs;
+    protected final long maxRetryAfterMsecs;
+    protected final int maxRetriesPerSync;
+    protected final StatusMessageCallback statusMessageCallback;
+    protected final Random random = new Random();
+
+    // Retries made since the last reset. Write threads share the policy.
+    protected final AtomicInteger retriesUsed = new AtomicInteger(0);
+
+    public GoogleRetryPolicy(int maxRetryCount, long baseDelayMsecs,
+        long maxDelayMsecs, long maxRetryAfterMsecs, int maxRetriesPerSync,
+        StatusMessageCallback statusMessageCallback) {
+        this.maxRetryCount = maxRetryCount;
+        this.baseDelayMsecs = baseDelayMsecs;
+        this.maxDelayMsecs = maxDelayMsecs;
+        this.maxRetryAfterMsecs = maxRetryAfterMsecs;
+        this.maxRetriesPerSync = maxRetriesPerSync;
+        this.statusMessageCallback = statusMessageCallback;
+    }
+
+    /**
+     * Make a Google call, retrying it if it fails with a temporary error.
+     * @param description - A short description of the call, used in status messages.
+     * @param call - The call to make.
+     * @return The result of the call.
+     * @throws IOException The call failed with a permanent error, or we ran out of retries.
+     */
+    public <T> T execute(String description, GoogleCall<T> call)
+        throws IOException, InterruptedException {
+        return execute(description, call, null);
+    }
+
+    /**
+     * Make a Google call, retrying it if it fails with a temporary error.
+     * @param description - A short description of the call, used in status messages.
+     * @param call - The call to make.
+     * @param retryMessages - If not null, retry messages are added to this list
+     * instead of being written to the status callback. Used by calls that run on
+     * a thread that mustn't write status messages.
+     * @return The result of the call.
+     * @throws IOException The call failed with a permanent error, or we ran out of retries.
+     */
+    public <T> T execute(String description, GoogleCall<T> call,
+        List<String> retryMessages) throws IOException, InterruptedException {
+        return execute(description, call, retryMessages, true);
+    }
+
+    /**
+     * Make a Google call, retrying it if it fails with a temporary error.
+     * @param isRepeatable - False if the call mustn't be made twice, e.g. an insert
+     * that lets Google pick the ID. It is then only retried when Google answered
+     * with a temporary error, not when no response was received, because the call
+     * may have been made anyway.
+     * @see #execute(String, GoogleCall, List)
+     */
+    public <T> T execute(String description, GoogleCall<T> call,
+        List<String> retryMessages, boolean isRepeatable)
+        throws IOException, InterruptedException {
+        int retryCount = 0;
+
+        while (true) {
+            try {
+                return call.execute();
+            } catch (IOException ex) {
+                if (!isRetryable(ex) || (!isRepeatable && !hasResponse(ex)) ||
+                        !beginRetry(++retryCount)) {
+                    throw ex;
+                }
+
+                long delayMsecs = getDelayMsecs(retryCount, getHeaders(ex));
+                String message = description + " Retry #" + retryCount +
+                    " in " + delayMsecs + " ms. Encountered " + ex.toString();
+
+                if (retryMessages != null) {
+                    retryMessages.add(message);
+                } else {
+                    statusMessageCallback.statusAppendLineDiag(message);
+                }
+
+                Thread.sleep(delayMsecs);
+            }
+        }
+    }
+
+    /**
+     * Send a Google request, sending it again if it fails with a temporary error.
+     * @param description - A short description of the request, used in status messages.
+     * @param request - The request to send.
+     * @param retryMessages - If not null, retry messages are added to this list
+     * instead of being written to the status callback.
+     * @return The response.
+     * @throws IOException The request failed with a permanent error, or we ran out of retries.
+     */
+    public <T> T execute(String description,
+        final AbstractGoogleClientRequest<T> request, List<String> retryMessages)
+        throws IOException, InterruptedException {
+        return execute(description, request, retryMessages, true);
+    }
+
+    /**
+     * Send a Google request, sending it again if it fails with a temporary error.
+     * @see #execute(String, GoogleCall, List, boolean)
+     */
+    public <T> T execute(String description,
+        final AbstractGoogleClientRequest<T> request, List<String> retryMessages,
+        boolean isRepeatable) throws IOException, InterruptedException {
+        return execute(description,
+            new GoogleCall<T>() {
+                @Override
+                public T execute() throws IOException {
+                    return request.execute();
+                }
+            }, retryMessages, isRepeatable);
+    }
+
+    /**
+     * Send a Google request, sending it again if it fails with a temporary error.
+     */
+    public <T> T execute(String description,
+        AbstractGoogleClientRequest<T> request)
+        throws IOException, InterruptedException {
+        return execute(description, request, null);
+    }
+
+    /**
+     * Returns true if a failed call is worth making again.
+     */
+    public boolean isRetryable(IOException ex) {
+        if (ex instanceof GoogleJsonResponseException) {
+            GoogleJsonError error = ((GoogleJsonResponseException) ex).getDetails();
+
+            if (error != null) {
+                return isRetryable(error);
+            }
+        }
+
+        if (ex instanceof HttpResponseException) {
+            return isRetryableStatusCode(((HttpResponseException) ex).getStatusCode());
+        }
+
+        // No response was received, e.g. a timeout or dropped connection
+        return true;
+    }
+
+    /**
+     * Returns true if Google answered the failed call. Otherwise (a timeout or a
+     * dropped connection) the call may or may not have been made.
+     */
+    public boolean hasResponse(IOException ex) {
+        return ex instanceof HttpResponseException;
+    }
+
+    /**
+     * Returns true if a failed call is worth making again.
+     * @param error - The Google error. Null means no response was received.
+     */
+    public boolean isRetryable(GoogleJsonError error) {
+        if (error == null) {
+            return true;
+        }
+
+        if (isRetryableStatusCode(error.getCode())) {
+            return true;
+        }
+
+        if ((error.getCode() == 403) && (error.getErrors() != null)) {
+            // Google reports some rate limits as 403 instead of 429
+            for (GoogleJsonError.ErrorInfo info : error.getErrors()) {
+                if ("rateLimitExceeded".equals(info.getReason()) ||
+                        "userRateLimitExceeded".equals(info.getReason())) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    protected boolean isRetryableStatusCode(int statusCode) {
+        return (statusCode == 408) || (statusCode == 429) ||
+        (statusCode >= 500);
+    }
+
+    /**
+     * Claim one retry. Returns false if the call has used all its retries or the
+     * sync has used its retry budget.
+     * @param retryCount - The number of the retry about to be made for this call.
+     */
+    public boolean beginRetry(int retryCount) {
+        if (retryCount > maxRetryCount) {
+            return false;
+        }
+
+        if (retriesUsed.incrementAndGet() > maxRetriesPerSync) {
+            retriesUsed.decrementAndGet();
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns how long to wait before a retry. A Retry-After value from Google is
+     * used if there is one. It is only limited by maxRetryAfterMsecs, not by the
+     * backoff limit, because retrying before Google asked us to would just be
+     * turned away again. Otherwise a random delay between 0 and the exponential
+     * backoff limit for this retry is returned ("full jitter"), which keeps several
+     * threads or clients from retrying at the same moment.
+     * @param retryCount - The number of the retry about to be made, starting at 1.
+     * @param headers - The response headers of the failed call. Can be null.
+     */
+    public long getDelayMsecs(int retryCount, HttpHeaders headers) {
+        long retryAfterMsecs = getRetryAfterMsecs(headers);
+
+        if (retryAfterMsecs >= 0) {
+            return Math.min(retryAfterMsecs, maxRetryAfterMsecs);
+        }
+
+        long backoffMsecs = baseDelayMsecs << Math.min(retryCount - 1, 20);
+        backoffMsecs = Math.min(backoffMsecs, maxDelayMsecs);
+
+        synchronized (random) {
+            return (long) (random.nextDouble() * (backoffMsecs + 1));
+        }
+    }
+
+    /**
+     * Returns the Retry-After delay in msecs, or -1 if there isn't a usable value.
+     * The header holds either a number of seconds or an HTTP date.
+     */
+    protected long getRetryAfterMsecs(HttpHeaders headers) {
+        if ((headers == null) || (headers.getRetryAfter() == null)) {
+            return -1;
+        }
+
+        String retryAfter = headers.getRetryAfter().trim();
+
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException ex) {
+            // Not a number, so try an HTTP date
+        }
+
+        try {
+            SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz",
+                    Locale.US);
+            Date retryDate = httpDateFormat.parse(retryAfter);
+
+            return Math.max(0, retryDate.getTime() - System.currentTimeMillis());
+        } catch (java.text.ParseException ex) {
+            return -1;
+        }
+    }
+
+    protected HttpHeaders getHeaders(IOException ex) {
+        if (ex instanceof HttpResponseException) {
+            return ((HttpResponseException) ex).getHeaders();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the number of retries made since the last reset.
+     */
+    public int getRetryCount() {
+        return retriesUsed.get();
+    }
+
+    /**
+     * Start a new sync with a full retry budget.
+     */
+    public void reset() {
+        retriesUsed.set(0);
+    }
+
+    /**
+     * One Google API call.
+     */
+    public interface GoogleCall<T> {
+        T execute() throws IOException;
+    }
+}
@@ -0,0 +1,299 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.calendar.model.Event;
+
+import java.io.*;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A write-ahead log of the Google calendar changes planned in a sync. All the
+ * planned changes are written (and synced to disk) before the first one is
+ * sent, and a line is appended as each one completes. If LNGS stops part way,
+ * the next sync sends the changes that aren't marked done.
+ *
+ * The file is plain text with one record per line:
+ *   BEGIN [tab] calendarId
+ *   PLAN [tab] number [tab] DELETE|CREATE [tab] event JSON
+ *   PLAN [tab] number [tab] PATCH [tab] target event JSON [tab] patch JSON
+ *   DONE [tab] number
+ * A damaged last line (from a crash while writing) is ignored.
+ */
+public class GoogleSyncJournal {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected static final String REC_BEGIN = "BEGIN";
+    protected static final String REC_PLAN = "PLAN";
+    protected static final String REC_DONE = "DONE";
+    protected static final String OP_DELETE = "DELETE";
+    protected static final String OP_PATCH = "PATCH";
+    protected static final String OP_CREATE = "CREATE";
+    protected final JsonFactory jsonFactory;
+    protected final File journalFile;
+    protected FileOutputStream fileOut = null;
+    protected Writer writer = null;
+    protected int nextOpNumber = 1;
+
+    // The op number of each planned item (a Google event, EventPatch or
+    // Lotus entry), so completed items can be marked done
+    protected final IdentityHashMap<Object, Integer> opNumbers = new IdentityHashMap<Object, Integer>();
+
+    public GoogleSyncJournal(JsonFactory jsonFactory, String journalFullFilename) {
+        this.jsonFactory = jsonFactory;
+        this.journalFile = new File(journalFullFilename);
+    }
+
+    /**
+     * Read the journal left by an unfinished sync. The journal is then kept open,
+     * so the resumed changes can be marked done as they complete.
+     * @param calendarId - The ID of the destination calendar. Changes planned
+     * for another calendar are dropped.
+     * @return The changes that weren't done. Empty if there is no journal.
+     */
+    public PendingChanges resume(String calendarId) throws IOException {
+        PendingChanges pending = new PendingChanges();
+
+        if (!journalFile.isFile()) {
+            return pending;
+        }
+
+        String journalCalendarId = null;
+        LinkedHashMap<Integer, String[]> plannedOps = new LinkedHashMap<Integer, String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journalFile), UTF8));
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+
+                try {
+                    if (fields[0].equals(REC_BEGIN) && (fields.length == 2)) {
+                        journalCalendarId = fields[1];
+                    } else if (fields[0].equals(REC_PLAN) && (fields.length >= 4)) {
+                        plannedOps.put(Integer.valueOf(fields[1]), fields);
+                    } else if (fields[0].equals(REC_DONE) && (fields.length == 2)) {
+                        plannedOps.remove(Integer.valueOf(fields[1]));
+                    }
+                } catch (NumberFormatException ex) {
+                    // A damaged line. Skip it.
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if ((journalCalendarId == null) || !journalCalendarId.equals(calendarId)) {
+            plannedOps.clear();
+        }
+
+        for (Map.Entry<Integer, String[]> plannedOp : plannedOps.entrySet()) {
+            String[] fields = plannedOp.getValue();
+            String opType = fields[2];
+            Event event;
+            Event patch = null;
+
+            try {
+                event = jsonFactory.fromString(fields[3], Event.class);
+
+                if (fields.length == 5) {
+                    patch = jsonFactory.fromString(fields[4], Event.class);
+                }
+            } catch (Exception ex) {
+                // A damaged line. The compare will catch anything it would have done.
+                continue;
+            }
+
+            Object item;
+
+            if (opType.equals(OP_DELETE)) {
+                pending.deletes.add(event);
+                item = event;
+            } else if (opType.equals(OP_PATCH) && (patch != null)) {
+                EventPatch eventPatch = new EventPatch(null, event);
+                eventPatch.getPatch().putAll(patch);
+                eventPatch.addChangedField("resumed");
+                pending.patches.add(eventPatch);
+                item = eventPatch;
+            } else if (opType.equals(OP_CREATE)) {
+                pending.creates.add(event);
+                item = event;
+            } else {
+                continue;
+            }
+
+            opNumbers.put(item, plannedOp.getKey());
+            nextOpNumber = Math.max(nextOpNumber, plannedOp.getKey() + 1);
+        }
+
+        if (pending.isEmpty()) {
+            finish();
+        } else {
+            open(true);
+        }
+
+        return pending;
+    }
+
+    /**
+     * Start a new journal for the changes of this sync. Any old journal is replaced.
+     */
+    public void begin(String calendarId) throws IOException {
+        close();
+        opNumbers.clear();
+        nextOpNumber = 1;
+        open(false);
+        writeLine(REC_BEGIN + "\t" + calendarId);
+    }
+
+    /**
+     * Record a planned delete. Only what's needed to send it again is kept.
+     */
+    public void planDelete(Event googleEntry) throws IOException {
+        plan(googleEntry,
+            OP_DELETE + "\t" + jsonFactory.toString(createTarget(googleEntry)));
+    }
+
+    /**
+     * Record a planned update. The ID, summary and start of the Google entry are
+     * saved with the changed fields.
+     */
+    public void planPatch(EventPatch eventPatch) throws IOException {
+        plan(eventPatch,
+            OP_PATCH + "\t" +
+            jsonFactory.toString(createTarget(eventPatch.getGoogleEntry())) +
+            "\t" + jsonFactory.toString(eventPatch.getPatch()));
+    }
+
+    /**
+     * Returns the parts of a Google entry needed to change it and to describe it
+     * in status messages.
+     */
+    protected Event createTarget(Event googleEntry) {
+        Event target = new Event();
+        target.setId(googleEntry.getId());
+        target.setSummary(googleEntry.getSummary());
+        target.setStart(googleEntry.getStart());
+
+        return target;
+    }
+
+    /**
+     * Record a planned create.
+     * @param item - The object that will be marked done when the create completes.
+     * @param event - The event that will be inserted.
+     */
+    public void planCreate(Object item, Event event) throws IOException {
+        plan(item, OP_CREATE + "\t" + jsonFactory.toString(event));
+    }
+
+    protected void plan(Object item, String opText) throws IOException {
+        int opNumber = nextOpNumber++;
+        opNumbers.put(item, opNumber);
+        writeLine(REC_PLAN + "\t" + opNumber + "\t" + opText);
+    }
+
+    /**
+     * Make sure the planned changes are on disk. Call this after the last
+     * plan...() call and before sending the first change.
+     */
+    public void commitPlan() throws IOException {
+        if (writer != null) {
+            writer.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Mark a planned item as done. Items that weren't planned are ignored.
+     * This can be called from several write threads.
+     */
+    public synchronized void markDone(Object item) {
+        Integer opNumber = opNumbers.remove(item);
+
+        if ((opNumber == null) || (writer == null)) {
+            return;
+        }
+
+        try {
+            writeLine(REC_DONE + "\t" + opNumber);
+            // Flush every line, so a crash loses at most the line being written
+            writer.flush();
+        } catch (IOException ex) {
+            // Losing a DONE line only means the change is sent again next time
+        }
+    }
+
+    /**
+     * The sync finished. Close and delete the journal.
+     */
+    public void finish() {
+        close();
+        opNumbers.clear();
+        journalFile.delete();
+    }
+
+    /**
+     * Close the journal, leaving it on disk for the next sync to resume.
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                // Do nothing
+            }
+
+            writer = null;
+            fileOut = null;
+        }
+    }
+
+    protected synchronized void open(boolean append) throws IOException {
+        fileOut = new FileOutputStream(journalFile, append);
+        writer = new BufferedWriter(new OutputStreamWriter(fileOut, UTF8));
+    }
+
+    protected synchronized void writeLine(String line)
+        throws IOException {
+        writer.write(line);
+        writer.write("\n");
+    }
+
+    /**
+     * The changes an unfinished sync didn't complete.
+     */
+    public static class PendingChanges {
+        protected final ArrayList<Event> deletes = new ArrayList<Event>();
+        protected final ArrayList<EventPatch> patches = new ArrayList<EventPatch>();
+        protected final ArrayList<Event> creates = new ArrayList<Event>();
+
+        public ArrayList<Event> getDeletes() {
+            return deletes;
+        }
+
+        public ArrayList<EventPatch> getPatches() {
+            return patches;
+        }
+
+        public ArrayList<Event> getCreates() {
+            return creates;
+        }
+
+        public int size() {
+            return deletes.size() + patches.size() + creates.size();
+        }
+
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+    }
+}
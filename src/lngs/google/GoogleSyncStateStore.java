@@ -0,0 +1,333 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.calendar.model.Event;
+
+import java.io.*;
+
+import java.nio.charset.Charset;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * What LNGS knows about the entries it wrote to the destination Google calendar:
+ * for each entry, the Google event ID, the SyncUID (Lotus UID plus instance start),
+ * the content fingerprint and when it was last written. The entries are kept as
+ * slim Google events, so the compare can use them in place of a Google listing.
+ *
+ * The file is append-only, with one record per line:
+ *   CAL [tab] calendarId [tab] runs [tab] format - Start of a full copy, made from a Google listing
+ *   PUT [tab] eventId [tab] syncedMsecs [tab] event JSON - An entry was written
+ *   DEL [tab] eventId - An entry was deleted
+ *   RUN - A sync started using the stored entries instead of a listing
+ *   CLEAN - The sync finished and every change it made was recorded
+ * The stored entries are only trusted if the last sync ended with CLEAN. A sync
+ * that failed part way may have made changes that weren't recorded. A file
+ * written in an older format is ignored, so it is rebuilt from a listing.
+ */
+public class GoogleSyncStateStore {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected static final String REC_CALENDAR = "CAL";
+    protected static final String REC_PUT = "PUT";
+    protected static final String REC_DELETE = "DEL";
+    protected static final String REC_RUN = "RUN";
+    protected static final String REC_CLEAN = "CLEAN";
+
+    // Bump when the stored event fields change
+    protected static final String FORMAT_VERSION = "2";
+    protected final JsonFactory jsonFactory;
+    protected final File storeFile;
+    protected String calendarId = null;
+
+    // The number of syncs since the last full listing
+    protected int runCount = 0;
+    protected boolean isClean = false;
+
+    // Entries and the time they were last written, keyed by Google event ID
+    protected LinkedHashMap<String, Event> events = new LinkedHashMap<String, Event>();
+    protected HashMap<String, Long> syncedTimes = new HashMap<String, Long>();
+
+    // The number of lines in the file. Used to decide when to compact it.
+    protected int recordCount = 0;
+    protected Writer writer = null;
+    protected boolean isLoaded = false;
+
+    public GoogleSyncStateStore(JsonFactory jsonFactory, String storeFullFilename) {
+        this.jsonFactory = jsonFactory;
+        this.storeFile = new File(storeFullFilename);
+    }
+
+    /**
+     * Read the store file, if it exists. A missing or damaged file leaves the
+     * store empty and not clean, which forces a full listing.
+     */
+    public void load() {
+        if (isLoaded) {
+            return;
+        }
+
+        isLoaded = true;
+        clear();
+
+        if (!storeFile.isFile()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(storeFile), UTF8));
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                recordCount++;
+
+                String[] fields = line.split("\t", 4);
+
+                if (fields[0].equals(REC_CALENDAR)) {
+                    if ((fields.length < 4) ||
+                            !fields[3].equals(FORMAT_VERSION)) {
+                        throw new IOException("Old store format");
+                    }
+
+                    clear();
+                    calendarId = fields[1];
+                    runCount = Integer.parseInt(fields[2]);
+                    recordCount = 1;
+                } else if (fields[0].equals(REC_PUT)) {
+                    Event event = jsonFactory.fromString(fields[3], Event.class);
+                    events.put(fields[1], event);
+                    syncedTimes.put(fields[1], Long.valueOf(fields[2]));
+                } else if (fields[0].equals(REC_DELETE)) {
+                    events.remove(fields[1]);
+                    syncedTimes.remove(fields[1]);
+                } else if (fields[0].equals(REC_RUN)) {
+                    runCount++;
+                    isClean = false;
+                } else if (fields[0].equals(REC_CLEAN)) {
+                    isClean = true;
+                } else {
+                    throw new IOException("Unknown record: " + fields[0]);
+                }
+            }
+        } catch (Exception ex) {
+            // The file is damaged (e.g. a crash while writing). Start over.
+            clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    // Do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the stored entries can be used in place of a Google listing.
+     * @param calendarId - The ID of the destination calendar.
+     * @param maxRunCount - The number of syncs allowed between full listings.
+     */
+    public boolean isValidFor(String calendarId, int maxRunCount) {
+        return isClean && (this.calendarId != null) &&
+        this.calendarId.equals(calendarId) && (runCount < maxRunCount);
+    }
+
+    /**
+     * Replace the stored entries with the result of a full Google listing.
+     * The new file is written to a temp file first.
+     */
+    public void rebuild(String calendarId, Collection<Event> listedEvents)
+        throws IOException {
+        clear();
+        this.calendarId = calendarId;
+
+        long now = System.currentTimeMillis();
+
+        for (Event event : listedEvents) {
+            events.put(event.getId(), createStoredEvent(event));
+            syncedTimes.put(event.getId(), now);
+        }
+
+        rewrite();
+    }
+
+    /**
+     * Record the start of a sync that uses the stored entries.
+     */
+    public void beginRun() throws IOException {
+        openWriter();
+        runCount++;
+        isClean = false;
+        writeLine(REC_RUN);
+        writer.flush();
+    }
+
+    /**
+     * Record an entry that was created or updated. Can be called from write threads.
+     * @param event - The event Google returned for the write.
+     */
+    public synchronized void put(Event event) throws IOException {
+        Event storedEvent = createStoredEvent(event);
+        long now = System.currentTimeMillis();
+        events.put(event.getId(), storedEvent);
+        syncedTimes.put(event.getId(), now);
+        openWriter();
+        writeLine(REC_PUT + "\t" + event.getId() + "\t" + now + "\t" +
+            jsonFactory.toString(storedEvent));
+    }
+
+    /**
+     * Record an entry that was deleted. Can be called from write threads.
+     */
+    public synchronized void remove(String eventId) throws IOException {
+        events.remove(eventId);
+        syncedTimes.remove(eventId);
+        openWriter();
+        writeLine(REC_DELETE + "\t" + eventId);
+    }
+
+    /**
+     * Record that the sync finished and all its changes were recorded. The file
+     * is compacted if it holds many replaced records.
+     */
+    public synchronized void markClean() throws IOException {
+        if (calendarId == null) {
+            return;
+        }
+
+        isClean = true;
+
+        if (recordCount > ((events.size() * 2) + 100)) {
+            rewrite();
+        } else {
+            openWriter();
+            writeLine(REC_CLEAN);
+        }
+
+        close();
+    }
+
+    /**
+     * Returns the stored entries.
+     */
+    public Collection<Event> getEvents() {
+        return events.values();
+    }
+
+    /**
+     * Returns when an entry was last written by LNGS, or null if it isn't stored.
+     */
+    public Long getSyncedTime(String eventId) {
+        return syncedTimes.get(eventId);
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                // Do nothing
+            }
+
+            writer = null;
+        }
+    }
+
+    protected void clear() {
+        calendarId = null;
+        runCount = 0;
+        isClean = false;
+        events.clear();
+        syncedTimes.clear();
+        recordCount = 0;
+    }
+
+    /**
+     * Returns the parts of a Google event the compare and patch need. Entries
+     * written by older LNGS versions have no fingerprint and are compared field
+     * by field, so every field LNGS writes must be kept.
+     */
+    protected Event createStoredEvent(Event event) {
+        Event storedEvent = new Event();
+        storedEvent.setId(event.getId());
+        storedEvent.setICalUID(event.getICalUID());
+        storedEvent.setSummary(event.getSummary());
+        storedEvent.setLocation(event.getLocation());
+        storedEvent.setDescription(event.getDescription());
+        storedEvent.setStart(event.getStart());
+        storedEvent.setEnd(event.getEnd());
+        storedEvent.setRecurrence(event.getRecurrence());
+        storedEvent.setRecurringEventId(event.getRecurringEventId());
+        storedEvent.setReminders(event.getReminders());
+        storedEvent.setVisibility(event.getVisibility());
+        storedEvent.setExtendedProperties(event.getExtendedProperties());
+
+        return storedEvent;
+    }
+
+    /**
+     * Write the whole store to a new file, replacing the old one.
+     */
+    protected void rewrite() throws IOException {
+        close();
+
+        File tempFile = new File(storeFile.getPath() + ".tmp");
+        writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(tempFile), UTF8));
+        recordCount = 0;
+
+        try {
+            writeLine(REC_CALENDAR + "\t" + calendarId + "\t" + runCount +
+                "\t" + FORMAT_VERSION);
+
+            for (Event event : events.values()) {
+                writeLine(REC_PUT + "\t" + event.getId() + "\t" +
+                    syncedTimes.get(event.getId()) + "\t" +
+                    jsonFactory.toString(event));
+            }
+
+            if (isClean) {
+                writeLine(REC_CLEAN);
+            }
+        } finally {
+            close();
+        }
+
+        if (storeFile.exists() && !storeFile.delete()) {
+            throw new IOException("Unable to replace " + storeFile.getPath());
+        }
+
+        if (!tempFile.renameTo(storeFile)) {
+            throw new IOException("Unable to rename " + tempFile.getPath());
+        }
+    }
+
+    protected void openWriter() throws IOException {
+        if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(storeFile, true), UTF8));
+        }
+    }
+
+    protected void writeLine(String line) throws IOException {
+        writer.write(line);
+        writer.write("\n");
+        recordCount++;
+    }
+}
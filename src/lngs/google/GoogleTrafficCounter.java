@@ -0,0 +1,403 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.javanet.ConnectionFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+
+import java.security.cert.Certificate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Sets up every Google request (on top of the OAuth credential) to ask for a
+ * gzip response and counts the responses and bytes received.
+ * It is also the connection factory of the HTTP transport. Each connection
+ * counts the bytes read from its response stream, so the count is the
+ * compressed size as received, whether or not the response had a
+ * Content-Length header (gzip responses are usually sent chunked without one).
+ */
+public class GoogleTrafficCounter implements HttpRequestInitializer,
+    HttpResponseInterceptor, ConnectionFactory {
+    protected volatile HttpRequestInitializer credentialInitializer = null;
+    protected final AtomicInteger responseCount = new AtomicInteger(0);
+    protected final AtomicLong bytesReceived = new AtomicLong(0);
+
+    /**
+     * Set the initializer (usually the OAuth credential) that runs before ours.
+     */
+    public void setCredentialInitializer(HttpRequestInitializer value) {
+        credentialInitializer = value;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        if (credentialInitializer != null) {
+            credentialInitializer.initialize(request);
+        }
+
+        // Google only compresses responses when the User-Agent also
+        // contains "gzip", which is done via the application name.
+        request.getHeaders().setAcceptEncoding("gzip");
+        request.setResponseInterceptor(this);
+    }
+
+    @Override
+    public void interceptResponse(HttpResponse response) throws IOException {
+        responseCount.incrementAndGet();
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        return new CountingConnection(url,
+            (HttpURLConnection) url.openConnection());
+    }
+
+    public int getResponseCount() {
+        return responseCount.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public void reset() {
+        responseCount.set(0);
+        bytesReceived.set(0);
+    }
+
+    /**
+     * Adds the bytes read from a response stream to the total.
+     */
+    protected class CountingInputStream extends FilterInputStream {
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b >= 0) {
+                bytesReceived.incrementAndGet();
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readCount = super.read(b, off, len);
+
+            if (readCount > 0) {
+                bytesReceived.addAndGet(readCount);
+            }
+
+            return readCount;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipCount = super.skip(n);
+            bytesReceived.addAndGet(skipCount);
+
+            return skipCount;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Passes every call on to the real connection, but counts what is read
+     * from the response. It is an HttpsURLConnection, so the transport can set
+     * up SSL on it; that is passed on when the real connection is HTTPS too.
+     */
+    protected class CountingConnection extends HttpsURLConnection {
+        protected final HttpURLConnection connection;
+        protected InputStream inputStream = null;
+        protected InputStream errorStream = null;
+
+        public CountingConnection(URL url, HttpURLConnection connection) {
+            super(url);
+            this.connection = connection;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                inputStream = new CountingInputStream(connection.getInputStream());
+            }
+
+            return inputStream;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            if (errorStream == null) {
+                InputStream stream = connection.getErrorStream();
+
+                if (stream != null) {
+                    errorStream = new CountingInputStream(stream);
+                }
+            }
+
+            return errorStream;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            connection.connect();
+        }
+
+        @Override
+        public void disconnect() {
+            connection.disconnect();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return connection.usingProxy();
+        }
+
+        @Override
+        public URL getURL() {
+            return connection.getURL();
+        }
+
+        @Override
+        public void setRequestMethod(String method) throws ProtocolException {
+            connection.setRequestMethod(method);
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return connection.getRequestMethod();
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            connection.setRequestProperty(key, value);
+        }
+
+        @Override
+        public void addRequestProperty(String key, String value) {
+            connection.addRequestProperty(key, value);
+        }
+
+        @Override
+        public String getRequestProperty(String key) {
+            return connection.getRequestProperty(key);
+        }
+
+        @Override
+        public Map<String, List<String>> getRequestProperties() {
+            return connection.getRequestProperties();
+        }
+
+        @Override
+        public void setConnectTimeout(int timeout) {
+            connection.setConnectTimeout(timeout);
+        }
+
+        @Override
+        public int getConnectTimeout() {
+            return connection.getConnectTimeout();
+        }
+
+        @Override
+        public void setReadTimeout(int timeout) {
+            connection.setReadTimeout(timeout);
+        }
+
+        @Override
+        public int getReadTimeout() {
+            return connection.getReadTimeout();
+        }
+
+        @Override
+        public void setDoInput(boolean doinput) {
+            connection.setDoInput(doinput);
+        }
+
+        @Override
+        public boolean getDoInput() {
+            return connection.getDoInput();
+        }
+
+        @Override
+        public void setDoOutput(boolean dooutput) {
+            connection.setDoOutput(dooutput);
+        }
+
+        @Override
+        public boolean getDoOutput() {
+            return connection.getDoOutput();
+        }
+
+        @Override
+        public void setUseCaches(boolean usecaches) {
+            connection.setUseCaches(usecaches);
+        }
+
+        @Override
+        public boolean getUseCaches() {
+            return connection.getUseCaches();
+        }
+
+        @Override
+        public void setInstanceFollowRedirects(boolean followRedirects) {
+            connection.setInstanceFollowRedirects(followRedirects);
+        }
+
+        @Override
+        public boolean getInstanceFollowRedirects() {
+            return connection.getInstanceFollowRedirects();
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(int contentLength) {
+            connection.setFixedLengthStreamingMode(contentLength);
+        }
+
+        @Override
+        public void setFixedLengthStreamingMode(long contentLength) {
+            connection.setFixedLengthStreamingMode(contentLength);
+        }
+
+        @Override
+        public void setChunkedStreamingMode(int chunklen) {
+            connection.setChunkedStreamingMode(chunklen);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return connection.getOutputStream();
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return connection.getResponseCode();
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            return connection.getResponseMessage();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public String getHeaderField(int n) {
+            return connection.getHeaderField(n);
+        }
+
+        @Override
+        public String getHeaderFieldKey(int n) {
+            return connection.getHeaderFieldKey(n);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return connection.getHeaderFields();
+        }
+
+        @Override
+        public String getContentType() {
+            return connection.getContentType();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return connection.getContentEncoding();
+        }
+
+        @Override
+        public int getContentLength() {
+            return connection.getContentLength();
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public void setHostnameVerifier(HostnameVerifier verifier) {
+            if (connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setHostnameVerifier(verifier);
+            }
+        }
+
+        @Override
+        public HostnameVerifier getHostnameVerifier() {
+            return (connection instanceof HttpsURLConnection)
+            ? ((HttpsURLConnection) connection).getHostnameVerifier()
+            : super.getHostnameVerifier();
+        }
+
+        @Override
+        public void setSSLSocketFactory(SSLSocketFactory factory) {
+            if (connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(factory);
+            }
+        }
+
+        @Override
+        public SSLSocketFactory getSSLSocketFactory() {
+            return (connection instanceof HttpsURLConnection)
+            ? ((HttpsURLConnection) connection).getSSLSocketFactory()
+            : super.getSSLSocketFactory();
+        }
+
+        @Override
+        public String getCipherSuite() {
+            return getHttpsConnection().getCipherSuite();
+        }
+
+        @Override
+        public Certificate[] getLocalCertificates() {
+            return getHttpsConnection().getLocalCertificates();
+        }
+
+        @Override
+        public Certificate[] getServerCertificates()
+            throws SSLPeerUnverifiedException {
+            return getHttpsConnection().getServerCertificates();
+        }
+
+        protected HttpsURLConnection getHttpsConnection() {
+            if (!(connection instanceof HttpsURLConnection)) {
+                throw new IllegalStateException("Not an HTTPS connection: " +
+                    connection.getURL());
+            }
+
+            return (HttpsURLConnection) connection;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import lngs.util.LngsException;
+import lngs.util.StatusMessageCallback;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs Google calendar writes on a fixed number of threads. Each task is one
+ * HTTP call. The results are collected in the order the tasks were given, and
+ * all status messages are written from the calling thread.
+ */
+public class GoogleWriteExecutor {
+    protected final int threadCount;
+    protected final StatusMessageCallback statusMessageCallback;
+
+    public GoogleWriteExecutor(int threadCount,
+        StatusMessageCallback statusMessageCallback) {
+        this.threadCount = Math.max(1, threadCount);
+        this.statusMessageCallback = statusMessageCallback;
+    }
+
+    /**
+     * Run the tasks and wait for all of them to finish.
+     * @param operationName - The name used in status messages, e.g. "Create".
+     * @param tasks - The calls to make.
+     * @return The number of tasks that succeeded.
+     * @throws LngsException One or more tasks failed. The other tasks still ran.
+     */
+    public int execute(String operationName, List<? extends WriteTask> tasks)
+        throws LngsException, InterruptedException {
+        if (tasks.isEmpty()) {
+            return 0;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+                    threadCount, tasks.size()), new WriteThreadFactory());
+        int successCount = 0;
+        int failedCount = 0;
+        String firstFailure = null;
+
+        try {
+            ArrayList<Future<Void>> results = new ArrayList<Future<Void>>(tasks.size());
+
+            for (final WriteTask task : tasks) {
+                results.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                task.execute();
+
+                                return null;
+                            }
+                        }));
+            }
+
+            for (int i = 0; i < tasks.size(); i++) {
+                WriteTask task = tasks.get(i);
+                String statusLine = operationName + " #" + (i + 1) + ". " +
+                    task.getDescription();
+
+                try {
+                    results.get(i).get();
+                    successCount++;
+                    writeRetryMessages(task);
+                    statusMessageCallback.statusAppendLineDiag(statusLine);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    writeRetryMessages(task);
+
+                    if ((cause instanceof IOException) &&
+                            task.isFailureSuccess((IOException) cause)) {
+                        successCount++;
+                        statusMessageCallback.statusAppendLineDiag(statusLine);
+
+                        continue;
+                    }
+
+                    failedCount++;
+                    statusMessageCallback.statusAppendLineDiag(statusLine +
+                        "  FAILED: " + cause.toString());
+
+                    if (firstFailure == null) {
+                        firstFailure = statusLine + "\nError: " +
+                            cause.toString();
+                    }
+                }
+            }
+        } finally {
+            // Stops any tasks still queued if we were interrupted
+            executor.shutdownNow();
+        }
+
+        if (failedCount > 0) {
+            throw new LngsException(failedCount + " of " + tasks.size() +
+                " Google calendar changes failed. " + firstFailure);
+        }
+
+        return successCount;
+    }
+
+    /**
+     * Write the retry messages the task collected on its worker thread.
+     */
+    protected void writeRetryMessages(WriteTask task) {
+        for (String message : task.retryMessages) {
+            statusMessageCallback.statusAppendLineDiag(message);
+        }
+    }
+
+    /**
+     * One Google calendar write.
+     */
+    public abstract static class WriteTask {
+        // Retry messages are saved here by the worker thread and written to
+        // the status callback by the calling thread.
+        protected final List<String> retryMessages = new ArrayList<String>();
+
+        /**
+         * Make the API call. This runs on a worker thread, so it must only use
+         * values captured when the task was created.
+         */
+        public abstract void execute() throws IOException, InterruptedException;
+
+        /**
+         * A short description of the task, used in status and error messages.
+         */
+        public abstract String getDescription();
+
+        /**
+         * Returns true if a failure still means the work is done, e.g. a delete
+         * of an entry that is already gone.
+         */
+        protected boolean isFailureSuccess(IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates daemon threads so a stuck call can't keep the app from exiting.
+     */
+    protected static class WriteThreadFactory implements ThreadFactory {
+        protected final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r,
+                    "LNGS Google Write " + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+
+package lngs.lotus;
+
+import lngs.util.LngsException;
+import lngs.util.StatusMessageCallback;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Defines where the calendar entries copied to Google come from. The entries
+ * are in the form Lotus Notes entries are read, one per instance.
+ */
+public interface CalendarSource {
+    public void setStatusMessageCallback(StatusMessageCallback value);
+    public void setMinStartDate(Date minStartDate);
+    public void setMaxEndDate(Date maxEndDate);
+
+    /**
+     * Returns the entries with an instance in the date range.
+     */
+    public ArrayList<LotusNotesCalendarEntry> getCalendarEntries()
+        throws LngsException, IOException;
+
+    /**
+     * Returns the version of the source, e.g. the Lotus Notes version.
+     */
+    public String getNotesVersion();
+}
@@ -3,12 +3,14 @@
 
 package lngs.lotus;
 
+import java.io.Serializable;
 import java.util.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
 
-public class LotusNotesCalendarEntry {
+public class LotusNotesCalendarEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     public LotusNotesCalendarEntry() {
         entryType = EntryType.APPOINTMENT;
@@ -40,6 +42,9 @@ public class LotusNotesCalendarEntry {
         cal.requiredAttendees = this.requiredAttendees;
         cal.optionalAttendees = this.optionalAttendees;
         cal.chairperson = this.chairperson;
+        cal.seriesStartDates = this.seriesStartDates;
+        cal.seriesEndDates = this.seriesEndDates;
+        cal.recurrence = this.recurrence;
 
         return cal;
     }
@@ -130,6 +135,51 @@ public class LotusNotesCalendarEntry {
     	chairperson = name;
     }
 
+    /**
+     * Set the start and end of every instance of the repeating entry this
+     * entry was made from, including instances outside our sync date range.
+     */
+    public void setSeriesDates(List<Date> startDates, List<Date> endDates) {
+        seriesStartDates = startDates;
+        seriesEndDates = endDates;
+    }
+
+    /**
+     * Returns the start of every instance of the repeating entry this entry was
+     * made from, or null if the entry doesn't repeat.
+     */
+    public List<Date> getSeriesStartDates() {
+        return seriesStartDates;
+    }
+
+    public List<Date> getSeriesEndDates() {
+        return seriesEndDates;
+    }
+
+    /**
+     * Set the iCalendar RRULE/EXDATE lines when this entry stands for a whole
+     * repeating series. The start and end are then those of the first instance.
+     */
+    public void setRecurrence(List<String> value) {
+        recurrence = value;
+    }
+
+    /**
+     * Returns the iCalendar recurrence lines, or null if this entry is a single instance.
+     */
+    public List<String> getRecurrence() {
+        return recurrence;
+    }
+
+    /**
+     * Returns true if the entry is created in Google as an all-day event.
+     */
+    public boolean isAllDay() {
+        return (entryType == EntryType.TASK) ||
+            (appointmentType == AppointmentType.ALL_DAY_EVENT) ||
+            (appointmentType == AppointmentType.ANNIVERSARY);
+    }
+
     /**
      * Returns the chairperson name as it was retrieved from Lotus.
      * The standard format is like "CN=John A Smith/US/Acme@MAIL".
@@ -410,6 +460,58 @@ public class LotusNotesCalendarEntry {
         return currSyncUIDVersion + "-" + uid + "-" + startDateTime.getTime() + "-" + modifiedDateTime.getTime();
     }
 
+    /**
+     * Returns a key that identifies this entry independent of its modified
+     * timestamp: the Lotus Notes UID plus the start timestamp. The start timestamp
+     * tells apart the multiple entries made from one repeating event.
+     */
+    public String getInstanceKey() {
+        return uid + "-" + startDateTime.getTime();
+    }
+
+    /**
+     * Returns the instance key (see getInstanceKey()) stored in a SyncUID,
+     * or null if the value isn't a SyncUID.
+     */
+    public static String getInstanceKeyFromSyncUID(String syncUID) {
+        String[] parts = syncUID.split("-");
+        if (parts.length != 4)
+            return null;
+
+        return parts[1] + "-" + parts[2];
+    }
+
+    /**
+     * Returns the Lotus Notes UID stored in a SyncUID, or null if the value
+     * isn't a SyncUID.
+     */
+    public static String getUIDFromSyncUID(String syncUID) {
+        String[] parts = syncUID.split("-");
+        if (parts.length != 4)
+            return null;
+
+        return parts[1];
+    }
+
+    /**
+     * Returns the start timestamp (in msecs) stored in a SyncUID, or null if
+     * the value isn't a SyncUID.
+     */
+    public static String getStartTimeFromSyncUID(String syncUID) {
+        String[] parts = syncUID.split("-");
+        if (parts.length != 4)
+            return null;
+
+        return parts[2];
+    }
+
+    /**
+     * Returns the SyncUID part of an LNGS UID, i.e. the part after the colon.
+     */
+    public static String getSyncUIDFromLNGSUID(String lngsUID) {
+        return lngsUID.substring(lngsUID.indexOf(':') + 1);
+    }
+
     
     /**
      * Returns true if a provided string matches the format of an LNGS UID.
@@ -499,4 +601,9 @@ public class LotusNotesCalendarEntry {
     protected String requiredAttendees = null;
     protected String optionalAttendees = null; 
     protected String chairperson = null;    
+    // All instance dates of a repeating entry. Null for non-repeating entries.
+    protected List<Date> seriesStartDates = null;
+    protected List<Date> seriesEndDates = null;
+    // iCalendar recurrence lines when this entry stands for a whole series
+    protected List<String> recurrence = null;
 }
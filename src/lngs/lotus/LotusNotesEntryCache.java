@@ -0,0 +1,162 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+
+package lngs.lotus;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The templates read from Lotus Notes calendar documents, keyed by UNID and
+ * the last-modified time of the document. A document that hasn't changed since
+ * the last sync is taken from the cache, so its items (including the Body) and
+ * repeating dates aren't read again. Documents that were read and ignored are
+ * cached too. The cache can be saved so it survives a restart.
+ */
+public class LotusNotesEntryCache implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Identifies the mail file the documents were read from
+    protected String databaseKey = null;
+
+    // The last-modified time and template of each document, keyed by Lotus UNID.
+    // The template is null for a document that is ignored.
+    protected HashMap<String, Long> modifiedTimes = new HashMap<String, Long>();
+    protected HashMap<String, LotusNotesEntryTemplate> templates = new HashMap<String, LotusNotesEntryTemplate>();
+
+    // The UNIDs looked up or added during the current sync
+    protected transient HashSet<String> usedUnids = new HashSet<String>();
+    protected transient int hitCount = 0;
+    protected transient int missCount = 0;
+
+    /**
+     * Call at the start of a sync. If the mail file changed, the cache is cleared.
+     */
+    public synchronized void beginSync(String databaseKey) {
+        if (!databaseKey.equals(this.databaseKey)) {
+            this.databaseKey = databaseKey;
+            modifiedTimes.clear();
+            templates.clear();
+        }
+
+        usedUnids = new HashSet<String>();
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    /**
+     * Returns true if the document is cached and hasn't changed since it was read.
+     * Can be called from extraction threads.
+     */
+    public synchronized boolean contains(String unid, long modifiedMsecs) {
+        Long cachedMsecs = modifiedTimes.get(unid);
+
+        if ((cachedMsecs != null) && (cachedMsecs.longValue() == modifiedMsecs)) {
+            usedUnids.add(unid);
+            hitCount++;
+
+            return true;
+        }
+
+        missCount++;
+
+        return false;
+    }
+
+    /**
+     * Returns the cached template, or null if the document is ignored.
+     * Only valid after contains() returned true.
+     */
+    public synchronized LotusNotesEntryTemplate get(String unid) {
+        return templates.get(unid);
+    }
+
+    /**
+     * Cache a template that was just read. Can be called from extraction threads.
+     * @param template - The template, or null if the document is ignored.
+     */
+    public synchronized void put(String unid, long modifiedMsecs,
+        LotusNotesEntryTemplate template) {
+        modifiedTimes.put(unid, modifiedMsecs);
+        templates.put(unid, template);
+        usedUnids.add(unid);
+    }
+
+    /**
+     * Call at the end of a successful sync. The documents that weren't found
+     * (e.g. deleted or moved out of the date range) are dropped.
+     */
+    public synchronized void endSync() {
+        modifiedTimes.keySet().retainAll(usedUnids);
+        templates.keySet().retainAll(usedUnids);
+    }
+
+    public synchronized int size() {
+        return modifiedTimes.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Read a saved cache.
+     * @return The cache, or an empty one if there isn't a usable file.
+     */
+    public static LotusNotesEntryCache load(File cacheFile) {
+        if (cacheFile.isFile()) {
+            ObjectInputStream in = null;
+
+            try {
+                in = new ObjectInputStream(new BufferedInputStream(
+                            new FileInputStream(cacheFile)));
+
+                LotusNotesEntryCache cache = (LotusNotesEntryCache) in.readObject();
+                cache.usedUnids = new HashSet<String>();
+
+                return cache;
+            } catch (Exception ex) {
+                // The file is damaged or from an older version. Start over.
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ex) {
+                        // Do nothing
+                    }
+                }
+            }
+        }
+
+        return new LotusNotesEntryCache();
+    }
+
+    /**
+     * Write the cache. The data is written to a temp file first so an
+     * interrupted write doesn't leave a damaged file behind.
+     */
+    public synchronized void save(File cacheFile) throws IOException {
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)));
+
+        try {
+            out.writeObject(this);
+        } finally {
+            out.close();
+        }
+
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            throw new IOException("Unable to replace " + cacheFile.getPath());
+        }
+
+        if (!tempFile.renameTo(cacheFile)) {
+            throw new IOException("Unable to rename " + tempFile.getPath());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+
+package lngs.lotus;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Everything read from one Lotus Notes calendar document: the entry values plus
+ * the start and end of every instance (one for a normal entry, several for a
+ * repeating entry). The entries in the sync date range are made from this
+ * without reading the document again.
+ */
+public class LotusNotesEntryTemplate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    protected LotusNotesCalendarEntry entry;
+    protected ArrayList<Date> startDates = new ArrayList<Date>();
+    protected ArrayList<Date> endDates = new ArrayList<Date>();
+
+    public LotusNotesEntryTemplate(LotusNotesCalendarEntry entry) {
+        this.entry = entry;
+    }
+
+    /**
+     * The entry values shared by all instances. The start/end are not set.
+     */
+    public LotusNotesCalendarEntry getEntry() {
+        return entry;
+    }
+
+    public void addInstance(Date startDate, Date endDate) {
+        startDates.add(startDate);
+        endDates.add(endDate);
+    }
+
+    public List<Date> getStartDates() {
+        return startDates;
+    }
+
+    public List<Date> getEndDates() {
+        return endDates;
+    }
+}
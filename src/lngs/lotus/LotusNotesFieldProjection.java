@@ -0,0 +1,77 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+/**
+ * The optional Lotus Notes items that are read, based on the sync options.
+ * Items that don't end up in the Google entry aren't read at all. The Body is
+ * the largest of these, and is also cut short at MAX_BODY_CHARS.
+ */
+public class LotusNotesFieldProjection {
+    // Google keeps 8000 chars of the description. Lotus ends each Body line
+    // with \r\n and the \r chars are removed before that limit is applied, so
+    // twice as many chars are read.
+    public static final int MAX_BODY_CHARS = 16000;
+
+    // Read every item, e.g. when the sync options aren't known
+    public static final LotusNotesFieldProjection ALL = new LotusNotesFieldProjection(true,
+            true, true);
+    protected final boolean bodyRead;
+    protected final boolean attendeesRead;
+    protected final boolean whereRead;
+
+    /**
+     * @param bodyRead - Read the Body and the online meeting URL (the description).
+     * @param attendeesRead - Read the chair and the required and optional attendees.
+     * @param whereRead - Read the location and room.
+     */
+    public LotusNotesFieldProjection(boolean bodyRead, boolean attendeesRead,
+        boolean whereRead) {
+        this.bodyRead = bodyRead;
+        this.attendeesRead = attendeesRead;
+        this.whereRead = whereRead;
+    }
+
+    public boolean isBodyRead() {
+        return bodyRead;
+    }
+
+    public boolean isAttendeesRead() {
+        return attendeesRead;
+    }
+
+    public boolean isWhereRead() {
+        return whereRead;
+    }
+
+    /**
+     * Returns true if a LotusNotesValueParser value (VAL_ position) is read.
+     */
+    public boolean isValueRead(int valueIndex) {
+        if (valueIndex == LotusNotesValueParser.VAL_CONFERENCE_URL) {
+            return bodyRead;
+        }
+
+        if ((valueIndex == LotusNotesValueParser.VAL_REQUIRED_ATTENDEES) ||
+                (valueIndex == LotusNotesValueParser.VAL_OPTIONAL_ATTENDEES) ||
+                (valueIndex == LotusNotesValueParser.VAL_CHAIR)) {
+            return attendeesRead;
+        }
+
+        if ((valueIndex == LotusNotesValueParser.VAL_ROOM) ||
+                (valueIndex == LotusNotesValueParser.VAL_LOCATION)) {
+            return whereRead;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a short text that identifies the projection. Saved templates that
+     * were read with a different projection can't be reused.
+     */
+    public String getKey() {
+        return (bodyRead ? "B" : "") + (attendeesRead ? "A" : "") +
+        (whereRead ? "W" : "");
+    }
+}
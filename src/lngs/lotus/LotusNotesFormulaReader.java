@@ -0,0 +1,147 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lngs.util.LngsException;
+
+import lotus.domino.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Vector;
+
+/**
+ * Reads the items of a Lotus Notes calendar document with one formula
+ * evaluation instead of one call per item. The formula joins all the values
+ * into a single string, which is split and parsed here. Dates are returned as
+ * seconds since 1970-01-01 (local time), so they don't depend on the Lotus
+ * date format.
+ */
+public class LotusNotesFormulaReader {
+    // Separates the values in the formula result
+    protected static final char VALUE_SEPARATOR = '\u001e';
+
+    // The date values. These are converted to seconds by the formula.
+    protected static final boolean[] IS_DATE_VALUE = {
+            true, true, false, false, false, false, false, false, false, false,
+            false, false, false, false, false, true, true, true, true, true
+        };
+    protected final LotusNotesManager notesManager;
+    protected final LotusNotesValueParser valueParser;
+    protected final Session session;
+    protected final String formula;
+
+    // 1970-01-01 in local time, the zero point of the date values
+    protected final long epochMsecs = new GregorianCalendar(1970, 0, 1).getTimeInMillis();
+
+    public LotusNotesFormulaReader(LotusNotesManager notesManager,
+        LotusNotesValueParser valueParser, Session session) {
+        this.notesManager = notesManager;
+        this.valueParser = valueParser;
+        this.session = session;
+        formula = createFormula(valueParser.getFieldProjection());
+    }
+
+    /**
+     * Build the formula. Each value is turned into text (lists are joined
+     * with ";", as Item.getText() does) and the values are joined with
+     * VALUE_SEPARATOR. Values the sync options don't use are left empty, so
+     * their items aren't read.
+     */
+    protected static String createFormula(LotusNotesFieldProjection fieldProjection) {
+        StringBuilder formula = new StringBuilder();
+
+        for (int i = 0; i < LotusNotesValueParser.VALUE_FORMULAS.length; i++) {
+            if (i > 0) {
+                formula.append(" + @Char(30) + ");
+            }
+
+            String value = "(" + LotusNotesValueParser.VALUE_FORMULAS[i] + ")";
+
+            if (!fieldProjection.isValueRead(i)) {
+                formula.append("\"\"");
+            } else if (IS_DATE_VALUE[i]) {
+                formula.append("@If(@IsTime(").append(value)
+                       .append("); @Implode(@Text(@Integer(").append(value)
+                       .append(" - @Date(1970; 1; 1; 0; 0; 0)); \"F0\"); \";\"); \"\")");
+            } else {
+                formula.append("@Implode(@Text(").append(value).append("); \";\")");
+            }
+        }
+
+        return formula.toString();
+    }
+
+    /**
+     * Read one calendar document.
+     * @param doc - The document to read.
+     * @param cntEntry - The sequential number of the document, used in diagnostic output.
+     * @return The entry values and the start/end of every instance, or null if
+     * the document should be ignored.
+     */
+    public LotusNotesEntryTemplate getEntryTemplate(Document doc, int cntEntry)
+        throws LngsException {
+        try {
+            // If we are in diagnostic mode, write the entry to a text file
+            if (notesManager.diagnosticMode) {
+                notesManager.writeEntryToFile(doc, cntEntry);
+            }
+
+            Vector result = session.evaluate(formula, doc);
+
+            if ((result == null) || result.isEmpty()) {
+                throw new LngsException(
+                    "The Lotus Notes entry formula returned no result.");
+            }
+
+            String[] texts = result.get(0).toString()
+                                   .split(String.valueOf(VALUE_SEPARATOR), -1);
+
+            if (texts.length != LotusNotesValueParser.VALUE_COUNT) {
+                throw new LngsException(
+                    "The Lotus Notes entry formula returned " + texts.length +
+                    " values instead of " + LotusNotesValueParser.VALUE_COUNT +
+                    ".");
+            }
+
+            Vector<Object> values = new Vector<Object>(texts.length);
+
+            for (int i = 0; i < texts.length; i++) {
+                values.add(IS_DATE_VALUE[i] ? getDates(texts[i]) : texts[i]);
+            }
+
+            LotusNotesEntryTemplate template = valueParser.getEntryTemplate(doc.getUniversalID(),
+                    values);
+
+            if (template != null) {
+                valueParser.readBody(doc, template.getEntry());
+            }
+
+            return template;
+        } catch (LngsException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new LngsException("There was a problem processing the retrieved Lotus Notes calendar entries.",
+                ex);
+        }
+    }
+
+    /**
+     * Turn a list of seconds into dates.
+     * @return The dates, or "" if there are none (the way an empty item reads).
+     */
+    protected Object getDates(String text) {
+        if (text.isEmpty()) {
+            return "";
+        }
+
+        ArrayList<Date> dates = new ArrayList<Date>();
+
+        for (String seconds : text.split(";")) {
+            dates.add(new Date(epochMsecs + (Long.parseLong(seconds.trim()) * 1000L)));
+        }
+
+        return new Vector<Date>(dates);
+    }
+}
@@ -13,10 +13,37 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
 import java.util.*;
-
-public class LotusNotesManager {
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class LotusNotesManager implements CalendarSource {
     protected StatusMessageCallback statusMessageCallback = null;
-    String calendarViewName = "Google Calendar Sync";
+    // The view LNGS creates to read calendar entries. The parentheses hide it
+    // in the Notes client.
+    String calendarViewName = "(Google Calendar Sync)";
+    boolean useCalendarView = false;
+
+    // When true, each document is read with one formula evaluation
+    boolean useFormulaExtraction = false;
+    LotusNotesFormulaReader formulaReader = null;
+
+    // Recycles the Lotus objects read during an extraction
+    LotusNotesRecycler recycler = null;
+
+    // The number of date ranges (each with its own Notes thread and session)
+    // that are searched at the same time. 1 means the search isn't split.
+    int extractionThreads = 1;
+
+    // Creates the Lotus sessions and threads, e.g. a simulator instead of Notes
+    LotusNotesRuntime runtime = new LotusNotesRuntime();
+
+    // When true, the Lotus session and mail database stay open between syncs
+    boolean keepSessionOpen = false;
+    LotusSessionService sessionService = null;
     String password;
     String server;
     String mailfile;
@@ -25,6 +52,9 @@ public class LotusNotesManager {
     String notesVersion;
     String serverDateFormat;
 
+    // The optional items that are read, based on the sync options
+    LotusNotesFieldProjection fieldProjection = LotusNotesFieldProjection.ALL;
+
     // Our min and max dates for entries we will process.
     // If the calendar entry is outside this range, it is ignored.
     Date startDate = null;
@@ -42,6 +72,25 @@ public class LotusNotesManager {
     final String lnInRangeEntriesFilename = "LotusNotesInRangeEntries.txt";
     String lnInRangeEntriesFullFilename;
 
+    // When true, only the documents changed since the last sync are read.
+    // The rest come from the snapshot saved by the last sync.
+    boolean incrementalExtraction = false;
+    final String snapshotFilename = "LotusNotesSnapshot.ser";
+    String snapshotFullFilename;
+
+    // The snapshot window is padded so small changes to the sync date range
+    // don't force a full extraction
+    static final long SNAPSHOT_PAD_MSECS = 30L * 24 * 60 * 60 * 1000;
+
+    // When true, the templates read from calendar documents are kept between
+    // syncs and reused while the document's last-modified time is unchanged.
+    // The cache can also be saved to a file.
+    boolean useEntryCache = false;
+    boolean saveEntryCache = false;
+    LotusNotesEntryCache entryCache = null;
+    final String entryCacheFilename = "LotusNotesEntryCache.ser";
+    String entryCacheFullFilename;
+
     public LotusNotesManager() {
         notesVersion = "unknown";
 
@@ -50,6 +99,8 @@ public class LotusNotesManager {
             System.getProperty("file.separator");
         lnFoundEntriesFullFilename = appPath + lnFoundEntriesFilename;
         lnInRangeEntriesFullFilename = appPath + lnInRangeEntriesFilename;
+        snapshotFullFilename = appPath + snapshotFilename;
+        entryCacheFullFilename = appPath + entryCacheFilename;
     }
 
     public void setServer(String server) {
@@ -85,6 +136,68 @@ public class LotusNotesManager {
         this.serverDateFormat = serverDateFormat;
     }
 
+    public void setUseCalendarView(boolean value) {
+        useCalendarView = value;
+    }
+
+    public void setUseFormulaExtraction(boolean value) {
+        useFormulaExtraction = value;
+    }
+
+    public void setIncrementalExtraction(boolean value) {
+        incrementalExtraction = value;
+    }
+
+    public void setFieldProjection(LotusNotesFieldProjection value) {
+        fieldProjection = value;
+    }
+
+    public void setUseEntryCache(boolean value) {
+        useEntryCache = value;
+
+        if (!useEntryCache) {
+            entryCache = null;
+        }
+    }
+
+    public void setSaveEntryCache(boolean value) {
+        saveEntryCache = value;
+    }
+
+    public void setExtractionThreads(int value) {
+        extractionThreads = Math.max(1, value);
+    }
+
+    public LotusNotesRuntime getRuntime() {
+        return runtime;
+    }
+
+    public void setRuntime(LotusNotesRuntime value) {
+        if (value != runtime) {
+            // A kept session belongs to the old runtime
+            closeSession();
+            runtime = value;
+        }
+    }
+
+    public void setKeepSessionOpen(boolean value) {
+        keepSessionOpen = value;
+
+        if (!keepSessionOpen) {
+            closeSession();
+        }
+    }
+
+    /**
+     * Close the Lotus session kept open between syncs, if there is one.
+     */
+    public void closeSession() {
+        if (sessionService != null) {
+            sessionService.shutdown();
+            sessionService = null;
+        }
+    }
+
     public void setStatusMessageCallback(StatusMessageCallback value) {
         statusMessageCallback = value;
     }
@@ -97,6 +210,41 @@ public class LotusNotesManager {
      * Retrieve a list of Lotus Notes calendar entries.
      */
     public ArrayList<LotusNotesCalendarEntry> getCalendarEntries()
+        throws LngsException, IOException {
+        if (!keepSessionOpen) {
+            return readCalendarEntries();
+        }
+
+        runtime.loadNotesThreadClass();
+
+        if (sessionService == null) {
+            sessionService = new LotusSessionService(runtime);
+        }
+
+        try {
+            // Lotus objects must be used on the thread that created them
+            return sessionService.call(new Callable<ArrayList<LotusNotesCalendarEntry>>() {
+                    @Override
+                    public ArrayList<LotusNotesCalendarEntry> call()
+                        throws Exception {
+                        return readCalendarEntries();
+                    }
+                });
+        } catch (LngsException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new LngsException("There was a problem reading Lotus Notes calendar entries.",
+                ex);
+        }
+    }
+
+    /**
+     * Read the Lotus Notes calendar entries on the current thread. When the
+     * session service is used, this runs on its thread and reuses its session.
+     */
+    protected ArrayList<LotusNotesCalendarEntry> readCalendarEntries()
         throws LngsException, IOException {
         boolean wasNotesThreadInitialized = false;
         ArrayList<LotusNotesCalendarEntry> calendarEntries = new ArrayList<LotusNotesCalendarEntry>();
@@ -105,7 +253,7 @@ public class LotusNotesManager {
         statusMessageCallback.statusAppendStart(
             "Getting Lotus Notes calendar entries");
 
-        loadNotesThreadClass();
+        runtime.loadNotesThreadClass();
 
         try {
             // Make sure your Windows PATH statement includes the location
@@ -115,12 +263,19 @@ public class LotusNotesManager {
             // If the dlls can't be found, then we will drop directly into
             // the finally section (no exception is thrown).  That's strange.
             // So, we set a flag to indicate whether things succeeded or not.
-            NotesThread.sinitThread();
+            if (sessionService == null) {
+                runtime.sinitThread();
+            }
+
             wasNotesThreadInitialized = true;
 
-            // Note: We cast null to a String to avoid overload conflicts
-            Session session = NotesFactory.createSession((String) null,
-                    (String) null, password);
+            Session session;
+
+            if (sessionService != null) {
+                session = sessionService.getSession(password);
+            } else {
+                session = runtime.createSession(password);
+            }
 
             if (session == null) {
                 throw new LngsException(
@@ -128,33 +283,29 @@ public class LotusNotesManager {
             }
 
             notesVersion = session.getNotesVersion();
+            recycler = new LotusNotesRecycler(session);
 
-            String dominoServerTemp = server;
-
-            if (server.equals("")) {
-                dominoServerTemp = null;
+            if (useFormulaExtraction) {
+                formulaReader = new LotusNotesFormulaReader(this,
+                        new LotusNotesValueParser(statusMessageCallback, fieldProjection), session);
             }
 
-            Database db = session.getDatabase(dominoServerTemp, mailfile, false);
-
-            if (db == null) {
-                // Strip off any path info from the mailfile and try to open the DB again
-                int separatorIdx = mailfile.lastIndexOf(File.separator);
+            String databaseKey = server + "!!" + mailfile;
+            Database db = null;
 
-                if (separatorIdx > -1) {
-                    String shortMailfile = mailfile.substring(separatorIdx + 1);
-                    statusMessageCallback.statusAppendLineDiag(
-                        "Using short mailfile name: " + shortMailfile);
-
-                    // Open the DB a slightly different way
-                    DbDirectory dbDir = session.getDbDirectory((String) null);
-                    db = dbDir.openDatabase(shortMailfile);
-                }
+            if (sessionService != null) {
+                db = sessionService.getDatabase(databaseKey);
             }
 
             if (db == null) {
-                throw new LngsException(
-                    "Couldn't create Lotus Notes Database object.");
+                db = openDatabase(session);
+
+                if (sessionService != null) {
+                    sessionService.setDatabase(databaseKey, db);
+                }
+            } else {
+                statusMessageCallback.statusAppendLineDiag(
+                    "Using the open Lotus Notes session and mail database");
             }
 
             String strDateFormat;
@@ -162,7 +313,20 @@ public class LotusNotesManager {
 
             if (serverDateFormat.isEmpty() ||
                     serverDateFormat.equalsIgnoreCase("detect")) {
-                strDateFormat = getLotusServerDateFormat(session);
+                strDateFormat = null;
+
+                if (sessionService != null) {
+                    strDateFormat = sessionService.getServerDateFormat();
+                }
+
+                if (strDateFormat == null) {
+                    strDateFormat = getLotusServerDateFormat(session);
+
+                    if (sessionService != null) {
+                        sessionService.setServerDateFormat(strDateFormat);
+                    }
+                }
+
                 dateFormat = new SimpleDateFormat(strDateFormat);
                 statusMessageCallback.statusAppendLineDiag(
                     "Using Detected Server Date Format: " + strDateFormat);
@@ -187,9 +351,8 @@ public class LotusNotesManager {
             //   The operator *= is a permuted equal operator. It compares all entries on
             //     the left side to all entries on the right side. If there is at least one
             //     match, then true is returned.
-            String calendarQuery = "SELECT (!@IsAvailable($Conflict) & @IsAvailable(CalendarDateTime) & (@Explode(CalendarDateTime) *= @Explode(@TextToTime(\"" +
-                dateFormat.format(startDate) + " - " +
-                dateFormat.format(endDate) + "\"))))";
+            String calendarQuery = "SELECT (" +
+                createSelectionFormula(dateFormat, startDate, endDate) + ")";
 
             //            Calendar calendar = Calendar.getInstance();   
             //            calendar.setTime(startDate);   
@@ -217,6 +380,43 @@ public class LotusNotesManager {
             // This is the query I'm experimenting with:            
             //          String calendarQuery = "SELECT (@IsAvailable(CalendarDateTime) & (@Explode(CalendarDateTime)[1] >= " + 
             //                  "@Date(" + (startDate.getYear()+1900) + ";" + (startDate.getMonth()+1) + ";" + startDate.getDate() + ")))";
+            if (incrementalExtraction) {
+                calendarEntries = getCalendarEntriesIncremental(session, db,
+                        dateFormat);
+
+                return calendarEntries;
+            }
+
+            if (useCalendarView) {
+                LinkedHashMap<String, LotusNotesEntryTemplate> templates = readTemplatesFromView(db,
+                        startDate, endDate);
+
+                if (templates != null) {
+                    for (LotusNotesEntryTemplate template : templates.values()) {
+                        addInRangeEntries(template, calendarEntries);
+                    }
+
+                    return calendarEntries;
+                }
+            }
+
+            if (useEntryCache && !diagnosticMode) {
+                beginEntryCache(databaseKey + "!!" + fieldProjection.getKey());
+            }
+
+            if (extractionThreads > 1) {
+                if (diagnosticMode) {
+                    // The found entries are written in order to one file
+                    statusMessageCallback.statusAppendLineDiag(
+                        "Diagnostic mode is on, so the Lotus search isn't split.");
+                } else {
+                    calendarEntries = readCalendarEntriesParallel(dateFormat);
+                    endEntryCache();
+
+                    return calendarEntries;
+                }
+            }
+
             statusMessageCallback.statusAppendLineDiag("Calendar query: " +
                 calendarQuery);
 
@@ -232,21 +432,19 @@ public class LotusNotesManager {
                     "Number of query results: " + queryResults.getCount());
             }
 
-            if (diagnosticMode) {
-                // Open the output file if it is not open
-                if (lnFoundEntriesWriter == null) {
-                    lnFoundEntriesFile = new File(lnFoundEntriesFullFilename);
-                    lnFoundEntriesWriter = new BufferedWriter(new FileWriter(
-                                lnFoundEntriesFile));
-                    lnFoundEntriesWriter.write("Total entries: " +
-                        queryResults.getCount() + "\n\n");
-                }
-            }
+            openFoundEntriesFile(queryResults.getCount());
 
             calendarEntries = getCalendarEntryList(queryResults);
+            queryResults.recycle();
+            endEntryCache();
 
             return calendarEntries;
         } catch (NotesException ex) {
+            // The session may be stale. Open a new one next time.
+            if (sessionService != null) {
+                sessionService.invalidate();
+            }
+
             String exMsg = "There was a problem reading Lotus Notes calendar entries." +
                 "\nNotesException ID: " + ((NotesException) ex).id;
 
@@ -278,29 +476,63 @@ public class LotusNotesManager {
                 lnFoundEntriesWriter = null;
             }
 
-            NotesThread.stermThread();
+            if (recycler != null) {
+                try {
+                    recycler.recycle();
+                } catch (NotesException ex) {
+                    // Do nothing. The objects are freed when the thread ends.
+                }
+
+                statusMessageCallback.statusAppendLineDiag(
+                    "Lotus objects recycled: " + recycler.getRecycledCount() +
+                    ". Most waiting at once: " + recycler.getMaxLiveCount());
+                recycler = null;
+            }
+
+            formulaReader = null;
+
+            if (sessionService == null) {
+                runtime.stermThread();
+            }
 
             statusMessageCallback.statusAppendFinished();
         }
     }
 
     /**
-     * Manually load the Lotus Notes thread class to see if it can be found.
+     * Open the mail database.
      */
-    protected void loadNotesThreadClass() throws LngsException {
-        try {
-            // Some users, especially on OS X, have trouble locating Notes.jar (which
-            // needs to be in the classpath) and the supporting dll/so/dylib files (which
-            // need to be in the path/ld_library_path).  Try to load one of the Lotus
-            // classes to make sure we can find Notes.jar.
-            // The next try/catch block (with the sinitThread() call) will check if
-            // the supporing libs can be found.
-            ClassLoader.getSystemClassLoader()
-                       .loadClass("lotus.domino.NotesThread");
-        } catch (ClassNotFoundException ex) {
-            throw new LngsException("The Lotus Notes Java interface file (Notes.jar) could not be found.\nMake sure Notes.jar is in your classpath.",
-                ex);
+    protected Database openDatabase(Session session)
+        throws LngsException, NotesException {
+        String dominoServerTemp = server;
+
+        if (server.equals("")) {
+            dominoServerTemp = null;
         }
+
+        Database db = session.getDatabase(dominoServerTemp, mailfile, false);
+
+        if (db == null) {
+            // Strip off any path info from the mailfile and try to open the DB again
+            int separatorIdx = mailfile.lastIndexOf(File.separator);
+
+            if (separatorIdx > -1) {
+                String shortMailfile = mailfile.substring(separatorIdx + 1);
+                statusMessageCallback.statusAppendLineDiag(
+                    "Using short mailfile name: " + shortMailfile);
+
+                // Open the DB a slightly different way
+                DbDirectory dbDir = session.getDbDirectory((String) null);
+                db = dbDir.openDatabase(shortMailfile);
+            }
+        }
+
+        if (db == null) {
+            throw new LngsException(
+                "Couldn't create Lotus Notes Database object.");
+        }
+
+        return db;
     }
 
     /**
@@ -335,251 +567,372 @@ public class LotusNotesManager {
     protected ArrayList<LotusNotesCalendarEntry> getCalendarEntryList(
         DocumentCollection queryResults)
         throws LngsException, NotesException, IOException {
-        boolean keepCalEntry = false;
-        boolean isRepeating = false;
         ArrayList<LotusNotesCalendarEntry> calendarEntries = new ArrayList<LotusNotesCalendarEntry>();
-        LotusNotesCalendarEntry cal = null;
 
         Document doc = queryResults.getFirstDocument();
 
         int cntEntry = 1;
 
+        // Loop through all entries returned
+        while (doc != null) {
+            LotusNotesEntryTemplate template = getCachedEntryTemplate(doc,
+                    cntEntry, recycler, formulaReader);
+
+            if (template != null) {
+                addInRangeEntries(template, calendarEntries);
+            }
+
+            Document nextDoc = queryResults.getNextDocument(doc);
+            recycler.add(doc);
+            recycler.endDocument();
+            doc = nextDoc;
+            cntEntry++;
+        }
+
+        return calendarEntries;
+    }
+
+    /**
+     * Read one Lotus Notes calendar document, or take it from the entry cache
+     * if it hasn't changed since it was cached. On a cache hit only the UNID
+     * and last-modified time of the document are read.
+     */
+    protected LotusNotesEntryTemplate getCachedEntryTemplate(Document doc,
+        int cntEntry, LotusNotesRecycler recycler,
+        LotusNotesFormulaReader formulaReader)
+        throws LngsException, NotesException {
+        if ((entryCache == null) || diagnosticMode) {
+            return getEntryTemplate(doc, cntEntry, recycler, formulaReader);
+        }
+
+        String unid = doc.getUniversalID();
+        long modifiedMsecs = recycler.add(doc.getLastModified()).toJavaDate()
+                                     .getTime();
+
+        if (entryCache.contains(unid, modifiedMsecs)) {
+            return entryCache.get(unid);
+        }
+
+        LotusNotesEntryTemplate template = getEntryTemplate(doc, cntEntry,
+                recycler, formulaReader);
+        entryCache.put(unid, modifiedMsecs, template);
+
+        return template;
+    }
+
+    /**
+     * Get the entry cache ready for a sync. The saved cache is read the first time.
+     */
+    protected void beginEntryCache(String databaseKey) {
+        if (entryCache == null) {
+            if (saveEntryCache) {
+                entryCache = LotusNotesEntryCache.load(new File(
+                            entryCacheFullFilename));
+            } else {
+                entryCache = new LotusNotesEntryCache();
+            }
+        }
+
+        entryCache.beginSync(databaseKey);
+    }
+
+    /**
+     * Drop the documents that weren't found by this sync and save the cache.
+     */
+    protected void endEntryCache() {
+        if ((entryCache == null) || diagnosticMode) {
+            return;
+        }
+
+        entryCache.endSync();
+        statusMessageCallback.statusAppendLineDiag("Entry cache hits: " +
+            entryCache.getHitCount() + ". Misses: " +
+            entryCache.getMissCount() + ". Documents cached: " +
+            entryCache.size());
+
+        if (saveEntryCache) {
+            try {
+                entryCache.save(new File(entryCacheFullFilename));
+            } catch (IOException ex) {
+                statusMessageCallback.statusAppendLineDiag(
+                    "Couldn't save the Lotus Notes entry cache: " +
+                    ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read one Lotus Notes calendar document on the main extraction thread.
+     */
+    protected LotusNotesEntryTemplate getEntryTemplate(Document doc,
+        int cntEntry) throws LngsException {
+        return getEntryTemplate(doc, cntEntry, recycler, formulaReader);
+    }
+
+    /**
+     * Read one Lotus Notes calendar document.
+     * @param doc - The document to read.
+     * @param cntEntry - The sequential number of the document, used in diagnostic output.
+     * @param recycler - Recycles the Lotus objects read from the document.
+     * @param formulaReader - If not null, the document is read with one formula evaluation.
+     * @return The entry values and the start/end of every instance, or null if
+     * the document should be ignored.
+     */
+    protected LotusNotesEntryTemplate getEntryTemplate(Document doc,
+        int cntEntry, LotusNotesRecycler recycler,
+        LotusNotesFormulaReader formulaReader) throws LngsException {
+        if (formulaReader != null) {
+            return formulaReader.getEntryTemplate(doc, cntEntry);
+        }
+
+        LotusNotesCalendarEntry cal = null;
+
         try {
-            // Loop through all entries returned
-            while (doc != null) {
-                Item lnItem;
-                keepCalEntry = true;
+            Item lnItem;
+            boolean keepCalEntry = true;
 
-                // If we are in diagnostic mode, write the entry to a text file
-                if (diagnosticMode) {
-                    writeEntryToFile(doc, cntEntry);
-                }
+            // If we are in diagnostic mode, write the entry to a text file
+            if (diagnosticMode) {
+                writeEntryToFile(doc, cntEntry);
+            }
 
-                cal = new LotusNotesCalendarEntry();
+            cal = new LotusNotesCalendarEntry();
 
-                lnItem = doc.getFirstItem("Subject");
+            lnItem = recycler.add(doc.getFirstItem("Subject"));
 
-                if (!isItemEmpty(lnItem)) {
-                    cal.setSubject(lnItem.getText());
-                } else {
-                    cal.setSubject("<no subject>");
-                }
+            if (!isItemEmpty(lnItem)) {
+                cal.setSubject(lnItem.getText());
+            } else {
+                cal.setSubject("<no subject>");
+            }
 
-                lnItem = doc.getFirstItem("Body");
+            if (fieldProjection.isBodyRead()) {
+                lnItem = recycler.add(doc.getFirstItem("Body"));
 
                 if (!isItemEmpty(lnItem)) {
-                    cal.setBody(lnItem.getText());
+                    cal.setBody(lnItem.getText(
+                            LotusNotesFieldProjection.MAX_BODY_CHARS));
                 }
+            }
 
-                // Get the type of Lotus calendar entry
-                lnItem = doc.getFirstItem("Form");
+            // Get the type of Lotus calendar entry
+            lnItem = recycler.add(doc.getFirstItem("Form"));
 
-                if (!isItemEmpty(lnItem)) {
-                    cal.setEntryType(lnItem.getText());
-                } else {
-                    // Assume we have an appointment
-                    cal.setEntryType(LotusNotesCalendarEntry.EntryType.APPOINTMENT);
-                }
+            if (!isItemEmpty(lnItem)) {
+                cal.setEntryType(lnItem.getText());
+            } else {
+                // Assume we have an appointment
+                cal.setEntryType(LotusNotesCalendarEntry.EntryType.APPOINTMENT);
+            }
 
-                if (cal.getEntryType() == LotusNotesCalendarEntry.EntryType.APPOINTMENT) {
-                    lnItem = doc.getFirstItem("AppointmentType");
+            if (cal.getEntryType() == LotusNotesCalendarEntry.EntryType.APPOINTMENT) {
+                lnItem = recycler.add(doc.getFirstItem("AppointmentType"));
 
-                    if (!isItemEmpty(lnItem)) {
-                        cal.setAppointmentType(lnItem.getText());
-                    }
+                if (!isItemEmpty(lnItem)) {
+                    cal.setAppointmentType(lnItem.getText());
                 }
+            }
 
-                lnItem = doc.getFirstItem("Room");
+            if (fieldProjection.isWhereRead()) {
+                lnItem = recycler.add(doc.getFirstItem("Room"));
 
                 if (!isItemEmpty(lnItem)) {
                     cal.setRoom(lnItem.getText());
                 }
 
-                lnItem = doc.getFirstItem("Location");
+                lnItem = recycler.add(doc.getFirstItem("Location"));
 
                 if (!isItemEmpty(lnItem)) {
                     cal.setLocation(lnItem.getText());
                 }
+            }
 
-                lnItem = doc.getFirstItem("STUnyteConferenceURL");
+            if (fieldProjection.isBodyRead()) {
+                lnItem = recycler.add(doc.getFirstItem("STUnyteConferenceURL"));
 
                 if (!isItemEmpty(lnItem)) {
                     cal.setSTUnyteConferenceURL(lnItem.getText());
                 }
+            }
+
+            lnItem = recycler.add(doc.getFirstItem("$Alarm"));
 
-                lnItem = doc.getFirstItem("$Alarm");
+            if (!isItemEmpty(lnItem)) {
+                cal.setAlarm(true);
+                lnItem = recycler.add(doc.getFirstItem("$AlarmOffset"));
 
                 if (!isItemEmpty(lnItem)) {
-                    cal.setAlarm(true);
-                    lnItem = doc.getFirstItem("$AlarmOffset");
-
-                    if (!isItemEmpty(lnItem)) {
-                        String alarmValue = lnItem.getText();
-                        // Handle some locales that use ',' as the decimal point
-                        alarmValue = alarmValue.replace(',', '.');
-                        // In rare instances, a min-offset reminder can become a floating
-                        // point value, e.g. create an alarm with a 95 min reminder.
-                        // This is recalculated to ‘1.58333333333333 Hours’ and then
-                        // the inaccurate ‘94.9999999999998 minutes’.
-                        cal.setAlarmOffsetMins(Math.round(Float.parseFloat(
-                                    alarmValue)));
-                    }
+                    String alarmValue = lnItem.getText();
+                    // Handle some locales that use ',' as the decimal point
+                    alarmValue = alarmValue.replace(',', '.');
+                    // In rare instances, a min-offset reminder can become a floating
+                    // point value, e.g. create an alarm with a 95 min reminder.
+                    // This is recalculated to ‘1.58333333333333 Hours’ and then
+                    // the inaccurate ‘94.9999999999998 minutes’.
+                    cal.setAlarmOffsetMins(Math.round(Float.parseFloat(
+                                alarmValue)));
                 }
+            }
 
-                // When the Mark Private checkbox is checked, OrgConfidential is set to 1
-                lnItem = doc.getFirstItem("OrgConfidential");
+            // When the Mark Private checkbox is checked, OrgConfidential is set to 1
+            lnItem = recycler.add(doc.getFirstItem("OrgConfidential"));
 
-                if (!isItemEmpty(lnItem)) {
-                    if (lnItem.getText().equals("1")) {
-                        cal.setPrivate(true);
-                    }
+            if (!isItemEmpty(lnItem)) {
+                if (lnItem.getText().equals("1")) {
+                    cal.setPrivate(true);
                 }
+            }
 
-                //Get attendee info
-                lnItem = doc.getFirstItem("REQUIREDATTENDEES");
+            //Get attendee info
+            if (fieldProjection.isAttendeesRead()) {
+                lnItem = recycler.add(doc.getFirstItem("REQUIREDATTENDEES"));
 
                 if (!isItemEmpty(lnItem)) {
                     cal.setRequiredAttendees(lnItem.getText());
                 }
 
-                lnItem = doc.getFirstItem("OPTIONALATTENDEES");
+                lnItem = recycler.add(doc.getFirstItem("OPTIONALATTENDEES"));
 
                 if (!isItemEmpty(lnItem)) {
                     cal.setOptionalAttendees(lnItem.getText());
                 }
 
-                lnItem = doc.getFirstItem("CHAIR");
+                lnItem = recycler.add(doc.getFirstItem("CHAIR"));
 
                 if (!isItemEmpty(lnItem)) {
                     cal.setChairperson(lnItem.getText());
                 }
+            }
 
-                // Get unique identifier for this entry
-                lnItem = doc.getFirstItem("APPTUNID");
+            // Get unique identifier for this entry
+            lnItem = recycler.add(doc.getFirstItem("APPTUNID"));
 
-                if (!isItemEmpty(lnItem)) {
-                    // If the APPTUNID contains a URL (http or https), then the entry
-                    // isn't a standard Lotus Notes item. It is a link to an external calendar.
-                    // In this case, we want to ignore the entry.
-                    if (lnItem.getText().matches("(?i).*(https?|Notes):.*")) {
-                        keepCalEntry = false;
-                    }
+            if (!isItemEmpty(lnItem)) {
+                // If the APPTUNID contains a URL (http or https), then the entry
+                // isn't a standard Lotus Notes item. It is a link to an external calendar.
+                // In this case, we want to ignore the entry.
+                if (lnItem.getText().matches("(?i).*(https?|Notes):.*")) {
+                    keepCalEntry = false;
                 }
+            }
 
-                cal.setModifiedDateTime(doc.getLastModified().toJavaDate());
+            cal.setModifiedDateTime(recycler.add(doc.getLastModified()).toJavaDate());
 
-                if (keepCalEntry) {
-                    // StartDateTime will either contain a single date:
-                    //     12/01/2014 11:00:00 AM
-                    // or be a repeating entry like this:
-                    //     12/01/2014 11:00:00 AM;12/02/2014 11:00:00 AM;12/03/2014 11:00:00 AM;12/04/2014 11:00:00 AM
-                    Item lnStartDateTime = doc.getFirstItem("StartDateTime");
-                    isRepeating = false;
+            if (!keepCalEntry) {
+                return null;
+            }
+
+            // StartDateTime will either contain a single date:
+            //     12/01/2014 11:00:00 AM
+            // or be a repeating entry like this:
+            //     12/01/2014 11:00:00 AM;12/02/2014 11:00:00 AM;12/03/2014 11:00:00 AM;12/04/2014 11:00:00 AM
+            Item lnStartDateTime = recycler.add(doc.getFirstItem("StartDateTime"));
+            boolean isRepeating = false;
 
-                    if (isItemEmpty(lnStartDateTime)) {
-                        // To Do entries may not have a StartDateTime, but should always have a CalendarDateTime
-                        lnStartDateTime = doc.getFirstItem("CalendarDateTime");
+            if (isItemEmpty(lnStartDateTime)) {
+                // To Do entries may not have a StartDateTime, but should always have a CalendarDateTime
+                lnStartDateTime = recycler.add(doc.getFirstItem("CalendarDateTime"));
 
-                        if (isItemEmpty(lnStartDateTime)) {
-                            throw new LngsException(
-                                "Couldn't determine start date for Lotus Notes entry.");
-                        }
+                if (isItemEmpty(lnStartDateTime)) {
+                    throw new LngsException(
+                        "Couldn't determine start date for Lotus Notes entry.");
+                }
+            } else {
+                if (lnStartDateTime.getText().contains(";")) {
+                    isRepeating = true;
+                }
+            }
+
+            Item lnEndDateTime = recycler.add(doc.getFirstItem("EndDateTime"));
+
+            if (isRepeating) {
+                // Handle Lotus Notes repeating entries by creating multiple Google entries
+                Vector startDates = null;
+                Vector endDates = null;
+
+                if (!isItemEmpty(lnStartDateTime)) {
+                    if (lnStartDateTime.getType() == Item.DATETIMES) {
+                        startDates = recycler.add(lnStartDateTime.getValues());
                     } else {
-                        if (lnStartDateTime.getText().contains(";")) {
-                            isRepeating = true;
-                        }
+                        throw new LngsException(
+                            "Repeating start dates are not of type DATETIMES.");
                     }
+                }
 
-                    Item lnEndDateTime = doc.getFirstItem("EndDateTime");
+                if (!isItemEmpty(lnEndDateTime)) {
+                    if (lnEndDateTime.getType() == Item.DATETIMES) {
+                        endDates = recycler.add(lnEndDateTime.getValues());
+                    } else {
+                        throw new LngsException(
+                            "Repeating end dates are not of type DATETIMES.");
+                    }
+                } else {
+                    statusMessageCallback.statusAppendLineDiag(
+                        "Couldn't determine end date. Using start date instead. Subject: " +
+                        cal.getSubject());
+                    endDates = startDates;
+                }
 
-                    if (isRepeating) {
-                        // Handle Lotus Notes repeating entries by creating multiple Google entries
-                        Vector startDates = null;
-                        Vector endDates = null;
+                // Remember every instance, even the ones outside our date range,
+                // so the whole series can be created as one recurring Google event.
+                ArrayList<Date> seriesStartDates = new ArrayList<Date>();
+                ArrayList<Date> seriesEndDates = new ArrayList<Date>();
 
-                        if (!isItemEmpty(lnStartDateTime)) {
-                            if (lnStartDateTime.getType() == Item.DATETIMES) {
-                                startDates = lnStartDateTime.getValues();
-                            } else {
-                                throw new LngsException(
-                                    "Repeating start dates are not of type DATETIMES.");
-                            }
-                        }
-
-                        if (!isItemEmpty(lnEndDateTime)) {
-                            if (lnEndDateTime.getType() == Item.DATETIMES) {
-                                endDates = lnEndDateTime.getValues();
-                            } else {
-                                throw new LngsException(
-                                    "Repeating end dates are not of type DATETIMES.");
-                            }
-                        } else {
-                            statusMessageCallback.statusAppendLineDiag(
-                                "Couldn't determine end date. Using start date instead. Subject: " +
-                                cal.getSubject());
-                            endDates = startDates;
-                        }
-
-                        for (int i = 0; i < startDates.size(); i++) {
-                            if (startDates.get(i) instanceof DateTime) {
-                                DateTime notesDate = (DateTime) startDates.get(i);
-                                Date javaDate = notesDate.toJavaDate();
-
-                                // Only add the entry if it is within our sync date range
-                                if (isDateInRange(javaDate)) {
-                                    // We are creating multiple entries from one repeating entry.
-                                    // We use the same Lotus UID for all entries because we will
-                                    // prepend another GUID before inserting into Google.
-                                    cal.setUID(doc.getUniversalID());
-
-                                    cal.setStartDateTime(javaDate);
-
-                                    if (endDates != null) {
-                                        notesDate = (DateTime) endDates.get(i);
-                                        cal.setEndDateTime(notesDate.toJavaDate());
-                                    }
-
-                                    calendarEntries.add(cal.clone());
-                                } else {
-                                    DateFormat dfShort = DateFormat.getDateInstance(DateFormat.SHORT);
-                                }
-                            }
-                        }
-                    } else {
-                        cal.setUID(doc.getUniversalID());
+                for (int i = 0; i < startDates.size(); i++) {
+                    if (startDates.get(i) instanceof DateTime) {
+                        seriesStartDates.add(((DateTime) startDates.get(i)).toJavaDate());
+                        seriesEndDates.add(((DateTime) endDates.get(i)).toJavaDate());
+                    }
+                }
 
-                        if (!isItemEmpty(lnStartDateTime)) {
-                            cal.setStartDateTime(lnStartDateTime.getDateTimeValue()
-                                                                .toJavaDate());
-                        }
+                if (seriesStartDates.size() == startDates.size()) {
+                    cal.setSeriesDates(seriesStartDates, seriesEndDates);
+                }
 
-                        if (isItemEmpty(lnEndDateTime)) {
-                            // For To Do tasks, the EndDateTime doesn't exist. There is usually (but not always) an EndDate.
-                            // If EndDate is also missing, then set the end date equal to start date.
-                            lnEndDateTime = doc.getFirstItem("EndDate");
+                // We are creating multiple entries from one repeating entry.
+                // We use the same Lotus UID for all entries because we will
+                // prepend another GUID before inserting into Google.
+                cal.setUID(doc.getUniversalID());
 
-                            if (isItemEmpty(lnEndDateTime)) {
-                                lnEndDateTime = lnStartDateTime;
-                            }
-                        }
-
-                        if (!isItemEmpty(lnEndDateTime)) {
-                            cal.setEndDateTime(lnEndDateTime.getDateTimeValue()
-                                                            .toJavaDate());
-                        } else {
-                            throw new LngsException(
-                                "Couldn't determine end date for Lotus Notes entry.");
-                        }
-
-                        // Only add the entry if it is within our sync date range
-                        if (isDateInRange(cal.getStartDateTime())) {
-                            calendarEntries.add(cal);
-                        }
+                LotusNotesEntryTemplate template = new LotusNotesEntryTemplate(cal);
+
+                for (int i = 0; i < seriesStartDates.size(); i++) {
+                    template.addInstance(seriesStartDates.get(i),
+                        seriesEndDates.get(i));
+                }
+
+                return template;
+            } else {
+                cal.setUID(doc.getUniversalID());
+
+                if (!isItemEmpty(lnStartDateTime)) {
+                    cal.setStartDateTime(recycler.add(
+                            lnStartDateTime.getDateTimeValue()).toJavaDate());
+                }
+
+                if (isItemEmpty(lnEndDateTime)) {
+                    // For To Do tasks, the EndDateTime doesn't exist. There is usually (but not always) an EndDate.
+                    // If EndDate is also missing, then set the end date equal to start date.
+                    lnEndDateTime = recycler.add(doc.getFirstItem("EndDate"));
+
+                    if (isItemEmpty(lnEndDateTime)) {
+                        lnEndDateTime = lnStartDateTime;
                     }
                 }
 
-                doc = queryResults.getNextDocument();
-                cntEntry++;
+                if (!isItemEmpty(lnEndDateTime)) {
+                    cal.setEndDateTime(recycler.add(
+                            lnEndDateTime.getDateTimeValue()).toJavaDate());
+                } else {
+                    throw new LngsException(
+                        "Couldn't determine end date for Lotus Notes entry.");
+                }
+
+                LotusNotesEntryTemplate template = new LotusNotesEntryTemplate(cal);
+                template.addInstance(cal.getStartDateTime(),
+                    cal.getEndDateTime());
+
+                return template;
             }
         } catch (Exception ex) {
             String exMsg = "There was a problem processing the retrieved Lotus Notes calendar entries.";
@@ -592,10 +945,377 @@ public class LotusNotesManager {
                 throw new LngsException(exMsg, ex);
             }
         }
+    }
+
+    /**
+     * Add an entry for each instance of a template that starts in our sync date range.
+     */
+    protected void addInRangeEntries(LotusNotesEntryTemplate template,
+        ArrayList<LotusNotesCalendarEntry> calendarEntries) {
+        List<Date> startDates = template.getStartDates();
+        List<Date> endDates = template.getEndDates();
+
+        for (int i = 0; i < startDates.size(); i++) {
+            // Only add the entry if it is within our sync date range
+            if (isDateInRange(startDates.get(i))) {
+                LotusNotesCalendarEntry cal = template.getEntry().clone();
+                cal.setStartDateTime(startDates.get(i));
+                cal.setEndDateTime(endDates.get(i));
+                calendarEntries.add(cal);
+            }
+        }
+    }
+
+    /**
+     * Search the date range in several parts at the same time. Each part runs
+     * on its own Notes thread with its own session, so the server round trips
+     * overlap. The instances are always expanded over the whole date range,
+     * and a document found by more than one part (e.g. a repeating entry) is
+     * kept once.
+     */
+    protected ArrayList<LotusNotesCalendarEntry> readCalendarEntriesParallel(
+        final DateFormat dateFormat) throws Exception {
+        int partCount = extractionThreads;
+        long rangeMsecs = endDate.getTime() - startDate.getTime();
+        ExecutorService executor = Executors.newFixedThreadPool(partCount,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        // A NotesThread inits and terms the Notes runtime for the thread
+                        Thread thread = runtime.newThread(r);
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+
+        try {
+            ArrayList<Future<LinkedHashMap<String, LotusNotesEntryTemplate>>> futures =
+                new ArrayList<Future<LinkedHashMap<String, LotusNotesEntryTemplate>>>();
+
+            for (int i = 0; i < partCount; i++) {
+                final Date partStart = new Date(startDate.getTime() +
+                        ((rangeMsecs * i) / partCount));
+                final Date partEnd = new Date(startDate.getTime() +
+                        ((rangeMsecs * (i + 1)) / partCount));
+
+                // SimpleDateFormat isn't thread safe, so each part gets a copy
+                final DateFormat partDateFormat = (DateFormat) dateFormat.clone();
+
+                futures.add(executor.submit(
+                        new Callable<LinkedHashMap<String, LotusNotesEntryTemplate>>() {
+                            @Override
+                            public LinkedHashMap<String, LotusNotesEntryTemplate> call()
+                                throws Exception {
+                                return readPartition(partDateFormat, partStart,
+                                    partEnd);
+                            }
+                        }));
+            }
+
+            LinkedHashMap<String, LotusNotesEntryTemplate> templates = new LinkedHashMap<String, LotusNotesEntryTemplate>();
+
+            for (Future<LinkedHashMap<String, LotusNotesEntryTemplate>> future : futures) {
+                LinkedHashMap<String, LotusNotesEntryTemplate> partTemplates;
+
+                try {
+                    partTemplates = future.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Exception) {
+                        throw (Exception) ex.getCause();
+                    }
+
+                    throw ex;
+                }
+
+                for (Map.Entry<String, LotusNotesEntryTemplate> partTemplate : partTemplates.entrySet()) {
+                    if (!templates.containsKey(partTemplate.getKey())) {
+                        templates.put(partTemplate.getKey(),
+                            partTemplate.getValue());
+                    }
+                }
+            }
+
+            statusMessageCallback.statusAppendLineDiag(
+                "Calendar documents found by " + partCount +
+                " parallel searches: " + templates.size());
+
+            ArrayList<LotusNotesCalendarEntry> calendarEntries = new ArrayList<LotusNotesCalendarEntry>();
+
+            for (LotusNotesEntryTemplate template : templates.values()) {
+                addInRangeEntries(template, calendarEntries);
+            }
+
+            return calendarEntries;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Search one part of the date range. This runs on a Notes thread of its own.
+     * @return The templates keyed by UNID.
+     */
+    protected LinkedHashMap<String, LotusNotesEntryTemplate> readPartition(
+        DateFormat dateFormat, Date fromDate, Date toDate)
+        throws LngsException, NotesException {
+        Session session = runtime.createSession(password);
+
+        if (session == null) {
+            throw new LngsException(
+                "Couldn't create Lotus Notes Session object.");
+        }
+
+        try {
+            Database db = openDatabase(session);
+            LotusNotesRecycler partRecycler = new LotusNotesRecycler(session);
+            LotusNotesFormulaReader partFormulaReader = null;
+
+            if (useFormulaExtraction) {
+                partFormulaReader = new LotusNotesFormulaReader(this,
+                        new LotusNotesValueParser(statusMessageCallback, fieldProjection), session);
+            }
+
+            DocumentCollection queryResults = db.search("SELECT (" +
+                    createSelectionFormula(dateFormat, fromDate, toDate) + ")");
+            LinkedHashMap<String, LotusNotesEntryTemplate> templates = new LinkedHashMap<String, LotusNotesEntryTemplate>();
+            Document doc = queryResults.getFirstDocument();
+            int cntEntry = 1;
+
+            while (doc != null) {
+                LotusNotesEntryTemplate template = getCachedEntryTemplate(doc,
+                        cntEntry, partRecycler, partFormulaReader);
+
+                if (template != null) {
+                    templates.put(doc.getUniversalID(), template);
+                }
+
+                Document nextDoc = queryResults.getNextDocument(doc);
+                partRecycler.add(doc);
+                partRecycler.endDocument();
+                doc = nextDoc;
+                cntEntry++;
+            }
+
+            return templates;
+        } finally {
+            // Recycling the session recycles all the objects made from it
+            session.recycle();
+        }
+    }
+
+    /**
+     * Returns the @formula that selects the calendar documents with a date in a range.
+     */
+    protected String createSelectionFormula(DateFormat dateFormat, Date fromDate,
+        Date toDate) {
+        return "!@IsAvailable($Conflict) & @IsAvailable(CalendarDateTime) & (@Explode(CalendarDateTime) *= @Explode(@TextToTime(\"" +
+        dateFormat.format(fromDate) + " - " + dateFormat.format(toDate) +
+        "\")))";
+    }
+
+    /**
+     * Get the calendar entries using the snapshot saved by the last sync. Only
+     * the documents changed since the snapshot checkpoint are read. If there is
+     * no usable snapshot, all calendar documents in a padded date window are
+     * read and a new snapshot is saved.
+     */
+    protected ArrayList<LotusNotesCalendarEntry> getCalendarEntriesIncremental(
+        Session session, Database db, DateFormat dateFormat)
+        throws LngsException, NotesException, IOException {
+        // Templates read with other sync options can't be reused
+        String databaseKey = db.getServer() + "!!" + db.getFilePath() + "!!" +
+            fieldProjection.getKey();
+        File snapshotFile = new File(snapshotFullFilename);
+        LotusNotesSnapshot snapshot = LotusNotesSnapshot.load(snapshotFile);
+
+        if ((snapshot == null) ||
+                !snapshot.isValidFor(databaseKey, startDate, endDate)) {
+            snapshot = new LotusNotesSnapshot(databaseKey,
+                    new Date(startDate.getTime() - SNAPSHOT_PAD_MSECS),
+                    new Date(endDate.getTime() + SNAPSHOT_PAD_MSECS));
+
+            // Get the checkpoint before searching, so changes made during the
+            // search are read again next time
+            DocumentCollection noChanges = recycler.add(db.getModifiedDocuments(
+                        recycler.add(session.createDateTime(new Date())),
+                        Database.DBMOD_DOC_DATA));
+            Date checkpoint = recycler.add(noChanges.getUntilTime()).toJavaDate();
+
+            LinkedHashMap<String, LotusNotesEntryTemplate> templates = null;
+
+            if (useCalendarView) {
+                templates = readTemplatesFromView(db, snapshot.getWindowStart(),
+                        snapshot.getWindowEnd());
+            }
+
+            if (templates != null) {
+                snapshot.getTemplates().putAll(templates);
+            } else {
+                String calendarQuery = "SELECT (" +
+                    createSelectionFormula(dateFormat, snapshot.getWindowStart(),
+                        snapshot.getWindowEnd()) + ")";
+                statusMessageCallback.statusAppendLineDiag(
+                    "Full extraction. Calendar query: " + calendarQuery);
+
+                DocumentCollection queryResults = db.search(calendarQuery);
+                statusMessageCallback.statusAppendLineDiag(
+                    "Number of query results: " + queryResults.getCount());
+                openFoundEntriesFile(queryResults.getCount());
+
+                Document doc = queryResults.getFirstDocument();
+                int cntEntry = 1;
+
+                while (doc != null) {
+                    LotusNotesEntryTemplate template = getEntryTemplate(doc, cntEntry);
+
+                    if (template != null) {
+                        snapshot.getTemplates().put(doc.getUniversalID(), template);
+                    }
+
+                    Document nextDoc = queryResults.getNextDocument(doc);
+                    recycler.add(doc);
+                    recycler.endDocument();
+                    doc = nextDoc;
+                    cntEntry++;
+                }
+
+                // The collection isn't registered, so it isn't recycled while in use
+                queryResults.recycle();
+            }
+
+            snapshot.setCheckpoint(checkpoint);
+        } else {
+            // Deleted documents are returned as deletion stubs
+            DocumentCollection changedDocs = db.getModifiedDocuments(recycler.add(
+                        session.createDateTime(snapshot.getCheckpoint())),
+                    Database.DBMOD_DOC_DATA);
+            String selectionFormula = createSelectionFormula(dateFormat,
+                    snapshot.getWindowStart(), snapshot.getWindowEnd());
+            statusMessageCallback.statusAppendLineDiag(
+                "Incremental extraction. Documents changed since " +
+                snapshot.getCheckpoint() + ": " + changedDocs.getCount());
+            openFoundEntriesFile(changedDocs.getCount());
+
+            Document doc = changedDocs.getFirstDocument();
+            int cntEntry = 1;
+
+            while (doc != null) {
+                String unid = doc.getUniversalID();
+
+                if (doc.isDeleted() || !doc.isValid()) {
+                    snapshot.getTemplates().remove(unid);
+                } else if (isFormulaTrue(session.evaluate(selectionFormula, doc))) {
+                    LotusNotesEntryTemplate template = getEntryTemplate(doc, cntEntry);
+
+                    if (template != null) {
+                        snapshot.getTemplates().put(unid, template);
+                    } else {
+                        snapshot.getTemplates().remove(unid);
+                    }
+                } else {
+                    // Not (or no longer) a calendar entry in our window
+                    snapshot.getTemplates().remove(unid);
+                }
+
+                Document nextDoc = changedDocs.getNextDocument(doc);
+                recycler.add(doc);
+                recycler.endDocument();
+                doc = nextDoc;
+                cntEntry++;
+            }
+
+            snapshot.setCheckpoint(recycler.add(changedDocs.getUntilTime())
+                                           .toJavaDate());
+            changedDocs.recycle();
+        }
+
+        try {
+            snapshot.save(snapshotFile);
+        } catch (IOException ex) {
+            // The next sync will do a full extraction
+            snapshotFile.delete();
+            statusMessageCallback.statusAppendLineDiag(
+                "Couldn't save the Lotus Notes snapshot: " + ex.getMessage());
+        }
+
+        ArrayList<LotusNotesCalendarEntry> calendarEntries = new ArrayList<LotusNotesCalendarEntry>();
+
+        for (LotusNotesEntryTemplate template : snapshot.getTemplates().values()) {
+            addInRangeEntries(template, calendarEntries);
+        }
+
+        statusMessageCallback.statusAppendLineDiag(
+            "Calendar documents in snapshot: " + snapshot.getTemplates().size());
 
         return calendarEntries;
     }
 
+    /**
+     * Read the calendar documents with an instance in a date range through the
+     * LNGS view. The view is created if needed.
+     * @return The templates keyed by UNID, or null if the view can't be used.
+     */
+    protected LinkedHashMap<String, LotusNotesEntryTemplate> readTemplatesFromView(
+        Database db, Date fromDate, Date toDate)
+        throws LngsException, NotesException, IOException {
+        LotusNotesViewReader viewReader = new LotusNotesViewReader(this,
+                new LotusNotesValueParser(statusMessageCallback, fieldProjection),
+                calendarViewName);
+        View view;
+
+        try {
+            view = viewReader.getView(db);
+        } catch (NotesException ex) {
+            // E.g. the user isn't allowed to change the design of the mail file
+            statusMessageCallback.statusAppendLineDiag(
+                "Couldn't create the Lotus view " + calendarViewName +
+                " (NotesException ID: " + ex.id +
+                "). Using a database search instead.");
+
+            return null;
+        }
+
+        statusMessageCallback.statusAppendLineDiag(
+            "Reading calendar entries from view " + calendarViewName);
+
+        LinkedHashMap<String, LotusNotesEntryTemplate> templates = viewReader.readTemplates(view,
+                fromDate, toDate);
+        view.recycle();
+
+        return templates;
+    }
+
+    /**
+     * Returns true if the result of Session.evaluate() is a true @formula value.
+     */
+    protected boolean isFormulaTrue(Vector result) {
+        if ((result == null) || result.isEmpty()) {
+            return false;
+        }
+
+        Object value = result.get(0);
+
+        return (value instanceof Number) && (((Number) value).intValue() == 1);
+    }
+
+    /**
+     * In diagnostic mode, open the file the found entries are written to.
+     */
+    protected void openFoundEntriesFile(int entryCount)
+        throws IOException {
+        if (diagnosticMode) {
+            // Open the output file if it is not open
+            if (lnFoundEntriesWriter == null) {
+                lnFoundEntriesFile = new File(lnFoundEntriesFullFilename);
+                lnFoundEntriesWriter = new BufferedWriter(new FileWriter(
+                            lnFoundEntriesFile));
+                lnFoundEntriesWriter.write("Total entries: " + entryCount +
+                    "\n\n");
+            }
+        }
+    }
+
     /**
      * Try to detect some Lotus Notes settings and return them.
      */
@@ -606,11 +1326,10 @@ public class LotusNotesManager {
         LotusNotesSettings lns = new LotusNotesSettings();
 
         try {
-            NotesThread.sinitThread();
+            runtime.sinitThread();
             wasNotesThreadInitialized = true;
 
-            Session session = NotesFactory.createSession((String) null,
-                    (String) null, lnPassword);
+            Session session = runtime.createSession(lnPassword);
 
             lns.setMailFile(session.getEnvironmentString("MailFile", true));
 
@@ -644,7 +1363,7 @@ public class LotusNotesManager {
                     "There was a problem initializing the Lotus Notes thread.\nMake sure the Lotus dll/so/dylib directory is in your path.\nAlso look at the Troubleshooting section of the Help file.");
             }
 
-            NotesThread.stermThread();
+            runtime.stermThread();
         }
 
         return lns;
@@ -690,14 +1409,14 @@ public class LotusNotesManager {
         }
 
         itemsAndValues.add("  LastModified (from getLastModified()): " +
-            doc.getLastModified() + "\n");
+            recycler.add(doc.getLastModified()) + "\n");
         itemsAndValues.add("  UniversalID (from getUniversalID()): " +
             doc.getUniversalID() + "\n");
 
         String itemName;
 
         // Loop through each item
-        for (Object itemObj : doc.getItems()) {
+        for (Object itemObj : recycler.add(doc.getItems())) {
             if (itemObj instanceof Item) {
                 itemName = ((Item) itemObj).getName();
             } else {
@@ -705,7 +1424,7 @@ public class LotusNotesManager {
             }
 
             // Get the item value using the item name
-            Item lnItem = doc.getFirstItem(itemName);
+            Item lnItem = recycler.add(doc.getFirstItem(itemName));
 
             if (lnItem != null) {
                 itemsAndValues.add("  " + itemName + ": " + lnItem.getText() +
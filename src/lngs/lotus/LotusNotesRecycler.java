@@ -0,0 +1,103 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lotus.domino.Base;
+import lotus.domino.NotesException;
+
+import java.util.Vector;
+
+/**
+ * Keeps track of the Lotus Notes objects (documents, items, date/times, view
+ * entries) read while extracting calendar entries and recycles them. Each Java
+ * object holds a native handle that is only freed by recycle() or when the
+ * Notes thread ends, so without this the native memory grows with the size of
+ * the mail file. The objects of several documents are recycled together with
+ * one recycle(Vector) call.
+ */
+public class LotusNotesRecycler {
+    // The number of documents whose objects are recycled in one call
+    protected static final int BATCH_DOCUMENTS = 20;
+
+    // The object used to make the recycle(Vector) call, e.g. the Session
+    protected final Base owner;
+    protected final Vector<Object> pending = new Vector<Object>();
+    protected int documentCount = 0;
+    protected int recycledCount = 0;
+    protected int maxLiveCount = 0;
+
+    public LotusNotesRecycler(Base owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Register an object to be recycled. For a Vector (e.g. from Item.getValues()),
+     * the Lotus objects in it are registered.
+     * @return The object that was passed in, so calls can be wrapped.
+     */
+    public <T> T add(T obj) {
+        if (obj instanceof Base) {
+            pending.add(obj);
+        } else if (obj instanceof Vector) {
+            for (Object element : (Vector) obj) {
+                if (element instanceof Base) {
+                    pending.add(element);
+                }
+            }
+        }
+
+        maxLiveCount = Math.max(maxLiveCount, pending.size());
+
+        return obj;
+    }
+
+    /**
+     * Call after the last use of a document and the objects read from it.
+     * Every BATCH_DOCUMENTS documents, the registered objects are recycled.
+     */
+    public void endDocument() throws NotesException {
+        documentCount++;
+
+        if ((documentCount % BATCH_DOCUMENTS) == 0) {
+            recycle();
+        }
+    }
+
+    /**
+     * Recycle all the registered objects.
+     */
+    public void recycle() throws NotesException {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        try {
+            owner.recycle(pending);
+            recycledCount += pending.size();
+        } finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Returns the number of registered objects that haven't been recycled yet.
+     */
+    public int getLiveCount() {
+        return pending.size();
+    }
+
+    public int getRecycledCount() {
+        return recycledCount;
+    }
+
+    /**
+     * Returns the most objects that were waiting to be recycled at one time.
+     */
+    public int getMaxLiveCount() {
+        return maxLiveCount;
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+}
@@ -0,0 +1,65 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lngs.util.LngsException;
+
+import lotus.domino.*;
+
+/**
+ * Creates Lotus Notes sessions and the threads they are used on. This is the
+ * only place LNGS calls the native Notes runtime, so a subclass (e.g.
+ * LotusNotesSimulator in the tests) can run the Lotus code without a Notes
+ * client.
+ */
+public class LotusNotesRuntime {
+    /**
+     * Manually load the Lotus Notes thread class to see if it can be found.
+     */
+    public void loadNotesThreadClass() throws LngsException {
+        try {
+            // Some users, especially on OS X, have trouble locating Notes.jar (which
+            // needs to be in the classpath) and the supporting dll/so/dylib files (which
+            // need to be in the path/ld_library_path).  Try to load one of the Lotus
+            // classes to make sure we can find Notes.jar.
+            // The next try/catch block (with the sinitThread() call) will check if
+            // the supporing libs can be found.
+            ClassLoader.getSystemClassLoader()
+                       .loadClass("lotus.domino.NotesThread");
+        } catch (ClassNotFoundException ex) {
+            throw new LngsException("The Lotus Notes Java interface file (Notes.jar) could not be found.\nMake sure Notes.jar is in your classpath.",
+                ex);
+        }
+    }
+
+    /**
+     * Init the Notes runtime for the current thread.
+     */
+    public void sinitThread() {
+        NotesThread.sinitThread();
+    }
+
+    /**
+     * Term the Notes runtime for the current thread.
+     */
+    public void stermThread() {
+        NotesThread.stermThread();
+    }
+
+    /**
+     * Returns a thread that inits the Notes runtime before running the task and
+     * terms it when the task ends.
+     */
+    public Thread newThread(Runnable r) {
+        return new NotesThread(r);
+    }
+
+    /**
+     * Create a session for the current user. Must be called on a thread where
+     * the Notes runtime is inited.
+     */
+    public Session createSession(String password) throws NotesException {
+        // Note: We cast null to a String to avoid overload conflicts
+        return NotesFactory.createSession((String) null, (String) null, password);
+    }
+}
@@ -0,0 +1,120 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+
+package lngs.lotus;
+
+import java.io.*;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * The result of the last Lotus Notes extraction, saved between syncs. It holds
+ * a template for each calendar document whose dates fall in a padded date
+ * window, plus the server time the extraction was current as of. The next sync
+ * only reads the documents changed since then.
+ */
+public class LotusNotesSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Identifies the mail file the snapshot was made from
+    protected String databaseKey;
+
+    // The date window used to select documents
+    protected Date windowStart;
+    protected Date windowEnd;
+
+    // Documents changed after this server time aren't in the snapshot yet
+    protected Date checkpoint = null;
+
+    // Templates keyed by Lotus UNID
+    protected HashMap<String, LotusNotesEntryTemplate> templates = new HashMap<String, LotusNotesEntryTemplate>();
+
+    public LotusNotesSnapshot(String databaseKey, Date windowStart, Date windowEnd) {
+        this.databaseKey = databaseKey;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+    }
+
+    /**
+     * Returns true if the snapshot can be brought up to date for this mail file
+     * and sync date range.
+     */
+    public boolean isValidFor(String databaseKey, Date startDate, Date endDate) {
+        return this.databaseKey.equals(databaseKey) && (checkpoint != null) &&
+            !startDate.before(windowStart) && !endDate.after(windowEnd);
+    }
+
+    public Date getWindowStart() {
+        return windowStart;
+    }
+
+    public Date getWindowEnd() {
+        return windowEnd;
+    }
+
+    public Date getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(Date value) {
+        checkpoint = value;
+    }
+
+    public HashMap<String, LotusNotesEntryTemplate> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Read a saved snapshot.
+     * @return The snapshot, or null if there isn't a usable one.
+     */
+    public static LotusNotesSnapshot load(File snapshotFile) {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+
+        ObjectInputStream in = null;
+
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(
+                        new FileInputStream(snapshotFile)));
+
+            return (LotusNotesSnapshot) in.readObject();
+        } catch (Exception ex) {
+            // The file is damaged or from an older version. Start over.
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    // Do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the snapshot. The data is written to a temp file first so an
+     * interrupted write doesn't leave a damaged snapshot behind.
+     */
+    public void save(File snapshotFile) throws IOException {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)));
+
+        try {
+            out.writeObject(this);
+        } finally {
+            out.close();
+        }
+
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            throw new IOException("Unable to replace " + snapshotFile.getPath());
+        }
+
+        if (!tempFile.renameTo(snapshotFile)) {
+            throw new IOException("Unable to rename " + tempFile.getPath());
+        }
+    }
+}
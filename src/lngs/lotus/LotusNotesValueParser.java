@@ -0,0 +1,364 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lngs.util.LngsException;
+import lngs.util.StatusMessageCallback;
+
+import lotus.domino.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Builds entry templates from the item values of a calendar document that were
+ * read in bulk (from view columns or one formula evaluation) instead of item by
+ * item. The values are handled the same way LotusNotesManager.getEntryTemplate()
+ * handles items. Dates can be Lotus DateTime or Java Date objects.
+ */
+public class LotusNotesValueParser {
+    // The value positions
+    public static final int VAL_LAST_DATE = 0;
+    public static final int VAL_FIRST_DATE = 1;
+    public static final int VAL_SUBJECT = 2;
+    public static final int VAL_FORM = 3;
+    public static final int VAL_APPOINTMENT_TYPE = 4;
+    public static final int VAL_ROOM = 5;
+    public static final int VAL_LOCATION = 6;
+    public static final int VAL_CONFERENCE_URL = 7;
+    public static final int VAL_ALARM = 8;
+    public static final int VAL_ALARM_OFFSET = 9;
+    public static final int VAL_CONFIDENTIAL = 10;
+    public static final int VAL_REQUIRED_ATTENDEES = 11;
+    public static final int VAL_OPTIONAL_ATTENDEES = 12;
+    public static final int VAL_CHAIR = 13;
+    public static final int VAL_APPTUNID = 14;
+    public static final int VAL_START_DATE_TIME = 15;
+    public static final int VAL_CALENDAR_DATE_TIME = 16;
+    public static final int VAL_END_DATE_TIME = 17;
+    public static final int VAL_END_DATE = 18;
+    public static final int VAL_MODIFIED = 19;
+    public static final int VALUE_COUNT = 20;
+
+    // The formula of each value, used for view columns and formula evaluation
+    public static final String[] VALUE_FORMULAS = {
+            "@Subset(CalendarDateTime; -1)", "@Subset(CalendarDateTime; 1)",
+            "Subject", "Form", "AppointmentType", "Room", "Location",
+            "STUnyteConferenceURL", "$Alarm", "$AlarmOffset", "OrgConfidential",
+            "REQUIREDATTENDEES", "OPTIONALATTENDEES", "CHAIR", "APPTUNID",
+            "StartDateTime", "CalendarDateTime", "EndDateTime", "EndDate",
+            "@Modified"
+        };
+    protected final StatusMessageCallback statusMessageCallback;
+    protected final LotusNotesFieldProjection fieldProjection;
+
+    public LotusNotesValueParser(StatusMessageCallback statusMessageCallback,
+        LotusNotesFieldProjection fieldProjection) {
+        this.statusMessageCallback = statusMessageCallback;
+        this.fieldProjection = fieldProjection;
+    }
+
+    public LotusNotesFieldProjection getFieldProjection() {
+        return fieldProjection;
+    }
+
+    /**
+     * Build a template from the item values of a calendar document.
+     * @param unid - The UNID of the document.
+     * @param values - The item values, in VAL_ order.
+     * @return The template, or null if the entry should be ignored.
+     */
+    public LotusNotesEntryTemplate getEntryTemplate(String unid, Vector values)
+        throws LngsException {
+        LotusNotesCalendarEntry cal = null;
+
+        try {
+            cal = new LotusNotesCalendarEntry();
+
+            String text = getText(values.get(VAL_SUBJECT));
+            cal.setSubject(text.isEmpty() ? "<no subject>" : text);
+
+            text = getText(values.get(VAL_FORM));
+
+            if (!text.isEmpty()) {
+                cal.setEntryType(text);
+            } else {
+                // Assume we have an appointment
+                cal.setEntryType(LotusNotesCalendarEntry.EntryType.APPOINTMENT);
+            }
+
+            if (cal.getEntryType() == LotusNotesCalendarEntry.EntryType.APPOINTMENT) {
+                text = getText(values.get(VAL_APPOINTMENT_TYPE));
+
+                if (!text.isEmpty()) {
+                    cal.setAppointmentType(text);
+                }
+            }
+
+            if (fieldProjection.isWhereRead()) {
+                text = getText(values.get(VAL_ROOM));
+
+                if (!text.isEmpty()) {
+                    cal.setRoom(text);
+                }
+
+                text = getText(values.get(VAL_LOCATION));
+
+                if (!text.isEmpty()) {
+                    cal.setLocation(text);
+                }
+            }
+
+            if (fieldProjection.isBodyRead()) {
+                text = getText(values.get(VAL_CONFERENCE_URL));
+
+                if (!text.isEmpty()) {
+                    cal.setSTUnyteConferenceURL(text);
+                }
+            }
+
+            if (!getText(values.get(VAL_ALARM)).isEmpty()) {
+                cal.setAlarm(true);
+                text = getText(values.get(VAL_ALARM_OFFSET));
+
+                if (!text.isEmpty()) {
+                    // Handle some locales that use ',' as the decimal point
+                    cal.setAlarmOffsetMins(Math.round(Float.parseFloat(
+                                text.replace(',', '.'))));
+                }
+            }
+
+            // When the Mark Private checkbox is checked, OrgConfidential is set to 1
+            if (getText(values.get(VAL_CONFIDENTIAL)).equals("1")) {
+                cal.setPrivate(true);
+            }
+
+            if (fieldProjection.isAttendeesRead()) {
+                text = getText(values.get(VAL_REQUIRED_ATTENDEES));
+
+                if (!text.isEmpty()) {
+                    cal.setRequiredAttendees(text);
+                }
+
+                text = getText(values.get(VAL_OPTIONAL_ATTENDEES));
+
+                if (!text.isEmpty()) {
+                    cal.setOptionalAttendees(text);
+                }
+
+                text = getText(values.get(VAL_CHAIR));
+
+                if (!text.isEmpty()) {
+                    cal.setChairperson(text);
+                }
+            }
+
+            // Entries that link to an external calendar are ignored
+            if (getText(values.get(VAL_APPTUNID)).matches("(?i).*(https?|Notes):.*")) {
+                return null;
+            }
+
+            cal.setModifiedDateTime(getDate(values.get(VAL_MODIFIED)));
+            cal.setUID(unid);
+
+            Object startValue = values.get(VAL_START_DATE_TIME);
+            boolean isRepeating = false;
+
+            if (isEmptyValue(startValue)) {
+                // To Do entries may not have a StartDateTime, but should always have a CalendarDateTime
+                startValue = values.get(VAL_CALENDAR_DATE_TIME);
+
+                if (isEmptyValue(startValue)) {
+                    throw new LngsException(
+                        "Couldn't determine start date for Lotus Notes entry.");
+                }
+            } else if ((startValue instanceof Vector) &&
+                    (((Vector) startValue).size() > 1)) {
+                isRepeating = true;
+            }
+
+            Object endValue = values.get(VAL_END_DATE_TIME);
+            LotusNotesEntryTemplate template = new LotusNotesEntryTemplate(cal);
+
+            if (isRepeating) {
+                List<Date> startDates = getDates(startValue);
+                List<Date> endDates;
+
+                if (startDates == null) {
+                    throw new LngsException(
+                        "Repeating start dates are not of type DATETIMES.");
+                }
+
+                if (!isEmptyValue(endValue)) {
+                    endDates = getDates(endValue);
+
+                    if (endDates == null) {
+                        throw new LngsException(
+                            "Repeating end dates are not of type DATETIMES.");
+                    }
+                } else {
+                    statusMessageCallback.statusAppendLineDiag(
+                        "Couldn't determine end date. Using start date instead. Subject: " +
+                        cal.getSubject());
+                    endDates = startDates;
+                }
+
+                cal.setSeriesDates(startDates, endDates);
+
+                for (int i = 0; i < startDates.size(); i++) {
+                    template.addInstance(startDates.get(i), endDates.get(i));
+                }
+            } else {
+                if (isEmptyValue(endValue)) {
+                    // For To Do tasks, the EndDateTime doesn't exist. There is usually (but not always) an EndDate.
+                    // If EndDate is also missing, then set the end date equal to start date.
+                    endValue = values.get(VAL_END_DATE);
+
+                    if (isEmptyValue(endValue)) {
+                        endValue = startValue;
+                    }
+                }
+
+                cal.setStartDateTime(getDate(startValue));
+                cal.setEndDateTime(getDate(endValue));
+
+                if (cal.getEndDateTime() == null) {
+                    throw new LngsException(
+                        "Couldn't determine end date for Lotus Notes entry.");
+                }
+
+                template.addInstance(cal.getStartDateTime(),
+                    cal.getEndDateTime());
+            }
+
+            return template;
+        } catch (Exception ex) {
+            String exMsg = "There was a problem processing the retrieved Lotus Notes calendar entries.";
+
+            if ((cal != null) && (cal.getSubject() != null)) {
+                throw new LngsException(exMsg +
+                    "\nThe subject of the entry being processed: " +
+                    cal.getSubject(), ex);
+            } else {
+                throw new LngsException(exMsg, ex);
+            }
+        }
+    }
+
+    /**
+     * Read the Body item from the document. Rich text can't be read in bulk,
+     * so this is done only for entries we keep. Nothing is read if the
+     * description isn't synced.
+     */
+    public void readBody(Document doc, LotusNotesCalendarEntry cal)
+        throws NotesException {
+        if (!fieldProjection.isBodyRead()) {
+            return;
+        }
+
+        Item lnItem = doc.getFirstItem("Body");
+
+        if (lnItem != null) {
+            String body = lnItem.getText(LotusNotesFieldProjection.MAX_BODY_CHARS);
+            lnItem.recycle();
+
+            if (!body.isEmpty()) {
+                cal.setBody(body);
+            }
+        }
+    }
+
+    /**
+     * Returns a value as text, the way Item.getText() would. Multiple values
+     * are separated by semicolons.
+     */
+    public String getText(Object value) {
+        if (value == null) {
+            return "";
+        }
+
+        if (value instanceof Vector) {
+            StringBuilder sb = new StringBuilder();
+
+            for (Object element : (Vector) value) {
+                if (sb.length() > 0) {
+                    sb.append(';');
+                }
+
+                sb.append(getText(element));
+            }
+
+            return sb.toString();
+        }
+
+        if (value instanceof Double) {
+            double number = (Double) value;
+
+            // Whole numbers are shown without a decimal part, as in Lotus
+            if (number == Math.rint(number)) {
+                return Long.toString((long) number);
+            }
+        }
+
+        return value.toString();
+    }
+
+    public boolean isEmptyValue(Object value) {
+        if ((value instanceof DateTime) || (value instanceof Date)) {
+            return false;
+        }
+
+        return getText(value).isEmpty();
+    }
+
+    /**
+     * Returns the first date in a value, or null if there isn't one.
+     */
+    public Date getDate(Object value) throws NotesException {
+        if (value instanceof Vector) {
+            Vector vector = (Vector) value;
+            value = vector.isEmpty() ? null : vector.get(0);
+        }
+
+        if (value instanceof DateTime) {
+            return ((DateTime) value).toJavaDate();
+        }
+
+        if (value instanceof Date) {
+            return (Date) value;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns all the dates in a value, or null if it holds anything other
+     * than dates.
+     */
+    public List<Date> getDates(Object value) throws NotesException {
+        ArrayList<Date> dates = new ArrayList<Date>();
+        Vector<?> vector;
+
+        if (value instanceof Vector) {
+            vector = (Vector<?>) value;
+        } else {
+            Vector<Object> singleValue = new Vector<Object>(1);
+            singleValue.add(value);
+            vector = singleValue;
+        }
+
+        for (Object element : vector) {
+            if (element instanceof DateTime) {
+                dates.add(((DateTime) element).toJavaDate());
+            } else if (element instanceof Date) {
+                dates.add((Date) element);
+            } else {
+                return null;
+            }
+        }
+
+        return dates;
+    }
+}
@@ -0,0 +1,195 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lngs.util.LngsException;
+
+import lotus.domino.*;
+
+import java.io.IOException;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Vector;
+
+/**
+ * Reads Lotus Notes calendar entries through a hidden view that LNGS creates in
+ * the mail file. The view columns hold the item values we need, so the values
+ * of many entries arrive in one buffered read instead of one call per item.
+ * The view is sorted on the date of the last instance (newest first), so
+ * reading stops at the first entry that ends before the date range.
+ */
+public class LotusNotesViewReader {
+    // The same documents the calendar query selects, without the date range
+    protected static final String SELECTION_FORMULA = "SELECT !@IsAvailable($Conflict) & @IsAvailable(CalendarDateTime)";
+
+    // The number of view entries read per server call
+    protected static final int BUFFER_ENTRIES = 400;
+    protected final LotusNotesManager notesManager;
+    protected final LotusNotesValueParser valueParser;
+    protected final String viewName;
+
+    public LotusNotesViewReader(LotusNotesManager notesManager,
+        LotusNotesValueParser valueParser, String viewName) {
+        this.notesManager = notesManager;
+        this.valueParser = valueParser;
+        this.viewName = viewName;
+    }
+
+    /**
+     * Returns the LNGS view, creating it if it doesn't exist. A view with an old
+     * design is replaced.
+     */
+    public View getView(Database db) throws NotesException {
+        View view = db.getView(viewName);
+
+        if ((view != null) && !isCurrentDesign(view)) {
+            notesManager.statusMessageCallback.statusAppendLineDiag(
+                "Replacing the Lotus view " + viewName);
+            view.remove();
+            view = null;
+        }
+
+        if (view == null) {
+            view = db.createView(viewName, SELECTION_FORMULA);
+
+            // A new view gets a default column. Add ours in front of it, then remove it.
+            int defaultColumnCount = view.getColumnCount();
+
+            for (int i = 0; i < LotusNotesValueParser.VALUE_FORMULAS.length; i++) {
+                ViewColumn column = view.createColumn(i + 1, "C" + i,
+                        LotusNotesValueParser.VALUE_FORMULAS[i]);
+
+                if (i == LotusNotesValueParser.VAL_LAST_DATE) {
+                    column.setSorted(true);
+                    column.setSortDescending(true);
+                }
+            }
+
+            for (int i = 0; i < defaultColumnCount; i++) {
+                view.removeColumn();
+            }
+
+            notesManager.statusMessageCallback.statusAppendLineDiag(
+                "Created the Lotus view " + viewName);
+        }
+
+        return view;
+    }
+
+    /**
+     * Returns true if the view has the columns and selection this version uses.
+     */
+    protected boolean isCurrentDesign(View view) throws NotesException {
+        Vector columns = view.getColumns();
+
+        if (columns.size() != LotusNotesValueParser.VALUE_FORMULAS.length) {
+            return false;
+        }
+
+        for (int i = 0; i < LotusNotesValueParser.VALUE_FORMULAS.length; i++) {
+            if (!LotusNotesValueParser.VALUE_FORMULAS[i].equals(((ViewColumn) columns.get(i)).getFormula())) {
+                return false;
+            }
+        }
+
+        // Domino may change the spacing of the selection formula
+        return SELECTION_FORMULA.replaceAll("\\s", "")
+                                .equalsIgnoreCase(view.getSelectionFormula()
+                                                      .replaceAll("\\s", ""));
+    }
+
+    /**
+     * Read the entries with at least one instance in a date range.
+     * @return The templates keyed by Lotus UNID, in view order.
+     */
+    public LinkedHashMap<String, LotusNotesEntryTemplate> readTemplates(
+        View view, Date fromDate, Date toDate)
+        throws LngsException, NotesException, IOException {
+        LinkedHashMap<String, LotusNotesEntryTemplate> templates = new LinkedHashMap<String, LotusNotesEntryTemplate>();
+
+        view.setAutoUpdate(false);
+
+        ViewNavigator nav = view.createViewNav();
+        nav.setBufferMaxEntries(BUFFER_ENTRIES);
+        nav.setCacheGuidance(BUFFER_ENTRIES,
+            ViewNavigator.VN_CACHEGUIDANCE_READALL);
+
+        if (notesManager.diagnosticMode) {
+            notesManager.openFoundEntriesFile(nav.getCount());
+        }
+
+        LotusNotesRecycler recycler = notesManager.recycler;
+        int cntEntry = 1;
+        ViewEntry viewEntry = nav.getFirst();
+
+        while (viewEntry != null) {
+            if (viewEntry.isDocument()) {
+                Vector values = recycler.add(viewEntry.getColumnValues());
+                Document doc = null;
+                Date lastDate = valueParser.getDate(values.get(
+                            LotusNotesValueParser.VAL_LAST_DATE));
+
+                // The view is sorted newest first, so the rest end before our range
+                if ((lastDate != null) && lastDate.before(fromDate)) {
+                    recycler.add(viewEntry);
+
+                    break;
+                }
+
+                Date firstDate = valueParser.getDate(values.get(
+                            LotusNotesValueParser.VAL_FIRST_DATE));
+
+                if ((firstDate == null) || !firstDate.after(toDate)) {
+                    // If we are in diagnostic mode, write the entry to a text file
+                    if (notesManager.diagnosticMode) {
+                        doc = recycler.add(viewEntry.getDocument());
+                        notesManager.writeEntryToFile(doc, cntEntry);
+                    }
+
+                    LotusNotesEntryTemplate template = valueParser.getEntryTemplate(viewEntry.getUniversalID(),
+                            values);
+
+                    if ((template != null) &&
+                            hasInstanceInRange(template, fromDate, toDate)) {
+                        // Rich text can't be shown in a view column
+                        if (valueParser.getFieldProjection().isBodyRead()) {
+                            if (doc == null) {
+                                doc = recycler.add(viewEntry.getDocument());
+                            }
+
+                            valueParser.readBody(doc, template.getEntry());
+                        }
+                        templates.put(viewEntry.getUniversalID(), template);
+                    }
+
+                    cntEntry++;
+                }
+            }
+
+            ViewEntry nextEntry = nav.getNext(viewEntry);
+            recycler.add(viewEntry);
+            recycler.endDocument();
+            viewEntry = nextEntry;
+        }
+
+        nav.recycle();
+
+        notesManager.statusMessageCallback.statusAppendLineDiag(
+            "View entries read: " + (cntEntry - 1));
+
+        return templates;
+    }
+
+    protected boolean hasInstanceInRange(LotusNotesEntryTemplate template,
+        Date fromDate, Date toDate) {
+        for (Date startDate : template.getStartDates()) {
+            if ((startDate != null) && startDate.after(fromDate) &&
+                    startDate.before(toDate)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lotus.domino.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a Lotus Notes session and mail database open between syncs. All Lotus
+ * work is run on one long-lived NotesThread, because Lotus objects can only be
+ * used on the thread that created them. A warm sync then skips the Notes
+ * thread init, the login and the database open.
+ *
+ * The session and database are checked before each use and reopened if they
+ * are no longer valid. Call invalidate() after a Lotus error, so the next sync
+ * starts with a new session.
+ */
+public class LotusSessionService {
+    protected final LotusNotesRuntime runtime;
+    protected final ExecutorService executor;
+    protected Session session = null;
+    protected String sessionPassword = null;
+    protected Database db = null;
+    protected String databaseKey = null;
+    protected String serverDateFormat = null;
+
+    public LotusSessionService(final LotusNotesRuntime runtime) {
+        this.runtime = runtime;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        // NotesThread inits the Notes runtime before running the
+                        // executor's worker loop and terms it when the loop ends.
+                        Thread thread = runtime.newThread(r);
+                        thread.setName("LNGS Lotus Notes");
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Run a task on the Lotus thread and wait for it to finish.
+     * @return The result of the task.
+     * @throws Exception - The exception thrown by the task.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        try {
+            return executor.submit(task).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the open session, or a new one if there isn't a valid session
+     * for this password. Must be called on the Lotus thread.
+     */
+    public Session getSession(String password) throws NotesException {
+        if ((session != null) &&
+                (!session.isValid() || !equals(password, sessionPassword))) {
+            invalidate();
+        }
+
+        if (session == null) {
+            session = runtime.createSession(password);
+            sessionPassword = password;
+        }
+
+        return session;
+    }
+
+    /**
+     * Returns the open database for this key (e.g. server and mail file), or
+     * null if it must be opened. Must be called on the Lotus thread.
+     */
+    public Database getDatabase(String databaseKey) {
+        if ((db == null) || !databaseKey.equals(this.databaseKey)) {
+            return null;
+        }
+
+        try {
+            if (db.isOpen()) {
+                return db;
+            }
+        } catch (NotesException ex) {
+            // The database handle is stale. Open it again.
+        }
+
+        db = null;
+        serverDateFormat = null;
+
+        return null;
+    }
+
+    /**
+     * Keep a database open for later syncs.
+     */
+    public void setDatabase(String databaseKey, Database db) {
+        this.databaseKey = databaseKey;
+        this.db = db;
+        serverDateFormat = null;
+    }
+
+    /**
+     * Returns the date format detected for the open database, or null.
+     */
+    public String getServerDateFormat() {
+        return serverDateFormat;
+    }
+
+    public void setServerDateFormat(String value) {
+        serverDateFormat = value;
+    }
+
+    /**
+     * Drop the session and database so the next sync opens new ones.
+     * Must be called on the Lotus thread.
+     */
+    public void invalidate() {
+        if (session != null) {
+            try {
+                // Recycling the session recycles all the objects made from it
+                session.recycle();
+            } catch (NotesException ex) {
+                // Do nothing
+            }
+        }
+
+        session = null;
+        sessionPassword = null;
+        db = null;
+        databaseKey = null;
+        serverDateFormat = null;
+    }
+
+    /**
+     * Close the session and end the Lotus thread.
+     */
+    public void shutdown() {
+        executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    invalidate();
+                }
+            });
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected boolean equals(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
@@ -205,6 +205,10 @@ public class ConfigurationManager {
     	setBooleanProperty(PROP_SYNC_MEETING_ATTENDEES, value);
     }
 
+    public void setGoogleExtendedPropertiesCalendarId(String value) {
+        config.setProperty(PROP_GOOGLE_EXTENDED_PROPERTIES_CALENDAR_ID, value);
+    }
+
     protected void setBooleanProperty(String propertyName, boolean propertyValue) {
         String propertyValueStr = "false";
         if (propertyValue) {
@@ -333,6 +337,101 @@ public class ConfigurationManager {
         return getBooleanProperty(PROP_DONT_SAVE_SENSITIVE_DATA);
     }
 
+    // The number of Google inserts/deletes sent per batch request. 0 or 1 disables batching.
+    public int getGoogleBatchSize() {
+        return getIntegerProperty(PROP_GOOGLE_BATCH_SIZE, 0);
+    }
+
+    // If true, only Google changes since the last sync are downloaded and applied to a local mirror
+    public boolean getGoogleIncrementalListing() {
+        return getBooleanProperty(PROP_GOOGLE_INCREMENTAL_LISTING);
+    }
+
+    // If true, changed entries are updated in place instead of deleted and re-created
+    public boolean getGooglePatchChangedEntries() {
+        return getBooleanProperty(PROP_GOOGLE_PATCH_CHANGED_ENTRIES);
+    }
+
+    // The number of Google inserts/deletes/updates sent at the same time. 1 sends them one after another.
+    public int getGoogleWriteThreads() {
+        return getIntegerProperty(PROP_GOOGLE_WRITE_THREADS, 1);
+    }
+
+    // If true, Google listings only download the event fields LNGS uses
+    public boolean getGoogleSlimListing() {
+        return getBooleanProperty(PROP_GOOGLE_SLIM_LISTING);
+    }
+
+    // If true, only the Lotus documents changed since the last sync are read
+    public boolean getLotusIncrementalExtraction() {
+        return getBooleanProperty(PROP_LOTUS_INCREMENTAL_EXTRACTION);
+    }
+
+    // If true, Lotus entries are read through a hidden view LNGS creates in the mail file
+    public boolean getLotusCalendarView() {
+        return getBooleanProperty(PROP_LOTUS_CALENDAR_VIEW);
+    }
+
+    // If true, each Lotus document is read with one formula evaluation instead of one call per item
+    public boolean getLotusFormulaExtraction() {
+        return getBooleanProperty(PROP_LOTUS_FORMULA_EXTRACTION);
+    }
+
+    // If true, the Lotus session and mail database stay open between syncs
+    public boolean getLotusKeepSessionOpen() {
+        return getBooleanProperty(PROP_LOTUS_KEEP_SESSION_OPEN);
+    }
+
+    // The number of date ranges the Lotus search is split into and run at the same time
+    public int getLotusExtractionThreads() {
+        return getIntegerProperty(PROP_LOTUS_EXTRACTION_THREADS, 1);
+    }
+
+    // If true, unchanged Lotus documents are taken from a cache instead of being read again
+    public boolean getLotusEntryCache() {
+        return getBooleanProperty(PROP_LOTUS_ENTRY_CACHE);
+    }
+
+    // If true, the Lotus entry cache is saved to a file so it survives a restart
+    public boolean getLotusEntryCacheSaved() {
+        return getBooleanProperty(PROP_LOTUS_ENTRY_CACHE_SAVED);
+    }
+
+    // If true, the entries LNGS wrote are kept locally, so most syncs don't list the Google calendar
+    public boolean getGoogleStateStore() {
+        return getBooleanProperty(PROP_GOOGLE_STATE_STORE);
+    }
+
+    // When the local sync state is used, a full Google listing is still done every this many syncs
+    public int getGoogleFullListingInterval() {
+        return getIntegerProperty(PROP_GOOGLE_FULL_LISTING_INTERVAL, 10);
+    }
+
+    // If true, planned Google changes are journaled so an interrupted sync can be resumed
+    public boolean getGoogleSyncJournal() {
+        return getBooleanProperty(PROP_GOOGLE_SYNC_JOURNAL);
+    }
+
+    // If true, new Google entries get an ID made from the Lotus UID and instance start
+    public boolean getGoogleDeterministicIds() {
+        return getBooleanProperty(PROP_GOOGLE_DETERMINISTIC_IDS);
+    }
+
+    // If true, regular repeating Lotus entries are created as one recurring Google entry
+    public boolean getGoogleRecurringEvents() {
+        return getBooleanProperty(PROP_GOOGLE_RECURRING_EVENTS);
+    }
+
+    // If true, LNGS sync info is also stored in the Google entries' private extended properties
+    public boolean getGoogleUseExtendedProperties() {
+        return getBooleanProperty(PROP_GOOGLE_USE_EXTENDED_PROPERTIES);
+    }
+
+    // The ID of the Google calendar whose existing LNGS entries were given extended properties
+    public String getGoogleExtendedPropertiesCalendarId() {
+        return getStringProperty(PROP_GOOGLE_EXTENDED_PROPERTIES_CALENDAR_ID);
+    }
+
     // Read a property. If it isn't found, return "".
     protected String getStringProperty(String propertyName) {
         return getStringProperty(propertyName, "");
@@ -444,6 +543,25 @@ public class ConfigurationManager {
     protected static final String PROP_PROXY_PORT = "GoogleProxyPort";
     protected static final String PROP_GOOGLE_USERNAME = "GoogleUsername";
     protected static final String PROP_GOOGLE_CALENDAR_NAME = "GoogleCalendarName";
+    protected static final String PROP_GOOGLE_BATCH_SIZE = "GoogleBatchSize";
+    protected static final String PROP_GOOGLE_INCREMENTAL_LISTING = "GoogleIncrementalListing";
+    protected static final String PROP_GOOGLE_PATCH_CHANGED_ENTRIES = "GooglePatchChangedEntries";
+    protected static final String PROP_GOOGLE_WRITE_THREADS = "GoogleWriteThreads";
+    protected static final String PROP_GOOGLE_SLIM_LISTING = "GoogleSlimListing";
+    protected static final String PROP_LOTUS_INCREMENTAL_EXTRACTION = "LotusIncrementalExtraction";
+    protected static final String PROP_LOTUS_CALENDAR_VIEW = "LotusCalendarView";
+    protected static final String PROP_LOTUS_FORMULA_EXTRACTION = "LotusFormulaExtraction";
+    protected static final String PROP_LOTUS_KEEP_SESSION_OPEN = "LotusKeepSessionOpen";
+    protected static final String PROP_LOTUS_EXTRACTION_THREADS = "LotusExtractionThreads";
+    protected static final String PROP_LOTUS_ENTRY_CACHE = "LotusEntryCache";
+    protected static final String PROP_LOTUS_ENTRY_CACHE_SAVED = "LotusEntryCacheSaved";
+    protected static final String PROP_GOOGLE_STATE_STORE = "GoogleStateStore";
+    protected static final String PROP_GOOGLE_FULL_LISTING_INTERVAL = "GoogleFullListingInterval";
+    protected static final String PROP_GOOGLE_SYNC_JOURNAL = "GoogleSyncJournal";
+    protected static final String PROP_GOOGLE_DETERMINISTIC_IDS = "GoogleDeterministicIds";
+    protected static final String PROP_GOOGLE_RECURRING_EVENTS = "GoogleRecurringEvents";
+    protected static final String PROP_GOOGLE_USE_EXTENDED_PROPERTIES = "GoogleUseExtendedProperties";
+    protected static final String PROP_GOOGLE_EXTENDED_PROPERTIES_CALENDAR_ID = "GoogleExtendedPropertiesCalendarId";
 
     protected Properties config;
     protected final String configFilename = "lngsync.config";
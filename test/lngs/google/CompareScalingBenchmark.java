@@ -0,0 +1,118 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.services.calendar.model.Event;
+
+import lngs.lotus.LotusNotesCalendarEntry;
+import lngs.lotus.SyntheticCalendarSource;
+
+import lngs.util.RecordingStatusMessageCallback;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Times compareCalendarEntries for growing numbers of entries, to show the
+ * SyncUID index keeps it linear. The Google entries are the synthetic Lotus
+ * entries as LNGS would write them, so the compare finds every entry
+ * unchanged, as in a sync where nothing changed.
+ * This isn't part of the test suite. Run it with:
+ *   java lngs.google.CompareScalingBenchmark [largest entry count]
+ */
+public class CompareScalingBenchmark {
+    protected static final int RUN_COUNT = 5;
+
+    public static void main(String[] args) throws Exception {
+        int maxEntryCount = (args.length > 0) ? Integer.parseInt(args[0]) : 64000;
+        StandInCalendarServer server = new StandInCalendarServer();
+        RecordingStatusMessageCallback status = new RecordingStatusMessageCallback();
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DATE, -7);
+
+        Date startDate = calendar.getTime();
+        calendar.add(Calendar.DATE, 367);
+
+        Date endDate = calendar.getTime();
+
+        // The first pass warms up the JIT and isn't printed
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass > 0) {
+                System.out.println(String.format("%8s %10s %16s %8s",
+                        "Entries", "Msecs", "Usecs per entry", "Growth"));
+            }
+
+            run(server, status, startDate, endDate,
+                (pass > 0) ? maxEntryCount : Math.min(maxEntryCount, 8000),
+                pass > 0);
+        }
+    }
+
+    /**
+     * Time the compare for 1000 entries, then twice as many each time up to
+     * the largest entry count.
+     */
+    protected static void run(StandInCalendarServer server,
+        RecordingStatusMessageCallback status, Date startDate, Date endDate,
+        int maxEntryCount, boolean isPrinted) throws Exception {
+        double lastMsecs = 0;
+
+        for (int entryCount = 1000; entryCount <= maxEntryCount;
+                entryCount *= 2) {
+            SyntheticCalendarSource source = new SyntheticCalendarSource(entryCount,
+                    1);
+            source.setStatusMessageCallback(status);
+            source.setMinStartDate(startDate);
+            source.setMaxEndDate(endDate);
+
+            ArrayList<LotusNotesCalendarEntry> lotusCalEntries = source.getCalendarEntries();
+
+            GoogleManager googleManager = new GoogleManager();
+            googleManager.setStatusMessageCallback(status);
+            googleManager.setMinStartDate(startDate);
+            googleManager.setMaxEndDate(endDate);
+            googleManager.connect(server.createClient(), server.getCalendar());
+
+            ArrayList<Event> googleCalEntries = new ArrayList<Event>();
+
+            for (LotusNotesCalendarEntry lotusEntry : lotusCalEntries) {
+                Event event = googleManager.createGoogleEvent(lotusEntry);
+                event.setId("event" + googleCalEntries.size());
+                googleCalEntries.add(event);
+            }
+
+            long bestNanos = Long.MAX_VALUE;
+
+            for (int i = 0; i < RUN_COUNT; i++) {
+                // The compare removes the unchanged entries from the lists
+                ArrayList<LotusNotesCalendarEntry> lotusCopy = new ArrayList<LotusNotesCalendarEntry>(lotusCalEntries);
+                ArrayList<Event> googleCopy = new ArrayList<Event>(googleCalEntries);
+
+                long startNanos = System.nanoTime();
+                googleManager.compareCalendarEntries(lotusCopy, googleCopy);
+                bestNanos = Math.min(bestNanos, System.nanoTime() - startNanos);
+
+                if (!lotusCopy.isEmpty() || !googleCopy.isEmpty()) {
+                    throw new IllegalStateException(
+                        "The compare found changed entries: " +
+                        lotusCopy.size() + " Lotus, " + googleCopy.size() +
+                        " Google");
+                }
+            }
+
+            double msecs = bestNanos / 1000000.0;
+
+            if (isPrinted) {
+                System.out.println(String.format("%8d %10.1f %16.2f %8s",
+                        lotusCalEntries.size(), msecs,
+                        (bestNanos / 1000.0) / lotusCalEntries.size(),
+                        (lastMsecs > 0)
+                        ? String.format("x%.2f", msecs / lastMsecs) : ""));
+            }
+
+            lastMsecs = msecs;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventAttendee;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.EventReminder;
+import com.google.api.services.calendar.model.Events;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compares the time and retained heap of three ways to read an events.list
+ * page: the Google client library parsing whole Events (the path used
+ * without slim listing), GoogleEventPageParser streaming into Event objects,
+ * and a streaming parse into a compact array of strings per event, which is
+ * about the smallest a record of the same fields could be.
+ * The page holds full events as Google returns them without a fields filter,
+ * so the streaming parsers have to skip the fields LNGS doesn't use.
+ * This isn't part of the test suite. Run it with:
+ *   java lngs.google.EventPageParserBenchmark [events]
+ */
+public class EventPageParserBenchmark {
+    protected static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected static final int RUN_COUNT = 5;
+
+    // The fields of the compact record, in order
+    protected static final String[] RECORD_FIELDS = {
+            "id", "iCalUID", "status", "summary", "location", "description",
+            "visibility", "updated", "start", "end", "recurringEventId",
+            "recurrence", "reminders", "extendedProperties"
+        };
+
+    public static void main(String[] args) throws Exception {
+        int eventCount = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        byte[] page = createPage(eventCount);
+        System.out.println(eventCount + " events, " + (page.length / 1024) +
+            " KB of JSON");
+        System.out.println(String.format("%-30s %10s %14s %16s", "Parser",
+                "Msecs", "Retained KB", "Bytes per event"));
+
+        final GoogleEventPageParser pageParser = new GoogleEventPageParser(JSON_FACTORY);
+
+        // Warm up the JIT on all three before timing any of them
+        for (int i = 0; i < 3; i++) {
+            parseWithClientLibrary(page);
+            pageParser.parse(new ByteArrayInputStream(page), UTF8);
+            parseToRecords(page);
+        }
+
+        measure("Client library (Events)", page, eventCount,
+            new PageReader() {
+                @Override
+                public Object read(byte[] page) throws IOException {
+                    return parseWithClientLibrary(page);
+                }
+            });
+        measure("Streaming into Event", page, eventCount,
+            new PageReader() {
+                @Override
+                public Object read(byte[] page) throws IOException {
+                    return pageParser.parse(new ByteArrayInputStream(page), UTF8);
+                }
+            });
+        measure("Streaming into String[] record", page, eventCount,
+            new PageReader() {
+                @Override
+                public Object read(byte[] page) throws IOException {
+                    return parseToRecords(page);
+                }
+            });
+    }
+
+    protected interface PageReader {
+        Object read(byte[] page) throws IOException;
+    }
+
+    /**
+     * Print the best time of several parses, and the heap held by the result
+     * of one parse.
+     */
+    protected static void measure(String name, byte[] page, int eventCount,
+        PageReader reader) throws IOException {
+        long bestNanos = Long.MAX_VALUE;
+
+        for (int i = 0; i < RUN_COUNT; i++) {
+            long startNanos = System.nanoTime();
+            reader.read(page);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - startNanos);
+        }
+
+        long usedBefore = getUsedHeap();
+        Object result = reader.read(page);
+        long retainedBytes = getUsedHeap() - usedBefore;
+
+        System.out.println(String.format("%-30s %10.1f %14d %16d", name,
+                bestNanos / 1000000.0, retainedBytes / 1024,
+                retainedBytes / eventCount));
+
+        // Keep the result reachable until it was measured
+        if (result == null) {
+            throw new IllegalStateException(name + " returned nothing");
+        }
+    }
+
+    protected static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    protected static Events parseWithClientLibrary(byte[] page)
+        throws IOException {
+        return JSON_FACTORY.fromInputStream(new ByteArrayInputStream(page),
+            UTF8, Events.class);
+    }
+
+    /**
+     * Parse the page into one String[] per event, holding the RECORD_FIELDS.
+     * Objects (start, end, reminders, extendedProperties) are kept as their
+     * JSON text, which is less than a record would need to be useful.
+     */
+    protected static List<String[]> parseToRecords(byte[] page)
+        throws IOException {
+        JsonParser parser = JSON_FACTORY.createJsonParser(new ByteArrayInputStream(
+                    page), UTF8);
+        ArrayList<String[]> records = new ArrayList<String[]>();
+
+        try {
+            parser.nextToken();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+
+                if ("items".equals(name) &&
+                        (parser.nextToken() == JsonToken.START_ARRAY)) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        records.add(parseRecord(parser));
+                    }
+                } else {
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+
+        return records;
+    }
+
+    protected static String[] parseRecord(JsonParser parser)
+        throws IOException {
+        String[] record = new String[RECORD_FIELDS.length];
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            int index = -1;
+
+            for (int i = 0; i < RECORD_FIELDS.length; i++) {
+                if (RECORD_FIELDS[i].equals(name)) {
+                    index = i;
+
+                    break;
+                }
+            }
+
+            if (index < 0) {
+                parser.skipChildren();
+            } else if ((valueToken == JsonToken.START_OBJECT) ||
+                    (valueToken == JsonToken.START_ARRAY)) {
+                Object value = (valueToken == JsonToken.START_OBJECT)
+                    ? parser.parse(HashMap.class) : parser.parse(ArrayList.class);
+                record[index] = value.toString();
+            } else {
+                record[index] = parser.getText();
+            }
+        }
+
+        return record;
+    }
+
+    /**
+     * Make an events.list page of full LNGS events, with the fields Google
+     * adds (creator, organizer, attendees, links, ...).
+     */
+    protected static byte[] createPage(int eventCount)
+        throws IOException {
+        ArrayList<Event> items = new ArrayList<Event>(eventCount);
+        long startTime = 1500000000000L;
+
+        for (int i = 0; i < eventCount; i++) {
+            long eventStart = startTime + (i * 3600000L);
+            HashMap<String, String> privateProperties = new HashMap<String, String>();
+            privateProperties.put("lngs", "1");
+            privateProperties.put("lngsSyncUID",
+                String.format("1-%032X-%d-%d", i, eventStart, startTime));
+            privateProperties.put("lngsUNID", String.format("%032X", i));
+            privateProperties.put("lngsInstance", Long.toString(eventStart));
+            privateProperties.put("lngsFingerprint",
+                String.format("%032x", i * 7919L));
+
+            ArrayList<EventAttendee> attendees = new ArrayList<EventAttendee>();
+
+            for (int j = 0; j < 4; j++) {
+                attendees.add(new EventAttendee().setEmail("person" + j +
+                        "@example.com").setDisplayName("Person " + j)
+                                                 .setResponseStatus("needsAction"));
+            }
+
+            Event event = new Event();
+            event.setKind("calendar#event");
+            event.setEtag("\"" + (3000000000000L + i) + "\"");
+            event.setId(String.format("lngs%028x", i));
+            event.setStatus("confirmed");
+            event.setHtmlLink(
+                "https://www.google.com/calendar/event?eid=" +
+                String.format("bG5ncyUyOHglMjk%028x", i));
+            event.setCreated(new DateTime(startTime));
+            event.setUpdated(new DateTime(startTime + i));
+            event.setSummary("Project review " + (i % 50));
+            event.setDescription("Agenda item 1: Budget review\nAgenda item 2: " +
+                "Roadmap planning\nAgenda item 3: Hiring sync");
+            event.setLocation("Building " + (i % 5));
+            event.setCreator(new Event.Creator().setEmail("user@example.com"));
+            event.setOrganizer(new Event.Organizer().setEmail(
+                    "lngs-test@group.calendar.google.com").setDisplayName("LNGS")
+                                                    .setSelf(true));
+            event.setStart(new EventDateTime().setDateTime(new DateTime(
+                        eventStart)));
+            event.setEnd(new EventDateTime().setDateTime(new DateTime(eventStart +
+                        1800000L)));
+            event.setICalUID(String.format("%032x:1-%032X-%d-%d", i, i,
+                    eventStart, startTime));
+            event.setSequence(0);
+            event.setAttendees(attendees);
+            event.setExtendedProperties(new Event.ExtendedProperties().setPrivate(
+                    privateProperties));
+            event.setReminders(new Event.Reminders().setUseDefault(false)
+                                                    .setOverrides(Collections.singletonList(
+                        new EventReminder().setMethod("popup").setMinutes(15))));
+            items.add(event);
+        }
+
+        Events events = new Events();
+        events.setKind("calendar#events");
+        events.setSummary("LNGS");
+        events.setTimeZone("UTC");
+        events.setItems(items);
+        events.setNextSyncToken("CPDAlvWE1tICEPDAlvWE1tICGAU=");
+
+        return JSON_FACTORY.toByteArray(events);
+    }
+}
@@ -0,0 +1,107 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.services.calendar.model.Event;
+
+import lngs.lotus.LotusNotesCalendarEntry;
+
+import lngs.util.LngsException;
+import lngs.util.RecordingStatusMessageCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Runs the batched creates of GoogleManager against a stand-in server: the
+ * chunking into batch requests, the retry of failed parts and a batch request
+ * whose response was lost.
+ */
+public class GoogleBatchWriteTest {
+    protected static final int ENTRY_COUNT = 120;
+    protected static final int BATCH_SIZE = 50;
+    protected StandInCalendarServer server;
+    protected GoogleManager googleManager;
+    protected ArrayList<LotusNotesCalendarEntry> lotusEntries;
+
+    @Before
+    public void setUp() {
+        server = new StandInCalendarServer();
+        googleManager = server.createManager(new RecordingStatusMessageCallback());
+        googleManager.setBatchSize(BATCH_SIZE);
+        lotusEntries = StandInCalendarServer.createLotusEntries(ENTRY_COUNT);
+    }
+
+    @Test
+    public void testCreatesAreSentInChunks() throws Exception {
+        assertEquals(ENTRY_COUNT,
+            googleManager.createCalendarEntries(lotusEntries));
+        assertEquals(Arrays.asList(50, 50, 20), server.getBatchSizes());
+        assertCreatedOnce();
+    }
+
+    @Test
+    public void testFailedPartsAreRetried() throws Exception {
+        // The first parts of the first batch are turned away
+        server.failNextInserts(5, 503);
+
+        assertEquals(ENTRY_COUNT,
+            googleManager.createCalendarEntries(lotusEntries));
+        // Only the failed parts are sent again
+        assertEquals(Arrays.asList(50, 50, 20, 5), server.getBatchSizes());
+        assertCreatedOnce();
+    }
+
+    @Test
+    public void testLostBatchIsNotSentAgain() throws Exception {
+        // The first batch is made, but the client never hears back
+        server.loseNextBatchResponses(1);
+
+        try {
+            googleManager.createCalendarEntries(lotusEntries);
+            fail("The lost creates weren't reported");
+        } catch (LngsException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("no response"));
+        }
+
+        // Google picks the IDs, so sending the batch again would make copies
+        assertEquals(Arrays.asList(50, 50, 20), server.getBatchSizes());
+        assertCreatedOnce();
+        // The next sync mustn't trust the local sync state
+        assertTrue(googleManager.stateStoreFailed);
+    }
+
+    @Test
+    public void testLostBatchWithFixedIdsIsSentAgain()
+        throws Exception {
+        googleManager.setDeterministicIds(true);
+        server.loseNextBatchResponses(1);
+
+        // The repeated inserts find their entries and overwrite them
+        assertEquals(ENTRY_COUNT,
+            googleManager.createCalendarEntries(lotusEntries));
+        assertEquals(Arrays.asList(50, 50, 20, 50, 50), server.getBatchSizes());
+        assertCreatedOnce();
+        assertFalse(googleManager.stateStoreFailed);
+    }
+
+    /**
+     * Check that the server has each entry exactly once.
+     */
+    protected void assertCreatedOnce() {
+        HashSet<String> subjects = new HashSet<String>();
+
+        for (Event event : server.getEvents()) {
+            assertTrue("Created twice: " + event.getSummary(),
+                subjects.add(event.getSummary()));
+        }
+
+        assertEquals(ENTRY_COUNT, subjects.size());
+    }
+}
@@ -0,0 +1,66 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.services.calendar.model.Event;
+
+import lngs.util.RecordingStatusMessageCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the extended properties migration of GoogleManager against a stand-in
+ * server.
+ */
+public class GoogleExtendedPropertiesTest {
+    protected static final String LNGS_UID = "0123456789abcdef0123456789abcdef:" +
+        "1-FEDCBA9876543210FEDCBA9876543210-";
+    protected StandInCalendarServer server;
+    protected GoogleManager googleManager;
+
+    @Before
+    public void setUp() {
+        server = new StandInCalendarServer();
+        googleManager = server.createManager(new RecordingStatusMessageCallback());
+    }
+
+    @Test
+    public void testMigrationRunsAgainAfterOptionWasOff()
+        throws Exception {
+        // The calendar was migrated by an earlier sync
+        googleManager.setExtendedPropertiesCalendarId(StandInCalendarServer.CALENDAR_ID);
+
+        // With the option off, new entries only carry the LNGS iCalUID
+        googleManager.setUseExtendedProperties(false);
+        server.addEvent(createOldLngsEvent("Written with the option off", 1));
+        assertEquals(1, googleManager.getCalendarEntries().size());
+        assertEquals("", googleManager.getExtendedPropertiesCalendarId());
+
+        // Turned back on, the entry is migrated instead of hidden by the filter
+        googleManager.setUseExtendedProperties(true);
+
+        ArrayList<Event> entries = googleManager.getCalendarEntries();
+        assertEquals(1, entries.size());
+        assertEquals("1",
+            entries.get(0).getExtendedProperties().getPrivate().get("lngs"));
+        assertEquals(StandInCalendarServer.CALENDAR_ID,
+            googleManager.getExtendedPropertiesCalendarId());
+    }
+
+    /**
+     * Returns an event as LNGS wrote it before extended properties: the sync
+     * info is only in the iCalUID.
+     */
+    protected Event createOldLngsEvent(String subject, int dayOffset) {
+        Event event = StandInCalendarServer.createEvent(subject, dayOffset);
+        event.setICalUID(LNGS_UID + event.getStart().getDateTime().getValue() +
+            "-" + event.getEnd().getDateTime().getValue());
+
+        return event;
+    }
+}
@@ -0,0 +1,124 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.calendar.model.Event;
+
+import lngs.util.RecordingStatusMessageCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Runs the incremental listing of GoogleManager against a stand-in server.
+ */
+public class GoogleIncrementalListingTest {
+    protected StandInCalendarServer server;
+    protected RecordingStatusMessageCallback status;
+    protected GoogleManager googleManager;
+    protected File mirrorFile;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInCalendarServer();
+        // Small pages, so every listing takes several queries
+        server.setPageSize(2);
+
+        mirrorFile = File.createTempFile("lngs-mirror", ".json");
+        mirrorFile.delete();
+
+        status = new RecordingStatusMessageCallback();
+        googleManager = server.createManager(status);
+        googleManager.setIncrementalListing(true);
+        googleManager.googleMirrorFullFilename = mirrorFile.getPath();
+
+        for (int i = 0; i < 5; i++) {
+            server.addEvent(StandInCalendarServer.createLngsEvent("Entry " + i, i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mirrorFile.delete();
+        new File(mirrorFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testIncrementalListingPicksUpChanges() throws Exception {
+        assertSubjects(googleManager.getCalendarEntries(), 0, 1, 2, 3, 4);
+        assertTrue(isMirrorSaved());
+
+        server.addEvent(StandInCalendarServer.createLngsEvent("Entry 5", 5));
+
+        int listCount = server.getCallCount("list");
+        assertSubjects(googleManager.getCalendarEntries(), 0, 1, 2, 3, 4, 5);
+        // Only the change is listed
+        assertEquals(listCount + 1, server.getCallCount("list"));
+        assertTrue(status.contains("changed entries"));
+    }
+
+    @Test
+    public void testExpiredSyncTokenRestartsWithFullListing()
+        throws Exception {
+        assertSubjects(googleManager.getCalendarEntries(), 0, 1, 2, 3, 4);
+
+        server.expireSyncTokens();
+        server.addEvent(StandInCalendarServer.createLngsEvent("Entry 5", 5));
+
+        // The 410 comes back on the first page, before any page token exists.
+        // The listing must start over instead of ending with nothing.
+        assertSubjects(googleManager.getCalendarEntries(), 0, 1, 2, 3, 4, 5);
+        assertTrue(status.contains("sync token expired"));
+        assertTrue(isMirrorSaved());
+
+        // The new token works
+        assertSubjects(googleManager.getCalendarEntries(), 0, 1, 2, 3, 4, 5);
+    }
+
+    @Test
+    public void testNetworkErrorOnFirstPageIsRetried()
+        throws Exception {
+        server.failNextListRequests(1);
+        assertSubjects(googleManager.getCalendarEntries(), 0, 1, 2, 3, 4);
+        assertTrue(isMirrorSaved());
+
+        server.addEvent(StandInCalendarServer.createLngsEvent("Entry 5", 5));
+        server.failNextListRequests(1);
+        assertSubjects(googleManager.getCalendarEntries(), 0, 1, 2, 3, 4, 5);
+    }
+
+    protected boolean isMirrorSaved() {
+        GoogleEventMirror savedMirror = new GoogleEventMirror(JacksonFactory.getDefaultInstance(),
+                mirrorFile.getPath());
+        savedMirror.load();
+
+        return savedMirror.isValidFor(StandInCalendarServer.CALENDAR_ID);
+    }
+
+    protected void assertSubjects(ArrayList<Event> entries, int... numbers) {
+        HashSet<String> expected = new HashSet<String>();
+
+        for (int number : numbers) {
+            expected.add("Entry " + number);
+        }
+
+        HashSet<String> actual = new HashSet<String>();
+
+        for (Event event : entries) {
+            assertTrue("Duplicate entry: " + event.getSummary(),
+                actual.add(event.getSummary()));
+        }
+
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,115 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.services.calendar.model.Event;
+
+import lngs.lotus.LotusNotesCalendarEntry;
+
+import lngs.util.LngsException;
+import lngs.util.RecordingStatusMessageCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Runs the single-call creates of GoogleManager against a stand-in server,
+ * and checks an insert is only sent again when that can't make a copy.
+ */
+public class GoogleInsertTest {
+    protected static final int ENTRY_COUNT = 6;
+    protected StandInCalendarServer server;
+    protected GoogleManager googleManager;
+    protected ArrayList<LotusNotesCalendarEntry> lotusEntries;
+
+    @Before
+    public void setUp() {
+        server = new StandInCalendarServer();
+        googleManager = server.createManager(new RecordingStatusMessageCallback());
+        lotusEntries = StandInCalendarServer.createLotusEntries(ENTRY_COUNT);
+    }
+
+    @Test
+    public void testRateLimitedInsertIsRetried() throws Exception {
+        // Google turned the insert away, so it wasn't made
+        server.failNextInserts(1, 429);
+
+        assertEquals(ENTRY_COUNT,
+            googleManager.createCalendarEntries(lotusEntries));
+        assertEquals(ENTRY_COUNT + 1, server.getCallCount("insert"));
+        assertCreatedOnce(ENTRY_COUNT);
+    }
+
+    @Test
+    public void testLostInsertIsNotSentAgain() throws Exception {
+        // The first insert is made, but the client never hears back
+        server.loseNextInsertResponses(1);
+
+        try {
+            googleManager.createCalendarEntries(lotusEntries);
+            fail("The lost insert wasn't reported");
+        } catch (IOException ex) {
+            // Expected
+        }
+
+        assertEquals(1, server.getCallCount("insert"));
+        assertCreatedOnce(1);
+        // The next sync mustn't trust the local sync state
+        assertTrue(googleManager.stateStoreFailed);
+    }
+
+    @Test
+    public void testLostParallelInsertIsNotSentAgain()
+        throws Exception {
+        googleManager.setWriteThreads(3);
+        server.loseNextInsertResponses(1);
+
+        try {
+            googleManager.createCalendarEntries(lotusEntries);
+            fail("The lost insert wasn't reported");
+        } catch (LngsException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("1 of "));
+        }
+
+        // The other inserts went ahead
+        assertEquals(ENTRY_COUNT, server.getCallCount("insert"));
+        assertCreatedOnce(ENTRY_COUNT);
+        assertTrue(googleManager.stateStoreFailed);
+    }
+
+    @Test
+    public void testLostInsertWithFixedIdIsSentAgain()
+        throws Exception {
+        googleManager.setDeterministicIds(true);
+        server.loseNextInsertResponses(1);
+
+        // The repeated insert finds its entry and overwrites it
+        assertEquals(ENTRY_COUNT,
+            googleManager.createCalendarEntries(lotusEntries));
+        assertEquals(ENTRY_COUNT + 1, server.getCallCount("insert"));
+        assertEquals(1, server.getCallCount("update"));
+        assertCreatedOnce(ENTRY_COUNT);
+        assertFalse(googleManager.stateStoreFailed);
+    }
+
+    /**
+     * Check that the server has the first entries, each exactly once.
+     */
+    protected void assertCreatedOnce(int entryCount) {
+        HashSet<String> subjects = new HashSet<String>();
+
+        for (Event event : server.getEvents()) {
+            assertTrue("Created twice: " + event.getSummary(),
+                subjects.add(event.getSummary()));
+        }
+
+        assertEquals(entryCount, subjects.size());
+    }
+}
@@ -0,0 +1,44 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.http.HttpHeaders;
+
+import lngs.util.RecordingStatusMessageCallback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the delays GoogleRetryPolicy waits before a retry.
+ */
+public class GoogleRetryPolicyTest {
+    protected static final long MAX_DELAY_MSECS = 32000;
+    protected static final long MAX_RETRY_AFTER_MSECS = 15 * 60 * 1000;
+    protected GoogleRetryPolicy retryPolicy = new GoogleRetryPolicy(5, 600,
+            MAX_DELAY_MSECS, MAX_RETRY_AFTER_MSECS, 100,
+            new RecordingStatusMessageCallback());
+
+    @Test
+    public void testRetryAfterIsNotCutToBackoffLimit() {
+        // A rate limit asking for two minutes is waited out in full
+        assertEquals(120000,
+            retryPolicy.getDelayMsecs(1, new HttpHeaders().setRetryAfter("120")));
+    }
+
+    @Test
+    public void testRetryAfterHasItsOwnLimit() {
+        assertEquals(MAX_RETRY_AFTER_MSECS,
+            retryPolicy.getDelayMsecs(1, new HttpHeaders().setRetryAfter("86400")));
+    }
+
+    @Test
+    public void testBackoffStaysUnderLimit() {
+        for (int retryCount = 1; retryCount <= 30; retryCount++) {
+            long delayMsecs = retryPolicy.getDelayMsecs(retryCount, null);
+            assertTrue(delayMsecs >= 0);
+            assertTrue(delayMsecs <= MAX_DELAY_MSECS);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.EventReminder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+public class GoogleSyncStateStoreTest {
+    protected static final String CALENDAR_ID = "lngs-test@group.calendar.google.com";
+    protected File storeFile;
+
+    @Before
+    public void setUp() throws IOException {
+        storeFile = File.createTempFile("lngs-state", ".txt");
+        storeFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        storeFile.delete();
+    }
+
+    @Test
+    public void testStoredEventKeepsComparedFields() throws Exception {
+        Event event = new Event();
+        event.setId("event1");
+        event.setICalUID("event1@google.com");
+        event.setSummary("Design review");
+        event.setLocation("Room 4");
+        event.setDescription("Bring the printouts");
+        event.setVisibility("private");
+        event.setStart(new EventDateTime().setDateTime(new DateTime(1500000000000L)));
+        event.setEnd(new EventDateTime().setDateTime(new DateTime(1500003600000L)));
+        event.setReminders(new Event.Reminders().setUseDefault(false)
+                                                .setOverrides(Collections.singletonList(
+                    new EventReminder().setMethod("popup").setMinutes(15))));
+        event.setColorId("5");
+
+        GoogleSyncStateStore store = createStore();
+        store.load();
+        store.rebuild(CALENDAR_ID, Collections.singletonList(event));
+        store.markClean();
+
+        GoogleSyncStateStore loadedStore = createStore();
+        loadedStore.load();
+        assertTrue(loadedStore.isValidFor(CALENDAR_ID, 10));
+
+        Event storedEvent = new ArrayList<Event>(loadedStore.getEvents()).get(0);
+        assertEquals("Design review", storedEvent.getSummary());
+        assertEquals("Room 4", storedEvent.getLocation());
+        assertEquals("Bring the printouts", storedEvent.getDescription());
+        assertEquals("private", storedEvent.getVisibility());
+        assertEquals(Integer.valueOf(15),
+            storedEvent.getReminders().getOverrides().get(0).getMinutes());
+        // Fields the compare doesn't read aren't kept
+        assertNull(storedEvent.getColorId());
+    }
+
+    @Test
+    public void testOldFormatIsIgnored() throws Exception {
+        OutputStream out = new FileOutputStream(storeFile);
+        out.write(("CAL\t" + CALENDAR_ID + "\t0\n" +
+            "PUT\tevent1\t0\t{\"id\":\"event1\",\"summary\":\"Old\"}\n" +
+            "CLEAN\n").getBytes("UTF-8"));
+        out.close();
+
+        GoogleSyncStateStore store = createStore();
+        store.load();
+        assertFalse(store.isValidFor(CALENDAR_ID, 10));
+        assertEquals(0, store.size());
+    }
+
+    protected GoogleSyncStateStore createStore() {
+        return new GoogleSyncStateStore(JacksonFactory.getDefaultInstance(),
+            storeFile.getPath());
+    }
+}
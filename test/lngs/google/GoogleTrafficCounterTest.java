@@ -0,0 +1,106 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetSocketAddress;
+
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that GoogleTrafficCounter counts the bytes that came over the wire
+ * for a gzip response sent chunked, without a Content-Length header.
+ */
+public class GoogleTrafficCounterTest {
+    protected static final String BODY_LINE = "{\"kind\": \"calendar#event\"}\n";
+    protected static final int BODY_LINE_COUNT = 500;
+    protected HttpServer server;
+    protected byte[] compressedBody;
+    protected String body;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < BODY_LINE_COUNT; i++) {
+            builder.append(BODY_LINE);
+        }
+
+        body = builder.toString();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(body.getBytes("UTF-8"));
+        gzip.close();
+        compressedBody = bytes.toByteArray();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/",
+            new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange)
+                    throws IOException {
+                    exchange.getResponseHeaders()
+                            .set("Content-Type", "application/json");
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    // A length of 0 makes the response chunked
+                    exchange.sendResponseHeaders(200, 0);
+
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(compressedBody);
+                    out.close();
+                }
+            });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testChunkedGzipResponseIsCounted() throws Exception {
+        GoogleTrafficCounter trafficCounter = new GoogleTrafficCounter();
+        NetHttpTransport transport = new NetHttpTransport.Builder().setConnectionFactory(trafficCounter)
+                                                                   .build();
+        GenericUrl url = new GenericUrl("http://localhost:" +
+                server.getAddress().getPort() + "/calendar");
+
+        HttpResponse response = transport.createRequestFactory(trafficCounter)
+                                         .buildGetRequest(url).execute();
+
+        try {
+            assertNull(response.getHeaders().getContentLength());
+            assertEquals(body, response.parseAsString());
+        } finally {
+            response.disconnect();
+        }
+
+        assertEquals(1, trafficCounter.getResponseCount());
+        // The compressed size, not the size after unzipping
+        assertEquals(compressedBody.length, trafficCounter.getBytesReceived());
+        assertTrue(compressedBody.length < body.length());
+
+        trafficCounter.reset();
+        assertEquals(0, trafficCounter.getResponseCount());
+        assertEquals(0, trafficCounter.getBytesReceived());
+    }
+}
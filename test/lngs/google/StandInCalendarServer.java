@@ -0,0 +1,700 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.google;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+
+import lngs.lotus.LotusNotesCalendarEntry;
+
+import lngs.util.StatusMessageCallback;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A stand-in for the Google Calendar API, used as the HTTP transport of a real
+ * Calendar client. It keeps the events of one calendar in memory and answers
+ * events.list (with page and sync tokens), get, insert, patch, update, delete
+ * and batch requests the way Google does. Failures can be injected: expired
+ * sync tokens, network errors, error responses for inserts, and insert or
+ * batch responses that are lost after the calls were made.
+ */
+public class StandInCalendarServer extends MockHttpTransport {
+    public static final String CALENDAR_ID = "lngs-test@group.calendar.google.com";
+    public static final String BATCH_URL = "https://www.googleapis.com/batch/calendar/v3";
+    protected static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+    protected static final String RESPONSE_BOUNDARY = "batch_lngs_stand_in";
+    public static final long HOUR_MSECS = 60L * 60 * 1000;
+    public static final long DAY_MSECS = 24 * HOUR_MSECS;
+
+    // The time test events are placed around (2026-01-05 09:00 UTC), so the
+    // tests don't depend on the clock
+    public static final long BASE_TIME = 1767603600000L;
+
+    // Events keyed by ID. Deleted events are kept as cancelled, as Google does.
+    protected final LinkedHashMap<String, Event> events = new LinkedHashMap<String, Event>();
+    protected final HashMap<String, Long> changeNumbers = new HashMap<String, Long>();
+    protected long changeNumber = 0;
+    protected int nextId = 1;
+    protected int pageSize = 250;
+
+    // Sync tokens from an older generation are rejected with 410 Gone
+    protected int syncTokenGeneration = 1;
+
+    // Injected failures
+    protected int listNetworkFailures = 0;
+    protected int insertFailures = 0;
+    protected int insertFailureStatus = 503;
+    protected int lostBatchResponses = 0;
+    protected int lostInsertResponses = 0;
+
+    // Request accounting
+    protected final ArrayList<Integer> batchSizes = new ArrayList<Integer>();
+    protected final TreeMap<String, Integer> callCounts = new TreeMap<String, Integer>();
+
+    /**
+     * Returns a Calendar client that sends its requests to this server.
+     */
+    public com.google.api.services.calendar.Calendar createClient() {
+        return new com.google.api.services.calendar.Calendar.Builder(this,
+            JSON_FACTORY, null).setApplicationName("LNGS test").build();
+    }
+
+    /**
+     * Returns the calendar the server holds.
+     */
+    public com.google.api.services.calendar.model.Calendar getCalendar() {
+        com.google.api.services.calendar.model.Calendar calendar = new com.google.api.services.calendar.model.Calendar();
+        calendar.setId(CALENDAR_ID);
+        calendar.setSummary("LNGS test");
+        calendar.setTimeZone(TimeZone.getDefault().getID());
+
+        return calendar;
+    }
+
+    /**
+     * Returns a GoogleManager connected to this server, syncing from a week
+     * before BASE_TIME to 60 days after it.
+     */
+    public GoogleManager createManager(StatusMessageCallback statusMessageCallback) {
+        GoogleManager googleManager = new GoogleManager();
+        googleManager.setStatusMessageCallback(statusMessageCallback);
+        googleManager.setMinStartDate(new Date(BASE_TIME - (7 * DAY_MSECS)));
+        googleManager.setMaxEndDate(new Date(BASE_TIME + (60 * DAY_MSECS)));
+        googleManager.connect(createClient(), getCalendar());
+
+        return googleManager;
+    }
+
+    /**
+     * Returns a one hour event starting a number of days after BASE_TIME.
+     */
+    public static Event createEvent(String subject, int dayOffset) {
+        long startTime = BASE_TIME + (dayOffset * DAY_MSECS);
+
+        Event event = new Event();
+        event.setSummary(subject);
+        event.setStart(new EventDateTime().setDateTime(new DateTime(startTime)));
+        event.setEnd(new EventDateTime().setDateTime(new DateTime(startTime +
+                    HOUR_MSECS)));
+
+        return event;
+    }
+
+    /**
+     * Returns an event as LNGS writes it, with its sync info in private
+     * extended properties.
+     */
+    public static Event createLngsEvent(String subject, int dayOffset) {
+        HashMap<String, String> privateProperties = new HashMap<String, String>();
+        privateProperties.put("lngs", "1");
+        privateProperties.put("lngsSyncUID", "SYNC" + dayOffset);
+
+        Event event = createEvent(subject, dayOffset);
+        event.setExtendedProperties(new Event.ExtendedProperties().setPrivate(
+                privateProperties));
+
+        return event;
+    }
+
+    /**
+     * Returns Lotus entries named "Entry 0", "Entry 1", ..., one an hour from
+     * BASE_TIME, for GoogleManager to create.
+     */
+    public static ArrayList<LotusNotesCalendarEntry> createLotusEntries(
+        int count) {
+        ArrayList<LotusNotesCalendarEntry> lotusEntries = new ArrayList<LotusNotesCalendarEntry>();
+
+        for (int i = 0; i < count; i++) {
+            long startTime = BASE_TIME + (i * HOUR_MSECS);
+            LotusNotesCalendarEntry cal = new LotusNotesCalendarEntry();
+            cal.setUID(String.format("%032X", i + 1));
+            cal.setModifiedDateTime(new Date(BASE_TIME - DAY_MSECS));
+            cal.setSubject("Entry " + i);
+            cal.setAppointmentType("0");
+            cal.setStartDateTime(new Date(startTime));
+            cal.setEndDateTime(new Date(startTime + (HOUR_MSECS / 2)));
+            lotusEntries.add(cal);
+        }
+
+        return lotusEntries;
+    }
+
+    /**
+     * Add an event directly, without a request. An ID is assigned if it has none.
+     */
+    public synchronized void addEvent(Event event) {
+        if (event.getId() == null) {
+            event.setId("standin" + (nextId++));
+        }
+
+        if (event.getStatus() == null) {
+            event.setStatus("confirmed");
+        }
+
+        storeEvent(event);
+    }
+
+    /**
+     * Returns the events that aren't deleted.
+     */
+    public synchronized List<Event> getEvents() {
+        ArrayList<Event> liveEvents = new ArrayList<Event>();
+
+        for (Event event : events.values()) {
+            if (!"cancelled".equals(event.getStatus())) {
+                liveEvents.add(event);
+            }
+        }
+
+        return liveEvents;
+    }
+
+    /**
+     * Set the most events returned in one page of a listing.
+     */
+    public synchronized void setPageSize(int value) {
+        pageSize = value;
+    }
+
+    /**
+     * Reject every sync token handed out so far, as Google does when a token
+     * is too old.
+     */
+    public synchronized void expireSyncTokens() {
+        syncTokenGeneration++;
+    }
+
+    /**
+     * Fail the next listing requests with a network error (no response).
+     */
+    public synchronized void failNextListRequests(int count) {
+        listNetworkFailures = count;
+    }
+
+    /**
+     * Answer the next inserts (single or in a batch) with an error status.
+     * The events aren't created.
+     */
+    public synchronized void failNextInserts(int count, int statusCode) {
+        insertFailures = count;
+        insertFailureStatus = statusCode;
+    }
+
+    /**
+     * Make the calls of the next batch requests, then drop the connection
+     * before the response is sent. The client can't tell what was done.
+     */
+    public synchronized void loseNextBatchResponses(int count) {
+        lostBatchResponses = count;
+    }
+
+    /**
+     * Make the next single inserts, then drop the connection before the
+     * response is sent. The client can't tell the event was created.
+     */
+    public synchronized void loseNextInsertResponses(int count) {
+        lostInsertResponses = count;
+    }
+
+    /**
+     * Returns the number of calls in each batch request received.
+     */
+    public synchronized List<Integer> getBatchSizes() {
+        return new ArrayList<Integer>(batchSizes);
+    }
+
+    /**
+     * Returns the number of calls of a kind: list, get, insert, patch, update,
+     * delete or batch. Calls inside a batch are counted by their kind.
+     */
+    public synchronized int getCallCount(String kind) {
+        Integer count = callCounts.get(kind);
+
+        return (count == null) ? 0 : count.intValue();
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(final String method,
+        final String url) {
+        return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    return handleRequest(method, url, this);
+                }
+            };
+    }
+
+    protected LowLevelHttpResponse handleRequest(String method, String url,
+        MockLowLevelHttpRequest request) throws IOException {
+        String methodOverride = request.getFirstHeaderValue("X-HTTP-Method-Override");
+
+        if (methodOverride != null) {
+            method = methodOverride;
+        }
+
+        String body = getContent(request);
+
+        if (url.startsWith(BATCH_URL)) {
+            return handleBatch(request.getContentType(), body);
+        }
+
+        Response response = handleCall(method, url, body);
+
+        synchronized (this) {
+            if (method.equals("POST") && (response.statusCode == 200) &&
+                    (lostInsertResponses > 0)) {
+                lostInsertResponses--;
+                throw new IOException("Read timed out from the stand-in server");
+            }
+        }
+
+        MockLowLevelHttpResponse lowLevelResponse = new MockLowLevelHttpResponse();
+        lowLevelResponse.setStatusCode(response.statusCode);
+        lowLevelResponse.setReasonPhrase(getReasonPhrase(response.statusCode));
+        lowLevelResponse.setContentType("application/json; charset=UTF-8");
+        lowLevelResponse.setContent(response.body);
+
+        if (response.retryAfter != null) {
+            lowLevelResponse.addHeader("Retry-After", response.retryAfter);
+        }
+
+        return lowLevelResponse;
+    }
+
+    protected String getContent(MockLowLevelHttpRequest request)
+        throws IOException {
+        if (request.getStreamingContent() == null) {
+            return "";
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.getStreamingContent().writeTo(out);
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+        if ("gzip".equals(request.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int readCount;
+
+        while ((readCount = in.read(buffer)) > 0) {
+            content.write(buffer, 0, readCount);
+        }
+
+        return content.toString("UTF-8");
+    }
+
+    /**
+     * Answer a batch request. Each part holds one HTTP request, which is
+     * handled like a single call.
+     */
+    protected LowLevelHttpResponse handleBatch(String contentType, String body)
+        throws IOException {
+        String boundary = contentType.substring(contentType.indexOf("boundary=") +
+                9).replace("\"", "");
+        StringBuilder responseBody = new StringBuilder();
+        int partCount = 0;
+
+        synchronized (this) {
+            countCall("batch");
+
+            for (String part : body.split("--" + Pattern.quote(boundary))) {
+                String trimmedPart = part.trim();
+
+                if (trimmedPart.isEmpty() || trimmedPart.equals("--")) {
+                    continue;
+                }
+
+                // Skip the part headers, then split the HTTP request into its head and body
+                String httpRequest = part.substring(part.indexOf("\r\n\r\n") + 4);
+                int headEnd = httpRequest.indexOf("\r\n\r\n");
+                String[] headLines = httpRequest.substring(0, headEnd).split("\r\n");
+                String requestBody = httpRequest.substring(headEnd + 4);
+
+                if (requestBody.endsWith("\r\n")) {
+                    requestBody = requestBody.substring(0,
+                            requestBody.length() - 2);
+                }
+
+                String[] requestLine = headLines[0].split(" ");
+                String method = requestLine[0];
+
+                for (String headLine : headLines) {
+                    if (headLine.toLowerCase().startsWith("x-http-method-override:")) {
+                        method = headLine.substring(headLine.indexOf(':') + 1)
+                                         .trim();
+                    }
+                }
+
+                Response response = handleCall(method, requestLine[1], requestBody);
+                partCount++;
+                responseBody.append("--").append(RESPONSE_BOUNDARY).append("\r\n");
+                responseBody.append("Content-Type: application/http\r\n");
+                responseBody.append("Content-ID: <response-").append(partCount)
+                            .append(">\r\n\r\n");
+                responseBody.append("HTTP/1.1 ").append(response.statusCode)
+                            .append(" ")
+                            .append(getReasonPhrase(response.statusCode))
+                            .append("\r\n");
+
+                if (response.retryAfter != null) {
+                    responseBody.append("Retry-After: ")
+                                .append(response.retryAfter).append("\r\n");
+                }
+
+                if (!response.body.isEmpty()) {
+                    responseBody.append(
+                        "Content-Type: application/json; charset=UTF-8\r\n");
+                }
+
+                responseBody.append("\r\n").append(response.body).append("\r\n");
+            }
+
+            responseBody.append("--").append(RESPONSE_BOUNDARY).append("--\r\n");
+            batchSizes.add(partCount);
+
+            if (lostBatchResponses > 0) {
+                lostBatchResponses--;
+                throw new IOException("Connection reset by the stand-in server");
+            }
+        }
+
+        MockLowLevelHttpResponse lowLevelResponse = new MockLowLevelHttpResponse();
+        lowLevelResponse.setStatusCode(200);
+        lowLevelResponse.setContentType("multipart/mixed; boundary=" +
+            RESPONSE_BOUNDARY);
+        lowLevelResponse.setContent(responseBody.toString());
+
+        return lowLevelResponse;
+    }
+
+    /**
+     * Handle one events call.
+     */
+    protected synchronized Response handleCall(String method, String url,
+        String body) throws IOException {
+        GenericUrl genericUrl = new GenericUrl(url);
+        List<String> pathParts = genericUrl.getPathParts();
+        int eventsIndex = pathParts.indexOf("events");
+
+        if ((eventsIndex < 1) ||
+                !CALENDAR_ID.equals(pathParts.get(eventsIndex - 1))) {
+            return createError(404, "notFound", "Not Found");
+        }
+
+        String eventId = (pathParts.size() > (eventsIndex + 1))
+            ? pathParts.get(eventsIndex + 1) : null;
+
+        if (eventId == null) {
+            if (method.equals("GET")) {
+                countCall("list");
+
+                if (listNetworkFailures > 0) {
+                    listNetworkFailures--;
+                    throw new IOException("Connection reset by the stand-in server");
+                }
+
+                return list(genericUrl);
+            }
+
+            if (method.equals("POST")) {
+                countCall("insert");
+
+                return insert(body);
+            }
+        } else {
+            Event event = events.get(eventId);
+
+            if (method.equals("GET")) {
+                countCall("get");
+
+                return (event == null) ? createError(404, "notFound", "Not Found")
+                                       : createResponse(200, event);
+            }
+
+            if (method.equals("PATCH")) {
+                countCall("patch");
+
+                if ((event == null) || "cancelled".equals(event.getStatus())) {
+                    return createError(410, "deleted", "Resource has been deleted");
+                }
+
+                Event patch = JSON_FACTORY.fromString(body, Event.class);
+
+                for (Map.Entry<String, Object> field : patch.entrySet()) {
+                    event.set(field.getKey(), field.getValue());
+                }
+
+                storeEvent(event);
+
+                return createResponse(200, event);
+            }
+
+            if (method.equals("PUT")) {
+                countCall("update");
+
+                if (event == null) {
+                    return createError(404, "notFound", "Not Found");
+                }
+
+                Event newEvent = JSON_FACTORY.fromString(body, Event.class);
+                newEvent.setId(eventId);
+                newEvent.setICalUID(event.getICalUID());
+
+                if (newEvent.getStatus() == null) {
+                    newEvent.setStatus("confirmed");
+                }
+
+                storeEvent(newEvent);
+
+                return createResponse(200, newEvent);
+            }
+
+            if (method.equals("DELETE")) {
+                countCall("delete");
+
+                if ((event == null) || "cancelled".equals(event.getStatus())) {
+                    return createError(410, "deleted", "Resource has been deleted");
+                }
+
+                event.setStatus("cancelled");
+                storeEvent(event);
+
+                return new Response(204, "", null);
+            }
+        }
+
+        return createError(405, "notAllowed", "Method not allowed: " + method);
+    }
+
+    protected Response list(GenericUrl url) throws IOException {
+        String syncToken = (String) url.getFirst("syncToken");
+        String pageToken = (String) url.getFirst("pageToken");
+        long sinceChange = -1;
+
+        if (syncToken != null) {
+            String[] tokenParts = syncToken.substring(1).split("-");
+
+            if (Integer.parseInt(tokenParts[0]) != syncTokenGeneration) {
+                return createError(410, "fullSyncRequired",
+                    "Sync token is no longer valid, a full sync is required.");
+            }
+
+            sinceChange = Long.parseLong(tokenParts[1]);
+        }
+
+        long timeMin = getTimeParameter(url, "timeMin", Long.MIN_VALUE);
+        long timeMax = getTimeParameter(url, "timeMax", Long.MAX_VALUE);
+        Collection<Object> propertyFilters = url.getAll("privateExtendedProperty");
+        ArrayList<Event> matches = new ArrayList<Event>();
+
+        for (Event event : events.values()) {
+            if (syncToken != null) {
+                // Changes since the token, including deletes
+                if (changeNumbers.get(event.getId()) > sinceChange) {
+                    matches.add(event);
+                }
+            } else if (!"cancelled".equals(event.getStatus()) &&
+                    hasPrivateProperties(event, propertyFilters) &&
+                    (getTime(event.getEnd()) > timeMin) &&
+                    (getTime(event.getStart()) < timeMax)) {
+                matches.add(event);
+            }
+        }
+
+        int offset = (pageToken == null) ? 0
+                                         : Integer.parseInt(pageToken.substring(1));
+        int end = Math.min(offset + pageSize, matches.size());
+        Events page = new Events();
+        page.setItems(new ArrayList<Event>(matches.subList(offset, end)));
+
+        if (end < matches.size()) {
+            page.setNextPageToken("p" + end);
+        } else {
+            page.setNextSyncToken("s" + syncTokenGeneration + "-" + changeNumber);
+        }
+
+        return createResponse(200, page);
+    }
+
+    protected Response insert(String body) throws IOException {
+        if (insertFailures > 0) {
+            insertFailures--;
+
+            return createError(insertFailureStatus, "backendError",
+                "The stand-in server is busy");
+        }
+
+        Event event = JSON_FACTORY.fromString(body, Event.class);
+
+        if ((event.getId() != null) && events.containsKey(event.getId())) {
+            // Google keeps the IDs of deleted events too
+            return createError(409, "duplicate",
+                "The requested identifier already exists.");
+        }
+
+        if (event.getId() == null) {
+            event.setId("standin" + (nextId++));
+        }
+
+        if (event.getICalUID() == null) {
+            event.setICalUID(event.getId() + "@google.com");
+        }
+
+        event.setStatus("confirmed");
+        storeEvent(event);
+
+        return createResponse(200, event);
+    }
+
+    protected void storeEvent(Event event) {
+        events.put(event.getId(), event);
+        changeNumbers.put(event.getId(), ++changeNumber);
+    }
+
+    protected void countCall(String kind) {
+        Integer count = callCounts.get(kind);
+        callCounts.put(kind, (count == null) ? 1 : (count + 1));
+    }
+
+    protected boolean hasPrivateProperties(Event event, Collection<Object> filters) {
+        for (Object filter : filters) {
+            String[] nameValue = filter.toString().split("=", 2);
+
+            if ((event.getExtendedProperties() == null) ||
+                    (event.getExtendedProperties().getPrivate() == null) ||
+                    !nameValue[1].equals(event.getExtendedProperties()
+                                                  .getPrivate().get(nameValue[0]))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    protected long getTimeParameter(GenericUrl url, String name,
+        long defaultValue) {
+        Object value = url.getFirst(name);
+
+        return (value == null) ? defaultValue
+                               : DateTime.parseRfc3339(value.toString()).getValue();
+    }
+
+    protected long getTime(EventDateTime edt) {
+        if (edt == null) {
+            return 0;
+        }
+
+        if (edt.getDateTime() != null) {
+            return edt.getDateTime().getValue();
+        }
+
+        return DateTime.parseRfc3339(edt.getDate().toStringRfc3339()).getValue();
+    }
+
+    protected Response createResponse(int statusCode, Object content)
+        throws IOException {
+        return new Response(statusCode, JSON_FACTORY.toString(content), null);
+    }
+
+    protected Response createError(int statusCode, String reason, String message) {
+        String body = "{\"error\":{\"errors\":[{\"domain\":\"global\",\"reason\":\"" +
+            reason + "\",\"message\":\"" + message + "\"}],\"code\":" +
+            statusCode + ",\"message\":\"" + message + "\"}}";
+
+        return new Response(statusCode, body,
+            ((statusCode == 429) || (statusCode == 503)) ? "1" : null);
+    }
+
+    protected String getReasonPhrase(int statusCode) {
+        switch (statusCode) {
+        case 200:
+            return "OK";
+
+        case 204:
+            return "No Content";
+
+        case 404:
+            return "Not Found";
+
+        case 409:
+            return "Conflict";
+
+        case 410:
+            return "Gone";
+
+        case 429:
+            return "Too Many Requests";
+
+        case 503:
+            return "Service Unavailable";
+
+        default:
+            return "Error";
+        }
+    }
+
+    /**
+     * The answer to one call.
+     */
+    protected static class Response {
+        protected final int statusCode;
+        protected final String body;
+        protected final String retryAfter;
+
+        public Response(int statusCode, String body, String retryAfter) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.retryAfter = retryAfter;
+        }
+    }
+}
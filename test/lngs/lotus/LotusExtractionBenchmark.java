@@ -0,0 +1,87 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import java.util.ArrayList;
+
+/**
+ * Times the ways LotusNotesManager reads a mail file, using the Notes
+ * simulator with a set latency for each call that would go to the server.
+ * This isn't part of the test suite. Run it with:
+ *   java lngs.lotus.LotusExtractionBenchmark [entries] [latency microseconds]
+ */
+public class LotusExtractionBenchmark {
+    public static void main(String[] args) throws Exception {
+        int entryCount = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        long latencyMicros = (args.length > 1) ? Long.parseLong(args[1]) : 100;
+
+        SimulatedMailFile mailFile = new SimulatedMailFile(entryCount, 1);
+        mailFile.getSimulator().setLatencyMicros(latencyMicros);
+
+        System.out.println(mailFile.getEntries().size() + " entries in " +
+            mailFile.getDocumentCount() + " documents, " + latencyMicros +
+            " microseconds per server call");
+        System.out.println(String.format("%-28s %8s %10s %10s %s", "Mode",
+                "Entries", "Calls", "Msecs", "Result"));
+
+        try {
+            run("Search", mailFile, mailFile.createManager());
+
+            LotusNotesManager manager;
+
+            // Parallel extraction overlaps the server round trips of its parts
+            for (int threadCount = 2; threadCount <= 8; threadCount *= 2) {
+                manager = mailFile.createManager();
+                manager.setExtractionThreads(threadCount);
+                run("Search, " + threadCount + " threads", mailFile, manager);
+            }
+
+            manager = mailFile.createManager();
+            manager.setUseCalendarView(true);
+            run("Calendar view", mailFile, manager);
+
+            manager = mailFile.createManager();
+            manager.setUseFormulaExtraction(true);
+            run("Formula extraction", mailFile, manager);
+
+            manager = mailFile.createManager();
+            manager.setUseCalendarView(true);
+            manager.setUseFormulaExtraction(true);
+            run("View + formula extraction", mailFile, manager);
+
+            manager = mailFile.createManager();
+            manager.setIncrementalExtraction(true);
+            run("Incremental, first sync", mailFile, manager);
+            run("Incremental, no changes", mailFile, manager);
+
+            manager = mailFile.createManager();
+            manager.setUseEntryCache(true);
+            run("Entry cache, first sync", mailFile, manager);
+            run("Entry cache, no changes", mailFile, manager);
+        } finally {
+            mailFile.delete();
+        }
+    }
+
+    /**
+     * Read the mail file once and print the time, the number of simulated
+     * Lotus calls and whether the entries were read correctly.
+     */
+    protected static void run(String mode, SimulatedMailFile mailFile,
+        LotusNotesManager manager) throws Exception {
+        LotusNotesSimulator simulator = mailFile.getSimulator();
+        simulator.resetCallCounts();
+
+        long startNanos = System.nanoTime();
+        ArrayList<LotusNotesCalendarEntry> calendarEntries = manager.getCalendarEntries();
+        long elapsedMsecs = (System.nanoTime() - startNanos) / 1000000;
+        boolean isCorrect = SimulatedMailFile.getKeys(calendarEntries)
+                                             .equals(SimulatedMailFile.getKeys(
+                    mailFile.getEntries())) &&
+            (calendarEntries.size() == mailFile.getEntries().size());
+
+        System.out.println(String.format("%-28s %8d %10d %10d %s", mode,
+                calendarEntries.size(), simulator.getTotalCallCount(),
+                elapsedMsecs, isCorrect ? "OK" : "WRONG ENTRIES"));
+    }
+}
@@ -0,0 +1,141 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Runs each way LotusNotesManager reads a mail file against the Notes
+ * simulator, and checks it gets the synthetic entries the mail file was made
+ * from.
+ */
+public class LotusNotesManagerTest {
+    protected SimulatedMailFile mailFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mailFile = new SimulatedMailFile(400, 1);
+    }
+
+    @After
+    public void tearDown() {
+        mailFile.delete();
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        assertReadsEntries(mailFile.createManager());
+    }
+
+    @Test
+    public void testCalendarView() throws Exception {
+        LotusNotesManager manager = mailFile.createManager();
+        manager.setUseCalendarView(true);
+        assertReadsEntries(manager);
+    }
+
+    @Test
+    public void testFormulaExtraction() throws Exception {
+        LotusNotesManager manager = mailFile.createManager();
+        manager.setUseFormulaExtraction(true);
+
+        LotusNotesSimulator simulator = mailFile.getSimulator();
+        simulator.resetCallCounts();
+        assertReadsEntries(manager);
+
+        // One evaluate reads each document. Only the Body is read as an item,
+        // because @formulas can't return rich text.
+        assertEquals(mailFile.getDocumentCount(),
+            simulator.getCallCount("Session.evaluate"));
+        assertEquals(Collections.singleton("Body"),
+            simulator.getItemReadCounts().keySet());
+        assertEquals(mailFile.getDocumentCount(),
+            simulator.getItemReadCounts().get("Body").longValue());
+    }
+
+    @Test
+    public void testParallelExtraction() throws Exception {
+        LotusNotesManager manager = mailFile.createManager();
+        manager.setExtractionThreads(4);
+        assertReadsEntries(manager);
+    }
+
+    @Test
+    public void testIncrementalExtraction() throws Exception {
+        LotusNotesManager manager = mailFile.createManager();
+        manager.setIncrementalExtraction(true);
+        assertReadsEntries(manager);
+
+        // Nothing changed, so no document is read again
+        LotusNotesSimulator simulator = mailFile.getSimulator();
+        simulator.resetCallCounts();
+        assertReadsEntries(manager);
+        assertEquals(0, simulator.getCallCount("Document.getFirstItem"));
+
+        // Edit one entry and delete a repeating one
+        HashMap<String, Integer> instanceCounts = new HashMap<String, Integer>();
+
+        for (LotusNotesCalendarEntry cal : mailFile.getEntries()) {
+            Integer count = instanceCounts.get(cal.getUID());
+            instanceCounts.put(cal.getUID(), (count == null) ? 1 : (count + 1));
+        }
+
+        String editedUID = null;
+        String deletedUID = null;
+
+        for (String uid : instanceCounts.keySet()) {
+            if ((editedUID == null) && (instanceCounts.get(uid) == 1)) {
+                editedUID = uid;
+            } else if ((deletedUID == null) && (instanceCounts.get(uid) > 1)) {
+                deletedUID = uid;
+            }
+        }
+
+        simulator.setItemValue(editedUID, "Location", "Moved to the annex");
+        simulator.deleteDocument(deletedUID);
+
+        ArrayList<LotusNotesCalendarEntry> expectedEntries = new ArrayList<LotusNotesCalendarEntry>();
+
+        for (LotusNotesCalendarEntry cal : mailFile.getEntries()) {
+            if (cal.getUID().equals(editedUID)) {
+                cal.setLocation("Moved to the annex");
+            }
+
+            if (!cal.getUID().equals(deletedUID)) {
+                expectedEntries.add(cal);
+            }
+        }
+
+        // A new manager, as the next sync would use, reads the saved snapshot
+        manager = mailFile.createManager();
+        manager.setIncrementalExtraction(true);
+        assertEquals(SimulatedMailFile.getKeys(expectedEntries),
+            getKeys(manager.getCalendarEntries()));
+    }
+
+    protected void assertReadsEntries(LotusNotesManager manager)
+        throws Exception {
+        assertEquals(SimulatedMailFile.getKeys(mailFile.getEntries()),
+            getKeys(manager.getCalendarEntries()));
+    }
+
+    /**
+     * Returns the keys of the entries. Fails if an entry was read twice.
+     */
+    protected Set<String> getKeys(ArrayList<LotusNotesCalendarEntry> calendarEntries) {
+        Set<String> keys = SimulatedMailFile.getKeys(calendarEntries);
+        assertEquals("Entries read more than once", calendarEntries.size(),
+            keys.size());
+
+        return keys;
+    }
+}
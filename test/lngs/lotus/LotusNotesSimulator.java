@@ -0,0 +1,1430 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lngs.util.LngsException;
+
+import lotus.domino.*;
+
+import java.io.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.nio.charset.Charset;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory stand-in for the Lotus Notes runtime, so LotusNotesManager can
+ * be run and timed without a Notes client or Domino server. The Lotus objects
+ * (Session, Database, DocumentCollection, Document, Item, DateTime, View,
+ * ViewNavigator, ...) are proxies over the documents of a data file. Every call
+ * is counted, and calls that would go to the server wait a set latency.
+ * Each proxy stands for a native handle, which is held until the proxy, or
+ * the session it was made from, is recycled. Using a recycled proxy throws a
+ * NotesException, as Notes does.
+ * Notes.jar is still needed for the lotus.domino interfaces, but no native
+ * code is loaded.
+ *
+ * Only the formulas LNGS uses are understood: the calendar selection formulas,
+ * the view column formulas (an item name, @Subset(item; 1 or -1) and
+ * @Modified) and the formula built by LotusNotesFormulaReader. Other formulas
+ * throw a NotesException.
+ *
+ * The data file has one "name=value" line per item. "[Environment]" starts the
+ * notes.ini values (e.g. MailFile, MailServer) and "[Document]" starts a new
+ * document. $UNID and $Modified set the UNID and last-modified time. A value
+ * that starts with "@" is a list of date/times (yyyy-MM-dd HH:mm:ss) separated
+ * by ";". In values, \n, \r and \\ stand for a newline, return and backslash.
+ * Documents can be changed or deleted after loading, to test incremental
+ * extraction.
+ */
+public class LotusNotesSimulator extends LotusNotesRuntime {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected static final String DATA_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    // The simulated server uses month/day/year dates
+    protected static final String SERVER_DATE_FORMAT = "MM/dd/yyyy";
+    protected static final String SERVER_DATE_TIME_FORMAT = "MM/dd/yyyy hh:mm:ss a";
+
+    // The id of the NotesException thrown for calls the simulator doesn't support
+    public static final int ERR_NOT_SUPPORTED = 4000;
+
+    // The id of the NotesException thrown for calls on a recycled object
+    public static final int ERR_RECYCLED = 4376;
+    protected static final Pattern DATE_RANGE_PATTERN = Pattern.compile(
+            "@TextToTime\\(\"(.+?) - (.+?)\"\\)");
+    protected static final Pattern SUBSET_PATTERN = Pattern.compile(
+            "@Subset\\(([\\w$]+); *(-?1)\\)");
+    protected static final Pattern ITEM_NAME_PATTERN = Pattern.compile(
+            "[\\w$]+");
+
+    // The parts of the LotusNotesFormulaReader formula
+    protected static final String FORMULA_PART_SEPARATOR = " + @Char(30) + ";
+    protected static final Pattern FORMULA_DATE_PART_PATTERN = Pattern.compile(
+            "@If\\(@IsTime\\(\\((.+)\\)\\); @Implode\\(@Text\\(@Integer\\(\\(\\1\\) - " +
+            "@Date\\(1970; 1; 1; 0; 0; 0\\)\\); \"F0\"\\); \";\"\\); \"\"\\)");
+    protected static final Pattern FORMULA_TEXT_PART_PATTERN = Pattern.compile(
+            "@Implode\\(@Text\\(\\((.+)\\)\\); \";\"\\)");
+    protected static final long DAY_MSECS = 24L * 60 * 60 * 1000;
+    protected final HashMap<String, String> environment = new HashMap<String, String>();
+    protected final ArrayList<SimDocument> documents = new ArrayList<SimDocument>();
+    protected final SimDatabase database = new SimDatabase();
+
+    // The latency of calls that would go to the server, in microseconds
+    protected long defaultLatencyMicros = 0;
+    protected final HashMap<String, Long> latencyMicros = new HashMap<String, Long>();
+
+    // The number of calls, keyed by "Interface.method", e.g. "Document.getFirstItem"
+    protected final TreeMap<String, Long> callCounts = new TreeMap<String, Long>();
+    protected long totalCallCount = 0;
+
+    // The number of Document.getFirstItem() calls, keyed by item name
+    protected final TreeMap<String, Long> itemReadCounts = new TreeMap<String, Long>();
+
+    // The proxies that haven't been recycled
+    protected long liveHandleCount = 0;
+    protected long maxLiveHandleCount = 0;
+
+    // The session of the call running on this thread. New proxies belong to it.
+    protected final ThreadLocal<SimHandler> currentSession = new ThreadLocal<SimHandler>();
+
+    /**
+     * Read a data file.
+     */
+    public static LotusNotesSimulator load(File dataFile)
+        throws LngsException, IOException {
+        LotusNotesSimulator simulator = new LotusNotesSimulator();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(dataFile), UTF8));
+        DateFormat dataDateFormat = new SimpleDateFormat(DATA_DATE_FORMAT);
+        Date defaultModified = new Date(dataFile.lastModified());
+        SimDocument doc = null;
+        boolean isEnvironment = false;
+        int lineNumber = 0;
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                if (line.equals("[Environment]")) {
+                    isEnvironment = true;
+
+                    continue;
+                }
+
+                if (line.equals("[Document]")) {
+                    isEnvironment = false;
+                    doc = simulator.new SimDocument(String.format("%032X",
+                                simulator.documents.size() + 1), defaultModified);
+                    simulator.documents.add(doc);
+
+                    continue;
+                }
+
+                int i = line.indexOf('=');
+
+                if ((i < 1) || (!isEnvironment && (doc == null))) {
+                    throw new LngsException("Line " + lineNumber + " of " +
+                        dataFile.getPath() + " isn't a name=value line in a section.");
+                }
+
+                String name = line.substring(0, i);
+                String value = unescape(line.substring(i + 1));
+
+                try {
+                    if (isEnvironment) {
+                        simulator.environment.put(name, value);
+                    } else if (name.equals("$UNID")) {
+                        doc.unid = value;
+                    } else if (name.equals("$Modified")) {
+                        doc.modified = dataDateFormat.parse(value);
+                    } else if (value.startsWith("@")) {
+                        ArrayList<Object> dates = new ArrayList<Object>();
+
+                        for (String date : value.substring(1).split(";")) {
+                            dates.add(dataDateFormat.parse(date.trim()));
+                        }
+
+                        doc.putItem(simulator.new SimItem(name, dates, true));
+                    } else {
+                        doc.putItem(simulator.new SimItem(name,
+                                new ArrayList<Object>(Collections.singletonList(
+                                        value)), false));
+                    }
+                } catch (ParseException ex) {
+                    throw new LngsException("Line " + lineNumber + " of " +
+                        dataFile.getPath() + " has a bad date.", ex);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return simulator;
+    }
+
+    /**
+     * Write calendar entries (e.g. from SyntheticCalendarSource) as a data file.
+     * The instances of a repeating entry become one document.
+     */
+    public static void writeDataFile(File dataFile, String mailFile,
+        List<LotusNotesCalendarEntry> calendarEntries)
+        throws IOException {
+        DateFormat dataDateFormat = new SimpleDateFormat(DATA_DATE_FORMAT);
+        LinkedHashMap<String, LotusNotesCalendarEntry> firstInstances = new LinkedHashMap<String, LotusNotesCalendarEntry>();
+
+        for (LotusNotesCalendarEntry cal : calendarEntries) {
+            if (!firstInstances.containsKey(cal.getUID())) {
+                firstInstances.put(cal.getUID(), cal);
+            }
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(dataFile), UTF8));
+
+        try {
+            writer.write("# LNGS Lotus Notes simulator data\n");
+            writer.write("[Environment]\n");
+            writeValue(writer, "MailFile", mailFile);
+            writeValue(writer, "MailServer", "");
+
+            for (LotusNotesCalendarEntry cal : firstInstances.values()) {
+                writer.write("[Document]\n");
+                writeValue(writer, "$UNID", cal.getUID());
+                writeValue(writer, "$Modified",
+                    dataDateFormat.format(cal.getModifiedDateTime()));
+                writeValue(writer, "Subject", cal.getSubject());
+
+                // getBody() includes the online meeting URL
+                writeValue(writer, "Body", cal.getBody());
+
+                if (cal.getEntryType() == LotusNotesCalendarEntry.EntryType.TASK) {
+                    writeValue(writer, "Form", "Task");
+                } else {
+                    writeValue(writer, "Form", "Appointment");
+                    writeValue(writer, "AppointmentType",
+                        getAppointmentTypeValue(cal.getAppointmentType()));
+                }
+
+                writeValue(writer, "Room", cal.getRoom());
+                writeValue(writer, "Location", cal.getLocation());
+
+                if (cal.getAlarm()) {
+                    writeValue(writer, "$Alarm", "1");
+                    writeValue(writer, "$AlarmOffset",
+                        Integer.toString(cal.getAlarmOffsetMins()));
+                }
+
+                if (cal.getPrivate()) {
+                    writeValue(writer, "OrgConfidential", "1");
+                }
+
+                writeValue(writer, "REQUIREDATTENDEES", cal.getRequiredAttendees());
+                writeValue(writer, "OPTIONALATTENDEES", cal.getOptionalAttendees());
+                writeValue(writer, "CHAIR", cal.getChairperson());
+
+                List<Date> startDates = cal.getSeriesStartDates();
+                List<Date> endDates = cal.getSeriesEndDates();
+
+                if (startDates == null) {
+                    startDates = Collections.singletonList(cal.getStartDateTime());
+                    endDates = Collections.singletonList(cal.getEndDateTime());
+                }
+
+                writeValue(writer, "StartDateTime",
+                    formatDates(dataDateFormat, startDates));
+                writeValue(writer, "EndDateTime",
+                    formatDates(dataDateFormat, endDates));
+                writeValue(writer, "CalendarDateTime",
+                    formatDates(dataDateFormat, startDates));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Set the latency of every call that would go to the server.
+     */
+    public void setLatencyMicros(long value) {
+        defaultLatencyMicros = value;
+    }
+
+    /**
+     * Set the latency of one call, e.g. "Document.getFirstItem".
+     */
+    public synchronized void setLatencyMicros(String callName, long value) {
+        latencyMicros.put(callName, value);
+    }
+
+    public synchronized long getCallCount(String callName) {
+        Long count = callCounts.get(callName);
+
+        return (count == null) ? 0 : count.longValue();
+    }
+
+    public synchronized long getTotalCallCount() {
+        return totalCallCount;
+    }
+
+    /**
+     * Returns the number of calls, keyed by "Interface.method".
+     */
+    public synchronized SortedMap<String, Long> getCallCounts() {
+        return new TreeMap<String, Long>(callCounts);
+    }
+
+    /**
+     * Returns the number of Document.getFirstItem() calls, keyed by item name.
+     */
+    public synchronized SortedMap<String, Long> getItemReadCounts() {
+        return new TreeMap<String, Long>(itemReadCounts);
+    }
+
+    public synchronized void resetCallCounts() {
+        callCounts.clear();
+        itemReadCounts.clear();
+        totalCallCount = 0;
+    }
+
+    protected synchronized void countItemRead(String itemName) {
+        Long count = itemReadCounts.get(itemName);
+        itemReadCounts.put(itemName, (count == null) ? 1L : (count + 1));
+    }
+
+    /**
+     * Returns the number of proxies (native handles) that haven't been recycled.
+     */
+    public synchronized long getLiveHandleCount() {
+        return liveHandleCount;
+    }
+
+    /**
+     * Returns the most proxies that were live at one time since the last reset.
+     */
+    public synchronized long getMaxLiveHandleCount() {
+        return maxLiveHandleCount;
+    }
+
+    public synchronized void resetMaxLiveHandleCount() {
+        maxLiveHandleCount = liveHandleCount;
+    }
+
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * Set a text item of a document, as if it was edited.
+     */
+    public synchronized void setItemValue(String unid, String name, String value)
+        throws LngsException {
+        SimDocument doc = getDocument(unid);
+        doc.putItem(new SimItem(name,
+                new ArrayList<Object>(Collections.singletonList(value)), false));
+        doc.touch();
+    }
+
+    /**
+     * Delete a document. It is left as a deletion stub, so it is still
+     * returned by Database.getModifiedDocuments().
+     */
+    public synchronized void deleteDocument(String unid)
+        throws LngsException {
+        SimDocument doc = getDocument(unid);
+        doc.isDeleted = true;
+        doc.touch();
+    }
+
+    protected SimDocument getDocument(String unid) throws LngsException {
+        for (SimDocument doc : documents) {
+            if (doc.unid.equals(unid)) {
+                return doc;
+            }
+        }
+
+        throw new LngsException("The simulator has no document " + unid + ".");
+    }
+
+    @Override
+    public void loadNotesThreadClass() {
+        // Nothing native is needed
+    }
+
+    @Override
+    public void sinitThread() {
+        // Nothing native is needed
+    }
+
+    @Override
+    public void stermThread() {
+        // Nothing native is needed
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        return new Thread(r);
+    }
+
+    @Override
+    public Session createSession(String password) throws NotesException {
+        countCall("NotesFactory.createSession", true);
+
+        return wrap(new SimSession(), Session.class);
+    }
+
+    /**
+     * Count a call and, if it would go to the server, wait the latency.
+     */
+    protected void countCall(String callName, boolean isRemote) {
+        long latency;
+
+        synchronized (this) {
+            Long count = callCounts.get(callName);
+            callCounts.put(callName, (count == null) ? 1L : (count + 1));
+            totalCallCount++;
+
+            if (!isRemote) {
+                return;
+            }
+
+            Long callLatency = latencyMicros.get(callName);
+            latency = (callLatency == null) ? defaultLatencyMicros
+                                            : callLatency.longValue();
+        }
+
+        if (latency > 0) {
+            LockSupport.parkNanos(latency * 1000);
+        }
+    }
+
+    /**
+     * Returns a proxy that passes the calls to a simulated object.
+     */
+    protected <T> T wrap(SimObject target, Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                new Class[] { type },
+                new SimHandler(target, type.getSimpleName(), currentSession.get())));
+    }
+
+    /**
+     * Free the handle of a proxy. Recycling a session frees the handles of
+     * every proxy made from it.
+     */
+    protected synchronized void releaseHandle(SimHandler handler) {
+        if (handler.isRecycled) {
+            return;
+        }
+
+        handler.isRecycled = true;
+        liveHandleCount--;
+
+        if (handler.session == handler) {
+            for (SimHandler ownedHandler : handler.ownedHandlers) {
+                ownedHandler.isRecycled = true;
+                liveHandleCount--;
+            }
+
+            handler.ownedHandlers.clear();
+        } else if (handler.session != null) {
+            handler.session.ownedHandlers.remove(handler);
+        }
+    }
+
+    /**
+     * Returns the simulated object behind a proxy.
+     */
+    protected SimObject unwrap(Object proxy) {
+        return ((SimHandler) Proxy.getInvocationHandler(proxy)).target;
+    }
+
+    protected DateTime wrapDate(Date date) {
+        return wrap(new SimDateTime(date), DateTime.class);
+    }
+
+    protected NotesException createNotSupportedException(String what) {
+        return new NotesException(ERR_NOT_SUPPORTED,
+            what + " isn't supported by the Lotus Notes simulator.");
+    }
+
+    /**
+     * Evaluate a formula for a document.
+     * @return The values. Dates are Java dates.
+     */
+    protected List<Object> evaluate(String formula, SimDocument doc)
+        throws NotesException {
+        String text = formula.trim();
+
+        if (text.regionMatches(true, 0, "SELECT ", 0, 7)) {
+            text = text.substring(7).trim();
+        }
+
+        if (text.contains("@IsAvailable(CalendarDateTime)")) {
+            return Collections.<Object>singletonList(isSelected(text, doc) ? 1.0 : 0.0);
+        }
+
+        if (text.contains(FORMULA_PART_SEPARATOR)) {
+            return Collections.<Object>singletonList(evaluateReaderFormula(
+                    text, doc));
+        }
+
+        if (text.equals("@Modified")) {
+            return Collections.<Object>singletonList(doc.modified);
+        }
+
+        Matcher matcher = SUBSET_PATTERN.matcher(text);
+
+        if (matcher.matches()) {
+            List<Object> values = doc.getValues(matcher.group(1));
+
+            if (values.isEmpty()) {
+                return values;
+            }
+
+            return Collections.singletonList(matcher.group(2).equals("1")
+                ? values.get(0) : values.get(values.size() - 1));
+        }
+
+        if (ITEM_NAME_PATTERN.matcher(text).matches()) {
+            return doc.getValues(text);
+        }
+
+        throw createNotSupportedException("The formula " + text);
+    }
+
+    /**
+     * Evaluate the formula built by LotusNotesFormulaReader: each part turns a
+     * value into text and the parts are joined with @Char(30).
+     */
+    protected String evaluateReaderFormula(String formula, SimDocument doc)
+        throws NotesException {
+        DateFormat dateFormat = new SimpleDateFormat(SERVER_DATE_TIME_FORMAT);
+        long epochMsecs = new GregorianCalendar(1970, 0, 1).getTimeInMillis();
+        StringBuilder result = new StringBuilder();
+
+        for (String part : formula.split(Pattern.quote(FORMULA_PART_SEPARATOR))) {
+            StringBuilder text = new StringBuilder();
+            Matcher matcher;
+
+            if (part.equals("\"\"")) {
+                // The value isn't read
+            } else if ((matcher = FORMULA_DATE_PART_PATTERN.matcher(part)).matches()) {
+                List<Object> values = evaluate(matcher.group(1), doc);
+
+                // @IsTime is only true if every value is a date/time
+                boolean isTime = !values.isEmpty();
+
+                for (Object value : values) {
+                    isTime &= (value instanceof Date);
+                }
+
+                for (int i = 0; isTime && (i < values.size()); i++) {
+                    text.append((i > 0) ? ";" : "")
+                        .append((((Date) values.get(i)).getTime() - epochMsecs) / 1000);
+                }
+            } else if ((matcher = FORMULA_TEXT_PART_PATTERN.matcher(part)).matches()) {
+                List<Object> values = evaluate(matcher.group(1), doc);
+
+                for (int i = 0; i < values.size(); i++) {
+                    Object value = values.get(i);
+                    text.append((i > 0) ? ";" : "")
+                        .append((value instanceof Date) ? dateFormat.format(value)
+                                                        : value);
+                }
+            } else {
+                throw createNotSupportedException("The formula part " + part);
+            }
+
+            result.append(text).append('\u001e');
+        }
+
+        // Drop the separator after the last value
+        return result.substring(0, result.length() - 1);
+    }
+
+    /**
+     * Returns true if a calendar selection formula selects the document. With a
+     * date range, the document must have a CalendarDateTime in the range.
+     */
+    protected boolean isSelected(String formula, SimDocument doc)
+        throws NotesException {
+        if (doc.isDeleted || (doc.getItem("$Conflict") != null)) {
+            return false;
+        }
+
+        List<Object> dates = doc.getValues("CalendarDateTime");
+
+        if (dates.isEmpty()) {
+            return false;
+        }
+
+        Matcher matcher = DATE_RANGE_PATTERN.matcher(formula);
+
+        if (!matcher.find()) {
+            return true;
+        }
+
+        Date fromDate;
+        Date toDate;
+
+        try {
+            DateFormat dateFormat = new SimpleDateFormat(SERVER_DATE_FORMAT);
+            fromDate = dateFormat.parse(matcher.group(1));
+
+            // The range includes all of the last day
+            toDate = new Date(dateFormat.parse(matcher.group(2)).getTime() +
+                    DAY_MSECS);
+        } catch (ParseException ex) {
+            throw new NotesException(ERR_NOT_SUPPORTED,
+                "The simulator uses " + SERVER_DATE_FORMAT + " dates: " +
+                matcher.group());
+        }
+
+        for (Object date : dates) {
+            if ((date instanceof Date) && !((Date) date).before(fromDate) &&
+                    ((Date) date).before(toDate)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    protected SimDatabase findDatabase(String filePath) {
+        String mailFile = environment.get("MailFile");
+
+        if ((filePath == null) || (mailFile == null)) {
+            return null;
+        }
+
+        if (getFileName(filePath).equalsIgnoreCase(getFileName(mailFile))) {
+            return database;
+        }
+
+        return null;
+    }
+
+    protected static String getFileName(String filePath) {
+        return filePath.substring(Math.max(filePath.lastIndexOf('/'),
+                filePath.lastIndexOf('\\')) + 1);
+    }
+
+    protected static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if ((c == '\\') && (i + 1 < value.length())) {
+                char next = value.charAt(++i);
+                sb.append((next == 'n') ? '\n' : ((next == 'r') ? '\r' : next));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    protected static void writeValue(Writer writer, String name, String value)
+        throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        writer.write(name);
+        writer.write('=');
+        writer.write(value.replace("\\", "\\\\").replace("\n", "\\n")
+                          .replace("\r", "\\r"));
+        writer.write('\n');
+    }
+
+    protected static String formatDates(DateFormat dateFormat, List<Date> dates) {
+        StringBuilder sb = new StringBuilder("@");
+
+        for (Date date : dates) {
+            if (sb.length() > 1) {
+                sb.append(';');
+            }
+
+            sb.append(dateFormat.format(date));
+        }
+
+        return sb.toString();
+    }
+
+    protected static String getAppointmentTypeValue(
+        LotusNotesCalendarEntry.AppointmentType appointmentType) {
+        if (appointmentType == LotusNotesCalendarEntry.AppointmentType.ANNIVERSARY) {
+            return "1";
+        } else if (appointmentType == LotusNotesCalendarEntry.AppointmentType.ALL_DAY_EVENT) {
+            return "2";
+        } else if (appointmentType == LotusNotesCalendarEntry.AppointmentType.MEETING) {
+            return "3";
+        } else if (appointmentType == LotusNotesCalendarEntry.AppointmentType.REMINDER) {
+            return "4";
+        }
+
+        return "0";
+    }
+
+    /**
+     * Counts each call on a proxy, waits the latency, and runs the method of
+     * the same name on the simulated object.
+     */
+    protected class SimHandler implements InvocationHandler {
+        protected final SimObject target;
+        protected final String typeName;
+
+        // The session the proxy was made from. A session is its own session.
+        protected final SimHandler session;
+
+        // For a session, the live proxies made from it
+        protected final Set<SimHandler> ownedHandlers = new HashSet<SimHandler>();
+        protected boolean isRecycled = false;
+
+        public SimHandler(SimObject target, String typeName, SimHandler session) {
+            this.target = target;
+            this.typeName = typeName;
+            this.session = (target instanceof SimSession) ? this : session;
+
+            synchronized (LotusNotesSimulator.this) {
+                if ((this.session != null) && (this.session != this)) {
+                    this.session.ownedHandlers.add(this);
+                }
+
+                liveHandleCount++;
+                maxLiveHandleCount = Math.max(maxLiveHandleCount,
+                        liveHandleCount);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+
+                return target.toString();
+            }
+
+            String callName = typeName + "." + method.getName();
+            countCall(callName, target.isRemoteCall(method.getName()));
+
+            if (method.getName().equals("recycle")) {
+                if ((args == null) || (args.length == 0)) {
+                    releaseHandle(this);
+                } else {
+                    for (Object element : (Vector<?>) args[0]) {
+                        if ((element != null) &&
+                                Proxy.isProxyClass(element.getClass())) {
+                            releaseHandle((SimHandler) Proxy.getInvocationHandler(
+                                    element));
+                        }
+                    }
+                }
+
+                return null;
+            }
+
+            if (isRecycled) {
+                throw new NotesException(ERR_RECYCLED,
+                    "Object has been removed or recycled: " + callName);
+            }
+
+            Method targetMethod;
+
+            try {
+                targetMethod = target.getClass()
+                                     .getMethod(method.getName(),
+                        method.getParameterTypes());
+                targetMethod.setAccessible(true);
+            } catch (NoSuchMethodException ex) {
+                throw createNotSupportedException(callName);
+            }
+
+            SimHandler callerSession = currentSession.get();
+            currentSession.set(session);
+
+            try {
+                return targetMethod.invoke(target, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            } finally {
+                currentSession.set(callerSession);
+            }
+        }
+    }
+
+    /**
+     * The base of the simulated Lotus objects.
+     */
+    protected abstract class SimObject {
+        /**
+         * Returns false for calls that are answered on the client, e.g. from
+         * data that was already read.
+         */
+        protected boolean isRemoteCall(String methodName) {
+            return !methodName.equals("recycle");
+        }
+    }
+
+    protected class SimSession extends SimObject {
+        public String getNotesVersion() {
+            return "Release 9.0.1 (simulator)";
+        }
+
+        public boolean isValid() {
+            return true;
+        }
+
+        public Database getDatabase(String server, String filePath,
+            boolean create) {
+            SimDatabase db = findDatabase(filePath);
+
+            return (db == null) ? null : wrap(db, Database.class);
+        }
+
+        public Database getDatabase(String server, String filePath) {
+            return getDatabase(server, filePath, false);
+        }
+
+        public DbDirectory getDbDirectory(String server) {
+            return wrap(new SimDbDirectory(), DbDirectory.class);
+        }
+
+        public International getInternational() {
+            return wrap(new SimInternational(), International.class);
+        }
+
+        public String getEnvironmentString(String name, boolean system) {
+            String value = environment.get(name);
+
+            return (value == null) ? "" : value;
+        }
+
+        public Vector evaluate(String formula, Document doc)
+            throws NotesException {
+            Vector<Object> result = new Vector<Object>();
+
+            for (Object value : LotusNotesSimulator.this.evaluate(formula,
+                    (SimDocument) unwrap(doc))) {
+                result.add((value instanceof Date) ? wrapDate((Date) value) : value);
+            }
+
+            return result;
+        }
+
+        public DateTime createDateTime(Date date) {
+            return wrapDate(date);
+        }
+
+        @Override
+        protected boolean isRemoteCall(String methodName) {
+            // Date/times are made on the client
+            return super.isRemoteCall(methodName) &&
+            !methodName.equals("createDateTime");
+        }
+    }
+
+    protected class SimDbDirectory extends SimObject {
+        public Database openDatabase(String filePath) {
+            SimDatabase db = findDatabase(filePath);
+
+            return (db == null) ? null : wrap(db, Database.class);
+        }
+    }
+
+    protected class SimInternational extends SimObject {
+        public String getDateSep() {
+            return "/";
+        }
+
+        public boolean isDateDMY() {
+            return false;
+        }
+
+        public boolean isDateYMD() {
+            return false;
+        }
+    }
+
+    protected class SimDatabase extends SimObject {
+        protected final HashMap<String, SimView> views = new HashMap<String, SimView>();
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public String getServer() {
+            return getEnvironmentString("MailServer");
+        }
+
+        public String getFilePath() {
+            return getEnvironmentString("MailFile");
+        }
+
+        public DocumentCollection search(String formula)
+            throws NotesException {
+            ArrayList<SimDocument> found = new ArrayList<SimDocument>();
+
+            for (SimDocument doc : documents) {
+                List<Object> result = evaluate(formula, doc);
+
+                if (!result.isEmpty() && result.get(0).equals(1.0)) {
+                    found.add(doc);
+                }
+            }
+
+            return wrap(new SimDocumentCollection(found, new Date()),
+                DocumentCollection.class);
+        }
+
+        public DocumentCollection getModifiedDocuments(DateTime since,
+            int noteClass) {
+            Date sinceDate = (since == null) ? null
+                                             : ((SimDateTime) unwrap(since)).date;
+            ArrayList<SimDocument> found = new ArrayList<SimDocument>();
+
+            for (SimDocument doc : documents) {
+                if ((sinceDate == null) || doc.modified.after(sinceDate)) {
+                    found.add(doc);
+                }
+            }
+
+            return wrap(new SimDocumentCollection(found, new Date()),
+                DocumentCollection.class);
+        }
+
+        public View getView(String name) {
+            SimView view = views.get(name);
+
+            return (view == null) ? null : wrap(view, View.class);
+        }
+
+        public View createView(String name, String selectionFormula) {
+            SimView view = new SimView(name, selectionFormula);
+            views.put(name, view);
+
+            return wrap(view, View.class);
+        }
+
+        protected String getEnvironmentString(String name) {
+            String value = environment.get(name);
+
+            return (value == null) ? "" : value;
+        }
+    }
+
+    protected class SimDocumentCollection extends SimObject {
+        protected final List<SimDocument> docs;
+        protected final Date untilTime;
+        protected int position = -1;
+
+        public SimDocumentCollection(List<SimDocument> docs, Date untilTime) {
+            this.docs = docs;
+            this.untilTime = untilTime;
+        }
+
+        public int getCount() {
+            return docs.size();
+        }
+
+        public Document getFirstDocument() {
+            position = 0;
+
+            return getDocument();
+        }
+
+        public Document getNextDocument() {
+            position++;
+
+            return getDocument();
+        }
+
+        public Document getNextDocument(Document doc) {
+            SimObject target = unwrap(doc);
+
+            if ((position < 0) || (position >= docs.size()) ||
+                    (docs.get(position) != target)) {
+                position = docs.indexOf(target);
+            }
+
+            position++;
+
+            return getDocument();
+        }
+
+        public DateTime getUntilTime() {
+            return wrapDate(untilTime);
+        }
+
+        protected Document getDocument() {
+            if ((position < 0) || (position >= docs.size())) {
+                return null;
+            }
+
+            return wrap(docs.get(position), Document.class);
+        }
+    }
+
+    protected class SimDocument extends SimObject {
+        protected String unid;
+        protected Date modified;
+        protected boolean isDeleted = false;
+
+        // Items keyed by lower case name, because Lotus item names ignore case
+        protected final LinkedHashMap<String, SimItem> items = new LinkedHashMap<String, SimItem>();
+
+        public SimDocument(String unid, Date modified) {
+            this.unid = unid;
+            this.modified = modified;
+        }
+
+        public String getUniversalID() {
+            return unid;
+        }
+
+        public DateTime getLastModified() {
+            return wrapDate(modified);
+        }
+
+        public Item getFirstItem(String name) {
+            countItemRead(name);
+
+            SimItem item = getItem(name);
+
+            return (item == null) ? null : wrap(item, Item.class);
+        }
+
+        public boolean hasItem(String name) {
+            return getItem(name) != null;
+        }
+
+        public Vector getItems() {
+            Vector<Object> result = new Vector<Object>();
+
+            for (SimItem item : items.values()) {
+                result.add(wrap(item, Item.class));
+            }
+
+            return result;
+        }
+
+        public boolean isDeleted() {
+            return isDeleted;
+        }
+
+        public boolean isSigned() {
+            return false;
+        }
+
+        public boolean isValid() {
+            return !isDeleted;
+        }
+
+        protected SimItem getItem(String name) {
+            return items.get(name.toLowerCase());
+        }
+
+        protected void putItem(SimItem item) {
+            items.put(item.name.toLowerCase(), item);
+        }
+
+        /**
+         * Mark the document as modified now. The time is a millisecond in the
+         * future, so it is after the until time of a collection just made.
+         */
+        protected void touch() {
+            modified = new Date(System.currentTimeMillis() + 1);
+        }
+
+        protected List<Object> getValues(String name) {
+            SimItem item = getItem(name);
+
+            return (item == null) ? Collections.emptyList() : item.values;
+        }
+
+        @Override
+        public String toString() {
+            return unid;
+        }
+    }
+
+    protected class SimItem extends SimObject {
+        protected final String name;
+        protected final List<Object> values;
+        protected final boolean isDate;
+
+        public SimItem(String name, List<Object> values, boolean isDate) {
+            this.name = name;
+            this.values = values;
+            this.isDate = isDate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getType() {
+            return isDate ? Item.DATETIMES : Item.TEXT;
+        }
+
+        public String getText() {
+            DateFormat dateFormat = new SimpleDateFormat(SERVER_DATE_TIME_FORMAT);
+            StringBuilder sb = new StringBuilder();
+
+            for (Object value : values) {
+                if (sb.length() > 0) {
+                    sb.append(';');
+                }
+
+                sb.append((value instanceof Date) ? dateFormat.format(value) : value);
+            }
+
+            return sb.toString();
+        }
+
+        public String getText(int maxlen) {
+            String text = getText();
+
+            return (text.length() > maxlen) ? text.substring(0, maxlen) : text;
+        }
+
+        public Vector getValues() {
+            Vector<Object> result = new Vector<Object>();
+
+            for (Object value : values) {
+                result.add((value instanceof Date) ? wrapDate((Date) value) : value);
+            }
+
+            return result;
+        }
+
+        public DateTime getDateTimeValue() {
+            if (!isDate || values.isEmpty()) {
+                return null;
+            }
+
+            return wrapDate((Date) values.get(0));
+        }
+
+        @Override
+        protected boolean isRemoteCall(String methodName) {
+            // The items arrive with the document
+            return false;
+        }
+    }
+
+    protected class SimDateTime extends SimObject {
+        protected final Date date;
+
+        public SimDateTime(Date date) {
+            this.date = date;
+        }
+
+        public Date toJavaDate() {
+            return date;
+        }
+
+        public String getLocalTime() {
+            return new SimpleDateFormat(SERVER_DATE_TIME_FORMAT).format(date);
+        }
+
+        @Override
+        protected boolean isRemoteCall(String methodName) {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return getLocalTime();
+        }
+    }
+
+    protected class SimViewColumn extends SimObject {
+        protected final String title;
+        protected final String formula;
+        protected boolean isSorted = false;
+        protected boolean isSortDescending = false;
+
+        public SimViewColumn(String title, String formula) {
+            this.title = title;
+            this.formula = formula;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getFormula() {
+            return formula;
+        }
+
+        public void setSorted(boolean value) {
+            isSorted = value;
+        }
+
+        public void setSortDescending(boolean value) {
+            isSortDescending = value;
+        }
+    }
+
+    protected class SimView extends SimObject {
+        protected final String name;
+        protected final String selectionFormula;
+        protected final ArrayList<SimViewColumn> columns = new ArrayList<SimViewColumn>();
+
+        public SimView(String name, String selectionFormula) {
+            this.name = name;
+            this.selectionFormula = selectionFormula;
+
+            // Like Domino, a new view has one column
+            columns.add(new SimViewColumn("#", "@DocNumber"));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSelectionFormula() {
+            return selectionFormula;
+        }
+
+        public int getColumnCount() {
+            return columns.size();
+        }
+
+        public Vector getColumns() {
+            Vector<Object> result = new Vector<Object>();
+
+            for (SimViewColumn column : columns) {
+                result.add(wrap(column, ViewColumn.class));
+            }
+
+            return result;
+        }
+
+        public ViewColumn createColumn(int position, String title,
+            String formula) {
+            SimViewColumn column = new SimViewColumn(title, formula);
+            columns.add(Math.max(0, Math.min(position - 1, columns.size())),
+                column);
+
+            return wrap(column, ViewColumn.class);
+        }
+
+        public void removeColumn() {
+            columns.remove(columns.size() - 1);
+        }
+
+        public void remove() {
+            database.views.remove(name);
+        }
+
+        public void setAutoUpdate(boolean value) {
+            // The view is always current
+        }
+
+        public ViewNavigator createViewNav() throws NotesException {
+            ArrayList<SimViewEntry> entries = new ArrayList<SimViewEntry>();
+            int sortColumn = -1;
+
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).isSorted && (sortColumn < 0)) {
+                    sortColumn = i;
+                }
+            }
+
+            for (SimDocument doc : documents) {
+                if (!evaluate(selectionFormula, doc).get(0).equals(1.0)) {
+                    continue;
+                }
+
+                ArrayList<Object> columnValues = new ArrayList<Object>();
+
+                for (SimViewColumn column : columns) {
+                    if (column.formula.equals("@DocNumber")) {
+                        columnValues.add(Integer.toString(entries.size() + 1));
+                    } else {
+                        List<Object> values = evaluate(column.formula, doc);
+                        columnValues.add(values.isEmpty() ? ""
+                                                          : ((values.size() == 1)
+                            ? values.get(0) : new ArrayList<Object>(values)));
+                    }
+                }
+
+                entries.add(new SimViewEntry(doc, columnValues));
+            }
+
+            if (sortColumn >= 0) {
+                final int index = sortColumn;
+                final boolean isDescending = columns.get(index).isSortDescending;
+
+                Collections.sort(entries,
+                    new Comparator<SimViewEntry>() {
+                        @Override
+                        public int compare(SimViewEntry a, SimViewEntry b) {
+                            int result = compareValues(a.columnValues.get(index),
+                                    b.columnValues.get(index));
+
+                            return isDescending ? -result : result;
+                        }
+                    });
+            }
+
+            return wrap(new SimViewNavigator(entries), ViewNavigator.class);
+        }
+
+        protected int compareValues(Object a, Object b) {
+            if ((a instanceof Date) && (b instanceof Date)) {
+                return ((Date) a).compareTo((Date) b);
+            }
+
+            return a.toString().compareTo(b.toString());
+        }
+    }
+
+    protected class SimViewNavigator extends SimObject {
+        protected final List<SimViewEntry> entries;
+        protected int position = -1;
+        protected int bufferMaxEntries = 1;
+
+        public SimViewNavigator(List<SimViewEntry> entries) {
+            this.entries = entries;
+        }
+
+        public void setBufferMaxEntries(int value) {
+            bufferMaxEntries = Math.max(1, value);
+        }
+
+        public void setCacheGuidance(int maxEntries) {
+            setBufferMaxEntries(maxEntries);
+        }
+
+        public void setCacheGuidance(int maxEntries, int readMode) {
+            setBufferMaxEntries(maxEntries);
+        }
+
+        public int getCount() {
+            return entries.size();
+        }
+
+        public ViewEntry getFirst() {
+            position = 0;
+
+            return getEntry();
+        }
+
+        public ViewEntry getNext() {
+            position++;
+
+            return getEntry();
+        }
+
+        public ViewEntry getNext(ViewEntry entry) {
+            SimObject target = unwrap(entry);
+
+            if ((position < 0) || (position >= entries.size()) ||
+                    (entries.get(position) != target)) {
+                position = entries.indexOf(target);
+            }
+
+            position++;
+
+            return getEntry();
+        }
+
+        protected ViewEntry getEntry() {
+            if ((position < 0) || (position >= entries.size())) {
+                return null;
+            }
+
+            return wrap(entries.get(position), ViewEntry.class);
+        }
+
+        @Override
+        protected boolean isRemoteCall(String methodName) {
+            // Entries are read from the server one buffer at a time
+            if (methodName.equals("getFirst")) {
+                return true;
+            } else if (methodName.equals("getNext")) {
+                return ((position + 1) % bufferMaxEntries) == 0;
+            }
+
+            return super.isRemoteCall(methodName) &&
+            !methodName.startsWith("set");
+        }
+    }
+
+    protected class SimViewEntry extends SimObject {
+        protected final SimDocument doc;
+        protected final List<Object> columnValues;
+
+        public SimViewEntry(SimDocument doc, List<Object> columnValues) {
+            this.doc = doc;
+            this.columnValues = columnValues;
+        }
+
+        public boolean isDocument() {
+            return true;
+        }
+
+        public String getUniversalID() {
+            return doc.unid;
+        }
+
+        public Vector getColumnValues() {
+            Vector<Object> result = new Vector<Object>();
+
+            for (Object value : columnValues) {
+                if (value instanceof List) {
+                    Vector<Object> values = new Vector<Object>();
+
+                    for (Object element : (List) value) {
+                        values.add((element instanceof Date)
+                            ? wrapDate((Date) element) : element);
+                    }
+
+                    result.add(values);
+                } else {
+                    result.add((value instanceof Date) ? wrapDate((Date) value)
+                                                       : value);
+                }
+            }
+
+            return result;
+        }
+
+        public Document getDocument() {
+            return wrap(doc, Document.class);
+        }
+
+        @Override
+        protected boolean isRemoteCall(String methodName) {
+            // The column values arrive in the navigator buffer
+            return methodName.equals("getDocument");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that parallel extraction, which searches the date range in parts,
+ * neither loses nor duplicates the documents on the part boundaries or the
+ * repeating documents found by several parts.
+ */
+public class LotusParallelExtractionTest {
+    protected static final long MINUTE_MSECS = 60L * 1000;
+    protected static final long HOUR_MSECS = 60 * MINUTE_MSECS;
+    protected static final long DAY_MSECS = 24 * HOUR_MSECS;
+    protected static final int THREAD_COUNT = 4;
+
+    // 40 days in 4 parts, so the parts start at midnight of days 10, 20 and 30
+    protected static final int RANGE_DAYS = 40;
+    protected ArrayList<LotusNotesCalendarEntry> documents = new ArrayList<LotusNotesCalendarEntry>();
+    protected SimulatedMailFile mailFile;
+    protected Date startDate;
+    protected Date endDate;
+
+    @Before
+    public void setUp() throws Exception {
+        GregorianCalendar firstDay = new GregorianCalendar();
+        firstDay.set(Calendar.HOUR_OF_DAY, 0);
+        firstDay.set(Calendar.MINUTE, 0);
+        firstDay.set(Calendar.SECOND, 0);
+        firstDay.set(Calendar.MILLISECOND, 0);
+        startDate = firstDay.getTime();
+        endDate = new Date(startDate.getTime() + (RANGE_DAYS * DAY_MSECS));
+
+        for (int part = 1; part < THREAD_COUNT; part++) {
+            long boundary = startDate.getTime() +
+                ((endDate.getTime() - startDate.getTime()) * part / THREAD_COUNT);
+
+            addDocument("Just before part " + part, boundary - MINUTE_MSECS);
+            addDocument("At part " + part, boundary);
+            addDocument("Just after part " + part, boundary + MINUTE_MSECS);
+            addDocument("Evening before part " + part,
+                boundary - (2 * HOUR_MSECS));
+            addDocument("Noon after part " + part, boundary + (12 * HOUR_MSECS));
+        }
+
+        // Repeating documents that every part finds
+        addSeries("Daily standup", startDate.getTime() + (9 * HOUR_MSECS),
+            DAY_MSECS, RANGE_DAYS);
+        addSeries("Weekly review, started before the range",
+            startDate.getTime() - (14 * DAY_MSECS) + (15 * HOUR_MSECS),
+            7 * DAY_MSECS, 10);
+
+        // A repeating document found by the first and last parts only
+        List<Date> startDates = new ArrayList<Date>();
+        startDates.add(new Date(startDate.getTime() + (2 * DAY_MSECS) +
+                (10 * HOUR_MSECS)));
+        startDates.add(new Date(startDate.getTime() + (35 * DAY_MSECS) +
+                (10 * HOUR_MSECS)));
+        addDocument("First and last part", startDates);
+
+        mailFile = new SimulatedMailFile(startDate, endDate, documents);
+    }
+
+    @After
+    public void tearDown() {
+        mailFile.delete();
+    }
+
+    @Test
+    public void testPartBoundariesAndRepeatingDocuments()
+        throws Exception {
+        Set<String> expectedKeys = SimulatedMailFile.getKeys(mailFile.getEntries());
+        assertEquals(mailFile.getEntries().size(), expectedKeys.size());
+
+        LotusNotesManager manager = mailFile.createManager();
+        ArrayList<LotusNotesCalendarEntry> serialEntries = manager.getCalendarEntries();
+        assertEquals(expectedKeys, SimulatedMailFile.getKeys(serialEntries));
+        assertEquals(expectedKeys.size(), serialEntries.size());
+
+        manager = mailFile.createManager();
+        manager.setExtractionThreads(THREAD_COUNT);
+
+        ArrayList<LotusNotesCalendarEntry> parallelEntries = manager.getCalendarEntries();
+        assertEquals(expectedKeys, SimulatedMailFile.getKeys(parallelEntries));
+        assertEquals("Entries read more than once", expectedKeys.size(),
+            parallelEntries.size());
+
+        // Each part did its own search
+        assertEquals(THREAD_COUNT + 1,
+            mailFile.getSimulator().getCallCount("Database.search"));
+    }
+
+    protected void addDocument(String subject, long startTime) {
+        addDocument(subject,
+            Collections.singletonList(new Date(startTime)));
+    }
+
+    protected void addSeries(String subject, long firstStartTime,
+        long intervalMsecs, int count) {
+        List<Date> startDates = new ArrayList<Date>();
+
+        for (int i = 0; i < count; i++) {
+            startDates.add(new Date(firstStartTime + (i * intervalMsecs)));
+        }
+
+        addDocument(subject, startDates);
+    }
+
+    protected void addDocument(String subject, List<Date> startDates) {
+        List<Date> endDates = new ArrayList<Date>();
+
+        for (Date start : startDates) {
+            endDates.add(new Date(start.getTime() + (30 * MINUTE_MSECS)));
+        }
+
+        LotusNotesCalendarEntry cal = new LotusNotesCalendarEntry();
+        cal.setUID(String.format("%032X", documents.size() + 1));
+        cal.setModifiedDateTime(new Date(startDate.getTime() - (30 * DAY_MSECS)));
+        cal.setSubject(subject);
+        cal.setAppointmentType("0");
+        cal.setStartDateTime(startDates.get(0));
+        cal.setEndDateTime(endDates.get(0));
+
+        if (startDates.size() > 1) {
+            cal.setSeriesDates(startDates, endDates);
+        }
+
+        documents.add(cal);
+    }
+}
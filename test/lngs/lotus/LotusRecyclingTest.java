@@ -0,0 +1,73 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lngs.util.RecordingStatusMessageCallback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the Lotus objects read from a large mail file are recycled as
+ * the extraction goes, so the native handles held at once don't grow with
+ * the number of documents.
+ */
+public class LotusRecyclingTest {
+    // The most handles one synthetic document needs: its items, plus a
+    // date/time for each start, end and calendar date of a weekly series
+    protected static final int MAX_HANDLES_PER_DOCUMENT = 20 + (3 * 52);
+
+    // The session, database, collection and the like
+    protected static final int FIXED_HANDLES = 20;
+    protected static final Pattern MOST_WAITING_PATTERN = Pattern.compile(
+            "Most waiting at once: (\\d+)");
+
+    @Test
+    public void testLiveObjectsStayBounded() throws Exception {
+        SimulatedMailFile mailFile = new SimulatedMailFile(95000, 1);
+
+        try {
+            assertTrue("Documents: " + mailFile.getDocumentCount(),
+                mailFile.getDocumentCount() >= 50000);
+
+            RecordingStatusMessageCallback status = new RecordingStatusMessageCallback();
+            mailFile.setStatusMessageCallback(status);
+
+            LotusNotesSimulator simulator = mailFile.getSimulator();
+            simulator.resetMaxLiveHandleCount();
+
+            ArrayList<LotusNotesCalendarEntry> calendarEntries = mailFile.createManager()
+                                                                         .getCalendarEntries();
+            assertEquals(mailFile.getEntries().size(), calendarEntries.size());
+
+            long bound = ((LotusNotesRecycler.BATCH_DOCUMENTS + 1) * MAX_HANDLES_PER_DOCUMENT) +
+                FIXED_HANDLES;
+            assertTrue("Most live handles: " +
+                simulator.getMaxLiveHandleCount() + ", bound: " + bound,
+                simulator.getMaxLiveHandleCount() <= bound);
+
+            // The recycler's own count agrees
+            int mostWaiting = -1;
+
+            for (String line : status.getLines()) {
+                Matcher matcher = MOST_WAITING_PATTERN.matcher(line);
+
+                if (matcher.find()) {
+                    mostWaiting = Integer.parseInt(matcher.group(1));
+                }
+            }
+
+            assertTrue("Most waiting: " + mostWaiting, mostWaiting > 0);
+            assertTrue("Most waiting: " + mostWaiting + ", most live handles: " +
+                simulator.getMaxLiveHandleCount(),
+                mostWaiting <= simulator.getMaxLiveHandleCount());
+        } finally {
+            mailFile.delete();
+        }
+    }
+}
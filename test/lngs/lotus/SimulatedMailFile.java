@@ -0,0 +1,185 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.lotus;
+
+import lngs.util.RecordingStatusMessageCallback;
+import lngs.util.StatusMessageCallback;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Lotus mail file in the Notes simulator, filled with the entries of a
+ * SyntheticCalendarSource. Used by the tests and benchmarks that run
+ * LotusNotesManager without a Notes client.
+ */
+public class SimulatedMailFile {
+    public static final String MAIL_FILE = "mail/test.nsf";
+    protected Date startDate;
+    protected Date endDate;
+    protected ArrayList<LotusNotesCalendarEntry> entries;
+    protected LotusNotesSimulator simulator;
+    protected File snapshotFile;
+    protected StatusMessageCallback statusMessageCallback = new RecordingStatusMessageCallback();
+
+    /**
+     * @param entryCount - The number of entries (instances) to make.
+     * @param seed - The seed of the synthetic entries.
+     */
+    public SimulatedMailFile(int entryCount, long seed)
+        throws Exception {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DATE, -7);
+        startDate = calendar.getTime();
+        calendar.add(Calendar.DATE, 67);
+        endDate = calendar.getTime();
+
+        SyntheticCalendarSource source = new SyntheticCalendarSource(entryCount,
+                seed);
+        source.setStatusMessageCallback(statusMessageCallback);
+        source.setMinStartDate(startDate);
+        source.setMaxEndDate(endDate);
+        entries = source.getCalendarEntries();
+
+        // The source stops at entryCount, which can cut the last repeating
+        // series short. The data file would hold the whole series, so leave
+        // the last document out.
+        String lastUID = entries.get(entries.size() - 1).getUID();
+
+        for (int i = entries.size() - 1;
+                (i >= 0) && entries.get(i).getUID().equals(lastUID); i--) {
+            entries.remove(i);
+        }
+
+        loadSimulator();
+    }
+
+    /**
+     * Make a mail file from hand-made documents. A repeating document has its
+     * series dates set.
+     * @param startDate - The start of the sync date range.
+     * @param endDate - The end of the sync date range.
+     * @param documents - One entry per document.
+     */
+    public SimulatedMailFile(Date startDate, Date endDate,
+        List<LotusNotesCalendarEntry> documents) throws Exception {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        entries = new ArrayList<LotusNotesCalendarEntry>();
+
+        // The instances in the date range, the way LotusNotesManager expands them
+        for (LotusNotesCalendarEntry document : documents) {
+            List<Date> startDates = document.getSeriesStartDates();
+            List<Date> endDates = document.getSeriesEndDates();
+
+            if (startDates == null) {
+                startDates = Collections.singletonList(document.getStartDateTime());
+                endDates = Collections.singletonList(document.getEndDateTime());
+            }
+
+            for (int i = 0; i < startDates.size(); i++) {
+                if (startDates.get(i).after(startDate) &&
+                        startDates.get(i).before(endDate)) {
+                    LotusNotesCalendarEntry cal = document.clone();
+                    cal.setStartDateTime(startDates.get(i));
+                    cal.setEndDateTime(endDates.get(i));
+                    entries.add(cal);
+                }
+            }
+        }
+
+        loadSimulator();
+    }
+
+    protected void loadSimulator() throws Exception {
+        File dataFile = File.createTempFile("lngs-sim", ".txt");
+
+        try {
+            LotusNotesSimulator.writeDataFile(dataFile, MAIL_FILE, entries);
+            simulator = LotusNotesSimulator.load(dataFile);
+        } finally {
+            dataFile.delete();
+        }
+
+        snapshotFile = File.createTempFile("lngs-snapshot", ".ser");
+        snapshotFile.delete();
+    }
+
+    /**
+     * Returns a LotusNotesManager that reads this mail file. Managers made by
+     * the same mail file share the incremental extraction snapshot.
+     */
+    public LotusNotesManager createManager() {
+        LotusNotesManager manager = new LotusNotesManager();
+        manager.setRuntime(simulator);
+        manager.setStatusMessageCallback(statusMessageCallback);
+        manager.setMinStartDate(startDate);
+        manager.setMaxEndDate(endDate);
+        manager.setServer("");
+        manager.setMailFile(MAIL_FILE);
+        manager.setServerDateFormat("detect");
+        manager.setPassword("");
+        manager.snapshotFullFilename = snapshotFile.getPath();
+
+        return manager;
+    }
+
+    public void setStatusMessageCallback(StatusMessageCallback value) {
+        statusMessageCallback = value;
+    }
+
+    /**
+     * Returns the synthetic entries, as LotusNotesManager should read them.
+     */
+    public ArrayList<LotusNotesCalendarEntry> getEntries() {
+        return entries;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public LotusNotesSimulator getSimulator() {
+        return simulator;
+    }
+
+    public int getDocumentCount() {
+        return simulator.getDocumentCount();
+    }
+
+    public void delete() {
+        snapshotFile.delete();
+    }
+
+    /**
+     * Returns a key for each entry made of the fields that tell entries apart
+     * and show they were read correctly. The SyncUID isn't used, because it
+     * holds the last-modified time, which changes when a document is edited.
+     */
+    public static Set<String> getKeys(List<LotusNotesCalendarEntry> calendarEntries) {
+        HashSet<String> keys = new HashSet<String>();
+
+        for (LotusNotesCalendarEntry cal : calendarEntries) {
+            keys.add(getKey(cal));
+        }
+
+        return keys;
+    }
+
+    public static String getKey(LotusNotesCalendarEntry cal) {
+        return cal.getUID() + "|" + cal.getStartDateTime().getTime() + "|" +
+        cal.getSubject() + "|" + cal.getLocation() + "|" +
+        cal.getEndDateTime().getTime();
+    }
+}
@@ -0,0 +1,331 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+
+package lngs.lotus;
+
+import lngs.util.StatusMessageCallback;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makes up calendar entries instead of reading them from Lotus Notes, so the
+ * rest of the sync can be run and timed without a Notes client. The entries
+ * are a mix of meetings, appointments, all-day events, tasks, reminders and
+ * weekly repeating series. The same seed, count and date range always give the
+ * same entries, so a repeated sync with the same range finds nothing changed.
+ * Only the tests and benchmarks use it; they never write to a real calendar.
+ */
+public class SyntheticCalendarSource implements CalendarSource {
+    protected static final long DAY_MSECS = 24L * 60 * 60 * 1000;
+    protected static final String[] SUBJECT_TOPICS = {
+            "Budget", "Roadmap", "Hiring", "Release", "Customer", "Design",
+            "Security", "Training", "Vendor", "Quarterly", "Project", "Team"
+        };
+    protected static final String[] SUBJECT_KINDS = {
+            "review", "sync", "planning", "call", "workshop", "status",
+            "retrospective", "kickoff", "update", "interview"
+        };
+    protected static final String[] LOCATIONS = {
+            "Building 1", "Building 2", "Head Office", "Phone", "Customer site"
+        };
+    protected static final String[] ROOMS = {
+            "Room 101", "Room 204", "Board Room", "Lab", "Cafe"
+        };
+    protected static final String[] FIRST_NAMES = {
+            "Alex", "Chris", "Dana", "Jordan", "Kim", "Lee", "Morgan", "Pat",
+            "Robin", "Sam", "Taylor", "Terry"
+        };
+    protected static final String[] LAST_NAMES = {
+            "Adams", "Brown", "Garcia", "Jones", "Kumar", "Lopez", "Miller",
+            "Nguyen", "Smith", "Wong"
+        };
+
+    // Text values are taken from small pools, so a million entries don't
+    // hold a million copies of the same kind of text
+    protected static final int POOL_SIZE = 64;
+    protected final int entryCount;
+    protected final long seed;
+    protected StatusMessageCallback statusMessageCallback = null;
+    protected Date startDate = null;
+    protected Date endDate = null;
+    protected String[] subjects;
+    protected String[] bodies;
+    protected String[] people;
+    protected String[] attendeeLists;
+
+    /**
+     * @param entryCount - The number of entries (instances) to make.
+     * @param seed - Entries made with the same seed are the same.
+     */
+    public SyntheticCalendarSource(int entryCount, long seed) {
+        this.entryCount = entryCount;
+        this.seed = seed;
+    }
+
+    @Override
+    public void setStatusMessageCallback(StatusMessageCallback value) {
+        statusMessageCallback = value;
+    }
+
+    @Override
+    public void setMinStartDate(Date minStartDate) {
+        startDate = minStartDate;
+    }
+
+    @Override
+    public void setMaxEndDate(Date maxEndDate) {
+        endDate = maxEndDate;
+    }
+
+    @Override
+    public String getNotesVersion() {
+        return "synthetic (seed " + seed + ")";
+    }
+
+    @Override
+    public ArrayList<LotusNotesCalendarEntry> getCalendarEntries() {
+        statusMessageCallback.statusAppendStart(
+            "Making synthetic calendar entries");
+
+        Random random = new Random(seed);
+        createPools(random);
+
+        ArrayList<LotusNotesCalendarEntry> calendarEntries = new ArrayList<LotusNotesCalendarEntry>(entryCount);
+
+        // Days are counted from midnight of the first day in the range
+        GregorianCalendar firstDay = new GregorianCalendar();
+        firstDay.setTime(startDate);
+        firstDay.set(Calendar.HOUR_OF_DAY, 0);
+        firstDay.set(Calendar.MINUTE, 0);
+        firstDay.set(Calendar.SECOND, 0);
+        firstDay.set(Calendar.MILLISECOND, 0);
+
+        int dayCount = Math.max(1,
+                (int) ((endDate.getTime() - firstDay.getTimeInMillis()) / DAY_MSECS));
+
+        // The modified time is fixed, so the SyncUIDs don't change between syncs
+        Date modified = new Date(firstDay.getTimeInMillis() - (30 * DAY_MSECS));
+        int documentCount = 0;
+
+        // Stop early if the date range is too short to hold the entries
+        while ((calendarEntries.size() < entryCount) &&
+                (documentCount < ((entryCount * 4L) + 1000))) {
+            LotusNotesCalendarEntry cal = createEntry(random, documentCount,
+                    modified);
+            int day = random.nextInt(dayCount);
+            int kind = random.nextInt(100);
+
+            if (kind < 45) {
+                cal.setAppointmentType("3");
+                addAttendees(random, cal);
+                addTimedInstance(random, cal, firstDay, day, calendarEntries);
+            } else if (kind < 60) {
+                cal.setAppointmentType("0");
+                addTimedInstance(random, cal, firstDay, day, calendarEntries);
+            } else if (kind < 70) {
+                cal.setAppointmentType("2");
+                cal.setStartDateTime(getDay(firstDay, day));
+                cal.setEndDateTime(getDay(firstDay, day + random.nextInt(3)));
+                addInRangeEntry(cal, calendarEntries);
+            } else if (kind < 80) {
+                cal.setEntryType(LotusNotesCalendarEntry.EntryType.TASK);
+                cal.setStartDateTime(getDay(firstDay, day));
+                cal.setEndDateTime(cal.getStartDateTime());
+                addInRangeEntry(cal, calendarEntries);
+            } else if (kind < 88) {
+                cal.setAppointmentType("4");
+
+                Date start = getTime(firstDay, day, 8 + random.nextInt(10),
+                        random.nextInt(4) * 15);
+                cal.setStartDateTime(start);
+                cal.setEndDateTime(start);
+                addInRangeEntry(cal, calendarEntries);
+            } else {
+                addWeeklySeries(random, cal, firstDay, day, calendarEntries);
+            }
+
+            documentCount++;
+        }
+
+        // A series may add more instances than needed
+        while (calendarEntries.size() > entryCount) {
+            calendarEntries.remove(calendarEntries.size() - 1);
+        }
+
+        statusMessageCallback.statusAppendLineDiag("Synthetic documents: " +
+            documentCount + ". Entries: " + calendarEntries.size());
+        statusMessageCallback.statusAppendFinished();
+
+        return calendarEntries;
+    }
+
+    /**
+     * Make the values shared by all the instances of a document.
+     */
+    protected LotusNotesCalendarEntry createEntry(Random random,
+        int documentNumber, Date modified) {
+        LotusNotesCalendarEntry cal = new LotusNotesCalendarEntry();
+
+        // Lotus UIDs are 32 hex digits
+        cal.setUID(String.format("%016X%016X", seed, documentNumber));
+        cal.setModifiedDateTime(modified);
+        cal.setSubject(subjects[random.nextInt(POOL_SIZE)]);
+
+        if (random.nextInt(3) > 0) {
+            cal.setBody(bodies[random.nextInt(POOL_SIZE)]);
+        }
+
+        if (random.nextInt(10) < 3) {
+            cal.setAlarm(true);
+            cal.setAlarmOffsetMins(-5 * (1 + random.nextInt(6)));
+        }
+
+        if (random.nextInt(20) == 0) {
+            cal.setPrivate(true);
+        }
+
+        return cal;
+    }
+
+    protected void addAttendees(Random random, LotusNotesCalendarEntry cal) {
+        cal.setChairperson(people[random.nextInt(POOL_SIZE)]);
+        cal.setRequiredAttendees(attendeeLists[random.nextInt(POOL_SIZE)]);
+
+        if (random.nextBoolean()) {
+            cal.setOptionalAttendees(attendeeLists[random.nextInt(POOL_SIZE)]);
+        }
+
+        cal.setLocation(LOCATIONS[random.nextInt(LOCATIONS.length)]);
+
+        if (random.nextBoolean()) {
+            cal.setRoom(ROOMS[random.nextInt(ROOMS.length)]);
+        }
+
+        if (random.nextInt(4) == 0) {
+            cal.setSTUnyteConferenceURL("https://meet.example.com/" +
+                Long.toHexString(random.nextLong()));
+        }
+    }
+
+    protected void addTimedInstance(Random random, LotusNotesCalendarEntry cal,
+        GregorianCalendar firstDay, int day,
+        ArrayList<LotusNotesCalendarEntry> calendarEntries) {
+        Date start = getTime(firstDay, day, 8 + random.nextInt(10),
+                random.nextInt(4) * 15);
+        cal.setStartDateTime(start);
+        cal.setEndDateTime(new Date(start.getTime() +
+                ((1 + random.nextInt(8)) * 15L * 60 * 1000)));
+        addInRangeEntry(cal, calendarEntries);
+    }
+
+    /**
+     * Add the in-range instances of a weekly series, the way LotusNotesManager
+     * expands a repeating Lotus document. The series may start before the range.
+     */
+    protected void addWeeklySeries(Random random, LotusNotesCalendarEntry cal,
+        GregorianCalendar firstDay, int day,
+        ArrayList<LotusNotesCalendarEntry> calendarEntries) {
+        if (random.nextBoolean()) {
+            cal.setAppointmentType("3");
+            addAttendees(random, cal);
+        } else {
+            cal.setAppointmentType("0");
+        }
+
+        int firstWeekDay = day - (7 * random.nextInt(8));
+        int instanceCount = 4 + random.nextInt(49);
+        int hour = 8 + random.nextInt(10);
+        int minute = random.nextInt(4) * 15;
+        long durationMsecs = (1 + random.nextInt(4)) * 15L * 60 * 1000;
+        List<Date> startDates = new ArrayList<Date>(instanceCount);
+        List<Date> endDates = new ArrayList<Date>(instanceCount);
+
+        for (int i = 0; i < instanceCount; i++) {
+            Date start = getTime(firstDay, firstWeekDay + (7 * i), hour, minute);
+            startDates.add(start);
+            endDates.add(new Date(start.getTime() + durationMsecs));
+        }
+
+        cal.setSeriesDates(startDates, endDates);
+
+        for (int i = 0; i < instanceCount; i++) {
+            LotusNotesCalendarEntry instance = cal.clone();
+            instance.setStartDateTime(startDates.get(i));
+            instance.setEndDateTime(endDates.get(i));
+            addInRangeEntry(instance, calendarEntries);
+        }
+    }
+
+    protected void addInRangeEntry(LotusNotesCalendarEntry cal,
+        ArrayList<LotusNotesCalendarEntry> calendarEntries) {
+        if (cal.getStartDateTime().after(startDate) &&
+                cal.getStartDateTime().before(endDate)) {
+            calendarEntries.add(cal);
+        }
+    }
+
+    protected Date getDay(GregorianCalendar firstDay, int day) {
+        return getTime(firstDay, day, 0, 0);
+    }
+
+    protected Date getTime(GregorianCalendar firstDay, int day, int hour,
+        int minute) {
+        GregorianCalendar time = (GregorianCalendar) firstDay.clone();
+        time.add(Calendar.DATE, day);
+        time.set(Calendar.HOUR_OF_DAY, hour);
+        time.set(Calendar.MINUTE, minute);
+
+        return time.getTime();
+    }
+
+    /**
+     * Make the text values. Names are in the Lotus format, e.g.
+     * "CN=Kim Jones/OU=Sales/O=Example".
+     */
+    protected void createPools(Random random) {
+        subjects = new String[POOL_SIZE];
+        bodies = new String[POOL_SIZE];
+        people = new String[POOL_SIZE];
+        attendeeLists = new String[POOL_SIZE];
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            subjects[i] = SUBJECT_TOPICS[random.nextInt(SUBJECT_TOPICS.length)] +
+                " " + SUBJECT_KINDS[random.nextInt(SUBJECT_KINDS.length)];
+            people[i] = "CN=" + FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] +
+                " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)] +
+                "/OU=Dept" + random.nextInt(10) + "/O=Example";
+        }
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            StringBuilder sb = new StringBuilder();
+            int attendeeCount = 1 + random.nextInt(12);
+
+            for (int j = 0; j < attendeeCount; j++) {
+                if (j > 0) {
+                    sb.append(";");
+                }
+
+                sb.append(people[random.nextInt(POOL_SIZE)]);
+            }
+
+            attendeeLists[i] = sb.toString();
+
+            // Bodies from one line to several thousand chars, with Lotus line endings
+            sb = new StringBuilder();
+
+            int lineCount = 1 + random.nextInt((i % 8 == 0) ? 200 : 10);
+
+            for (int j = 0; j < lineCount; j++) {
+                sb.append("Agenda item ").append(j + 1).append(": ")
+                  .append(subjects[random.nextInt(POOL_SIZE)]).append("\r\n");
+            }
+
+            bodies[i] = sb.toString();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+// This source code is released under the GPL v3 license, http://www.gnu.org/licenses/gpl.html.
+// This file is part of the LNGS project: http://sourceforge.net/projects/lngooglecalsync.
+package lngs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the status messages of a test run, so tests can check them. Messages
+ * can be called from several threads.
+ */
+public class RecordingStatusMessageCallback implements StatusMessageCallback {
+    protected final List<String> lines = new ArrayList<String>();
+
+    public synchronized void statusAppendLine(String text) {
+        lines.add(text);
+    }
+
+    public synchronized void statusAppend(String text) {
+        lines.add(text);
+    }
+
+    public synchronized void statusAppendLineDiag(String text) {
+        lines.add(text);
+    }
+
+    public synchronized void statusAppendStart(String text) {
+        lines.add(text);
+    }
+
+    public void statusAppendFinished() {
+    }
+
+    public synchronized void statusAppendException(String text, Exception ex) {
+        lines.add(text + " " + ex);
+    }
+
+    /**
+     * Returns the messages received so far.
+     */
+    public synchronized List<String> getLines() {
+        return new ArrayList<String>(lines);
+    }
+
+    /**
+     * Returns true if a message contains the text.
+     */
+    public synchronized boolean contains(String text) {
+        for (String line : lines) {
+            if (line.contains(text)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}